@@ -0,0 +1,30 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+// Reads one kind of audio file into PCM. AudioDecoders picks the decoder for a file by showing
+// each one the first bytes of the file, never by its name. Besides the built-in decoders (WAV,
+// FLAC, MP3, and Java Sound for the rest), implementations listed in
+// META-INF/services/src.main.java.musicplayer.AudioDecoder on the class path are used too,
+// and are asked first.
+public interface AudioDecoder {
+    // Short name for status output, e.g. "FLAC"
+    String getName();
+
+    // Whether `head` looks like the start of a file this decoder reads. `head` holds the first
+    // `length` bytes of the file after any ID3v2 tag, at most AudioDecoders.SNIFF_BYTES.
+    boolean accepts(byte[] head, int length);
+
+    // Format and length read from the header only, without decoding. The format is the one
+    // stored in the file; the frame length counts PCM frames, or is NOT_SPECIFIED. A "duration"
+    // property (Long, microseconds) is set when the length is only an estimate.
+    AudioFileFormat getFormat(File file) throws IOException, UnsupportedAudioFileException;
+
+    // Integer PCM from `frame` on. The stream's frame length is what is left from there, or
+    // NOT_SPECIFIED when the file does not say.
+    AudioInputStream open(File file, long frame) throws IOException, UnsupportedAudioFileException;
+}
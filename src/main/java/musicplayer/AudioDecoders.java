@@ -0,0 +1,187 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The decoders, and the one place that opens audio files for playback, analysis and the
+// library. A file goes to the first decoder that accepts its first bytes, whatever the file is
+// called: a FLAC file named .mp3 still plays.
+//
+// Every stream opened here is metered, so each decoder's speed can be told in multiples of
+// real time (seconds of audio decoded per second spent decoding, over everything it decoded).
+// Both are also metrics, "decode.<decoder>.speed" and "decode.<decoder>.seconds".
+public final class AudioDecoders {
+    static final int SNIFF_BYTES = 4096;
+    private static final int ID3_HEADER_BYTES = 10;
+
+    private static final List<AudioDecoder> decoders = load();
+    private static final Map<AudioDecoder, Meter> meters = new ConcurrentHashMap<>();
+
+    static {
+        for (AudioDecoder decoder : decoders) {
+            String name = "decode." + decoder.getName().toLowerCase(Locale.ROOT).replace(' ', '-');
+            Metrics.gauge(name + ".speed", () -> getSpeed(decoder));
+            Metrics.gauge(name + ".seconds", () -> getDecodedSeconds(decoder));
+        }
+    }
+
+    private AudioDecoders() {
+    }
+
+    private static List<AudioDecoder> load() {
+        List<AudioDecoder> list = new ArrayList<>();
+        try {
+            for (AudioDecoder decoder : ServiceLoader.load(AudioDecoder.class)) {
+                list.add(decoder);
+            }
+        } catch (ServiceConfigurationError e) {
+            System.err.println("Error loading audio decoders: " + e.getMessage());
+        }
+        list.add(new WaveDecoder());
+        list.add(new FlacDecoder());
+        list.add(new Mp3Decoder());
+        // Accepts anything, so it comes last: AIFF, AU, and whatever Java Sound plug-ins read
+        list.add(new JavaSoundDecoder());
+        return Collections.unmodifiableList(list);
+    }
+
+    public static List<AudioDecoder> getDecoders() {
+        return decoders;
+    }
+
+    // The decoder for the file, chosen by its first bytes
+    public static AudioDecoder forFile(File file) throws IOException {
+        byte[] head = new byte[SNIFF_BYTES];
+        int length;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            length = read(channel, audioStart(channel), head);
+        }
+        for (AudioDecoder decoder : decoders) {
+            if (decoder.accepts(head, length)) {
+                return decoder;
+            }
+        }
+        return decoders.get(decoders.size() - 1);
+    }
+
+    public static AudioFileFormat getFormat(File file) throws IOException, UnsupportedAudioFileException {
+        return forFile(file).getFormat(file);
+    }
+
+    // Integer PCM of the whole file
+    public static AudioInputStream open(File file) throws IOException, UnsupportedAudioFileException {
+        return open(file, 0);
+    }
+
+    // Integer PCM from `frame` on; its frame length is what is left from there when known
+    public static AudioInputStream open(File file, long frame) throws IOException, UnsupportedAudioFileException {
+        AudioDecoder decoder = forFile(file);
+        return metered(decoder, decoder.open(file, Math.max(0, frame)));
+    }
+
+    // Same, starting at the frame at or just before `micros`
+    public static AudioInputStream openAtMicros(File file, long micros) throws IOException, UnsupportedAudioFileException {
+        AudioDecoder decoder = forFile(file);
+        long frame = 0;
+        if (micros > 0) {
+            float rate = decoder.getFormat(file).getFormat().getFrameRate();
+            frame = rate > 0 ? (long) (micros / 1_000_000.0 * rate) : 0;
+        }
+        return metered(decoder, decoder.open(file, frame));
+    }
+
+    // Seconds of audio the decoder produced per second spent in it, or NaN before it decoded
+    // anything
+    public static double getSpeed(AudioDecoder decoder) {
+        Meter meter = meters.get(decoder);
+        if (meter == null || meter.decodeNanos.get() == 0) {
+            return Double.NaN;
+        }
+        return (double) meter.audioNanos.get() / meter.decodeNanos.get();
+    }
+
+    // Seconds of audio the decoder produced so far
+    public static double getDecodedSeconds(AudioDecoder decoder) {
+        Meter meter = meters.get(decoder);
+        return meter == null ? 0 : meter.audioNanos.get() / 1e9;
+    }
+
+    // Byte offset of the audio data: past any ID3v2 tags in front of it
+    static long audioStart(FileChannel channel) throws IOException {
+        byte[] header = new byte[ID3_HEADER_BYTES];
+        long position = 0;
+        while (read(channel, position, header) == header.length
+                && header[0] == 'I' && header[1] == 'D' && header[2] == '3') {
+            // Synchsafe size: 7 bits per byte, not counting the header or a footer
+            long size = (header[6] & 0x7F) << 21 | (header[7] & 0x7F) << 14 | (header[8] & 0x7F) << 7 | header[9] & 0x7F;
+            boolean footer = (header[5] & 0x10) != 0;
+            position += ID3_HEADER_BYTES + size + (footer ? ID3_HEADER_BYTES : 0);
+        }
+        return position;
+    }
+
+    // Reads from `position` until `bytes` is full or the file ends; returns the count read
+    static int read(FileChannel channel, long position, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    private static AudioInputStream metered(AudioDecoder decoder, AudioInputStream stream) {
+        Meter meter = meters.computeIfAbsent(decoder, d -> new Meter());
+        AudioFormat format = stream.getFormat();
+        double nanosPerByte = 1e9 / (format.getFrameRate() * Math.max(1, format.getFrameSize()));
+        return new AudioInputStream(new MeteredStream(stream, meter, nanosPerByte), format, stream.getFrameLength());
+    }
+
+    private static final class Meter {
+        final AtomicLong audioNanos = new AtomicLong();
+        final AtomicLong decodeNanos = new AtomicLong();
+    }
+
+    // Times every read; all the decoding happens inside them
+    private static final class MeteredStream extends FilterInputStream {
+        private final Meter meter;
+        private final double nanosPerByte;
+
+        MeteredStream(InputStream in, Meter meter, double nanosPerByte) {
+            super(in);
+            this.meter = meter;
+            this.nanosPerByte = nanosPerByte;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int read = in.read(b, off, len);
+            meter.decodeNanos.addAndGet(System.nanoTime() - start);
+            if (read > 0) {
+                meter.audioNanos.addAndGet((long) (read * nanosPerByte));
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package src.main.java.musicplayer;
+
+// Fixed-size byte ring between the decoder thread (producer) and the audio thread (consumer).
+// clear() starts a new generation so that a producer which was mid-write during a seek
+// cannot push stale audio into the buffer afterwards.
+public class AudioRingBuffer {
+    private final byte[] data;
+    private int readPos;
+    private int count;
+    private boolean endOfStream;
+    private boolean closed;
+    private long generation;
+
+    public AudioRingBuffer(int capacity) {
+        data = new byte[capacity];
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    // Blocks until all of len bytes are written. Returns false if the buffer was cleared
+    // (generation changed) or closed before the write completed.
+    public synchronized boolean write(byte[] src, int off, int len, long expectedGeneration) throws InterruptedException {
+        while (len > 0) {
+            while (count == data.length && !closed && generation == expectedGeneration) {
+                wait();
+            }
+            if (closed || generation != expectedGeneration) {
+                return false;
+            }
+            int writePos = (readPos + count) % data.length;
+            int chunk = Math.min(len, Math.min(data.length - count, data.length - writePos));
+            System.arraycopy(src, off, data, writePos, chunk);
+            count += chunk;
+            off += chunk;
+            len -= chunk;
+            notifyAll();
+        }
+        return true;
+    }
+
+    // Blocks until some data is available. Returns -1 once the stream has ended and
+    // everything has been read, or when the buffer is closed.
+    public synchronized int read(byte[] dst, int off, int len) throws InterruptedException {
+        while (count == 0 && !endOfStream && !closed) {
+            wait();
+        }
+        if (closed || count == 0) {
+            return -1;
+        }
+        int chunk = Math.min(len, Math.min(count, data.length - readPos));
+        System.arraycopy(data, readPos, dst, off, chunk);
+        readPos = (readPos + chunk) % data.length;
+        count -= chunk;
+        notifyAll();
+        return chunk;
+    }
+
+    public synchronized void finish(long expectedGeneration) {
+        if (generation == expectedGeneration) {
+            endOfStream = true;
+            notifyAll();
+        }
+    }
+
+    // Blocks until clear() moves the buffer past the given generation, or it is closed.
+    public synchronized void awaitClear(long expectedGeneration) throws InterruptedException {
+        while (generation == expectedGeneration && !closed) {
+            wait();
+        }
+    }
+
+    public synchronized long clear() {
+        readPos = 0;
+        count = 0;
+        endOfStream = false;
+        generation++;
+        notifyAll();
+        return generation;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
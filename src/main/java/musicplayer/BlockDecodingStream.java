@@ -0,0 +1,86 @@
+package src.main.java.musicplayer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// PCM bytes from a decoder that works a block at a time (a FLAC frame, an MP3 frame): each
+// block is decoded into the same buffer and read out from there, so streaming a track
+// allocates nothing after the first block. Drops frames at the start (decoding from a block
+// boundary before a seek target) and can stop after a given number of frames (the padding
+// an MP3 encoder adds at the end).
+abstract class BlockDecodingStream extends InputStream {
+    private final int frameSize;
+    // Decoded PCM of the current block, and what of it has been read
+    protected byte[] pcm = new byte[0];
+    private int position;
+    private int limit;
+    private long skipFrames;
+    private long remainingFrames = -1;
+    private boolean ended;
+
+    BlockDecodingStream(int frameSize) {
+        this.frameSize = frameSize;
+    }
+
+    // Decodes the next block into `pcm` (growing it if need be) and returns the number of
+    // bytes in it; 0 for a block with nothing to play, -1 after the last block
+    protected abstract int decodeBlock() throws IOException;
+
+    // Frames to drop before the first one read
+    void skipFrames(long frames) {
+        skipFrames = frames;
+    }
+
+    // Frames to return in all, after the skipped ones; -1 for all there are
+    void limitFrames(long frames) {
+        remainingFrames = frames;
+    }
+
+    private boolean fill() throws IOException {
+        while (position == limit) {
+            if (ended || remainingFrames == 0) {
+                return false;
+            }
+            int length = decodeBlock();
+            if (length < 0) {
+                ended = true;
+                return false;
+            }
+            int frames = length / frameSize;
+            int skip = (int) Math.min(skipFrames, frames);
+            skipFrames -= skip;
+            frames -= skip;
+            if (remainingFrames >= 0) {
+                frames = (int) Math.min(frames, remainingFrames);
+                remainingFrames -= frames;
+            }
+            position = skip * frameSize;
+            limit = position + frames * frameSize;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? pcm[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(pcm, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+}
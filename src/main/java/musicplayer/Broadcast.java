@@ -0,0 +1,298 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+// A station: the songs `source` hands out, decoded once into a shared ring, for any number of
+// listeners. Each Subscription reads the ring at its own cursor and hands slices of it straight
+// to its sink (an HTTP response, an audio line, a file) without copying them first, so the
+// decoding costs the same for one listener as for hundreds.
+//
+// Every song is converted to FORMAT, so listeners hear one continuous stream. A live station
+// is paced to real time, at most LEAD_MILLIS ahead, and a new listener starts JOIN_MILLIS back
+// so its player can fill its buffer at once. A listener that falls a whole ring behind is
+// dropped; a lossless one (a recorder) holds the decoder back instead, and with it everyone.
+//
+// There is one writer. Before filling a chunk it publishes how far it is about to write
+// (`reserved`), and after, how far it has written. A reader hands its sink at most a chunk at
+// a time and checks `reserved` before each slice, so it never hands over one already being
+// overwritten, and again once the sink has taken it, to know it was not overwritten
+// meanwhile, as with a seqlock.
+public class Broadcast implements Closeable {
+    public static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+    private static final int RING_BYTES = 1 << 20;
+    private static final int MASK = RING_BYTES - 1;
+    private static final int CHUNK_BYTES = 16 * 1024;
+    private static final int LEAD_MILLIS = 1000;
+    private static final int JOIN_MILLIS = 2000;
+    // Songs that fail to open one after another before the station gives up
+    private static final int MAX_FAILURES = 10;
+    private static final Metrics.Counter DROPPED = Metrics.counter("broadcast.listenersDropped");
+
+    // Takes a slice of the ring; it must be done with the bytes when it returns
+    public interface Sink {
+        void write(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    private final Supplier<Song> source;
+    private final boolean live;
+    private final byte[] ring = new byte[RING_BYTES];
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private final long bytesPerSecond;
+    // Bytes written since the start, and how far the chunk being written goes
+    private volatile long written;
+    private volatile long reserved;
+    private volatile boolean ended;
+    private volatile boolean stopped;
+    private volatile Song song;
+    // Station thread only: when the station's audio would have started, had it never waited
+    private long startNanos;
+
+    // `source` is called on the station's thread and returns null when there is nothing more
+    // to play. A station that is not live runs as fast as its slowest lossless listener.
+    public Broadcast(String name, Supplier<Song> source, boolean live) {
+        this.source = source;
+        this.live = live;
+        this.bytesPerSecond = (long) FORMAT.getFrameRate() * FORMAT.getFrameSize();
+        Metrics.gauge("broadcast." + name + ".listeners", subscriptions::size);
+        thread = new Thread(this::run, "broadcast-" + name);
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    // Stops decoding; listeners get what is left in the ring and then the end
+    @Override
+    public void close() {
+        stopped = true;
+        thread.interrupt();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    public void join() throws InterruptedException {
+        thread.join();
+    }
+
+    // The song being decoded, a little ahead of what listeners hear
+    public Song getSong() {
+        return song;
+    }
+
+    public int getListenerCount() {
+        return subscriptions.size();
+    }
+
+    public long getBytesWritten() {
+        return written;
+    }
+
+    public boolean isEnded() {
+        return ended;
+    }
+
+    // A new listener, starting a little back from the newest audio (from the start for a
+    // station that is not live). A lossless listener is never dropped: the station waits for it.
+    public Subscription subscribe(boolean lossless) {
+        Subscription subscription;
+        synchronized (this) {
+            long back = live ? bytesFor(JOIN_MILLIS) : RING_BYTES - CHUNK_BYTES;
+            subscription = new Subscription(lossless, Math.max(0, written - back));
+            subscriptions.add(subscription);
+        }
+        return subscription;
+    }
+
+    private void run() {
+        startNanos = System.nanoTime();
+        int failures = 0;
+        try {
+            while (!stopped && failures < MAX_FAILURES) {
+                Song next = source.get();
+                if (next == null) {
+                    break;
+                }
+                song = next;
+                try (AudioInputStream stream = open(new File(next.getPath()))) {
+                    fill(stream);
+                    failures = 0;
+                } catch (IOException | UnsupportedAudioFileException | IllegalArgumentException e) {
+                    if (!stopped) {
+                        System.err.println("Error broadcasting " + next.getPath() + ": " + e.getMessage());
+                        failures++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } finally {
+            song = null;
+            ended = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private static AudioInputStream open(File file) throws IOException, UnsupportedAudioFileException {
+        AudioInputStream stream = StreamingPlaybackEngine.toPcm(AudioDecoders.open(file));
+        if (!stream.getFormat().matches(FORMAT)) {
+            stream = AudioSystem.getAudioInputStream(FORMAT, stream);
+        }
+        return stream;
+    }
+
+    // Decodes the song into the ring chunk by chunk, straight into the ring's own bytes
+    private void fill(AudioInputStream stream) throws IOException, InterruptedException {
+        while (!stopped) {
+            waitForRoom();
+            long from = written;
+            int at = (int) (from & MASK);
+            reserved = from + Math.min(CHUNK_BYTES, RING_BYTES - at);
+            // Readers must see the reservation before any of the bytes it covers change
+            VarHandle.storeStoreFence();
+            int read = stream.read(ring, at, (int) (reserved - from));
+            if (read <= 0) {
+                reserved = from;
+                return;
+            }
+            written = from + read;
+            reserved = written;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    // Live: not more than LEAD_MILLIS ahead of the clock, nor behind it after the station was
+    // held back (catching up would come out as a burst that laps the listeners). Always: not
+    // over the unread audio of a lossless listener.
+    private void waitForRoom() throws InterruptedException {
+        if (live) {
+            long aheadMicros = (written - bytesFor(LEAD_MILLIS)) * 1_000_000 / bytesPerSecond
+                    - (System.nanoTime() - startNanos) / 1000;
+            if (aheadMicros > 0) {
+                Thread.sleep(aheadMicros / 1000, (int) (aheadMicros % 1000) * 1000);
+            } else if (aheadMicros < -LEAD_MILLIS * 1000L) {
+                startNanos -= aheadMicros * 1000;
+            }
+        }
+        synchronized (this) {
+            while (!stopped && holdsBack(written + CHUNK_BYTES)) {
+                wait();
+            }
+        }
+    }
+
+    private boolean holdsBack(long writeTo) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.lossless && writeTo - subscription.cursor > RING_BYTES) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long bytesFor(int millis) {
+        return bytesPerSecond * millis / 1000 / FORMAT.getFrameSize() * FORMAT.getFrameSize();
+    }
+
+    public final class Subscription implements Closeable {
+        private final boolean lossless;
+        private volatile long cursor;
+        private volatile boolean closed;
+        private volatile boolean dropped;
+
+        private Subscription(boolean lossless, long cursor) {
+            this.lossless = lossless;
+            this.cursor = cursor;
+        }
+
+        // Waits for audio and hands all there is to the sink, in slices of at most a chunk (and
+        // split where the ring wraps). Returns the bytes handed over, or -1 once the station
+        // has ended and this listener has heard it all, or was dropped or closed.
+        public int transferTo(Sink sink) throws IOException {
+            long from = cursor;
+            synchronized (Broadcast.this) {
+                while (written <= from && !ended && !closed) {
+                    try {
+                        Broadcast.this.wait();
+                    } catch (InterruptedException e) {
+                        close();
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+            long to = written;
+            if (closed || to <= from) {
+                close();
+                return -1;
+            }
+            for (long position = from; position < to; ) {
+                if (isLapped(position)) {
+                    drop();
+                    return -1;
+                }
+                int at = (int) (position & MASK);
+                int length = (int) Math.min(Math.min(to - position, RING_BYTES - at), CHUNK_BYTES);
+                sink.write(ring, at, length);
+                // The sink may have been handed bytes the station was already writing over
+                VarHandle.loadLoadFence();
+                if (isLapped(position)) {
+                    drop();
+                    return -1;
+                }
+                position += length;
+                cursor = position;
+            }
+            if (lossless) {
+                synchronized (Broadcast.this) {
+                    Broadcast.this.notifyAll();
+                }
+            }
+            return (int) (to - from);
+        }
+
+        private boolean isLapped(long from) {
+            return !lossless && reserved - from > RING_BYTES;
+        }
+
+        private void drop() {
+            dropped = true;
+            DROPPED.increment();
+            close();
+        }
+
+        public boolean isDropped() {
+            return dropped;
+        }
+
+        // How far behind the newest audio this listener is, in bytes
+        public long getLag() {
+            return written - cursor;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+            synchronized (Broadcast.this) {
+                Broadcast.this.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// The original playback path: decodes the whole file into a Clip before playing.
+// Kept for comparison with StreamingPlaybackEngine (-Dmusicplayer.engine=clip).
+public class ClipPlaybackEngine implements PlaybackEngine {
+    private static final Histogram TIME_TO_FIRST_SAMPLE = Metrics.histogram("playback.timeToFirstSampleNanos");
+
+    private final List<PlaybackListener> listeners = new CopyOnWriteArrayList<>();
+    private Clip currentClip;
+    private boolean isPlaying;
+    private boolean isLooping;
+    private float volume = 1.0f;
+    private long timeToFirstSampleNanos = -1;
+
+    @Override
+    public void open(Song song) throws IOException, UnsupportedAudioFileException, LineUnavailableException {
+        long openStart = System.nanoTime();
+        stop();
+
+        File audioFile = new File(song.getPath());
+        Clip clip = AudioSystem.getClip();
+        try (AudioInputStream audioStream = StreamingPlaybackEngine.openPcmStream(audioFile)) {
+            clip.open(audioStream);
+        }
+        currentClip = clip;
+        applyVolume();
+        if (isLooping) {
+            clip.loop(Clip.LOOP_CONTINUOUSLY);
+        }
+        clip.start();
+        timeToFirstSampleNanos = System.nanoTime() - openStart;
+        TIME_TO_FIRST_SAMPLE.record(timeToFirstSampleNanos);
+        isPlaying = true;
+
+        clip.addLineListener(event -> {
+            if (event.getType() == LineEvent.Type.STOP && !isLooping
+                    && clip.getMicrosecondPosition() >= clip.getMicrosecondLength()) {
+                for (PlaybackListener listener : listeners) {
+                    listener.playbackFinished(song);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void pause() {
+        if (currentClip != null && isPlaying) {
+            currentClip.stop();
+            isPlaying = false;
+        }
+    }
+
+    @Override
+    public void resume() {
+        if (currentClip != null && currentClip.isOpen() && !isPlaying) {
+            currentClip.start();
+            isPlaying = true;
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (currentClip != null) {
+            currentClip.stop();
+            currentClip.close();
+            currentClip = null;
+        }
+        isPlaying = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return currentClip != null && currentClip.isOpen();
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return isPlaying;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return currentClip != null ? currentClip.getMicrosecondPosition() : 0;
+    }
+
+    @Override
+    public long getMicrosecondLength() {
+        return currentClip != null ? currentClip.getMicrosecondLength() : 0;
+    }
+
+    @Override
+    public void setMicrosecondPosition(long microseconds) {
+        if (currentClip != null) {
+            currentClip.setMicrosecondPosition(microseconds);
+        }
+    }
+
+    @Override
+    public void setLooping(boolean looping) {
+        isLooping = looping;
+        if (currentClip != null && isPlaying) {
+            currentClip.loop(looping ? Clip.LOOP_CONTINUOUSLY : 0);
+        }
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        this.volume = volume;
+        applyVolume();
+    }
+
+    private void applyVolume() {
+        if (currentClip != null && currentClip.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
+            FloatControl gainControl = (FloatControl) currentClip.getControl(FloatControl.Type.MASTER_GAIN);
+            float range = gainControl.getMaximum() - gainControl.getMinimum();
+            gainControl.setValue(range * volume + gainControl.getMinimum());
+        }
+    }
+
+    @Override
+    public long getTimeToFirstSampleNanos() {
+        return timeToFirstSampleNanos;
+    }
+
+    @Override
+    public void addPlaybackListener(PlaybackListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removePlaybackListener(PlaybackListener listener) {
+        listeners.remove(listener);
+    }
+}
@@ -0,0 +1,636 @@
+package src.main.java.musicplayer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// Controls a HeadlessPlayer over HTTP, for boxes without a display: library queries and
+// transport control as JSON, any song as a WAV stream, and the metrics. It listens on the
+// loopback address only and answers only requests addressed to localhost.
+//
+//   GET  /status                         what is playing, where, volume and modes
+//   GET  /songs?from=0&count=100         a page of the library, in list order
+//   GET  /search?q=text&limit=100        songs whose name contains the text
+//   POST /play?position=n (or id=n, or path=p)
+//   POST /pause, /resume, /stop, /next, /prev, /volume?level=0-100, /seek?seconds=s
+//   GET  /stream?id=n                    the song as WAV
+//   GET  /metrics                        Metrics.toText()
+//
+//   POST /station/start?position=n&shuffle=true   a live station playing the library round and
+//                                                 round from that song, replacing any other
+//   POST /station/stop
+//   GET  /station/status                 what the station is playing, how many listen
+//   GET  /station                        the station as an endless WAV stream
+//
+// Requests run on a fixed pool. At most -Dmusicplayer.httpStreams (default 64) streams run at
+// once and further ones get 503, so a few threads always stay free for the controls. Controls
+// take the HeadlessPlayer's lock, as its commands do. A PCM WAV file is streamed straight from
+// the file with FileChannel.transferTo behind a fresh header; other files are decoded on the fly.
+// The station is decoded once for all its listeners (see Broadcast), up to
+// -Dmusicplayer.stationListeners (default 256); one that cannot keep up is dropped.
+public class ControlServer {
+    private static final int MAX_STREAMS = Integer.getInteger("musicplayer.httpStreams", 64);
+    private static final int MAX_LISTENERS = Integer.getInteger("musicplayer.stationListeners", 256);
+    private static final int CONTROL_THREADS = 4;
+    private static final int DEFAULT_PAGE = 100;
+    private static final int MAX_PAGE = 1000;
+    private static final int WAV_HEADER_BYTES = 44;
+    private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+    private static final Histogram REQUEST_LATENCY = Metrics.histogram("http.requestNanos");
+    private static final Metrics.Counter STREAMS_STARTED = Metrics.counter("http.streams");
+    private static final Metrics.Counter STREAMS_REJECTED = Metrics.counter("http.streamsRejected");
+    private static final Set<String> CONTROLS = Set.of("/pause", "/resume", "/stop", "/next", "/prev", "/volume", "/seek");
+
+    private final HeadlessPlayer headless;
+    private final Semaphore streams = new Semaphore(MAX_STREAMS);
+    private final Semaphore listeners = new Semaphore(MAX_LISTENERS);
+    // Guarded by the player's lock
+    private Broadcast station;
+    private HttpServer server;
+    private ExecutorService pool;
+
+    // A request that cannot be carried out, answered with `status` and the message as JSON
+    private static final class RequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    public ControlServer(HeadlessPlayer headless) {
+        this.headless = headless;
+    }
+
+    // Starts listening on the port; 0 picks a free one (see getPort())
+    public synchronized void start(int port) throws IOException {
+        server = Metrics.createLocalServer(port);
+        server.createContext("/", this::handle);
+        server.createContext("/metrics", exchange -> {
+            if (isAddressedToLocalhost(exchange)) {
+                Metrics.serve(exchange);
+            } else {
+                send(exchange, 403, error("Only local requests are answered"));
+            }
+        });
+        pool = Executors.newFixedThreadPool(MAX_STREAMS + MAX_LISTENERS + CONTROL_THREADS, r -> {
+            Thread thread = new Thread(r, "http-control");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(pool);
+        server.start();
+    }
+
+    public synchronized int getPort() {
+        return server != null ? server.getAddress().getPort() : -1;
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            pool.shutdownNow();
+            server = null;
+        }
+        synchronized (headless) {
+            if (station != null) {
+                station.close();
+                station = null;
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!isAddressedToLocalhost(exchange)) {
+                throw new RequestException(403, "Only local requests are answered");
+            }
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+            if (path.equals("/stream")) {
+                require(method, "GET");
+                stream(exchange, query);
+                return;
+            }
+            if (path.equals("/station")) {
+                require(method, "GET");
+                listen(exchange);
+                return;
+            }
+            String json = respond(path, method, query);
+            send(exchange, 200, json);
+            REQUEST_LATENCY.recordSince(start);
+        } catch (RequestException e) {
+            send(exchange, e.status, error(e.getMessage()));
+        } catch (IOException e) {
+            // The client went away mid-response; nothing left to tell it
+        } catch (RuntimeException e) {
+            System.err.println("Error handling request: " + e.getMessage());
+            send(exchange, 500, error("Internal error"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String respond(String path, String method, Map<String, String> query) throws RequestException {
+        switch (path) {
+            case "/status":
+                require(method, "GET");
+                return status();
+            case "/songs": {
+                require(method, "GET");
+                int from = Math.max(0, intParameter(query, "from", 0));
+                int count = Math.max(0, Math.min(MAX_PAGE, intParameter(query, "count", DEFAULT_PAGE)));
+                synchronized (headless) {
+                    Library library = headless.getLibrary();
+                    int to = (int) Math.min(library.size(), (long) from + count);
+                    int[] positions = new int[Math.max(0, to - from)];
+                    for (int i = 0; i < positions.length; i++) {
+                        positions[i] = from + i;
+                    }
+                    return songs(library, positions, positions.length, library.size());
+                }
+            }
+            case "/search": {
+                require(method, "GET");
+                String text = query.getOrDefault("q", "");
+                int limit = Math.max(0, Math.min(MAX_PAGE, intParameter(query, "limit", DEFAULT_PAGE)));
+                synchronized (headless) {
+                    Library library = headless.getLibrary();
+                    int[] positions = library.search(text);
+                    return songs(library, positions, Math.min(limit, positions.length), positions.length);
+                }
+            }
+            case "/play":
+                require(method, "POST");
+                synchronized (headless) {
+                    if (!headless.play(positionOf(query))) {
+                        throw new RequestException(404, "No such song");
+                    }
+                    return status();
+                }
+            case "/station/start":
+                require(method, "POST");
+                synchronized (headless) {
+                    startStation(intParameter(query, "position", 0), Boolean.parseBoolean(query.get("shuffle")));
+                    return stationStatus();
+                }
+            case "/station/stop":
+                require(method, "POST");
+                synchronized (headless) {
+                    if (station != null) {
+                        station.close();
+                        station = null;
+                    }
+                    return stationStatus();
+                }
+            case "/station/status":
+                require(method, "GET");
+                return stationStatus();
+            default:
+                if (!CONTROLS.contains(path)) {
+                    throw new RequestException(404, "No such endpoint: " + path);
+                }
+                require(method, "POST");
+                synchronized (headless) {
+                    control(path, query);
+                    return status();
+                }
+        }
+    }
+
+    // Transport controls; the caller holds the player's lock
+    private void control(String path, Map<String, String> query) throws RequestException {
+        PlayerEngine player = headless.getPlayer();
+        switch (path) {
+            case "/pause":
+                player.pause();
+                break;
+            case "/resume":
+                player.resume();
+                break;
+            case "/stop":
+                player.stop();
+                break;
+            case "/next":
+                if (!headless.next()) {
+                    throw new RequestException(404, "End of the queue");
+                }
+                break;
+            case "/prev":
+                if (!headless.previous()) {
+                    throw new RequestException(404, "Start of the queue");
+                }
+                break;
+            case "/volume":
+                player.setVolume(intParameter(query, "level", player.getVolume()));
+                break;
+            case "/seek":
+                if (!player.isOpen()) {
+                    throw new RequestException(409, "Nothing is playing");
+                }
+                player.seek((long) (doubleParameter(query, "seconds") * 1_000_000));
+                break;
+            default:
+                throw new IllegalStateException(path);
+        }
+    }
+
+    private int positionOf(Map<String, String> query) throws RequestException {
+        Library library = headless.getLibrary();
+        if (query.containsKey("position")) {
+            return intParameter(query, "position", -1);
+        }
+        if (query.containsKey("id")) {
+            return library.positionOf(intParameter(query, "id", -1));
+        }
+        Song song = library.findByPath(query.getOrDefault("path", ""));
+        return song != null ? library.positionOf(song.getId()) : -1;
+    }
+
+    private String status() {
+        synchronized (headless) {
+            PlayerEngine player = headless.getPlayer();
+            Library library = headless.getLibrary();
+            PlayQueue queue = library.getPlayQueue();
+            Song song = player.getCurrentSong();
+            boolean open = song != null && player.isOpen();
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"state\":\"").append(!open ? "stopped" : player.isPlaying() ? "playing" : "paused").append('"');
+            json.append(",\"song\":");
+            if (open) {
+                appendSong(json, library.positionOf(song.getId()), song.getId(), song.getName(), song.getPath(),
+                        song.getDurationMicros());
+            } else {
+                json.append("null");
+            }
+            json.append(",\"positionMicros\":").append(open ? player.getPositionMicros() : 0);
+            json.append(",\"lengthMicros\":").append(open ? player.getLengthMicros() : 0);
+            json.append(",\"volume\":").append(player.getVolume());
+            json.append(",\"muted\":").append(player.isMuted());
+            json.append(",\"looping\":").append(player.isLooping());
+            json.append(",\"shuffle\":").append(queue.isShuffled());
+            json.append(",\"repeat\":\"").append(queue.getRepeat().name().toLowerCase()).append('"');
+            json.append(",\"crossfadeMillis\":").append(player.getCrossfadeMillis());
+            json.append(",\"normalizing\":").append(player.isNormalizing());
+            json.append(",\"librarySize\":").append(library.size());
+            return json.append('}').toString();
+        }
+    }
+
+    // The station goes through the library in a queue of its own, so the player's queue and
+    // the station's do not move each other. The caller holds the player's lock.
+    private void startStation(int position, boolean shuffle) throws RequestException {
+        Library library = headless.getLibrary();
+        if (position < 0 || position >= library.size()) {
+            throw new RequestException(404, "No such song");
+        }
+        LazySongList songs = library.getSongs();
+        int[] ids = new int[library.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = songs.idAt(i);
+        }
+        PlayQueue order = new PlayQueue();
+        order.setShuffle(shuffle);
+        order.setRepeat(PlayQueue.Repeat.ALL);
+        int[] first = {order.setSongs(ids, position)};
+        if (station != null) {
+            station.close();
+        }
+        station = new Broadcast("station", () -> {
+            synchronized (headless) {
+                // Skipping songs removed from the library since
+                for (int i = 0; i < order.size(); i++) {
+                    int id = first[0] >= 0 ? first[0] : order.next();
+                    first[0] = -1;
+                    Song song = headless.getLibrary().getById(id);
+                    if (song != null) {
+                        return song;
+                    }
+                }
+                return null;
+            }
+        }, true);
+        station.start();
+    }
+
+    private String stationStatus() {
+        synchronized (headless) {
+            Song song = station != null ? station.getSong() : null;
+            StringBuilder json = new StringBuilder(128);
+            json.append("{\"running\":").append(station != null && !station.isEnded());
+            json.append(",\"song\":");
+            if (song != null) {
+                Library library = headless.getLibrary();
+                appendSong(json, library.positionOf(song.getId()), song.getId(), song.getName(), song.getPath(),
+                        song.getDurationMicros());
+            } else {
+                json.append("null");
+            }
+            json.append(",\"listeners\":").append(station != null ? station.getListenerCount() : 0);
+            return json.append('}').toString();
+        }
+    }
+
+    // The songs at the first `count` of `positions`, read from the list without creating Songs;
+    // `total` is how many there are in all
+    private static String songs(Library library, int[] positions, int count, int total) {
+        LazySongList songs = library.getSongs();
+        StringBuilder json = new StringBuilder(64 + count * 96);
+        json.append("{\"total\":").append(total).append(",\"songs\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            int position = positions[i];
+            appendSong(json, position, songs.idAt(position), songs.nameAt(position), songs.pathAt(position),
+                    songs.durationAt(position));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendSong(StringBuilder json, int position, int id, String name, String path, long durationMicros) {
+        json.append("{\"position\":").append(position).append(",\"id\":").append(id).append(",\"name\":");
+        quote(json, name);
+        json.append(",\"path\":");
+        quote(json, path);
+        json.append(",\"durationMicros\":").append(durationMicros).append('}');
+    }
+
+    private static void quote(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        quote(json, message);
+        return json.append('}').toString();
+    }
+
+    // GET /stream?id=n: the song as a WAV file
+    private void stream(HttpExchange exchange, Map<String, String> query) throws IOException, RequestException {
+        Song song;
+        synchronized (headless) {
+            song = headless.getLibrary().getById(intParameter(query, "id", -1));
+        }
+        if (song == null) {
+            throw new RequestException(404, "No such song");
+        }
+        if (!streams.tryAcquire()) {
+            STREAMS_REJECTED.increment();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            throw new RequestException(503, "Too many streams");
+        }
+        STREAMS_STARTED.increment();
+        try {
+            File file = new File(song.getPath());
+            SeekIndex index;
+            AudioInputStream decoded = null;
+            try {
+                index = AudioDecoders.forFile(file) instanceof WaveDecoder ? SeekIndex.of(file) : null;
+                if (index == null || !index.hasFixedFrameSize() || !isWavPcm(index.format)) {
+                    decoded = wavPcm(AudioDecoders.open(file));
+                }
+            } catch (IOException e) {
+                throw new RequestException(404, "Cannot read " + song.getPath());
+            } catch (UnsupportedAudioFileException | IllegalArgumentException e) {
+                throw new RequestException(415, "Cannot decode " + song.getPath());
+            }
+            if (decoded == null) {
+                sendFile(exchange, file, index);
+            } else {
+                try (AudioInputStream stream = decoded) {
+                    sendDecoded(exchange, stream);
+                }
+            }
+        } finally {
+            streams.release();
+        }
+    }
+
+    // GET /station: the station from a little before now, until it stops or this listener
+    // falls too far behind; the slices of the station's ring go straight to the response
+    private void listen(HttpExchange exchange) throws IOException, RequestException {
+        Broadcast broadcast;
+        synchronized (headless) {
+            broadcast = station;
+        }
+        if (broadcast == null || broadcast.isEnded()) {
+            throw new RequestException(404, "No station is on");
+        }
+        if (!listeners.tryAcquire()) {
+            STREAMS_REJECTED.increment();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            throw new RequestException(503, "Too many listeners");
+        }
+        STREAMS_STARTED.increment();
+        try (Broadcast.Subscription subscription = broadcast.subscribe(false)) {
+            exchange.getResponseHeaders().set("Content-Type", "audio/wav");
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(wavHeader(Broadcast.FORMAT, -1));
+                while (subscription.transferTo(body::write) >= 0) {
+                    body.flush();
+                }
+            }
+        } finally {
+            listeners.release();
+        }
+    }
+
+    // The audio data straight from the file, without passing through a buffer of ours
+    private static void sendFile(HttpExchange exchange, File file, SeekIndex index) throws IOException {
+        long offset = index.offsetFor(0);
+        long length = index.frameLength * index.format.getFrameSize();
+        exchange.getResponseHeaders().set("Content-Type", "audio/wav");
+        exchange.sendResponseHeaders(200, WAV_HEADER_BYTES + length);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             OutputStream body = exchange.getResponseBody()) {
+            body.write(wavHeader(index.format, length));
+            WritableByteChannel out = Channels.newChannel(body);
+            for (long position = offset, end = offset + length; position < end; ) {
+                long sent = channel.transferTo(position, end - position, out);
+                if (sent <= 0) {
+                    // The file got shorter since it was indexed
+                    break;
+                }
+                position += sent;
+            }
+        }
+    }
+
+    private static void sendDecoded(HttpExchange exchange, AudioInputStream decoded) throws IOException {
+        AudioFormat format = decoded.getFormat();
+        long frames = decoded.getFrameLength();
+        long length = frames != AudioSystem.NOT_SPECIFIED ? frames * format.getFrameSize() : -1;
+        exchange.getResponseHeaders().set("Content-Type", "audio/wav");
+        // Chunked: a decoder's frame count can be an estimate
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(wavHeader(format, length));
+            byte[] buffer = new byte[STREAM_BUFFER_BYTES];
+            int read;
+            while ((read = decoded.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+        }
+    }
+
+    // Little-endian signed samples (unsigned for 8 bits), as WAV has them
+    private static boolean isWavPcm(AudioFormat format) {
+        int bits = format.getSampleSizeInBits();
+        if (bits == 8) {
+            return format.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED);
+        }
+        return format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED) && !format.isBigEndian();
+    }
+
+    private static AudioInputStream wavPcm(AudioInputStream stream) {
+        AudioFormat format = stream.getFormat();
+        if (isWavPcm(format)) {
+            return stream;
+        }
+        int bits = format.getSampleSizeInBits();
+        AudioFormat target = new AudioFormat(bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED,
+                format.getSampleRate(), bits, format.getChannels(), format.getFrameSize(), format.getFrameRate(), false);
+        return AudioSystem.getAudioInputStream(target, stream);
+    }
+
+    // Canonical 44-byte header; a length too long for RIFF, or unknown (-1), is written as the
+    // largest there is, which players read as "until the end"
+    static byte[] wavHeader(AudioFormat format, long dataBytes) {
+        long data = dataBytes < 0 || dataBytes > 0xFFFFFFFFL - 36 ? 0xFFFFFFFFL - 36 : dataBytes;
+        int channels = format.getChannels();
+        int rate = Math.round(format.getSampleRate());
+        int frameSize = format.getFrameSize();
+        byte[] header = new byte[WAV_HEADER_BYTES];
+        putAscii(header, 0, "RIFF");
+        putInt(header, 4, (int) (36 + data));
+        putAscii(header, 8, "WAVE");
+        putAscii(header, 12, "fmt ");
+        putInt(header, 16, 16);
+        putShort(header, 20, 1);
+        putShort(header, 22, channels);
+        putInt(header, 24, rate);
+        putInt(header, 28, rate * frameSize);
+        putShort(header, 32, frameSize);
+        putShort(header, 34, format.getSampleSizeInBits());
+        putAscii(header, 36, "data");
+        putInt(header, 40, (int) data);
+        return header;
+    }
+
+    private static void putAscii(byte[] bytes, int at, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            bytes[at + i] = (byte) text.charAt(i);
+        }
+    }
+
+    private static void putInt(byte[] bytes, int at, int value) {
+        putShort(bytes, at, value);
+        putShort(bytes, at + 2, value >>> 16);
+    }
+
+    private static void putShort(byte[] bytes, int at, int value) {
+        bytes[at] = (byte) value;
+        bytes[at + 1] = (byte) (value >>> 8);
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Requests from a web page that resolved some other name to 127.0.0.1 carry that name
+    private static boolean isAddressedToLocalhost(HttpExchange exchange) {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host == null) {
+            return true;
+        }
+        int colon = host.lastIndexOf(':');
+        if (colon >= 0 && host.indexOf(']') < colon) {
+            host = host.substring(0, colon);
+        }
+        return host.equalsIgnoreCase("localhost") || host.equals("127.0.0.1") || host.equals("[::1]");
+    }
+
+    private static void require(String method, String expected) throws RequestException {
+        if (!method.equals(expected)) {
+            throw new RequestException(405, "Use " + expected);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals >= 0 ? pair.substring(0, equals) : pair;
+            String value = equals >= 0 ? pair.substring(equals + 1) : "";
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int otherwise) throws RequestException {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            return otherwise;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, name + " must be a whole number");
+        }
+    }
+
+    private static double doubleParameter(Map<String, String> query, String name) throws RequestException {
+        try {
+            return Double.parseDouble(query.getOrDefault(name, "").trim());
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, name + " must be a number");
+        }
+    }
+}
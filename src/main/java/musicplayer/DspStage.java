@@ -0,0 +1,8 @@
+package src.main.java.musicplayer;
+
+// One step of the processing audio goes through on its way to the line (see
+// MixingPlaybackEngine). Works in place on interleaved float samples between -1 and 1.
+// process() runs on the audio thread for every block, so it must not allocate, lock or block.
+public interface DspStage {
+    void process(float[] samples, int frames, int channels);
+}
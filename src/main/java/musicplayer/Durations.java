@@ -0,0 +1,37 @@
+package src.main.java.musicplayer;
+
+// Durations as minutes:seconds ("3:07", "125:40"), the way the window and the command line
+// show them. format() writes into a caller's buffer so a display refreshed many times a
+// second does not allocate.
+final class Durations {
+    // Enough for any long number of minutes, a colon and two digits
+    static final int MAX_LENGTH = 22;
+
+    private Durations() {
+    }
+
+    // Writes the duration at `at` and returns the index after it
+    static int format(long microseconds, char[] into, int at) {
+        long seconds = Math.max(0, microseconds) / 1_000_000;
+        long minutes = seconds / 60;
+        int digits = 1;
+        for (long rest = minutes / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = at + digits - 1; i >= at; i--) {
+            into[i] = (char) ('0' + minutes % 10);
+            minutes /= 10;
+        }
+        at += digits;
+        int secs = (int) (seconds % 60);
+        into[at++] = ':';
+        into[at++] = (char) ('0' + secs / 10);
+        into[at++] = (char) ('0' + secs % 10);
+        return at;
+    }
+
+    static String toString(long microseconds) {
+        char[] chars = new char[MAX_LENGTH];
+        return new String(chars, 0, format(microseconds, chars, 0));
+    }
+}
@@ -0,0 +1,72 @@
+package src.main.java.musicplayer;
+
+// A gain that moves linearly to a target over a number of frames: fade-ins, fade-outs and the
+// two halves of a crossfade. fadeTo() may be called from any thread; it takes effect at the
+// start of the next block.
+public class FadeStage implements DspStage {
+    private float gain;
+    private float target;
+    private float step;
+    private long remaining;
+    private volatile boolean pending;
+    private float pendingTarget;
+    private long pendingFrames;
+    // Where the pending fade starts; NaN for wherever the gain is then
+    private float pendingFrom;
+
+    public FadeStage(float gain) {
+        this.gain = gain;
+        this.target = gain;
+    }
+
+    // Moves the gain to `target` over `frames` frames; 0 frames jumps straight there
+    public void fadeTo(float target, long frames) {
+        fade(Float.NaN, target, frames);
+    }
+
+    // From silence up to full level over `frames` frames
+    public void fadeIn(long frames) {
+        fade(0f, 1f, frames);
+    }
+
+    private synchronized void fade(float from, float target, long frames) {
+        pendingFrom = from;
+        pendingTarget = target;
+        pendingFrames = frames;
+        pending = true;
+    }
+
+    // Whether the fade has reached 0 and stays there; only meaningful on the audio thread
+    public boolean isSilent() {
+        return !pending && remaining == 0 && gain == 0f;
+    }
+
+    @Override
+    public void process(float[] samples, int frames, int channels) {
+        if (pending) {
+            synchronized (this) {
+                if (!Float.isNaN(pendingFrom)) {
+                    gain = pendingFrom;
+                }
+                target = pendingTarget;
+                remaining = pendingFrames;
+                step = remaining > 0 ? (target - gain) / remaining : 0f;
+                if (remaining == 0) {
+                    gain = target;
+                }
+                pending = false;
+            }
+        }
+        if (remaining == 0 && gain == 1f) {
+            return;
+        }
+        for (int frame = 0; frame < frames; frame++) {
+            if (remaining > 0) {
+                gain = --remaining == 0 ? target : gain + step;
+            }
+            for (int c = 0; c < channels; c++) {
+                samples[frame * channels + c] *= gain;
+            }
+        }
+    }
+}
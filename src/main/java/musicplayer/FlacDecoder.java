@@ -0,0 +1,671 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// FLAC files, decoded here: all subframe types (constant, verbatim, fixed and LPC
+// prediction), both residual codings, wasted bits and the three stereo decorrelations, for
+// 4 to 32 bits per sample. Each frame is checked against its CRCs; a frame that fails, or
+// that cannot be decoded at all, plays as silence and decoding picks up at the next frame.
+//
+// FLAC frames have no length field, so a seek bisects the file on frame headers (each one
+// says which sample it starts at) until the target is within a few frames, then decodes from
+// there; about 15 small reads for any file, wherever the target.
+class FlacDecoder implements AudioDecoder {
+    static final AudioFileFormat.Type FLAC = new AudioFileFormat.Type("FLAC", "flac");
+    static final AudioFormat.Encoding ENCODING = new AudioFormat.Encoding("FLAC");
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int STREAMINFO = 0;
+    private static final int STREAMINFO_BYTES = 34;
+    // Longest frame header: sync to CRC-8 with a 7-byte number and both extensions
+    private static final int MAX_HEADER_BYTES = 16;
+    // A seek stops bisecting once the target is this close; then it decodes
+    private static final int SEEK_SPAN_BYTES = 32 * 1024;
+    private static final int[] CRC8 = new int[256];
+    private static final int[] CRC16 = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8[i] = crc8 & 0xFF;
+            CRC16[i] = crc16 & 0xFFFF;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "FLAC";
+    }
+
+    @Override
+    public boolean accepts(byte[] head, int length) {
+        return length >= 4 && head[0] == 'f' && head[1] == 'L' && head[2] == 'a' && head[3] == 'C';
+    }
+
+    @Override
+    public AudioFileFormat getFormat(File file) throws IOException, UnsupportedAudioFileException {
+        StreamInfo info;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            info = readStreamInfo(channel);
+        }
+        AudioFormat format = new AudioFormat(ENCODING, info.sampleRate, info.bitsPerSample, info.channels,
+                AudioSystem.NOT_SPECIFIED, info.sampleRate, false);
+        long frames = info.totalSamples;
+        return new AudioFileFormat(FLAC, format,
+                frames <= 0 || frames > Integer.MAX_VALUE ? AudioSystem.NOT_SPECIFIED : (int) frames);
+    }
+
+    @Override
+    public AudioInputStream open(File file, long frame) throws IOException, UnsupportedAudioFileException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            StreamInfo info = readStreamInfo(channel);
+            long offset = info.audioOffset;
+            long first = 0;
+            if (frame > 0) {
+                long[] found = locate(channel, info, frame);
+                offset = found[0];
+                first = found[1];
+            }
+            FlacStream stream = new FlacStream(channel, info, offset);
+            stream.skipFrames(frame - first);
+            long length = info.totalSamples > 0 ? Math.max(0, info.totalSamples - frame) : AudioSystem.NOT_SPECIFIED;
+            return new AudioInputStream(stream, stream.format, length);
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static final class StreamInfo {
+        int minBlockSize;
+        int maxBlockSize;
+        int maxFrameSize;
+        int sampleRate;
+        int channels;
+        int bitsPerSample;
+        // 0 when the encoder did not know
+        long totalSamples;
+        // Where the first frame starts
+        long audioOffset;
+    }
+
+    // Walks the metadata blocks after the "fLaC" marker for STREAMINFO
+    static StreamInfo readStreamInfo(FileChannel channel) throws IOException, UnsupportedAudioFileException {
+        long position = AudioDecoders.audioStart(channel);
+        byte[] marker = new byte[4];
+        if (AudioDecoders.read(channel, position, marker) < 4 || marker[0] != 'f' || marker[1] != 'L'
+                || marker[2] != 'a' || marker[3] != 'C') {
+            throw new UnsupportedAudioFileException("Not a FLAC file");
+        }
+        position += 4;
+        StreamInfo info = null;
+        byte[] header = new byte[4];
+        boolean last = false;
+        while (!last) {
+            if (AudioDecoders.read(channel, position, header) < 4) {
+                throw new EOFException("FLAC metadata cut short");
+            }
+            last = (header[0] & 0x80) != 0;
+            int length = (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8 | header[3] & 0xFF;
+            if ((header[0] & 0x7F) == STREAMINFO && length >= STREAMINFO_BYTES) {
+                byte[] b = new byte[STREAMINFO_BYTES];
+                if (AudioDecoders.read(channel, position + 4, b) < b.length) {
+                    throw new EOFException("FLAC metadata cut short");
+                }
+                info = new StreamInfo();
+                info.minBlockSize = (b[0] & 0xFF) << 8 | b[1] & 0xFF;
+                info.maxBlockSize = (b[2] & 0xFF) << 8 | b[3] & 0xFF;
+                info.maxFrameSize = (b[7] & 0xFF) << 16 | (b[8] & 0xFF) << 8 | b[9] & 0xFF;
+                info.sampleRate = (b[10] & 0xFF) << 12 | (b[11] & 0xFF) << 4 | (b[12] & 0xFF) >> 4;
+                info.channels = ((b[12] & 0x0E) >> 1) + 1;
+                info.bitsPerSample = ((b[12] & 0x01) << 4 | (b[13] & 0xFF) >> 4) + 1;
+                info.totalSamples = (b[13] & 0x0FL) << 32 | (b[14] & 0xFFL) << 24 | (b[15] & 0xFF) << 16
+                        | (b[16] & 0xFF) << 8 | b[17] & 0xFF;
+            }
+            position += 4 + length;
+        }
+        if (info == null || info.sampleRate == 0 || info.bitsPerSample < 4) {
+            throw new UnsupportedAudioFileException("FLAC file without a usable STREAMINFO block");
+        }
+        info.audioOffset = position;
+        return info;
+    }
+
+    // Offset and first sample of a frame at or before `target`, close enough to decode from
+    private static long[] locate(FileChannel channel, StreamInfo info, long target) throws IOException {
+        long lo = info.audioOffset;
+        long loSample = 0;
+        long hi = channel.size();
+        int span = Math.max(SEEK_SPAN_BYTES, 2 * info.maxFrameSize);
+        byte[] probe = new byte[Math.max(4096, Math.min(info.maxFrameSize + MAX_HEADER_BYTES, BUFFER_BYTES))];
+        FrameHeader header = new FrameHeader();
+        while (hi - lo > span) {
+            long mid = lo + (hi - lo) / 2;
+            long offset = findFrame(channel, info, mid, hi, probe, header);
+            if (offset < 0 || header.firstSample > target) {
+                hi = mid;
+            } else {
+                lo = offset;
+                loSample = header.firstSample;
+            }
+        }
+        return new long[]{lo, loSample};
+    }
+
+    // Offset of the first valid frame header in [from, to), read into `header`; -1 if none
+    private static long findFrame(FileChannel channel, StreamInfo info, long from, long to,
+                                  byte[] probe, FrameHeader header) throws IOException {
+        long position = from;
+        while (position < to) {
+            int read = AudioDecoders.read(channel, position, probe);
+            for (int i = 0; i + MAX_HEADER_BYTES <= read || (i < read && read < probe.length); i++) {
+                if (position + i >= to) {
+                    return -1;
+                }
+                if ((probe[i] & 0xFF) == 0xFF && parseHeader(probe, i, read - i, info, header) > 0) {
+                    return position + i;
+                }
+            }
+            if (read < probe.length) {
+                return -1;
+            }
+            position += read - MAX_HEADER_BYTES;
+        }
+        return -1;
+    }
+
+    static final class FrameHeader {
+        int blockSize;
+        int channelAssignment;
+        long firstSample;
+    }
+
+    // Reads the frame header at b[off] into `header` and returns its length; -1 if there is no
+    // valid header there (no sync code, reserved values, CRC-8 mismatch, or a format other than
+    // the stream's)
+    static int parseHeader(byte[] b, int off, int length, StreamInfo info, FrameHeader header) {
+        if (length < 6 || (b[off] & 0xFF) != 0xFF || (b[off + 1] & 0xFE) != 0xF8) {
+            return -1;
+        }
+        boolean variable = (b[off + 1] & 0x01) != 0;
+        int blockSizeCode = (b[off + 2] & 0xFF) >> 4;
+        int rateCode = b[off + 2] & 0x0F;
+        int assignment = (b[off + 3] & 0xFF) >> 4;
+        int sizeCode = (b[off + 3] & 0x0E) >> 1;
+        if (blockSizeCode == 0 || rateCode == 15 || assignment > 10 || sizeCode == 3 || (b[off + 3] & 0x01) != 0) {
+            return -1;
+        }
+        int channels = assignment < 8 ? assignment + 1 : 2;
+        int bits = sizeCode == 0 ? info.bitsPerSample : new int[]{0, 8, 12, 0, 16, 20, 24, 32}[sizeCode];
+        if (channels != info.channels || bits != info.bitsPerSample) {
+            return -1;
+        }
+        // The frame or sample number, coded like UTF-8 (up to 7 bytes)
+        int p = off + 4;
+        int first = b[off + 4] & 0xFF;
+        int extra = first < 0x80 ? 0 : first < 0xC0 ? -1 : first < 0xE0 ? 1 : first < 0xF0 ? 2
+                : first < 0xF8 ? 3 : first < 0xFC ? 4 : first < 0xFE ? 5 : first == 0xFE ? 6 : -1;
+        if (extra < 0 || p + extra + 1 > off + length) {
+            return -1;
+        }
+        long number = first & (extra == 0 ? 0x7F : 0x7F >> (extra + 1));
+        p++;
+        for (int i = 0; i < extra; i++, p++) {
+            if ((b[p] & 0xC0) != 0x80) {
+                return -1;
+            }
+            number = number << 6 | b[p] & 0x3F;
+        }
+        int tail = (blockSizeCode == 6 ? 1 : blockSizeCode == 7 ? 2 : 0) + (rateCode == 12 ? 1 : rateCode >= 13 ? 2 : 0);
+        if (p + tail + 1 > off + length) {
+            return -1;
+        }
+        int blockSize;
+        if (blockSizeCode == 1) {
+            blockSize = 192;
+        } else if (blockSizeCode <= 5) {
+            blockSize = 576 << (blockSizeCode - 2);
+        } else if (blockSizeCode == 6) {
+            blockSize = (b[p++] & 0xFF) + 1;
+        } else if (blockSizeCode == 7) {
+            blockSize = ((b[p] & 0xFF) << 8 | b[p + 1] & 0xFF) + 1;
+            p += 2;
+        } else {
+            blockSize = 256 << (blockSizeCode - 8);
+        }
+        // The frame's own sample rate is only read past; the stream's applies
+        p += rateCode == 12 ? 1 : rateCode >= 13 ? 2 : 0;
+        int crc = 0;
+        for (int i = off; i < p; i++) {
+            crc = CRC8[(crc ^ b[i]) & 0xFF];
+        }
+        if (crc != (b[p] & 0xFF)) {
+            return -1;
+        }
+        header.blockSize = blockSize;
+        header.channelAssignment = assignment;
+        // Fixed block size: a frame number. Every frame but the last has the stream's block size
+        header.firstSample = variable ? number : number * Math.max(blockSize, info.minBlockSize);
+        return p + 1 - off;
+    }
+
+    // The PCM of one FLAC stream, a frame at a time. Reads the file through a buffer that it
+    // takes bits from 64 at a time, which keeps the Rice decoding (most of the work) to a few
+    // shifts per sample.
+    static final class FlacStream extends BlockDecodingStream {
+        final AudioFormat format;
+        private final FileChannel channel;
+        private final StreamInfo info;
+        private final int bytesPerSample;
+        private final FrameHeader header = new FrameHeader();
+        // 8 bytes of slack after the data so a 64-bit read never runs off the end
+        private final byte[] buf = new byte[BUFFER_BYTES + 8];
+        private final ByteBuffer view = ByteBuffer.wrap(buf);
+        private long filePosition;
+        private int pos;
+        private int bitPos;
+        private int limit;
+        private boolean eof;
+        // CRC-16 of the frame so far, up to buf[crcFrom]
+        private int crc16;
+        private int crcFrom;
+        private int[][] samples;
+        private boolean reportedError;
+
+        FlacStream(FileChannel channel, StreamInfo info, long offset) {
+            super(((info.bitsPerSample + 7) / 8) * info.channels);
+            this.channel = channel;
+            this.info = info;
+            this.filePosition = offset;
+            bytesPerSample = (info.bitsPerSample + 7) / 8;
+            format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, info.sampleRate, bytesPerSample * 8,
+                    info.channels, bytesPerSample * info.channels, info.sampleRate, false);
+            samples = new int[info.channels][Math.max(info.maxBlockSize, 16)];
+        }
+
+        @Override
+        protected int decodeBlock() throws IOException {
+            while (true) {
+                if (limit - pos < MAX_HEADER_BYTES * 2 && !eof) {
+                    refill();
+                }
+                if (limit - pos < 6) {
+                    return -1;
+                }
+                int length = parseHeader(buf, pos, limit - pos, info, header);
+                if (length < 0) {
+                    // Lost sync (or a trailing tag): look for the next frame
+                    pos++;
+                    continue;
+                }
+                long frameOffset = filePosition - limit + pos;
+                crcFrom = pos;
+                crc16 = 0;
+                pos += length;
+                try {
+                    return decodeFrame();
+                } catch (EOFException e) {
+                    // The file ends inside the frame
+                    return -1;
+                } catch (IOException e) {
+                    // A damaged frame: where it ends is unknown, so look for the next header
+                    // from just past this one
+                    reportError(e.getMessage());
+                    resync(frameOffset + length);
+                    return silence(header.blockSize);
+                }
+            }
+        }
+
+        private int decodeFrame() throws IOException {
+            int blockSize = header.blockSize;
+            int channels = info.channels;
+            if (samples[0].length < blockSize) {
+                samples = new int[channels][blockSize];
+            }
+            int assignment = header.channelAssignment;
+            for (int ch = 0; ch < channels; ch++) {
+                boolean side = assignment == 8 && ch == 1 || assignment == 9 && ch == 0 || assignment == 10 && ch == 1;
+                decodeSubframe(samples[ch], blockSize, info.bitsPerSample + (side ? 1 : 0));
+            }
+            if (bitPos != 0) {
+                bitPos = 0;
+                pos++;
+            }
+            if (limit - pos < 2 && !eof) {
+                refill();
+            }
+            updateCrc();
+            int expected = readBits(16);
+            if (pos > limit) {
+                return -1;
+            }
+            if (crc16 != expected) {
+                reportError("frame CRC mismatch");
+                return silence(blockSize);
+            }
+            decorrelate(assignment, blockSize);
+            return toPcm(blockSize);
+        }
+
+        private int silence(int blockSize) {
+            for (int[] channel : samples) {
+                Arrays.fill(channel, 0, blockSize, 0);
+            }
+            return toPcm(blockSize);
+        }
+
+        private void reportError(String message) {
+            if (!reportedError) {
+                System.err.println("Error decoding FLAC: " + message + ", playing silence");
+                reportedError = true;
+            }
+        }
+
+        // Drops what is buffered and reads on from `offset` in the file
+        private void resync(long offset) {
+            filePosition = offset;
+            limit = 0;
+            pos = 0;
+            bitPos = 0;
+            eof = false;
+        }
+
+        private void decodeSubframe(int[] out, int blockSize, int bits) throws IOException {
+            if (readBits(1) != 0) {
+                throw new IOException("Bad FLAC subframe");
+            }
+            int type = readBits(6);
+            int wasted = 0;
+            if (readBits(1) != 0) {
+                wasted = readUnary() + 1;
+                bits -= wasted;
+            }
+            if (bits <= 0 || bits > 32) {
+                throw new IOException("Unsupported FLAC sample size");
+            }
+            if (type == 0) {
+                Arrays.fill(out, 0, blockSize, readSigned(bits));
+            } else if (type == 1) {
+                for (int i = 0; i < blockSize; i++) {
+                    out[i] = readSigned(bits);
+                }
+            } else if (type >= 8 && type <= 12) {
+                int order = type - 8;
+                if (order > blockSize) {
+                    throw new IOException("Bad FLAC predictor order");
+                }
+                for (int i = 0; i < order; i++) {
+                    out[i] = readSigned(bits);
+                }
+                readResidual(out, blockSize, order);
+                predictFixed(out, blockSize, order);
+            } else if (type >= 32) {
+                int order = (type & 31) + 1;
+                if (order > blockSize) {
+                    throw new IOException("Bad FLAC predictor order");
+                }
+                for (int i = 0; i < order; i++) {
+                    out[i] = readSigned(bits);
+                }
+                int precision = readBits(4) + 1;
+                int shift = readSigned(5);
+                if (precision == 16 || shift < 0) {
+                    throw new IOException("Bad FLAC LPC subframe");
+                }
+                int[] coefficients = new int[order];
+                for (int i = 0; i < order; i++) {
+                    coefficients[i] = readSigned(precision);
+                }
+                readResidual(out, blockSize, order);
+                predictLpc(out, blockSize, coefficients, shift, bits + precision + 32 - Integer.numberOfLeadingZeros(order) <= 32);
+            } else {
+                throw new IOException("Bad FLAC subframe type " + type);
+            }
+            if (wasted > 0) {
+                for (int i = 0; i < blockSize; i++) {
+                    out[i] <<= wasted;
+                }
+            }
+        }
+
+        // Rice-coded residual after `order` warm-up samples, written into out[order..]
+        private void readResidual(int[] out, int blockSize, int order) throws IOException {
+            int method = readBits(2);
+            if (method > 1) {
+                throw new IOException("Bad FLAC residual coding");
+            }
+            int parameterBits = method == 0 ? 4 : 5;
+            int escape = method == 0 ? 15 : 31;
+            int partitionOrder = readBits(4);
+            int partitionSize = blockSize >> partitionOrder;
+            if (partitionSize << partitionOrder != blockSize || partitionSize < order) {
+                throw new IOException("Bad FLAC residual partitions");
+            }
+            int i = order;
+            for (int partition = 0; partition < 1 << partitionOrder; partition++) {
+                int end = (partition + 1) * partitionSize;
+                int k = readBits(parameterBits);
+                if (k == escape) {
+                    int bits = readBits(5);
+                    for (; i < end; i++) {
+                        out[i] = bits == 0 ? 0 : readSigned(bits);
+                    }
+                    continue;
+                }
+                for (; i < end; i++) {
+                    long window = window();
+                    int zeros = Long.numberOfLeadingZeros(window);
+                    int value;
+                    if (zeros + 1 + k <= 56) {
+                        int remainder = k == 0 ? 0 : (int) (window << (zeros + 1) >>> (64 - k));
+                        skip(zeros + 1 + k);
+                        value = zeros << k | remainder;
+                    } else {
+                        value = readUnary() << k | readBits(k);
+                    }
+                    out[i] = value >>> 1 ^ -(value & 1);
+                }
+            }
+        }
+
+        private static void predictFixed(int[] s, int n, int order) {
+            switch (order) {
+                case 1:
+                    for (int i = 1; i < n; i++) {
+                        s[i] += s[i - 1];
+                    }
+                    break;
+                case 2:
+                    for (int i = 2; i < n; i++) {
+                        s[i] += 2 * s[i - 1] - s[i - 2];
+                    }
+                    break;
+                case 3:
+                    for (int i = 3; i < n; i++) {
+                        s[i] += 3 * (s[i - 1] - s[i - 2]) + s[i - 3];
+                    }
+                    break;
+                case 4:
+                    for (int i = 4; i < n; i++) {
+                        s[i] += 4 * (s[i - 1] + s[i - 3]) - 6 * s[i - 2] - s[i - 4];
+                    }
+                    break;
+                default:
+                    // Order 0: the residual is the signal
+            }
+        }
+
+        // `narrow`: the sums fit in an int, which is the common case and faster
+        private static void predictLpc(int[] s, int n, int[] c, int shift, boolean narrow) {
+            int order = c.length;
+            if (narrow) {
+                for (int i = order; i < n; i++) {
+                    int sum = 0;
+                    for (int j = 0; j < order; j++) {
+                        sum += c[j] * s[i - 1 - j];
+                    }
+                    s[i] += sum >> shift;
+                }
+            } else {
+                for (int i = order; i < n; i++) {
+                    long sum = 0;
+                    for (int j = 0; j < order; j++) {
+                        sum += (long) c[j] * s[i - 1 - j];
+                    }
+                    s[i] += (int) (sum >> shift);
+                }
+            }
+        }
+
+        private void decorrelate(int assignment, int n) {
+            if (assignment < 8) {
+                return;
+            }
+            int[] a = samples[0];
+            int[] b = samples[1];
+            for (int i = 0; i < n; i++) {
+                if (assignment == 8) {
+                    // left, side
+                    b[i] = a[i] - b[i];
+                } else if (assignment == 9) {
+                    // side, right
+                    a[i] += b[i];
+                } else {
+                    // mid, side
+                    int side = b[i];
+                    int mid = a[i] << 1 | side & 1;
+                    a[i] = (mid + side) >> 1;
+                    b[i] = (mid - side) >> 1;
+                }
+            }
+        }
+
+        // Interleaves the frame into `pcm`, little-endian, with samples of 12 or 20 bits moved up
+        // to the top of their 16 or 24
+        private int toPcm(int blockSize) {
+            int channels = info.channels;
+            int length = blockSize * channels * bytesPerSample;
+            if (pcm.length < length) {
+                pcm = new byte[length];
+            }
+            int shift = bytesPerSample * 8 - info.bitsPerSample;
+            int o = 0;
+            for (int i = 0; i < blockSize; i++) {
+                for (int ch = 0; ch < channels; ch++) {
+                    int v = samples[ch][i] << shift;
+                    for (int b = 0; b < bytesPerSample; b++) {
+                        pcm[o++] = (byte) (v >> (8 * b));
+                    }
+                }
+            }
+            return length;
+        }
+
+        // The next 64 bits from the current bit on (zeros past the end of the file, which a
+        // frame may only look into, not read from)
+        private long window() throws IOException {
+            if (limit - pos < 8 && !eof) {
+                refill();
+            }
+            if (pos >= limit && eof) {
+                throw new EOFException("FLAC frame cut short");
+            }
+            return view.getLong(pos) << bitPos;
+        }
+
+        private void skip(int bits) {
+            bitPos += bits;
+            pos += bitPos >>> 3;
+            bitPos &= 7;
+        }
+
+        private int readBits(int bits) throws IOException {
+            if (bits == 0) {
+                return 0;
+            }
+            long window = window();
+            skip(bits);
+            return (int) (window >>> (64 - bits));
+        }
+
+        private int readSigned(int bits) throws IOException {
+            if (bits == 0) {
+                return 0;
+            }
+            long window = window();
+            skip(bits);
+            return (int) (window >> (64 - bits));
+        }
+
+        private int readUnary() throws IOException {
+            int count = 0;
+            while (true) {
+                long window = window();
+                if (window != 0) {
+                    int zeros = Long.numberOfLeadingZeros(window);
+                    skip(zeros + 1);
+                    return count + zeros;
+                }
+                if (pos >= limit) {
+                    throw new EOFException("FLAC frame cut short");
+                }
+                count += 56;
+                skip(56);
+            }
+        }
+
+        private void updateCrc() {
+            int crc = crc16;
+            for (int i = crcFrom; i < pos; i++) {
+                crc = (crc << 8 ^ CRC16[(crc >> 8 ^ buf[i]) & 0xFF]) & 0xFFFF;
+            }
+            crc16 = crc;
+            crcFrom = pos;
+        }
+
+        // Moves what is left to the front of the buffer and reads more after it
+        private void refill() throws IOException {
+            updateCrc();
+            int left = limit - pos;
+            System.arraycopy(buf, pos, buf, 0, left);
+            limit = left;
+            crcFrom -= pos;
+            pos = 0;
+            ByteBuffer target = ByteBuffer.wrap(buf, limit, BUFFER_BYTES - limit);
+            while (target.hasRemaining()) {
+                int read = channel.read(target, filePosition);
+                if (read < 0) {
+                    eof = true;
+                    break;
+                }
+                filePosition += read;
+            }
+            limit = target.position();
+            if (eof) {
+                Arrays.fill(buf, limit, buf.length, (byte) 0);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package src.main.java.musicplayer;
+
+// Volume. A new gain is reached with a ramp over one block instead of a jump, which would click.
+public class GainStage implements DspStage {
+    // Range of the volume control: 1% is about 60 dB below full volume
+    private static final float RANGE_DB = 60f;
+
+    private volatile float target;
+    private float gain;
+
+    public GainStage(float gain) {
+        this.target = gain;
+        this.gain = gain;
+    }
+
+    public void setGain(float gain) {
+        target = gain;
+    }
+
+    // Volume from 0 to 1 as a gain, on a decibel scale so that equal steps sound equal
+    public static float volumeToGain(float volume) {
+        if (volume <= 0) {
+            return 0f;
+        }
+        return (float) Math.pow(10, (Math.min(volume, 1f) - 1) * RANGE_DB / 20);
+    }
+
+    @Override
+    public void process(float[] samples, int frames, int channels) {
+        float end = target;
+        if (end == gain) {
+            if (gain != 1f) {
+                for (int i = 0; i < frames * channels; i++) {
+                    samples[i] *= gain;
+                }
+            }
+            return;
+        }
+        float step = (end - gain) / Math.max(1, frames);
+        float current = gain;
+        for (int frame = 0; frame < frames; frame++) {
+            current += step;
+            for (int c = 0; c < channels; c++) {
+                samples[frame * channels + c] *= current;
+            }
+        }
+        gain = end;
+    }
+}
@@ -0,0 +1,358 @@
+package src.main.java.musicplayer;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntSupplier;
+
+// Runs the library and player without a window, controlled by commands on standard input,
+// and over HTTP (ControlServer) with -Dmusicplayer.httpPort=<port>. Nothing here loads AWT or
+// Swing, so it works on a server without a display. Other threads that use the library or the
+// player synchronize on the HeadlessPlayer, as its own methods do.
+//
+//   java -cp <classes> src.main.java.musicplayer.HeadlessPlayer [songs.csv]
+public class HeadlessPlayer {
+    private final Library library;
+    private final PlayerEngine player = new PlayerEngine();
+
+    public HeadlessPlayer(String csvFilePath) {
+        library = new Library(csvFilePath);
+        player.addPlayerListener(new PlayerListener() {
+            @Override
+            public void songFinished(Song song) {
+                // Auto-play the next song in the queue
+                synchronized (HeadlessPlayer.this) {
+                    if (song == player.getCurrentSong()) {
+                        playQueued(library.getPlayQueue().advance(), library.getPlayQueue()::next);
+                    }
+                }
+            }
+
+            @Override
+            public void songChanged(Song song) {
+                synchronized (HeadlessPlayer.this) {
+                    // Gapless: the engine went on to the song prefetched from the queue
+                    PlayQueue queue = library.getPlayQueue();
+                    if (queue.peekNext() == song.getId()) {
+                        queue.advance();
+                    }
+                    library.recordPlay(song.getId());
+                    prefetchNextSong();
+                    System.out.println("Now Playing: " + song.getName());
+                }
+            }
+        });
+    }
+
+    public Library getLibrary() {
+        return library;
+    }
+
+    public PlayerEngine getPlayer() {
+        return player;
+    }
+
+    public synchronized void load() {
+        long start = System.nanoTime();
+        library.load();
+        System.out.println("Loaded " + library.size() + " songs in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        player.setLoudnessScanner(library.getLoudnessScanner());
+        library.analyzeLoudness();
+    }
+
+    // Plays the song at this position and queues the library in order from there
+    public synchronized boolean play(int position) {
+        if (position < 0 || position >= library.size()) {
+            return false;
+        }
+        int[] ids = new int[library.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = library.getSongs().idAt(i);
+        }
+        return play(library.getById(library.getPlayQueue().setSongs(ids, position)));
+    }
+
+    private boolean play(Song song) {
+        if (!player.play(song)) {
+            return false;
+        }
+        library.recordPlay(song.getId());
+        prefetchNextSong();
+        System.out.println("Now Playing: " + song.getName());
+        return true;
+    }
+
+    // Plays the next song in the queue; false at the end of it
+    public synchronized boolean next() {
+        PlayQueue queue = library.getPlayQueue();
+        return playQueued(queue.next(), queue::next);
+    }
+
+    public synchronized boolean previous() {
+        PlayQueue queue = library.getPlayQueue();
+        return playQueued(queue.previous(), queue::previous);
+    }
+
+    // Plays the song the queue moved to, skipping songs removed since they were queued
+    private boolean playQueued(int id, IntSupplier step) {
+        PlayQueue queue = library.getPlayQueue();
+        for (int tries = queue.size() + queue.getUpNextCount(); id >= 0 && library.positionOf(id) < 0 && tries > 0; tries--) {
+            id = step.getAsInt();
+        }
+        return id >= 0 && library.positionOf(id) >= 0 && play(library.getById(id));
+    }
+
+    private void prefetchNextSong() {
+        int next = library.getPlayQueue().peekNext();
+        player.setNextSong(next >= 0 ? library.getById(next) : null);
+    }
+
+    public synchronized void close() {
+        player.stop();
+        library.close();
+    }
+
+    // Runs one command line; false once the user asked to quit
+    public synchronized boolean execute(String line) {
+        String[] parts = line.trim().split("\\s+", 2);
+        String command = parts[0];
+        String argument = parts.length > 1 ? parts[1] : "";
+        switch (command) {
+            case "":
+                break;
+            case "help":
+                System.out.println("list, search <text>, play <n|path>, pause, resume, stop, next, prev,"
+                        + " queue <n|path>, playnext <n|path>, shuffle, repeat <off|all|one>, history,"
+                        + " volume <0-100>, mute, loop, crossfade <seconds>, normalize, add <name> <path>,"
+                        + " remove <name>, status, decoders, metrics, quit");
+                break;
+            case "list":
+                for (int i = 0; i < library.size(); i++) {
+                    System.out.println(i + "\t" + library.getSongs().nameAt(i));
+                }
+                break;
+            case "search":
+                for (int position : library.search(argument)) {
+                    System.out.println(position + "\t" + library.getSongs().nameAt(position));
+                }
+                break;
+            case "play": {
+                // A position in the list, or the path of a song in the library
+                Song song = library.findByPath(argument);
+                if (!play(song != null ? library.positionOf(song.getId()) : parsePosition(argument))) {
+                    System.out.println("No song at " + argument);
+                }
+                break;
+            }
+            case "next":
+                if (!next()) {
+                    System.out.println("End of the queue");
+                }
+                break;
+            case "prev":
+                if (!previous()) {
+                    System.out.println("Start of the queue");
+                }
+                break;
+            case "queue":
+            case "playnext": {
+                Song song = library.findByPath(argument);
+                int position = song != null ? library.positionOf(song.getId()) : parsePosition(argument);
+                if (position < 0 || position >= library.size()) {
+                    System.out.println("No song at " + argument);
+                } else if (command.equals("queue")) {
+                    library.getPlayQueue().enqueue(library.getSongs().idAt(position));
+                } else {
+                    library.getPlayQueue().playNext(library.getSongs().idAt(position));
+                }
+                prefetchNextSong();
+                break;
+            }
+            case "shuffle": {
+                PlayQueue queue = library.getPlayQueue();
+                queue.setShuffle(!queue.isShuffled());
+                prefetchNextSong();
+                System.out.println("Shuffle " + (queue.isShuffled() ? "on" : "off"));
+                break;
+            }
+            case "repeat":
+                try {
+                    library.getPlayQueue().setRepeat(PlayQueue.Repeat.valueOf(argument.trim().toUpperCase()));
+                    prefetchNextSong();
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Usage: repeat <off|all|one>");
+                }
+                break;
+            case "history":
+                for (int id : library.getPlayQueue().getHistory()) {
+                    Song played = library.getById(id);
+                    if (played != null) {
+                        System.out.println(played.getName());
+                    }
+                }
+                break;
+            case "pause":
+                player.pause();
+                break;
+            case "resume":
+                player.resume();
+                break;
+            case "stop":
+                player.stop();
+                break;
+            case "volume":
+                player.setVolume(parsePosition(argument));
+                break;
+            case "mute":
+                player.toggleMute();
+                break;
+            case "loop":
+                player.setLooping(!player.isLooping());
+                System.out.println("Loop " + (player.isLooping() ? "on" : "off"));
+                break;
+            case "normalize":
+                player.setNormalizing(!player.isNormalizing());
+                System.out.println("Normalize " + (player.isNormalizing() ? "on" : "off"));
+                break;
+            case "crossfade": {
+                int seconds = parsePosition(argument);
+                if (seconds < 0) {
+                    System.out.println("Usage: crossfade <seconds>");
+                } else {
+                    player.setCrossfadeMillis(seconds * 1000);
+                }
+                break;
+            }
+            case "add": {
+                int space = argument.lastIndexOf(' ');
+                if (space <= 0) {
+                    System.out.println("Usage: add <name> <path>");
+                } else {
+                    library.add(argument.substring(0, space), argument.substring(space + 1));
+                }
+                break;
+            }
+            case "remove":
+                library.remove(argument);
+                break;
+            case "status":
+                printStatus();
+                break;
+            case "decoders":
+                printDecoders();
+                break;
+            case "metrics":
+                System.out.print(Metrics.toText());
+                break;
+            case "quit":
+                return false;
+            default:
+                System.out.println("Unknown command: " + command + " (try help)");
+        }
+        return true;
+    }
+
+    private void printStatus() {
+        Song song = player.getCurrentSong();
+        if (song == null) {
+            System.out.println("Stopped");
+            return;
+        }
+        System.out.println((player.isPlaying() ? "Playing: " : "Paused: ") + song.getName()
+                + " " + formatTime(player.getPositionMicros())
+                + " / " + formatTime(player.getLengthMicros())
+                + ", volume " + player.getVolume() + (player.isMuted() ? " (muted)" : "")
+                + (player.isLooping() ? ", loop" : "")
+                + (library.getPlayQueue().isShuffled() ? ", shuffle" : "")
+                + ", repeat " + library.getPlayQueue().getRepeat().name().toLowerCase()
+                + (player.getCrossfadeMillis() > 0 ? ", crossfade " + player.getCrossfadeMillis() / 1000 + "s" : "")
+                + (player.isNormalizing() && song.hasTrackGain()
+                        ? String.format(Locale.ROOT, ", gain %+.1f dB", song.getTrackGainDb()) : ""));
+        LoudnessScanner scanner = library.getLoudnessScanner();
+        if (scanner.getPending() > 0) {
+            System.out.println(String.format(Locale.ROOT, "Measuring loudness: %d left, %d done at %.0fx real time",
+                    scanner.getPending(), scanner.getAnalyzedCount(), scanner.getSpeed()));
+        }
+        if (player.getOutputUnderruns() > 0 || player.getDecoderUnderruns() > 0 || player.getLateBlocks() > 0) {
+            System.out.println("Underruns: " + player.getOutputUnderruns() + " output, "
+                    + player.getDecoderUnderruns() + " decoder, " + player.getLateBlocks() + " late blocks");
+        }
+    }
+
+    // Each decoder in the order files are offered to them, with how fast it has decoded so far
+    private static void printDecoders() {
+        for (AudioDecoder decoder : AudioDecoders.getDecoders()) {
+            double seconds = AudioDecoders.getDecodedSeconds(decoder);
+            System.out.println(seconds > 0
+                    ? String.format(Locale.ROOT, "%s: %.0f s decoded at %.0fx real time", decoder.getName(), seconds,
+                            AudioDecoders.getSpeed(decoder))
+                    : decoder.getName() + ": nothing decoded yet");
+        }
+    }
+
+    // Same format as the duration column in the window
+    private static String formatTime(long microseconds) {
+        return Durations.toString(microseconds);
+    }
+
+    private static int parsePosition(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // The server asked for with -Dmusicplayer.httpPort, or null if none was
+    private static ControlServer startControlServer(HeadlessPlayer headless) {
+        Integer port = Integer.getInteger("musicplayer.httpPort");
+        if (port == null) {
+            return null;
+        }
+        ControlServer control = new ControlServer(headless);
+        try {
+            control.start(port);
+            System.out.println("Control at http://localhost:" + control.getPort() + "/status");
+            return control;
+        } catch (IOException e) {
+            System.err.println("Error starting control server: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static void main(String[] args) {
+        HttpServer metricsServer = Metrics.startConfiguredServer();
+        HeadlessPlayer headless = new HeadlessPlayer(args.length > 0 ? args[0] : "songs.csv");
+        headless.load();
+        ControlServer control = startControlServer(headless);
+        boolean quit = false;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in))) {
+            String line;
+            while (!quit && (line = in.readLine()) != null) {
+                quit = !headless.execute(line);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading commands: " + e.getMessage());
+        }
+        if (!quit && control != null) {
+            // No console (e.g. started as a service): serve HTTP until the process is stopped
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (control != null) {
+            control.stop();
+        }
+        headless.close();
+        if (metricsServer != null) {
+            metricsServer.stop(0);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+// Whatever Java Sound reads (AIFF, AU, and the formats of any Java Sound plug-ins installed).
+// Accepts every file and leaves it to AudioSystem to refuse; a seek opens the file and skips.
+class JavaSoundDecoder implements AudioDecoder {
+    @Override
+    public String getName() {
+        return "Java Sound";
+    }
+
+    @Override
+    public boolean accepts(byte[] head, int length) {
+        return true;
+    }
+
+    @Override
+    public AudioFileFormat getFormat(File file) throws IOException, UnsupportedAudioFileException {
+        return AudioSystem.getAudioFileFormat(file);
+    }
+
+    @Override
+    public AudioInputStream open(File file, long frame) throws IOException, UnsupportedAudioFileException {
+        AudioInputStream stream = StreamingPlaybackEngine.toPcm(AudioSystem.getAudioInputStream(file));
+        if (frame <= 0) {
+            return stream;
+        }
+        AudioFormat format = stream.getFormat();
+        SeekIndex.skipFully(stream, frame * Math.max(1, format.getFrameSize()));
+        long length = stream.getFrameLength();
+        return length < 0 ? stream : new AudioInputStream(stream, format, Math.max(0, length - frame));
+    }
+}
@@ -0,0 +1,248 @@
+package src.main.java.musicplayer;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+// The playlist. Entries can come from a MappedLibrary, in which case the Song object is only
+// created the first time that entry is read (e.g. when the JList paints its row); until then
+// the entry is just a row number into the mapped file. Each entry also keeps the song's ID,
+// so it can be looked up by ID without creating the Song either.
+public class LazySongList extends AbstractList<Song> implements RandomAccess {
+    private Song[] songs = new Song[16];
+    private int[] libraryRows = new int[16];
+    private int[] ids = new int[16];
+    private int size;
+    private MappedLibrary library;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Song get(int index) {
+        checkIndex(index);
+        Song song = songs[index];
+        if (song == null) {
+            song = library.song(libraryRows[index]);
+            song.setId(ids[index]);
+            songs[index] = song;
+        }
+        return song;
+    }
+
+    public int idAt(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    // Name of the entry without creating its Song
+    public String nameAt(int index) {
+        checkIndex(index);
+        Song song = songs[index];
+        return song != null ? song.getName() : library.nameAt(libraryRows[index]);
+    }
+
+    public String pathAt(int index) {
+        checkIndex(index);
+        Song song = songs[index];
+        return song != null ? song.getPath() : library.pathAt(libraryRows[index]);
+    }
+
+    public long durationAt(int index) {
+        checkIndex(index);
+        Song song = songs[index];
+        return song != null ? song.getDurationMicros() : library.durationAt(libraryRows[index]);
+    }
+
+    public float sampleRateAt(int index) {
+        checkIndex(index);
+        Song song = songs[index];
+        return song != null ? song.getSampleRate() : library.sampleRateAt(libraryRows[index]);
+    }
+
+    public int channelsAt(int index) {
+        checkIndex(index);
+        Song song = songs[index];
+        return song != null ? song.getChannels() : library.channelsAt(libraryRows[index]);
+    }
+
+    public long addedAt(int index) {
+        checkIndex(index);
+        Song song = songs[index];
+        return song != null ? song.getAddedMillis() : library.addedAt(libraryRows[index]);
+    }
+
+    public int playCountAt(int index) {
+        checkIndex(index);
+        Song song = songs[index];
+        return song != null ? song.getPlayCount() : library.playCountAt(libraryRows[index]);
+    }
+
+    @Override
+    public Song set(int index, Song song) {
+        Song previous = get(index);
+        songs[index] = song;
+        ids[index] = song.getId();
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Song song) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(songs, index, songs, index + 1, size - index);
+        System.arraycopy(libraryRows, index, libraryRows, index + 1, size - index);
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        songs[index] = song;
+        libraryRows[index] = -1;
+        ids[index] = song.getId();
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Song remove(int index) {
+        Song previous = get(index);
+        System.arraycopy(songs, index + 1, songs, index, size - index - 1);
+        System.arraycopy(libraryRows, index + 1, libraryRows, index, size - index - 1);
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        songs[--size] = null;
+        modCount++;
+        return previous;
+    }
+
+    // Removes the entries at the given positions (ascending, no duplicates) in one pass
+    public void removePositions(int[] positions, int count) {
+        if (count == 0) {
+            return;
+        }
+        // Moves each run of kept entries between two removed positions down with one copy
+        int kept = positions[0];
+        for (int next = 0; next < count; next++) {
+            int from = positions[next] + 1;
+            int to = next + 1 < count ? positions[next + 1] : size;
+            int length = to - from;
+            if (length > 0) {
+                System.arraycopy(songs, from, songs, kept, length);
+                System.arraycopy(libraryRows, from, libraryRows, kept, length);
+                System.arraycopy(ids, from, ids, kept, length);
+                kept += length;
+            }
+        }
+        Arrays.fill(songs, kept, size, null);
+        size = kept;
+        modCount++;
+    }
+
+    // Puts the entries in the given order (a permutation of all positions), lazy ones included
+    public void reorder(int[] order) {
+        if (order.length != size) {
+            throw new IllegalArgumentException("Order has " + order.length + " positions, list has " + size);
+        }
+        Song[] newSongs = new Song[songs.length];
+        int[] newLibraryRows = new int[songs.length];
+        int[] newIds = new int[songs.length];
+        for (int i = 0; i < size; i++) {
+            newSongs[i] = songs[order[i]];
+            newLibraryRows[i] = libraryRows[order[i]];
+            newIds[i] = ids[order[i]];
+        }
+        songs = newSongs;
+        libraryRows = newLibraryRows;
+        ids = newIds;
+        modCount++;
+    }
+
+    // Numbers the entries from `from` to the end with consecutive IDs starting at firstId
+    void assignIds(int from, int firstId) {
+        for (int i = from; i < size; i++) {
+            ids[i] = firstId + i - from;
+            if (songs[i] != null) {
+                songs[i].setId(ids[i]);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(songs, 0, size, null);
+        size = 0;
+        modCount++;
+    }
+
+    // Appends every song of the mapped library without materializing any of them
+    public void appendLibrary(MappedLibrary library) {
+        if (this.library != null && this.library != library) {
+            // Only one mapping is referenced at a time; pin down rows from the old one
+            for (int i = 0; i < size; i++) {
+                get(i);
+            }
+        }
+        this.library = library;
+        int count = library.size();
+        ensureCapacity(size + count);
+        for (int row = 0; row < count; row++) {
+            libraryRows[size + row] = row;
+            ids[size + row] = -1;
+        }
+        size += count;
+        modCount++;
+    }
+
+    // Moves all entries of another list (lazy ones included) to the end of this one
+    public void appendAll(LazySongList other) {
+        if (other.library != null && other.library != library) {
+            if (library != null) {
+                for (int i = 0; i < size; i++) {
+                    get(i);
+                }
+            }
+            library = other.library;
+        }
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.songs, 0, songs, size, other.size);
+        System.arraycopy(other.libraryRows, 0, libraryRows, size, other.size);
+        System.arraycopy(other.ids, 0, ids, size, other.size);
+        size += other.size;
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Song> collection) {
+        if (collection instanceof LazySongList) {
+            appendAll((LazySongList) collection);
+            return true;
+        }
+        return super.addAll(collection);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > songs.length) {
+            int newCapacity = Math.max(capacity, songs.length * 2);
+            songs = Arrays.copyOf(songs, newCapacity);
+            libraryRows = Arrays.copyOf(libraryRows, newCapacity);
+            ids = Arrays.copyOf(ids, newCapacity);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    static LazySongList of(List<Song> songs) {
+        LazySongList list = new LazySongList();
+        list.ensureCapacity(songs.size());
+        for (Song song : songs) {
+            list.add(song);
+        }
+        return list;
+    }
+}
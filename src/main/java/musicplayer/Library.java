@@ -0,0 +1,586 @@
+package src.main.java.musicplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// The song library without any UI: the playlist, its persistence (PlaylistStore), the search
+// index and the metadata cache. Changes are reported to LibraryListeners, which is how the
+// Swing view keeps its list model in sync.
+//
+// Every song has an ID (Song.getId()) that stays the same while the library is loaded, however
+// the playlist is reordered. positionById finds a song's position from its ID, and the search
+// index is keyed by ID too, so removing or sorting songs does not have to renumber it. Songs
+// can also be looked up by file path (built on first use).
+//
+// Named playlists (getPlaylists()) refer to songs by ID; removing a song from the library
+// removes it from them too. So does the play queue (getPlayQueue()), which skips removed songs.
+//
+// analyzeLoudness() measures every song's loudness in the background (LoudnessScanner); once
+// it was called, songs added later are measured too.
+//
+// Not thread-safe: use it from one thread (the EDT in the Swing player). The exceptions are
+// readSnapshot() and buildIndex(), which a background loader may run before the library is
+// used, and getMetadataCache()/readMetadata(), which are safe from any thread.
+public class Library {
+    private static final Histogram SEARCH_LATENCY = Metrics.histogram("library.searchNanos");
+
+    private final PlaylistStore store;
+    private final File metadataCacheFile;
+    private final File playlistsDirectory;
+    private final File queueFile;
+    private final File waveformsDirectory;
+    private final LazySongList songs = new LazySongList();
+    private SongSearchIndex searchIndex = new SongSearchIndex();
+    // Positions 0..indexedCount-1 are in the search index; loaded songs are indexed on first use
+    private int indexedCount;
+    private int[] positionById = new int[0];
+    private int nextId;
+    // Whether positions increase with IDs, as they do until the library is sorted
+    private boolean inIdOrder = true;
+    private Map<String, Integer> idByPath;
+    private final List<Song> pendingAdds = new ArrayList<>();
+    private final List<LibraryListener> listeners = new CopyOnWriteArrayList<>();
+    private MetadataCache metadataCache;
+    private Playlists playlists;
+    private PlayQueue playQueue;
+    private LoudnessScanner loudnessScanner;
+    private WaveformCache waveforms;
+
+    public Library(String csvFilePath) {
+        store = new PlaylistStore(csvFilePath);
+        metadataCacheFile = new File(new File(csvFilePath).getParentFile(), "metadata.cache");
+        playlistsDirectory = new File(new File(csvFilePath).getParentFile(), "playlists");
+        queueFile = new File(new File(csvFilePath).getParentFile(), "queue.dat");
+        waveformsDirectory = new File(new File(csvFilePath).getParentFile(), "waveforms");
+        Metrics.gauge("library.songs", this::size);
+    }
+
+    public void addLibraryListener(LibraryListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeLibraryListener(LibraryListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Snapshot in songs.csv plus whatever the journal recorded since; does not touch the library
+    public LazySongList readSnapshot() throws IOException {
+        return store.load();
+    }
+
+    public static SongSearchIndex buildIndex(LazySongList songs) {
+        SongSearchIndex index = new SongSearchIndex();
+        for (int i = 0; i < songs.size(); i++) {
+            index.add(songs.idAt(i), songs.nameAt(i));
+        }
+        return index;
+    }
+
+    public void load() {
+        try {
+            append(readSnapshot());
+            ensureIndexed();
+        } catch (IOException e) {
+            System.err.println("Error loading songs: " + e.getMessage());
+        }
+    }
+
+    // Adds songs from readSnapshot(). Their names are indexed on the next search or change,
+    // unless useIndex() hands over an index that was built in the background first.
+    public void append(LazySongList loaded) {
+        int first = songs.size();
+        songs.appendAll(loaded);
+        if (first == 0) {
+            // The IDs from the store, which its journal records refer to
+            for (int i = 0; i < songs.size(); i++) {
+                nextId = Math.max(nextId, songs.idAt(i) + 1);
+            }
+        } else {
+            // Loaded a second time: the copy needs IDs of its own, and the store only knows
+            // the copy it just read, so save the whole library to get the two back in step
+            songs.assignIds(first, nextId);
+            nextId += loaded.size();
+        }
+        updatePositions(first);
+        fireSongsAdded(first, songs.size() - 1);
+        if (first > 0) {
+            save();
+        }
+    }
+
+    // Takes over an index built with buildIndex() if it covers exactly the current songs
+    public void useIndex(SongSearchIndex index) {
+        if (indexedCount == 0 && index.size() == songs.size()) {
+            searchIndex = index;
+            indexedCount = songs.size();
+        }
+    }
+
+    private void ensureIndexed() {
+        for (int i = indexedCount; i < songs.size(); i++) {
+            searchIndex.add(songs.idAt(i), songs.nameAt(i));
+        }
+        indexedCount = songs.size();
+    }
+
+    // Records the position of every song from `from` on
+    private void updatePositions(int from) {
+        if (nextId > positionById.length) {
+            int oldLength = positionById.length;
+            positionById = Arrays.copyOf(positionById, Math.max(nextId, oldLength * 2));
+            Arrays.fill(positionById, oldLength, positionById.length, -1);
+        }
+        for (int i = from; i < songs.size(); i++) {
+            positionById[songs.idAt(i)] = i;
+        }
+    }
+
+    // Rewrites songs.csv from the playlist and clears the journal
+    public void save() {
+        try {
+            store.compact(songs);
+            // The snapshot has them now; journaling them as well would add them twice
+            pendingAdds.clear();
+        } catch (IOException e) {
+            System.err.println("Error saving songs: " + e.getMessage());
+        }
+    }
+
+    // Called after each journaled mutation; folds the journal into songs.csv once it gets long
+    private void compactIfNeeded() {
+        if (store.needsCompaction(songs.size())) {
+            save();
+        }
+    }
+
+    public Song add(String name, String path) {
+        ensureIndexed();
+        Song song = new Song(name, path);
+        MetadataCache.Entry entry = readMetadata(path);
+        if (entry != null) {
+            song.setMetadata(entry.getDurationMicros(), entry.getSampleRate(), entry.getChannels());
+        }
+        append(song);
+        fireSongsAdded(songs.size() - 1, songs.size() - 1);
+        try {
+            store.recordAdd(song);
+        } catch (IOException e) {
+            System.err.println("Error saving songs: " + e.getMessage());
+        }
+        compactIfNeeded();
+        return song;
+    }
+
+    // Adds a batch of songs with a single journal write
+    public void addAll(List<Song> batch) {
+        appendSongs(batch);
+        try {
+            store.recordAdds(batch);
+        } catch (IOException e) {
+            System.err.println("Error saving songs: " + e.getMessage());
+        }
+        compactIfNeeded();
+    }
+
+    // Adds songs now but journals them only on flushPending(), so a long import costs one write
+    public void addPending(List<Song> batch) {
+        appendSongs(batch);
+        pendingAdds.addAll(batch);
+    }
+
+    public void flushPending() {
+        try {
+            store.recordAdds(pendingAdds);
+        } catch (IOException e) {
+            System.err.println("Error saving songs: " + e.getMessage());
+        }
+        pendingAdds.clear();
+        compactIfNeeded();
+    }
+
+    private void appendSongs(List<Song> batch) {
+        ensureIndexed();
+        int first = songs.size();
+        for (Song song : batch) {
+            append(song);
+        }
+        fireSongsAdded(first, songs.size() - 1);
+    }
+
+    // Gives the song the next ID and puts it at the end, in every index
+    private void append(Song song) {
+        song.setId(nextId++);
+        if (song.getAddedMillis() == 0) {
+            song.setAddedMillis(System.currentTimeMillis());
+        }
+        songs.add(song);
+        updatePositions(songs.size() - 1);
+        searchIndex.add(song.getId(), song.getName());
+        indexedCount = songs.size();
+        if (idByPath != null) {
+            idByPath.putIfAbsent(song.getPath(), song.getId());
+        }
+    }
+
+    public void remove(int id) {
+        removeAll(new int[]{id});
+    }
+
+    // Removes the songs with the given IDs in one pass over the playlist and one journal write,
+    // however many there are. Unknown IDs are ignored.
+    public void removeAll(int[] ids) {
+        ensureIndexed();
+        int[] positions = new int[ids.length];
+        int[] removed = new int[ids.length];
+        int count = 0;
+        for (int id : ids) {
+            int position = positionOf(id);
+            if (position < 0) {
+                continue;
+            }
+            positions[count] = position;
+            removed[count++] = id;
+            positionById[id] = -1;
+            searchIndex.remove(id);
+            if (idByPath != null && idByPath.remove(songs.pathAt(position), id)) {
+                // Another song may have the same path; find it again on the next lookup
+                idByPath = null;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        Arrays.sort(positions, 0, count);
+        songs.removePositions(positions, count);
+        updatePositions(positions[0]);
+        indexedCount = songs.size();
+        try {
+            store.recordRemoves(removed, count);
+        } catch (IOException e) {
+            System.err.println("Error saving songs: " + e.getMessage());
+        }
+        BitSet removedIds = new BitSet(nextId);
+        for (int i = 0; i < count; i++) {
+            removedIds.set(removed[i]);
+        }
+        // Songs of a running import are not journaled yet and have no slot to remove, so
+        // they must not be journaled as added later either
+        pendingAdds.removeIf(song -> removedIds.get(song.getId()));
+        if (playlists != null) {
+            playlists.songsRemoved(removedIds);
+        }
+        int[] removedPositions = Arrays.copyOf(positions, count);
+        for (LibraryListener listener : listeners) {
+            listener.songsRemoved(removedPositions);
+        }
+        compactIfNeeded();
+    }
+
+    // Removes every song with this name
+    public void remove(String name) {
+        int[] ids = new int[0];
+        int count = 0;
+        for (int i = 0; i < songs.size(); i++) {
+            if (songs.nameAt(i).equals(name)) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, Math.max(4, count * 2));
+                }
+                ids[count++] = songs.idAt(i);
+            }
+        }
+        removeAll(Arrays.copyOf(ids, count));
+    }
+
+    public void rename(int id, String newName) {
+        ensureIndexed();
+        int position = positionOf(id);
+        if (position < 0) {
+            return;
+        }
+        songs.get(position).setName(newName);
+        searchIndex.rename(id, newName);
+        fireSongChanged(position);
+        try {
+            store.recordRename(id, newName);
+        } catch (IOException e) {
+            System.err.println("Error saving songs: " + e.getMessage());
+        }
+        compactIfNeeded();
+    }
+
+    // Renames the first song with this name
+    public void rename(String oldName, String newName) {
+        int position = positionOfName(oldName);
+        if (position >= 0) {
+            rename(songs.idAt(position), newName);
+        }
+    }
+
+    public void changePath(int id, String newPath) {
+        int position = positionOf(id);
+        if (position < 0) {
+            return;
+        }
+        songs.get(position).setPath(newPath);
+        // Rare enough to just rebuild the path index when it is next needed
+        idByPath = null;
+        if (playlists != null) {
+            playlists.songMoved(id);
+        }
+        fireSongChanged(position);
+        try {
+            store.recordPathChange(id, newPath);
+        } catch (IOException e) {
+            System.err.println("Error saving songs: " + e.getMessage());
+        }
+        compactIfNeeded();
+    }
+
+    // Changes the path of the first song with this name
+    public void changePath(String name, String newPath) {
+        int position = positionOfName(name);
+        if (position >= 0) {
+            changePath(songs.idAt(position), newPath);
+        }
+    }
+
+    private int positionOfName(String name) {
+        for (int i = 0; i < songs.size(); i++) {
+            if (songs.nameAt(i).equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Counts one more play of the song
+    public void recordPlay(int id) {
+        int position = positionOf(id);
+        if (position < 0) {
+            return;
+        }
+        Song song = songs.get(position);
+        song.setPlayCount(song.getPlayCount() + 1);
+        fireSongChanged(position);
+        try {
+            store.recordPlayCount(id, song.getPlayCount());
+        } catch (IOException e) {
+            System.err.println("Error saving songs: " + e.getMessage());
+        }
+        compactIfNeeded();
+    }
+
+    // Positions in the given order, without changing the library
+    public int[] sortedOrder(SongSort sort) {
+        return sort.order(songs);
+    }
+
+    // Sorts the library itself and saves it
+    public void sort(SongSort sort) {
+        reorder(sortedOrder(sort));
+    }
+
+    // Puts the songs in the given order of positions (e.g. a sorted view the user wants to
+    // keep) and saves it; the journal has no record for a new order
+    public void reorder(int[] order) {
+        ensureIndexed();
+        songs.reorder(order);
+        updatePositions(0);
+        inIdOrder = true;
+        for (int i = 1; i < songs.size() && inIdOrder; i++) {
+            inIdOrder = songs.idAt(i - 1) < songs.idAt(i);
+        }
+        for (LibraryListener listener : listeners) {
+            listener.libraryReordered();
+        }
+        save();
+    }
+
+    // Positions of the songs whose name contains the query, ignoring case, in playlist order
+    public int[] search(String query) {
+        long start = System.nanoTime();
+        ensureIndexed();
+        int[] matches = searchIndex.search(query);
+        for (int i = 0; i < matches.length; i++) {
+            matches[i] = positionById[matches[i]];
+        }
+        if (!inIdOrder) {
+            Arrays.sort(matches);
+        }
+        SEARCH_LATENCY.recordSince(start);
+        return matches;
+    }
+
+    public int size() {
+        return songs.size();
+    }
+
+    public Song get(int position) {
+        return songs.get(position);
+    }
+
+    // Current position of the song with this ID; -1 if it is not in the library
+    public int positionOf(int id) {
+        return id >= 0 && id < positionById.length ? positionById[id] : -1;
+    }
+
+    public Song getById(int id) {
+        int position = positionOf(id);
+        return position >= 0 ? songs.get(position) : null;
+    }
+
+    // A song with this file path, or null. The path index is built on the first call.
+    public Song findByPath(String path) {
+        int id = idOfPath(path);
+        return id >= 0 ? getById(id) : null;
+    }
+
+    // ID of a song with this file path, or -1
+    public int idOfPath(String path) {
+        if (idByPath == null) {
+            idByPath = new HashMap<>(songs.size() * 4 / 3 + 1);
+            for (int i = 0; i < songs.size(); i++) {
+                idByPath.putIfAbsent(songs.pathAt(i), songs.idAt(i));
+            }
+        }
+        Integer id = idByPath.get(path);
+        return id != null ? id : -1;
+    }
+
+    // The queue from the last session on first use; load the library first
+    public PlayQueue getPlayQueue() {
+        if (playQueue == null) {
+            playQueue = PlayQueue.load(queueFile, this);
+        }
+        return playQueue;
+    }
+
+    // Read from the playlists directory on first use, since that builds the path index
+    public Playlists getPlaylists() {
+        if (playlists == null) {
+            playlists = new Playlists(this, playlistsDirectory);
+            playlists.load();
+        }
+        return playlists;
+    }
+
+    // Started on first use; the threads only do work once songs are submitted
+    public LoudnessScanner getLoudnessScanner() {
+        if (loudnessScanner == null) {
+            loudnessScanner = new LoudnessScanner(getMetadataCache());
+        }
+        return loudnessScanner;
+    }
+
+    // Waveforms for the progress bar, kept in the waveforms directory
+    public WaveformCache getWaveforms() {
+        if (waveforms == null) {
+            waveforms = new WaveformCache(waveformsDirectory);
+        }
+        return waveforms;
+    }
+
+    // Queues every song for loudness measurement; songs measured before are skipped quickly
+    public void analyzeLoudness() {
+        LoudnessScanner scanner = getLoudnessScanner();
+        for (int i = 0; i < songs.size(); i++) {
+            scanner.submit(songs.pathAt(i));
+        }
+    }
+
+    // The live playlist; read it, change it through the library
+    public LazySongList getSongs() {
+        return songs;
+    }
+
+    // Writes out what is still only in the journal or in memory
+    public void close() {
+        if (loudnessScanner != null) {
+            loudnessScanner.shutdown();
+        }
+        if (waveforms != null) {
+            waveforms.shutdown();
+        }
+        if (!pendingAdds.isEmpty()) {
+            flushPending();
+        }
+        if (store.getJournalRecordCount() > 0) {
+            save();
+        }
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.err.println("Error saving songs: " + e.getMessage());
+        }
+        if (playlists != null) {
+            playlists.save();
+        }
+        // After the library is saved, so the positions it is saved by are the ones loaded next time
+        if (playQueue != null) {
+            playQueue.save(queueFile, this);
+        }
+        synchronized (this) {
+            if (metadataCache != null) {
+                metadataCache.save();
+            }
+        }
+    }
+
+    // Loaded on first use; the file can be large, so not during startup
+    public synchronized MetadataCache getMetadataCache() {
+        if (metadataCache == null) {
+            metadataCache = MetadataCache.load(metadataCacheFile);
+        }
+        return metadataCache;
+    }
+
+    // Format of the file, from the metadata cache; null if it is missing or not audio
+    public MetadataCache.Entry readMetadata(String path) {
+        try {
+            return getMetadataCache().get(Paths.get(path));
+        } catch (IOException | InvalidPathException e) {
+            // Missing or unreadable file; it just shows no duration
+            return null;
+        }
+    }
+
+    // Songs that were added without their format (with "Add Song", or from an older songs.csv)
+    public List<Song> songsMissingMetadata() {
+        List<Song> missing = new ArrayList<>();
+        for (int i = 0; i < songs.size(); i++) {
+            if (songs.durationAt(i) < 0) {
+                missing.add(songs.get(i));
+            }
+        }
+        return missing;
+    }
+
+    private void fireSongsAdded(int from, int to) {
+        if (to < from) {
+            return;
+        }
+        if (loudnessScanner != null) {
+            for (int i = from; i <= to; i++) {
+                loudnessScanner.submit(songs.pathAt(i));
+            }
+        }
+        for (LibraryListener listener : listeners) {
+            listener.songsAdded(from, to);
+        }
+    }
+
+    private void fireSongChanged(int position) {
+        for (LibraryListener listener : listeners) {
+            listener.songChanged(position);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package src.main.java.musicplayer;
+
+// Changes to a Library. Called on the thread that made the change, after it was made.
+// Positions are playlist positions at the time of the call.
+public interface LibraryListener {
+    default void songsAdded(int from, int to) {
+    }
+
+    // Ascending positions, as they were before the removal
+    default void songsRemoved(int[] positions) {
+    }
+
+    default void songChanged(int position) {
+    }
+
+    // The order of the whole library changed (e.g. it was sorted)
+    default void libraryReordered() {
+    }
+}
@@ -0,0 +1,164 @@
+package src.main.java.musicplayer;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Imports a folder: walks the directory tree and reads the header of every audio file on a
+// pool of worker threads. Header reads are small random reads, so the pool is sized for I/O
+// rather than for the number of cores; keeping many reads in flight is what keeps the disk busy.
+// Songs are handed to the listener in batches, in the order the walk found them. Headers are
+// read through the MetadataCache, so files that have not changed since the last scan are not
+// opened at all.
+public class LibraryScanner {
+    static final int BATCH_SIZE = 500;
+    // Header reads queued ahead of the one being collected, per worker
+    private static final int IN_FLIGHT_PER_THREAD = 32;
+
+    public interface Listener {
+        void songsFound(List<Song> batch);
+
+        default void progress(int scanned, int added, int skipped) {
+        }
+    }
+
+    private final int threads;
+    private final MetadataCache cache;
+    private volatile boolean cancelled;
+
+    public LibraryScanner(MetadataCache cache) {
+        this(Math.max(4, Runtime.getRuntime().availableProcessors() * 2), cache);
+    }
+
+    public LibraryScanner(int threads, MetadataCache cache) {
+        this.threads = threads;
+        this.cache = cache;
+    }
+
+    // Stops a running scan; songs already handed to the listener stay imported
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Scans the tree under root and returns the number of songs found. Blocks until the
+    // scan is done or cancelled; the listener is called on the scanning thread.
+    public int scan(Path root, Listener listener) throws IOException {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "library-scan-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Collector collector = new Collector(listener);
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (cancelled) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (attrs.isRegularFile() && isAudioFile(file)) {
+                        collector.pending.add(pool.submit(() -> readSong(file, cache)));
+                        // Backpressure: keep a bounded number of reads in flight
+                        while (collector.pending.size() > threads * IN_FLIGHT_PER_THREAD && !cancelled) {
+                            collector.collectOne();
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    System.err.println("Error scanning " + file + ": " + e.getMessage());
+                    return cancelled ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                }
+            });
+            while (!collector.pending.isEmpty() && !cancelled) {
+                collector.collectOne();
+            }
+            collector.flush();
+        } finally {
+            pool.shutdownNow();
+        }
+        return collector.added;
+    }
+
+    // Takes finished reads in submission order and batches them up for the listener
+    private final class Collector {
+        final ArrayDeque<Future<Song>> pending = new ArrayDeque<>();
+        private final Listener listener;
+        private List<Song> batch = new ArrayList<>();
+        int scanned;
+        int added;
+        int skipped;
+
+        Collector(Listener listener) {
+            this.listener = listener;
+        }
+
+        void collectOne() {
+            Future<Song> future = pending.poll();
+            Song song = null;
+            try {
+                song = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+            } catch (ExecutionException e) {
+                System.err.println("Error reading audio file: " + e.getCause().getMessage());
+            }
+            scanned++;
+            if (song != null) {
+                batch.add(song);
+                added++;
+            } else {
+                skipped++;
+            }
+            if (batch.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (!batch.isEmpty()) {
+                listener.songsFound(batch);
+                batch = new ArrayList<>();
+            }
+            listener.progress(scanned, added, skipped);
+        }
+    }
+
+    static boolean isAudioFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".wav") || name.endsWith(".mp3") || name.endsWith(".flac");
+    }
+
+    // Song named after the file; null if the file is not a readable audio file
+    static Song readSong(Path file, MetadataCache cache) throws IOException {
+        MetadataCache.Entry entry = cache.get(file);
+        if (entry == null) {
+            return null;
+        }
+        String fileName = file.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String name = dot > 0 ? fileName.substring(0, dot) : fileName;
+        return new Song(name, file.toAbsolutePath().toString(), entry.getDurationMicros(),
+                entry.getSampleRate(), entry.getChannels());
+    }
+}
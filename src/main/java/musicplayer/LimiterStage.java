@@ -0,0 +1,41 @@
+package src.main.java.musicplayer;
+
+// Peak limiter at the end of the chain: keeps the sum of overlapping songs (or a loud song at
+// full volume) below the threshold instead of letting it clip. The gain drops at once on a
+// peak and recovers exponentially over the release time.
+public class LimiterStage implements DspStage {
+    // -1 dBFS
+    private static final float DEFAULT_THRESHOLD = 0.891f;
+    private static final float DEFAULT_RELEASE_MILLIS = 100f;
+
+    private final float threshold;
+    private final float release;
+    private float envelope = 1f;
+
+    public LimiterStage(float sampleRate) {
+        this(DEFAULT_THRESHOLD, sampleRate, DEFAULT_RELEASE_MILLIS);
+    }
+
+    public LimiterStage(float threshold, float sampleRate, float releaseMillis) {
+        this.threshold = threshold;
+        this.release = (float) Math.exp(-1.0 / (sampleRate * releaseMillis / 1000));
+    }
+
+    @Override
+    public void process(float[] samples, int frames, int channels) {
+        for (int frame = 0; frame < frames; frame++) {
+            int base = frame * channels;
+            float peak = 0f;
+            for (int c = 0; c < channels; c++) {
+                peak = Math.max(peak, Math.abs(samples[base + c]));
+            }
+            float wanted = peak > threshold ? threshold / peak : 1f;
+            envelope = wanted < envelope ? wanted : wanted + (envelope - wanted) * release;
+            if (envelope != 1f) {
+                for (int c = 0; c < channels; c++) {
+                    samples[base + c] *= envelope;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+// Where a PlaybackEngine gets its output line: the system's mixer, unless the engine was
+// given something else to play into.
+public interface LineSource {
+    LineSource SYSTEM = AudioSystem::getSourceDataLine;
+
+    // A line for the format, not yet opened
+    SourceDataLine getLine(AudioFormat format) throws LineUnavailableException;
+}
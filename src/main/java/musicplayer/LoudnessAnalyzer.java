@@ -0,0 +1,262 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Integrated loudness (ITU-R BS.1770 / EBU R128, in LUFS) and sample peak of a track, computed
+// in one streaming pass: process() takes interleaved float samples in chunks of any size.
+//
+// Each channel is K-weighted (a high shelf and a high pass, as two biquads) and its mean
+// square summed per 100 ms; 400 ms blocks overlapping by 75% are then made of four of those.
+// Blocks below -70 LUFS, and then those more than 10 LU below the mean of the rest, are left
+// out, so silence and quiet passages do not pull the result down. Only the 100 ms energies
+// are kept (10 per second), not the audio.
+//
+// The samples are split into one array per channel first, so the filter runs over contiguous
+// memory and the square-sum and peak loops are plain array loops the JIT can vectorize.
+public class LoudnessAnalyzer {
+    // ReplayGain 2.0 plays every track as if it measured this loudness
+    public static final float REFERENCE_LUFS = -18f;
+
+    private static final double ABSOLUTE_GATE_LUFS = -70;
+    private static final double RELATIVE_GATE_LU = -10;
+    private static final int SUB_BLOCKS_PER_BLOCK = 4;
+
+    private final int channels;
+    private final float[] weights;
+    private final int subBlockFrames;
+    // Per channel: biquad coefficients (b0 b1 b2 a1 a2, shelf then high pass) and state
+    private final double[] shelf;
+    private final double[] highPass;
+    private final double[][] state;
+    private float[][] planar = new float[0][];
+    // Weighted energy of each finished 100 ms sub-block, and the one being filled
+    private double[] subBlocks = new double[64];
+    private int subBlockCount;
+    private double energy;
+    private int framesInSubBlock;
+    private float peak;
+
+    public LoudnessAnalyzer(float sampleRate, int channels) {
+        this.channels = channels;
+        this.weights = channelWeights(channels);
+        this.subBlockFrames = Math.max(1, Math.round(sampleRate / 10));
+        this.shelf = highShelf(sampleRate);
+        this.highPass = highPass(sampleRate);
+        this.state = new double[channels][4];
+    }
+
+    // Analyzes the whole file. Returns {loudness in LUFS, peak}; loudness is -Infinity if the
+    // file is silent throughout.
+    public static float[] analyze(File file) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream stream = StreamingPlaybackEngine.openPcmStream(file)) {
+            AudioFormat format = stream.getFormat();
+            int frameSize = Math.max(1, format.getFrameSize());
+            int chunkFrames = 8192;
+            byte[] bytes = new byte[chunkFrames * frameSize];
+            float[] samples = new float[chunkFrames * format.getChannels()];
+            LoudnessAnalyzer analyzer = new LoudnessAnalyzer(format.getSampleRate(), format.getChannels());
+            int pending = 0;
+            int read;
+            while ((read = stream.read(bytes, pending, bytes.length - pending)) > 0) {
+                pending += read;
+                int frames = pending / frameSize;
+                if (frames == 0) {
+                    continue;
+                }
+                MixerVoice.toFloats(bytes, frames, format, samples);
+                analyzer.process(samples, frames);
+                int used = frames * frameSize;
+                System.arraycopy(bytes, used, bytes, 0, pending - used);
+                pending -= used;
+            }
+            return new float[] {analyzer.getIntegratedLoudness(), analyzer.getPeak()};
+        }
+    }
+
+    // Gain in dB that brings the track to the reference loudness, reduced where needed so
+    // its peak stays below full scale; 0 for a silent track
+    public static float gainDb(float loudness, float peak) {
+        if (Float.isInfinite(loudness) || Float.isNaN(loudness)) {
+            return 0f;
+        }
+        float gain = REFERENCE_LUFS - loudness;
+        if (peak > 0) {
+            gain = Math.min(gain, (float) (-20 * Math.log10(peak)));
+        }
+        return gain;
+    }
+
+    public void process(float[] interleaved, int frames) {
+        if (planar.length == 0 || planar[0].length < frames) {
+            planar = new float[channels][frames];
+        }
+        for (int c = 0; c < channels; c++) {
+            float[] channel = planar[c];
+            for (int i = 0, s = c; i < frames; i++, s += channels) {
+                channel[i] = interleaved[s];
+            }
+            peak = Math.max(peak, peakOf(channel, frames));
+            filter(channel, frames, state[c]);
+        }
+        // Split at sub-block boundaries
+        int offset = 0;
+        while (offset < frames) {
+            int n = Math.min(frames - offset, subBlockFrames - framesInSubBlock);
+            for (int c = 0; c < channels; c++) {
+                if (weights[c] != 0f) {
+                    energy += weights[c] * sumOfSquares(planar[c], offset, n);
+                }
+            }
+            framesInSubBlock += n;
+            offset += n;
+            if (framesInSubBlock == subBlockFrames) {
+                if (subBlockCount == subBlocks.length) {
+                    subBlocks = Arrays.copyOf(subBlocks, subBlockCount * 2);
+                }
+                subBlocks[subBlockCount++] = energy / subBlockFrames;
+                energy = 0;
+                framesInSubBlock = 0;
+            }
+        }
+    }
+
+    // Loudness in LUFS of everything processed so far; -Infinity if it was all below the gate.
+    // Audio shorter than one 400 ms block counts as one block.
+    public float getIntegratedLoudness() {
+        int blocks = subBlockCount - SUB_BLOCKS_PER_BLOCK + 1;
+        if (blocks <= 0) {
+            double total = energy;
+            for (int i = 0; i < subBlockCount; i++) {
+                total += subBlocks[i] * subBlockFrames;
+            }
+            long frames = (long) subBlockCount * subBlockFrames + framesInSubBlock;
+            double loudness = frames > 0 ? toLufs(total / frames) : Double.NEGATIVE_INFINITY;
+            return loudness > ABSOLUTE_GATE_LUFS ? (float) loudness : Float.NEGATIVE_INFINITY;
+        }
+        double[] blockEnergy = new double[blocks];
+        double sum = 0;
+        for (int i = 0; i < SUB_BLOCKS_PER_BLOCK - 1; i++) {
+            sum += subBlocks[i];
+        }
+        for (int b = 0; b < blocks; b++) {
+            sum += subBlocks[b + SUB_BLOCKS_PER_BLOCK - 1];
+            blockEnergy[b] = sum / SUB_BLOCKS_PER_BLOCK;
+            sum -= subBlocks[b];
+        }
+        double absoluteGate = fromLufs(ABSOLUTE_GATE_LUFS);
+        double mean = gatedMean(blockEnergy, absoluteGate);
+        if (Double.isNaN(mean)) {
+            return Float.NEGATIVE_INFINITY;
+        }
+        double relativeGate = fromLufs(toLufs(mean) + RELATIVE_GATE_LU);
+        return (float) toLufs(gatedMean(blockEnergy, Math.max(absoluteGate, relativeGate)));
+    }
+
+    // Largest absolute sample value so far, 1.0 being full scale
+    public float getPeak() {
+        return peak;
+    }
+
+    private static double gatedMean(double[] blockEnergy, double gate) {
+        double sum = 0;
+        int count = 0;
+        for (double e : blockEnergy) {
+            if (e > gate) {
+                sum += e;
+                count++;
+            }
+        }
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    private static double toLufs(double meanSquare) {
+        return -0.691 + 10 * Math.log10(meanSquare);
+    }
+
+    private static double fromLufs(double lufs) {
+        return Math.pow(10, (lufs + 0.691) / 10);
+    }
+
+    private static float peakOf(float[] samples, int count) {
+        float max = 0f;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, Math.abs(samples[i]));
+        }
+        return max;
+    }
+
+    private static double sumOfSquares(float[] samples, int from, int count) {
+        float sum = 0f;
+        // Short runs (a 100 ms sub-block at most) keep the float sum accurate enough
+        for (int i = from, end = from + count; i < end; i++) {
+            sum += samples[i] * samples[i];
+        }
+        return sum;
+    }
+
+    // Both K-weighting stages in place, in direct form II transposed
+    private void filter(float[] samples, int count, double[] s) {
+        double b0 = shelf[0], b1 = shelf[1], b2 = shelf[2], a1 = shelf[3], a2 = shelf[4];
+        double c1 = highPass[3], c2 = highPass[4];
+        double s0 = s[0], s1 = s[1], s2 = s[2], s3 = s[3];
+        for (int i = 0; i < count; i++) {
+            double x = samples[i];
+            double y = b0 * x + s0;
+            s0 = b1 * x - a1 * y + s1;
+            s1 = b2 * x - a2 * y;
+            // High pass numerator is 1, -2, 1
+            double z = y + s2;
+            s2 = -2 * y - c1 * z + s3;
+            s3 = y - c2 * z;
+            samples[i] = (float) z;
+        }
+        s[0] = s0;
+        s[1] = s1;
+        s[2] = s2;
+        s[3] = s3;
+    }
+
+    // Stage 1 of the K-weighting: +4 dB above about 1.5 kHz (head diffraction)
+    private static double[] highShelf(float sampleRate) {
+        double f0 = 1681.974450955533;
+        double gainDb = 3.999843853973347;
+        double q = 0.7071752369554196;
+        double k = Math.tan(Math.PI * f0 / sampleRate);
+        double vh = Math.pow(10, gainDb / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        return new double[] {
+                (vh + vb * k / q + k * k) / a0,
+                2 * (k * k - vh) / a0,
+                (vh - vb * k / q + k * k) / a0,
+                2 * (k * k - 1) / a0,
+                (1 - k / q + k * k) / a0};
+    }
+
+    // Stage 2: high pass at about 38 Hz (the "RLB" curve)
+    private static double[] highPass(float sampleRate) {
+        double f0 = 38.13547087602444;
+        double q = 0.5003270373238773;
+        double k = Math.tan(Math.PI * f0 / sampleRate);
+        double a0 = 1 + k / q + k * k;
+        return new double[] {1, -2, 1, 2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0};
+    }
+
+    // BS.1770 weights: 1 for left, right and centre; for 5.1 the LFE is left out and the
+    // surround channels count 1.41
+    private static float[] channelWeights(int channels) {
+        float[] weights = new float[channels];
+        Arrays.fill(weights, 1f);
+        if (channels == 6) {
+            weights[3] = 0f;
+            weights[4] = 1.41f;
+            weights[5] = 1.41f;
+        }
+        return weights;
+    }
+}
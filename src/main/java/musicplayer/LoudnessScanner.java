@@ -0,0 +1,149 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Measures the loudness of library files in the background (LoudnessAnalyzer) and keeps the
+// results in the MetadataCache, so each file is decoded for it once. The threads run at the
+// lowest priority and are started on first use; files whose cache entry already has a
+// loudness are skipped without being opened. A song about to be played is moved to the front
+// of the queue (gainDb()).
+public class LoudnessScanner {
+    // Saves the cache every this many files, so a long first scan is not lost on a crash
+    private static final int SAVE_EVERY = 200;
+
+    private final int threads;
+    private final MetadataCache cache;
+    private final BlockingDeque<String> queue = new LinkedBlockingDeque<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong analyzed = new AtomicLong();
+    private final AtomicLong audioMicros = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private Thread[] workers;
+
+    public LoudnessScanner(MetadataCache cache) {
+        this(Runtime.getRuntime().availableProcessors(), cache);
+    }
+
+    public LoudnessScanner(int threads, MetadataCache cache) {
+        this.threads = Math.max(1, threads);
+        this.cache = cache;
+    }
+
+    // Queues the file behind the ones already waiting
+    public void submit(String path) {
+        start();
+        queue.addLast(path);
+    }
+
+    // Queues the file ahead of everything else
+    public void submitFirst(String path) {
+        start();
+        queue.addFirst(path);
+    }
+
+    // Gain in dB to play the file at the reference loudness, if it has been measured; NaN
+    // otherwise, in which case it is measured next
+    public float gainDb(String path) {
+        MetadataCache.Entry entry = cachedEntry(path);
+        if (entry != null && entry.hasLoudness()) {
+            return LoudnessAnalyzer.gainDb(entry.getLoudness(), entry.getPeak());
+        }
+        if (entry != null) {
+            submitFirst(path);
+        }
+        return Float.NaN;
+    }
+
+    // Files waiting or being measured
+    public int getPending() {
+        return queue.size() + running.get();
+    }
+
+    public long getAnalyzedCount() {
+        return analyzed.get();
+    }
+
+    // Seconds of audio measured per second of CPU time, over all files so far; -1 before the first
+    public double getSpeed() {
+        long nanos = cpuNanos.get();
+        return nanos == 0 ? -1 : audioMicros.get() * 1000.0 / nanos;
+    }
+
+    public synchronized void shutdown() {
+        if (workers != null) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+        queue.clear();
+    }
+
+    private synchronized void start() {
+        if (workers != null) {
+            return;
+        }
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "loudness-" + (i + 1));
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            workers[i] = worker;
+            worker.start();
+        }
+    }
+
+    private void work() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = bean.isCurrentThreadCpuTimeSupported();
+        while (!Thread.currentThread().isInterrupted()) {
+            String path;
+            try {
+                path = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            running.incrementAndGet();
+            try {
+                MetadataCache.Entry entry = cachedEntry(path);
+                if (entry == null || entry.hasLoudness()) {
+                    continue;
+                }
+                long start = cpuTime ? bean.getCurrentThreadCpuTime() : System.nanoTime();
+                float[] result = LoudnessAnalyzer.analyze(new File(path));
+                cpuNanos.addAndGet((cpuTime ? bean.getCurrentThreadCpuTime() : System.nanoTime()) - start);
+                audioMicros.addAndGet(Math.max(0, entry.getDurationMicros()));
+                cache.putLoudness(Paths.get(path), result[0], result[1]);
+                if (analyzed.incrementAndGet() % SAVE_EVERY == 0) {
+                    cache.save();
+                }
+            } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+                System.err.println("Error measuring loudness of " + path + ": " + e.getMessage());
+            } finally {
+                if (running.decrementAndGet() == 0 && queue.isEmpty()) {
+                    cache.save();
+                }
+            }
+        }
+    }
+
+    private MetadataCache.Entry cachedEntry(String path) {
+        try {
+            Path file = Paths.get(path);
+            return cache.get(file);
+        } catch (IOException | InvalidPathException e) {
+            // Missing or unreadable: nothing to measure
+            return null;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package src.main.java.musicplayer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Binary copy of songs.csv that is memory-mapped instead of parsed on every launch.
+//
+// Layout (little endian):
+//   header   magic, version, CSV size, CSV mtime, CSV CRC32, song count
+//   records  one fixed-width record per song: name offset, path offset, duration (microseconds),
+//            sample rate, channels, date added (epoch millis), play count
+//   strings  length-prefixed UTF-8 strings the records point into
+//
+// The CSV size and mtime tell whether the file still matches songs.csv; the CRC is what the
+// journal header refers to, so the journal can be validated without reading the CSV.
+public class MappedLibrary {
+    private static final int MAGIC = 0x424C504D; // "MPLB"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 40;
+    private static final int RECORD_SIZE = 36;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final long snapshotCrc;
+    private final int stringsStart;
+
+    private MappedLibrary(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.snapshotCrc = buffer.getLong(24);
+        this.count = buffer.getInt(32);
+        this.stringsStart = HEADER_SIZE + count * RECORD_SIZE;
+    }
+
+    // Maps the library file if it exists and was written from the current songs.csv
+    static MappedLibrary openIfCurrent(File libraryFile, File csvFile) throws IOException {
+        if (!libraryFile.exists() || !csvFile.exists() || libraryFile.length() < HEADER_SIZE) {
+            return null;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(libraryFile.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getLong(8) != csvFile.length() || buffer.getLong(16) != csvFile.lastModified()
+                || !isComplete(buffer)) {
+            return null;
+        }
+        return new MappedLibrary(buffer);
+    }
+
+    // Whether every record, and every string a record points to, lies within the file; a file
+    // cut short (e.g. by a full disk) is parsed from songs.csv instead
+    private static boolean isComplete(MappedByteBuffer buffer) {
+        int count = buffer.getInt(32);
+        long stringsStart = HEADER_SIZE + (long) count * RECORD_SIZE;
+        if (count < 0 || stringsStart > buffer.limit()) {
+            return false;
+        }
+        for (int row = 0; row < count; row++) {
+            int record = HEADER_SIZE + row * RECORD_SIZE;
+            if (!isString(buffer, stringsStart, buffer.getInt(record))
+                    || !isString(buffer, stringsStart, buffer.getInt(record + 4))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isString(MappedByteBuffer buffer, long stringsStart, int offset) {
+        long position = stringsStart + offset;
+        return offset >= 0 && position + 4 <= buffer.limit()
+                && buffer.getInt((int) position) >= 0 && position + 4 + buffer.getInt((int) position) <= buffer.limit();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    long getSnapshotCrc() {
+        return snapshotCrc;
+    }
+
+    // Only absolute reads are used, so several threads can read the mapping at once
+    public String nameAt(int row) {
+        return stringAt(buffer.getInt(HEADER_SIZE + row * RECORD_SIZE));
+    }
+
+    public String pathAt(int row) {
+        return stringAt(buffer.getInt(HEADER_SIZE + row * RECORD_SIZE + 4));
+    }
+
+    public long durationAt(int row) {
+        return buffer.getLong(HEADER_SIZE + row * RECORD_SIZE + 8);
+    }
+
+    public float sampleRateAt(int row) {
+        return buffer.getFloat(HEADER_SIZE + row * RECORD_SIZE + 16);
+    }
+
+    public int channelsAt(int row) {
+        return buffer.getInt(HEADER_SIZE + row * RECORD_SIZE + 20);
+    }
+
+    public long addedAt(int row) {
+        return buffer.getLong(HEADER_SIZE + row * RECORD_SIZE + 24);
+    }
+
+    public int playCountAt(int row) {
+        return buffer.getInt(HEADER_SIZE + row * RECORD_SIZE + 32);
+    }
+
+    private String stringAt(int offset) {
+        int position = stringsStart + offset;
+        byte[] bytes = new byte[buffer.getInt(position)];
+        buffer.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    Song song(int row) {
+        Song song = new Song(nameAt(row), pathAt(row), durationAt(row), sampleRateAt(row), channelsAt(row));
+        song.setAddedMillis(addedAt(row));
+        song.setPlayCount(playCountAt(row));
+        return song;
+    }
+
+    // Writes the library for the given songs next to songs.csv, which must already be on disk
+    static void write(File libraryFile, LazySongList songs, File csvFile, long csvCrc) throws IOException {
+        File tmp = new File(libraryFile.getPath() + ".tmp");
+        int count = songs.size();
+        int stringsStart = HEADER_SIZE + count * RECORD_SIZE;
+        ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 4096).order(ByteOrder.LITTLE_ENDIAN);
+        int[] nameOffsets = new int[count];
+        int[] pathOffsets = new int[count];
+
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // Strings first, remembering where each one went
+            channel.position(stringsStart);
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            int offset = 0;
+            byte[] length = new byte[4];
+            for (int i = 0; i < count; i++) {
+                nameOffsets[i] = offset;
+                offset += writeString(out, songs.nameAt(i), length);
+                pathOffsets[i] = offset;
+                offset += writeString(out, songs.pathAt(i), length);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(csvFile.length()).putLong(csvFile.lastModified())
+                    .putLong(csvCrc).putInt(count);
+            header.flip();
+            for (long at = 0; header.hasRemaining(); ) {
+                at += channel.write(header, at);
+            }
+
+            long position = HEADER_SIZE;
+            for (int i = 0; i < count; i++) {
+                records.putInt(nameOffsets[i]).putInt(pathOffsets[i]).putLong(songs.durationAt(i))
+                        .putFloat(songs.sampleRateAt(i)).putInt(songs.channelsAt(i))
+                        .putLong(songs.addedAt(i)).putInt(songs.playCountAt(i));
+                if (!records.hasRemaining()) {
+                    records.flip();
+                    while (records.hasRemaining()) {
+                        position += channel.write(records, position);
+                    }
+                    records.clear();
+                }
+            }
+            records.flip();
+            while (records.hasRemaining()) {
+                position += channel.write(records, position);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(tmp.toPath(), libraryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), libraryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static int writeString(OutputStream out, String value, byte[] length) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        length[0] = (byte) bytes.length;
+        length[1] = (byte) (bytes.length >>> 8);
+        length[2] = (byte) (bytes.length >>> 16);
+        length[3] = (byte) (bytes.length >>> 24);
+        out.write(length);
+        out.write(bytes);
+        return 4 + bytes.length;
+    }
+}
@@ -0,0 +1,293 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+// Format information per audio file, kept in metadata.cache so a file only has to be opened
+// once. An entry is used as long as the file still has the size and modification time it
+// had when it was read; anything else counts as a miss and the header is read again.
+// Safe to use from several threads (the folder scanner reads through it from its pool).
+//
+// Entries also hold the track's loudness and peak once LoudnessScanner has measured them;
+// a file that changed loses its loudness with the rest of its entry.
+public class MetadataCache {
+    private static final int MAGIC = 0x4D504D43; // "MPMC"
+    private static final int VERSION = 3;
+    private static final Histogram SAVE_LATENCY = Metrics.histogram("persist.metadataCacheNanos");
+    private static final Metrics.Counter HIT_COUNT = Metrics.counter("metadataCache.hits");
+    private static final Metrics.Counter MISS_COUNT = Metrics.counter("metadataCache.misses");
+    // The fingerprint covers the start of the file, which holds the header and first audio
+    private static final int FINGERPRINT_BYTES = 64 * 1024;
+
+    public static final class Entry {
+        final long size;
+        final long modified;
+        final long durationMicros;
+        final float sampleRate;
+        final int channels;
+        final int sampleSizeInBits;
+        final String encoding;
+        final long fingerprint;
+        // Integrated loudness in LUFS and sample peak; NaN until measured
+        final float loudness;
+        final float peak;
+
+        Entry(long size, long modified, long durationMicros, float sampleRate, int channels,
+              int sampleSizeInBits, String encoding, long fingerprint) {
+            this(size, modified, durationMicros, sampleRate, channels, sampleSizeInBits, encoding, fingerprint,
+                    Float.NaN, Float.NaN);
+        }
+
+        Entry(long size, long modified, long durationMicros, float sampleRate, int channels,
+              int sampleSizeInBits, String encoding, long fingerprint, float loudness, float peak) {
+            this.size = size;
+            this.modified = modified;
+            this.durationMicros = durationMicros;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.sampleSizeInBits = sampleSizeInBits;
+            this.encoding = encoding;
+            this.fingerprint = fingerprint;
+            this.loudness = loudness;
+            this.peak = peak;
+        }
+
+        public long getDurationMicros() {
+            return durationMicros;
+        }
+
+        public float getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        public int getSampleSizeInBits() {
+            return sampleSizeInBits;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+        public boolean hasLoudness() {
+            return !Float.isNaN(loudness);
+        }
+
+        // LUFS; -Infinity for a silent track
+        public float getLoudness() {
+            return loudness;
+        }
+
+        public float getPeak() {
+            return peak;
+        }
+
+        // Files that turned out not to be readable audio are cached too, so they are not
+        // reopened on every scan either; these entries have no encoding
+        boolean isAudio() {
+            return !encoding.isEmpty();
+        }
+    }
+
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean dirty;
+
+    public MetadataCache(File file) {
+        this.file = file;
+    }
+
+    public static MetadataCache load(File file) {
+        MetadataCache cache = new MetadataCache(file);
+        if (!file.exists()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return cache;
+            }
+            // Version 1 had no loudness; its entries are kept and measured again. Before version
+            // 3 only Java Sound read files, so what it could not read (FLAC, MP3) is read again
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                return cache;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                long durationMicros = in.readLong();
+                float sampleRate = in.readFloat();
+                int channels = in.readInt();
+                int sampleSizeInBits = in.readInt();
+                String encoding = in.readUTF();
+                long fingerprint = in.readLong();
+                float loudness = version >= 2 ? in.readFloat() : Float.NaN;
+                float peak = version >= 2 ? in.readFloat() : Float.NaN;
+                if (version >= 3 || !encoding.isEmpty()) {
+                    cache.entries.put(path, new Entry(size, modified, durationMicros, sampleRate, channels,
+                            sampleSizeInBits, encoding, fingerprint, loudness, peak));
+                }
+            }
+            if (version != VERSION) {
+                cache.dirty = true;
+            }
+        } catch (IOException e) {
+            // Only a cache: start over rather than fail
+            System.err.println("Error loading metadata cache: " + e.getMessage());
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    // Writes the cache if anything was added since it was loaded or last saved
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        long start = System.nanoTime();
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                Map<String, Entry> snapshot = Map.copyOf(entries);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.modified);
+                    out.writeLong(entry.durationMicros);
+                    out.writeFloat(entry.sampleRate);
+                    out.writeInt(entry.channels);
+                    out.writeInt(entry.sampleSizeInBits);
+                    out.writeUTF(entry.encoding);
+                    out.writeLong(entry.fingerprint);
+                    out.writeFloat(entry.loudness);
+                    out.writeFloat(entry.peak);
+                }
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            SAVE_LATENCY.recordSince(start);
+        } catch (IOException e) {
+            dirty = true;
+            System.err.println("Error saving metadata cache: " + e.getMessage());
+        }
+    }
+
+    // Metadata for the file, read from its header only if the cached entry is missing or
+    // stale. Returns null if the file is not a readable audio file.
+    public Entry get(Path path) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        String key = path.toAbsolutePath().toString();
+        long modified = attrs.lastModifiedTime().toMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.size == attrs.size() && entry.modified == modified) {
+            hits.incrementAndGet();
+            HIT_COUNT.increment();
+        } else {
+            misses.incrementAndGet();
+            MISS_COUNT.increment();
+            entry = read(path, attrs.size(), modified);
+            entries.put(key, entry);
+            dirty = true;
+        }
+        return entry.isAudio() ? entry : null;
+    }
+
+    // Records the measured loudness with the file's entry, if the file is still what the entry
+    // describes
+    public void putLoudness(Path path, float loudness, float peak) throws IOException {
+        Entry entry = get(path);
+        if (entry != null) {
+            entries.put(path.toAbsolutePath().toString(), new Entry(entry.size, entry.modified, entry.durationMicros,
+                    entry.sampleRate, entry.channels, entry.sampleSizeInBits, entry.encoding, entry.fingerprint,
+                    loudness, peak));
+            dirty = true;
+        }
+    }
+
+    private static Entry read(Path path, long size, long modified) throws IOException {
+        AudioFileFormat fileFormat;
+        try {
+            fileFormat = AudioDecoders.getFormat(path.toFile());
+        } catch (UnsupportedAudioFileException e) {
+            return new Entry(size, modified, -1, -1, -1, -1, "", 0);
+        }
+        AudioFormat format = fileFormat.getFormat();
+        long durationMicros = -1;
+        Object duration = fileFormat.getProperty("duration");
+        if (duration instanceof Long) {
+            durationMicros = (Long) duration;
+        } else if (fileFormat.getFrameLength() != AudioSystem.NOT_SPECIFIED && format.getFrameRate() > 0) {
+            durationMicros = (long) (fileFormat.getFrameLength() * 1_000_000.0 / format.getFrameRate());
+        }
+        return new Entry(size, modified, durationMicros, format.getSampleRate(), format.getChannels(),
+                format.getSampleSizeInBits(), format.getEncoding().toString(), fingerprint(path));
+    }
+
+    private static long fingerprint(Path path) throws IOException {
+        byte[] buffer = new byte[FINGERPRINT_BYTES];
+        int length = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += n;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer, 0, length);
+        return crc.getValue();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // Fraction of lookups answered without reading the file, or -1 if nothing was looked up
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? -1 : (double) hits.get() / total;
+    }
+
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+}
@@ -0,0 +1,224 @@
+package src.main.java.musicplayer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+// Counters, gauges and histograms for watching the player under load without a profiler.
+// Each metric is registered once by name (e.g. "playback.seekNanos"; names end in their unit)
+// and shows up as an MBean under "musicplayer:" in JConsole or any JMX client, and as a line
+// of text at http://localhost:<port>/metrics once startServer() has been called.
+//
+// -Dmusicplayer.metricsPort=<port> starts the HTTP endpoint with the window or HeadlessPlayer.
+// It listens on the loopback address only.
+public final class Metrics {
+    private static final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+    public interface CounterMXBean {
+        long getCount();
+    }
+
+    public interface GaugeMXBean {
+        double getValue();
+    }
+
+    public interface HistogramMXBean {
+        long getCount();
+
+        double getMean();
+
+        long getMin();
+
+        long getMax();
+
+        long getP50();
+
+        long getP90();
+
+        long getP99();
+
+        long getP999();
+    }
+
+    public static final class Counter implements CounterMXBean {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+    }
+
+    private static final class Gauge implements GaugeMXBean {
+        private final DoubleSupplier value;
+
+        Gauge(DoubleSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public double getValue() {
+            return value.getAsDouble();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return (Counter) metrics.computeIfAbsent(name, n -> register(n, new Counter()));
+    }
+
+    public static Histogram histogram(String name) {
+        return (Histogram) metrics.computeIfAbsent(name, n -> register(n, new Histogram()));
+    }
+
+    // A value read when it is looked at. Registering the name again replaces the old gauge
+    // (e.g. the library's size, when a new library is opened).
+    public static void gauge(String name, DoubleSupplier value) {
+        metrics.compute(name, (n, old) -> {
+            if (old != null) {
+                unregister(n, old);
+            }
+            return register(n, new Gauge(value));
+        });
+    }
+
+    private static Object register(String name, Object metric) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(name, metric);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(metric, objectName);
+            }
+        } catch (JMException | RuntimeException e) {
+            System.err.println("Error registering metric " + name + ": " + e.getMessage());
+        }
+        return metric;
+    }
+
+    private static void unregister(String name, Object metric) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name, metric));
+        } catch (JMException | RuntimeException e) {
+            // Was never registered
+        }
+    }
+
+    private static ObjectName objectName(String name, Object metric) throws JMException {
+        String type = metric instanceof Histogram ? "Histogram" : metric instanceof Counter ? "Counter" : "Gauge";
+        return new ObjectName("musicplayer:type=" + type + ",name=" + ObjectName.quote(name));
+    }
+
+    // Every metric as "name value" lines in name order; a histogram is one line per statistic
+    public static String toText() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            String name = entry.getKey();
+            Object metric = entry.getValue();
+            if (metric instanceof Counter) {
+                line(text, name, ((Counter) metric).getCount());
+            } else if (metric instanceof Gauge) {
+                double value = ((Gauge) metric).getValue();
+                if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+                    line(text, name, (long) value);
+                } else {
+                    text.append(name).append(' ').append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+                }
+            } else {
+                Histogram histogram = (Histogram) metric;
+                line(text, name + ".count", histogram.getCount());
+                line(text, name + ".mean", Math.round(histogram.getMean()));
+                line(text, name + ".min", histogram.getMin());
+                line(text, name + ".p50", histogram.getP50());
+                line(text, name + ".p90", histogram.getP90());
+                line(text, name + ".p99", histogram.getP99());
+                line(text, name + ".p999", histogram.getP999());
+                line(text, name + ".max", histogram.getMax());
+            }
+        }
+        return text.toString();
+    }
+
+    private static void line(StringBuilder text, String name, long value) {
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    // Serves toText() at /metrics on the loopback address, from one daemon thread. Stop the
+    // returned server when done: its dispatcher thread keeps the VM alive.
+    public static HttpServer startServer(int port) throws IOException {
+        HttpServer server = createLocalServer(port);
+        server.createContext("/metrics", Metrics::serve);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        return server;
+    }
+
+    // An HTTP server on the loopback address. Responses go out without waiting for Nagle's
+    // algorithm, which otherwise holds a small body back until the headers are acknowledged
+    // (40 ms per request on a kept-alive connection); the JDK reads the switch once, so it is
+    // set before the first server is created.
+    static HttpServer createLocalServer(int port) throws IOException {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        return HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    }
+
+    // GET: toText() as text/plain
+    static void serve(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // The server asked for with -Dmusicplayer.metricsPort, or null if none was
+    static HttpServer startConfiguredServer() {
+        Integer port = Integer.getInteger("musicplayer.metricsPort");
+        if (port == null) {
+            return null;
+        }
+        try {
+            HttpServer server = startServer(port);
+            System.out.println("Metrics at http://localhost:" + server.getAddress().getPort() + "/metrics");
+            return server;
+        } catch (IOException e) {
+            System.err.println("Error starting metrics server: " + e.getMessage());
+            return null;
+        }
+    }
+}
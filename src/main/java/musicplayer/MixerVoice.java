@@ -0,0 +1,323 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+// One song feeding MixingPlaybackEngine. A decoder thread reads the song's PCM, converts it
+// to float samples in the mixer's output format (channels mapped, sample rate converted by
+// linear interpolation) and writes them to a single-producer, single-consumer ring. The audio
+// thread reads the ring without locking or waiting, so a decoder that falls behind costs a
+// counted underrun rather than a stalled mixer.
+class MixerVoice {
+    private static final int RING_MILLIS = 500;
+    // Mixed once this much is decoded, so a fresh voice does not underrun on its first blocks
+    private static final int READY_MILLIS = 50;
+    private static final int CHUNK_FRAMES = 2048;
+    private static final long FULL_PARK_NANOS = 2_000_000L;
+
+    final Song song;
+    final FadeStage fade = new FadeStage(1f);
+    final long openedAt;
+    // Track gain (loudness normalization), applied as the samples are decoded
+    final float gain;
+    private final AudioFormat output;
+    private final int channels;
+    private final long startMicros;
+    private final BooleanSupplier looping;
+    private final float[] ring;
+    private final int mask;
+    private final int readySamples;
+    private final Thread thread;
+    // Samples written by the decoder and read by the mixer since the start
+    private volatile long written;
+    private volatile long consumed;
+    private volatile boolean ended;
+    private volatile boolean closed;
+    private volatile long lengthMicros;
+    // Decoder thread only
+    private PrefetchedTrack track;
+
+    // Mixer thread only: fading out to make room for another song, and whether it was heard yet
+    boolean retiring;
+    boolean heard;
+    // System.nanoTime() of the seek that started this voice, until its first audio is mixed
+    long seekedAt;
+
+    // Starts from an opened track, or opens the song on the decoder thread (track == null)
+    MixerVoice(Song song, PrefetchedTrack track, long startMicros, long lengthMicros, AudioFormat output,
+               float gain, BooleanSupplier looping, long openedAt) {
+        this.song = song;
+        this.track = track;
+        this.startMicros = startMicros;
+        this.lengthMicros = track != null ? framesToMicros(track.lengthFrames, track.format) : lengthMicros;
+        this.output = output;
+        this.channels = output.getChannels();
+        this.looping = looping;
+        this.gain = gain;
+        this.openedAt = openedAt;
+        int samples = (int) (output.getFrameRate() * channels * RING_MILLIS / 1000);
+        ring = new float[Integer.highestOneBit(Math.max(1024, samples - 1)) << 1];
+        mask = ring.length - 1;
+        readySamples = (int) (output.getFrameRate() * channels * READY_MILLIS / 1000);
+        thread = new Thread(this::decodeLoop, "audio-decoder");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+    }
+
+    // Enough decoded to start mixing it in
+    boolean isReady() {
+        return ended || written >= readySamples;
+    }
+
+    // The decoder reached the end of the song (and is not looping)
+    boolean isEnded() {
+        return ended;
+    }
+
+    // Ended and everything decoded has been mixed
+    boolean isFinished() {
+        return ended && consumed == written;
+    }
+
+    long getLengthMicros() {
+        return lengthMicros;
+    }
+
+    long getStartMicros() {
+        return startMicros;
+    }
+
+    // Output frames the mixer has taken from this voice
+    long framesMixed() {
+        return consumed / channels;
+    }
+
+    // Position in the song, not counting the last `queuedFrames` frames mixed (still in the line)
+    long positionMicros(long queuedFrames) {
+        long heard = Math.max(0, framesMixed() - queuedFrames);
+        long position = startMicros + (long) (heard * 1_000_000.0 / output.getFrameRate());
+        long length = lengthMicros;
+        if (length > 0 && position >= length) {
+            return looping.getAsBoolean() ? position % length : length;
+        }
+        return position;
+    }
+
+    // Output frames left until the end of the song, or -1 if unknown or looping
+    long remainingFrames() {
+        long length = lengthMicros;
+        if (length <= 0 || looping.getAsBoolean()) {
+            return -1;
+        }
+        return Math.max(0, (long) ((length - positionMicros(0)) * output.getFrameRate() / 1_000_000.0));
+    }
+
+    // Copies up to `frames` decoded frames; never waits. Returns how many there were.
+    int read(float[] dst, int frames) {
+        long start = consumed;
+        int n = (int) Math.min(frames, (written - start) / channels);
+        int samples = n * channels;
+        int from = (int) (start & mask);
+        int first = Math.min(samples, ring.length - from);
+        System.arraycopy(ring, from, dst, 0, first);
+        System.arraycopy(ring, 0, dst, first, samples - first);
+        consumed = start + samples;
+        return n;
+    }
+
+    private void decodeLoop() {
+        AudioInputStream stream = null;
+        try {
+            if (track == null && startMicros > 0) {
+                // A seek: the decoder opens the song at the position without decoding up to it,
+                // from memory if PcmCache has it
+                File file = new File(song.getPath());
+                track = PrefetchedTrack.opened(song, file, PcmCache.shared().openAtMicros(file, startMicros));
+                if (lengthMicros <= 0 && track.lengthFrames > 0) {
+                    lengthMicros = startMicros + framesToMicros(track.lengthFrames, track.format);
+                }
+            } else if (track == null) {
+                track = PrefetchedTrack.load(song, 0);
+                lengthMicros = framesToMicros(track.lengthFrames, track.format);
+            }
+            stream = track.stream;
+            AudioFormat format = track.format;
+            int sourceChannels = format.getChannels();
+            int frameSize = Math.max(1, format.getFrameSize());
+            double step = format.getFrameRate() / output.getFrameRate();
+            byte[] bytes = new byte[CHUNK_FRAMES * frameSize];
+            float[] source = new float[CHUNK_FRAMES * sourceChannels];
+            float[] converted = new float[((int) Math.ceil(CHUNK_FRAMES / step) + 2) * channels];
+            Resampler resampler = new Resampler(sourceChannels, channels, step);
+            if (track.headLength > 0) {
+                int frames = track.headLength / frameSize;
+                for (int off = 0; off < frames; off += CHUNK_FRAMES) {
+                    int n = Math.min(CHUNK_FRAMES, frames - off);
+                    System.arraycopy(track.head, off * frameSize, bytes, 0, n * frameSize);
+                    toFloats(bytes, n, format, source);
+                    push(converted, resampler.process(source, n, converted));
+                }
+            }
+            while (!closed) {
+                int frames = readFrames(stream, bytes, frameSize);
+                if (frames == 0) {
+                    if (!looping.getAsBoolean()) {
+                        break;
+                    }
+                    stream.close();
+                    stream = StreamingPlaybackEngine.openPcmStream(track.file);
+                    continue;
+                }
+                toFloats(bytes, frames, format, source);
+                push(converted, resampler.process(source, frames, converted));
+            }
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            if (!closed) {
+                System.err.println("Error streaming song: " + e.getMessage());
+            }
+        } finally {
+            ended = true;
+            try {
+                if (stream != null) {
+                    stream.close();
+                } else if (track != null) {
+                    track.close();
+                }
+            } catch (IOException e) {
+                // Nothing left to do with a stream we are discarding
+            }
+        }
+    }
+
+    // Writes the samples to the ring, waiting while it is full
+    private void push(float[] samples, int count) {
+        if (gain != 1f) {
+            for (int i = 0; i < count; i++) {
+                samples[i] *= gain;
+            }
+        }
+        int off = 0;
+        while (off < count && !closed) {
+            long start = written;
+            int free = (int) (ring.length - (start - consumed));
+            if (free == 0) {
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+                continue;
+            }
+            int n = Math.min(free, count - off);
+            int to = (int) (start & mask);
+            int first = Math.min(n, ring.length - to);
+            System.arraycopy(samples, off, ring, to, first);
+            System.arraycopy(samples, off + first, ring, 0, n - first);
+            written = start + n;
+            off += n;
+        }
+    }
+
+    static int readFrames(AudioInputStream stream, byte[] bytes, int frameSize) throws IOException {
+        int total = 0;
+        while (total < bytes.length) {
+            int read = stream.read(bytes, total, bytes.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total / frameSize;
+    }
+
+    private static long framesToMicros(long frames, AudioFormat format) {
+        return frames > 0 ? (long) (frames * 1_000_000.0 / format.getFrameRate()) : 0;
+    }
+
+    // Integer or float PCM, any byte order, 1 to 4 bytes per sample, to floats between -1 and 1
+    static void toFloats(byte[] bytes, int frames, AudioFormat format, float[] dst) {
+        int samples = frames * format.getChannels();
+        int width = Math.max(1, format.getFrameSize() / format.getChannels());
+        boolean bigEndian = format.isBigEndian();
+        AudioFormat.Encoding encoding = format.getEncoding();
+        for (int s = 0, o = 0; s < samples; s++, o += width) {
+            switch (width) {
+                case 1:
+                    dst[s] = encoding == AudioFormat.Encoding.PCM_UNSIGNED
+                            ? ((bytes[o] & 0xff) - 128) / 128f : bytes[o] / 128f;
+                    break;
+                case 2:
+                    dst[s] = (short) (bigEndian ? bytes[o] << 8 | bytes[o + 1] & 0xff
+                            : bytes[o + 1] << 8 | bytes[o] & 0xff) / 32768f;
+                    break;
+                case 3:
+                    dst[s] = (bigEndian ? bytes[o] << 16 | (bytes[o + 1] & 0xff) << 8 | bytes[o + 2] & 0xff
+                            : bytes[o + 2] << 16 | (bytes[o + 1] & 0xff) << 8 | bytes[o] & 0xff) / 8388608f;
+                    break;
+                default: {
+                    int v = bigEndian
+                            ? bytes[o] << 24 | (bytes[o + 1] & 0xff) << 16 | (bytes[o + 2] & 0xff) << 8 | bytes[o + 3] & 0xff
+                            : bytes[o + 3] << 24 | (bytes[o + 2] & 0xff) << 16 | (bytes[o + 1] & 0xff) << 8 | bytes[o] & 0xff;
+                    dst[s] = encoding == AudioFormat.Encoding.PCM_FLOAT ? Float.intBitsToFloat(v) : v / 2147483648f;
+                }
+            }
+        }
+    }
+
+    // Maps source channels to output channels (mono to both sides, extra channels dropped) and
+    // converts the sample rate by linear interpolation between neighbouring frames. Keeps the
+    // last frame of each chunk so the next chunk continues without a seam.
+    static final class Resampler {
+        private final int sourceChannels;
+        private final int channels;
+        private final double step;
+        private final float[] previous;
+        // Source position of the next output frame; 0 is `previous`, 1 the chunk's first frame
+        private double position = 1;
+
+        Resampler(int sourceChannels, int channels, double step) {
+            this.sourceChannels = sourceChannels;
+            this.channels = channels;
+            this.step = step;
+            this.previous = new float[sourceChannels];
+        }
+
+        // Returns the number of samples written to dst
+        int process(float[] source, int frames, float[] dst) {
+            int out = 0;
+            if (step == 1.0) {
+                for (int i = 0; i < frames; i++) {
+                    for (int c = 0; c < channels; c++) {
+                        dst[out++] = source[i * sourceChannels + c % sourceChannels];
+                    }
+                }
+                return out;
+            }
+            while (position < frames) {
+                int i = (int) position;
+                float fraction = (float) (position - i);
+                for (int c = 0; c < channels; c++) {
+                    int sc = c % sourceChannels;
+                    float a = i == 0 ? previous[sc] : source[(i - 1) * sourceChannels + sc];
+                    float b = source[i * sourceChannels + sc];
+                    dst[out++] = a + (b - a) * fraction;
+                }
+                position += step;
+            }
+            position -= frames;
+            if (frames > 0) {
+                System.arraycopy(source, (frames - 1) * sourceChannels, previous, 0, sourceChannels);
+            }
+            return out;
+        }
+    }
+}
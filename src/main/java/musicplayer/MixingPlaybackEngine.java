@@ -0,0 +1,672 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Plays songs through an in-process mixer and one output line. Each song is a MixerVoice with
+// its own decoder thread; the mixer thread sums the voices that are playing, runs the result
+// through the DSP chain (volume, then a limiter) and writes 16-bit stereo to the line in small
+// blocks. Two songs overlap for a crossfade, or follow each other sample-exactly when the
+// crossfade is 0; switching songs by hand fades the old one out briefly instead of cutting it.
+// Pausing and stopping fade the whole output out the same way, and the line is only stopped
+// or closed once that fade has played out; resuming fades back in.
+//
+// The mixer thread does no I/O, no locking beyond a short snapshot of the voices, and no
+// allocation per block. A block that it mixed slower than real time, a voice whose decoder had
+// nothing ready, and a line that had run dry are each counted (getLateBlocks(),
+// getDecoderUnderruns(), getOutputUnderruns()). Listeners are called on a separate event
+// thread, so a slow listener cannot hold up the audio. The position reported is that of a
+// PlaybackClock the mixer thread updates after each block it writes.
+//
+// The same counts, the time to first sample and the time from a seek to the first audio from
+// the new position also go to Metrics, as "playback.*".
+//
+// The line's sample rate is that of the song opened while nothing else plays; songs at other
+// rates that follow it are resampled. A line is closed before the next one is opened. Block and line buffer sizes can be set with
+// -Dmusicplayer.blockMillis (default 10) and -Dmusicplayer.bufferMillis (default 60).
+public class MixingPlaybackEngine implements PlaybackEngine {
+    private static final int CHANNELS = 2;
+    private static final int MAX_VOICES = 4;
+    private static final int DECLICK_MILLIS = 15;
+    private static final long IDLE_PARK_NANOS = 5_000_000L;
+    private static final long STARTING_PARK_NANOS = 500_000L;
+    // Longest open() waits for a closed line to play out its fade and buffer
+    private static final long CLOSE_WAIT_MILLIS = 1000;
+    private static final int BLOCK_MILLIS = Integer.getInteger("musicplayer.blockMillis", 10);
+    private static final int BUFFER_MILLIS = Integer.getInteger("musicplayer.bufferMillis", 60);
+    private static final Histogram TIME_TO_FIRST_SAMPLE = Metrics.histogram("playback.timeToFirstSampleNanos");
+    private static final Histogram SEEK_LATENCY = Metrics.histogram("playback.seekNanos");
+    private static final Metrics.Counter OUTPUT_UNDERRUNS = Metrics.counter("playback.outputUnderruns");
+    private static final Metrics.Counter DECODER_UNDERRUNS = Metrics.counter("playback.decoderUnderruns");
+    private static final Metrics.Counter LATE_BLOCKS = Metrics.counter("playback.lateBlocks");
+
+    private final List<PlaybackListener> listeners = new CopyOnWriteArrayList<>();
+    private final LineSource lines;
+    private final ExecutorService events = singleThread("audio-events");
+    private final ExecutorService prefetcher = singleThread("track-prefetch");
+    private volatile Output output;
+    // The output stop() closed last, whose line may still be playing out its fade
+    private volatile Output closedOutput;
+    private volatile Song nextSong;
+    // Voice for nextSong, already decoding; whoever takes it out owns it
+    private final AtomicReference<MixerVoice> armed = new AtomicReference<>();
+    private volatile boolean isLooping;
+    private final PlaybackClock clock = new PlaybackClock(() -> isLooping);
+    private volatile float volume = 1.0f;
+    private volatile int crossfadeMillis;
+    private volatile boolean normalizing = true;
+    private volatile long timeToFirstSampleNanos = -1;
+    private volatile long lastTransitionGapMicros = -1;
+    // Written by the mixer thread only
+    private volatile long outputUnderruns;
+    private volatile long decoderUnderruns;
+    private volatile long lateBlocks;
+
+    public MixingPlaybackEngine() {
+        this(LineSource.SYSTEM);
+    }
+
+    public MixingPlaybackEngine(LineSource lines) {
+        this.lines = lines;
+    }
+
+    private static ExecutorService singleThread(String name) {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void open(Song song) throws IOException, UnsupportedAudioFileException, LineUnavailableException {
+        long openStart = System.nanoTime();
+        Output out = output;
+        // Starting the song we prefetched (e.g. the user pressed Next) skips the file open
+        MixerVoice voice = armed.getAndSet(null);
+        if (voice != null && (voice.song != song || out == null)) {
+            voice.close();
+            voice = null;
+        }
+        if (voice == null) {
+            PrefetchedTrack track = PrefetchedTrack.load(song, 0);
+            float rate = track.format.getSampleRate();
+            if (out == null || out.format.getSampleRate() != rate && !out.isBusy()) {
+                stop();
+                // Some devices allow only one line open at a time: the old one has to be closed
+                // before the new one is opened
+                Output closed = closedOutput;
+                if (closed != null) {
+                    closed.awaitClosed();
+                    closedOutput = null;
+                }
+                try {
+                    out = new Output(new AudioFormat(rate, 16, CHANNELS, true, false));
+                } catch (LineUnavailableException | RuntimeException e) {
+                    track.close();
+                    throw e;
+                }
+                output = out;
+                out.start();
+            }
+            voice = new MixerVoice(song, track, 0, 0, out.format, trackGain(song), () -> isLooping, openStart);
+            voice.start();
+        }
+        timeToFirstSampleNanos = -1;
+        out.play(voice, crossfadeMillis > 0 ? crossfadeMillis : DECLICK_MILLIS, crossfadeMillis > 0);
+        Song next = nextSong;
+        if (next != null) {
+            arm(next, out);
+        }
+    }
+
+    @Override
+    public void setNextSong(Song song) {
+        if (song == nextSong) {
+            return;
+        }
+        nextSong = song;
+        MixerVoice old = armed.getAndSet(null);
+        if (old != null) {
+            old.close();
+        }
+        Output out = output;
+        if (song != null && out != null) {
+            arm(song, out);
+        }
+    }
+
+    // Opens the next song in the background and starts decoding it, ready for the mixer to take
+    private void arm(Song song, Output out) {
+        prefetcher.execute(() -> {
+            if (nextSong != song || output != out || armed.get() != null) {
+                return;
+            }
+            // Its first seconds go into PcmCache, so jumping to it later starts from memory too
+            PcmCache.shared().warm(new File(song.getPath()));
+            MixerVoice voice = new MixerVoice(song, null, 0, song.getDurationMicros(), out.format,
+                    trackGain(song), () -> isLooping, System.nanoTime());
+            voice.start();
+            if (nextSong != song || !armed.compareAndSet(null, voice)) {
+                voice.close();
+            }
+        });
+    }
+
+    @Override
+    public void pause() {
+        Output out = output;
+        if (out != null && !out.paused) {
+            out.pause();
+        }
+    }
+
+    @Override
+    public void resume() {
+        Output out = output;
+        if (out != null && out.paused) {
+            out.resume();
+        }
+    }
+
+    @Override
+    public void stop() {
+        Output out = output;
+        output = null;
+        if (out != null) {
+            closedOutput = out;
+            out.close();
+        }
+        clock.clear();
+        MixerVoice voice = armed.getAndSet(null);
+        if (voice != null) {
+            voice.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return output != null;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        Output out = output;
+        return out != null && !out.paused;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return clock.getPositionMicros();
+    }
+
+    @Override
+    public long getMicrosecondLength() {
+        return clock.getLengthMicros();
+    }
+
+    // Seeking starts a new voice at the position and fades the old one out over a few ms
+    @Override
+    public void setMicrosecondPosition(long microseconds) {
+        Output out = output;
+        MixerVoice current = out != null ? out.current : null;
+        if (current == null) {
+            return;
+        }
+        long length = current.getLengthMicros();
+        long position = Math.max(0, length > 0 ? Math.min(microseconds, length) : microseconds);
+        MixerVoice voice = new MixerVoice(current.song, null, position, length, out.format,
+                current.gain, () -> isLooping, System.nanoTime());
+        voice.heard = true;
+        voice.seekedAt = System.nanoTime();
+        voice.start();
+        out.play(voice, DECLICK_MILLIS, false);
+    }
+
+    @Override
+    public void setLooping(boolean looping) {
+        isLooping = looping;
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        this.volume = volume;
+        Output out = output;
+        if (out != null) {
+            out.gain.setGain(GainStage.volumeToGain(volume));
+        }
+    }
+
+    @Override
+    public void setNormalizing(boolean normalizing) {
+        this.normalizing = normalizing;
+    }
+
+    private float trackGain(Song song) {
+        float db = song.getTrackGainDb();
+        return normalizing && !Float.isNaN(db) ? (float) Math.pow(10, db / 20) : 1f;
+    }
+
+    @Override
+    public void setCrossfadeMillis(int millis) {
+        crossfadeMillis = Math.max(0, millis);
+    }
+
+    @Override
+    public long getTimeToFirstSampleNanos() {
+        return timeToFirstSampleNanos;
+    }
+
+    @Override
+    public long getLastTransitionGapMicros() {
+        return lastTransitionGapMicros;
+    }
+
+    @Override
+    public long getOutputUnderruns() {
+        return outputUnderruns;
+    }
+
+    @Override
+    public long getDecoderUnderruns() {
+        return decoderUnderruns;
+    }
+
+    @Override
+    public long getLateBlocks() {
+        return lateBlocks;
+    }
+
+    @Override
+    public void addPlaybackListener(PlaybackListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removePlaybackListener(PlaybackListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireTrackChanged(Song song) {
+        events.execute(() -> {
+            for (PlaybackListener listener : listeners) {
+                listener.trackChanged(song);
+            }
+        });
+    }
+
+    private void firePlaybackFinished(Song song) {
+        events.execute(() -> {
+            for (PlaybackListener listener : listeners) {
+                listener.playbackFinished(song);
+            }
+        });
+    }
+
+    // One opened line and the mixer thread writing to it
+    private final class Output {
+        final AudioFormat format;
+        final SourceDataLine line;
+        final int blockFrames;
+        final GainStage gain;
+        // The whole output's level, for the fades of pause, resume and stop
+        final FadeStage level = new FadeStage(1f);
+        final long declickFrames;
+        final DspStage[] chain;
+        final Thread thread;
+        // Set by close(); the mixer thread closes the line once the fade has played out
+        volatile boolean closing;
+        volatile boolean paused;
+        // The song being heard; the one whose position and length are reported
+        volatile MixerVoice current;
+        // Guarded by this
+        private final MixerVoice[] voices = new MixerVoice[MAX_VOICES];
+        private int voiceCount;
+        // Mixer thread only: a song that followed another without a crossfade and has not been
+        // heard yet, and the silence since the other one ended
+        private MixerVoice followed;
+        private long gapFrames;
+        // Mixer thread only, which alone starts and stops the line once it runs
+        private boolean lineStopped;
+
+        Output(AudioFormat format) throws LineUnavailableException {
+            this.format = format;
+            int frameSize = format.getFrameSize();
+            blockFrames = Math.max(32, (int) (format.getFrameRate() * BLOCK_MILLIS / 1000));
+            line = lines.getLine(format);
+            line.open(format, Math.max(2 * blockFrames, (int) (format.getFrameRate() * BUFFER_MILLIS / 1000)) * frameSize);
+            gain = new GainStage(GainStage.volumeToGain(volume));
+            declickFrames = (long) (format.getFrameRate() * DECLICK_MILLIS / 1000);
+            chain = new DspStage[]{level, gain, new LimiterStage(format.getFrameRate())};
+            thread = new Thread(this::mixLoop, "audio-mixer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+        }
+
+        void start() {
+            clock.setOutput(format.getFrameRate(), this::queuedFrames);
+            line.start();
+            thread.start();
+        }
+
+        // Makes `voice` the current song. Voices already playing fade out over `fadeMillis`;
+        // the new one fades in over the same time if `fadeIn`, else starts at full level.
+        void play(MixerVoice voice, int fadeMillis, boolean fadeIn) {
+            long fadeFrames = (long) (format.getFrameRate() * fadeMillis / 1000);
+            synchronized (this) {
+                for (int i = 0; i < voiceCount; i++) {
+                    voices[i].retiring = true;
+                    voices[i].fade.fadeTo(0f, fadeFrames);
+                }
+                if (voiceCount == MAX_VOICES) {
+                    // Rapid skipping: the oldest fading voice goes at once
+                    voices[0].close();
+                    remove(voices[0]);
+                }
+                if (fadeIn && voiceCount > 0) {
+                    voice.fade.fadeIn(fadeFrames);
+                }
+                voices[voiceCount++] = voice;
+                current = voice;
+            }
+            publish();
+            if (paused) {
+                // The new song starts at full level; its own fade-in, if any, still applies
+                level.fadeTo(1f, 0);
+                paused = false;
+            }
+            LockSupport.unpark(thread);
+        }
+
+        void pause() {
+            level.fadeTo(0f, declickFrames);
+            paused = true;
+        }
+
+        void resume() {
+            level.fadeTo(1f, declickFrames);
+            paused = false;
+            LockSupport.unpark(thread);
+        }
+
+        // Whether a song is still playing out, so the line cannot be swapped for another rate
+        synchronized boolean isBusy() {
+            for (int i = 0; i < voiceCount; i++) {
+                if (!voices[i].isFinished()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private synchronized void remove(MixerVoice voice) {
+            for (int i = 0; i < voiceCount; i++) {
+                if (voices[i] == voice) {
+                    System.arraycopy(voices, i + 1, voices, i, voiceCount - i - 1);
+                    voices[--voiceCount] = null;
+                    return;
+                }
+            }
+        }
+
+        private synchronized int snapshot(MixerVoice[] into) {
+            System.arraycopy(voices, 0, into, 0, voiceCount);
+            return voiceCount;
+        }
+
+        long queuedFrames() {
+            return (line.getBufferSize() - line.available()) / format.getFrameSize();
+        }
+
+        // Tells the clock how much of the song being heard has gone to the line
+        private void publish() {
+            synchronized (clock) {
+                MixerVoice voice = current;
+                if (voice != null && output == this) {
+                    clock.publish(voice.song, voice.getStartMicros(), voice.framesMixed(), voice.getLengthMicros());
+                }
+            }
+        }
+
+        private void mixLoop() {
+            float[] mix = new float[blockFrames * CHANNELS];
+            float[] buffer = new float[blockFrames * CHANNELS];
+            byte[] pcm = new byte[blockFrames * CHANNELS * 2];
+            MixerVoice[] active = new MixerVoice[MAX_VOICES];
+            long blockNanos = (long) (blockFrames * 1_000_000_000.0 / format.getFrameRate());
+            boolean written = false;
+            Song finished = null;
+            try {
+                while (true) {
+                    boolean closing = this.closing;
+                    if (closing || paused) {
+                        int count = snapshot(active);
+                        if (count == 0 || lineStopped || level.isSilent() || !anyReady(active, count)) {
+                            // Faded out: let the line play what it holds, then stop or close it
+                            if (written && !lineStopped) {
+                                line.drain();
+                                written = false;
+                            }
+                            if (closing) {
+                                break;
+                            }
+                            if (paused) {
+                                if (!lineStopped) {
+                                    line.stop();
+                                    lineStopped = true;
+                                }
+                                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                                continue;
+                            }
+                        }
+                    }
+                    if (lineStopped && !paused) {
+                        line.start();
+                        lineStopped = false;
+                    }
+                    if (!closing && !paused) {
+                        startCrossfade();
+                    }
+                    int count = snapshot(active);
+                    if (count == 0) {
+                        if (written) {
+                            // Let the end of the last song play out before reporting it finished
+                            line.drain();
+                            written = false;
+                        }
+                        if (finished != null) {
+                            firePlaybackFinished(finished);
+                            finished = null;
+                        }
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                        continue;
+                    }
+                    if (followed == null && !anyReady(active, count)) {
+                        // A song is starting: wait for its first audio rather than queue silence
+                        // ahead of it
+                        LockSupport.parkNanos(STARTING_PARK_NANOS);
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    Arrays.fill(mix, 0f);
+                    for (int i = 0; i < count; i++) {
+                        Song ended = mixVoice(active[i], mix, buffer, 0);
+                        if (ended != null) {
+                            finished = ended;
+                        }
+                    }
+                    for (DspStage stage : chain) {
+                        stage.process(mix, blockFrames, CHANNELS);
+                    }
+                    toPcm16(mix, blockFrames * CHANNELS, pcm);
+                    if (System.nanoTime() - start > blockNanos) {
+                        lateBlocks++;
+                        LATE_BLOCKS.increment();
+                    }
+                    if (written && line.available() >= line.getBufferSize()) {
+                        outputUnderruns++;
+                        OUTPUT_UNDERRUNS.increment();
+                    }
+                    line.write(pcm, 0, pcm.length);
+                    written = true;
+                    publish();
+                }
+            } finally {
+                synchronized (this) {
+                    for (int i = 0; i < voiceCount; i++) {
+                        voices[i].close();
+                    }
+                    voiceCount = 0;
+                }
+                line.stop();
+                line.flush();
+                line.close();
+            }
+        }
+
+        private boolean anyReady(MixerVoice[] active, int count) {
+            for (int i = 0; i < count; i++) {
+                if (active[i].isReady()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Adds the voice's next frames into the block from `offset` on; returns the song if the
+        // queue of songs ran out with it
+        private Song mixVoice(MixerVoice voice, float[] mix, float[] buffer, int offset) {
+            if (!voice.isReady()) {
+                if (voice == followed) {
+                    gapFrames += blockFrames - offset;
+                }
+                return null;
+            }
+            int wanted = blockFrames - offset;
+            int frames = voice.read(buffer, wanted);
+            if (frames < wanted && !voice.isEnded()) {
+                decoderUnderruns++;
+                DECODER_UNDERRUNS.increment();
+            }
+            if (frames < wanted && voice == followed) {
+                gapFrames += wanted - frames;
+            }
+            if (frames > 0 && voice == followed) {
+                lastTransitionGapMicros = (long) (gapFrames * 1_000_000.0 / format.getFrameRate());
+                followed = null;
+            }
+            if (frames > 0 && !voice.heard) {
+                voice.heard = true;
+                timeToFirstSampleNanos = System.nanoTime() - voice.openedAt;
+                TIME_TO_FIRST_SAMPLE.record(timeToFirstSampleNanos);
+            }
+            if (frames > 0 && voice.seekedAt != 0) {
+                SEEK_LATENCY.recordSince(voice.seekedAt);
+                voice.seekedAt = 0;
+            }
+            voice.fade.process(buffer, frames, CHANNELS);
+            for (int i = 0, at = offset * CHANNELS; i < frames * CHANNELS; i++, at++) {
+                mix[at] += buffer[i];
+            }
+            if (voice.retiring && voice.fade.isSilent()) {
+                voice.close();
+                remove(voice);
+            } else if (voice.isFinished()) {
+                remove(voice);
+                if (voice == current) {
+                    // Gapless: the next song starts in the same block, right where this one ended
+                    MixerVoice next = takeNext();
+                    if (next == null) {
+                        return voice.song;
+                    }
+                    followed = next;
+                    gapFrames = 0;
+                    return mixVoice(next, mix, buffer, offset + frames);
+                }
+            }
+            return null;
+        }
+
+        // Starts the next song early when the current one is within the crossfade of its end
+        private void startCrossfade() {
+            MixerVoice voice = current;
+            int millis = crossfadeMillis;
+            // Read once: the prefetcher and open() swap it from other threads
+            MixerVoice next = armed.get();
+            if (voice == null || millis == 0 || voice.retiring || next == null) {
+                return;
+            }
+            long remaining = voice.remainingFrames();
+            if (remaining < 0 || remaining > format.getFrameRate() * millis / 1000 || !next.isReady()) {
+                return;
+            }
+            next = takeNext();
+            if (next == null) {
+                return;
+            }
+            // Fade over whatever is left, as the song may be shorter than the crossfade
+            voice.retiring = true;
+            voice.fade.fadeTo(0f, remaining);
+            next.fade.fadeIn(remaining);
+            lastTransitionGapMicros = 0;
+        }
+
+        // Moves the armed next song into the mix as the current song
+        private MixerVoice takeNext() {
+            if (isLooping) {
+                return null;
+            }
+            MixerVoice next = armed.getAndSet(null);
+            if (next == null) {
+                return null;
+            }
+            nextSong = null;
+            synchronized (this) {
+                if (voiceCount == MAX_VOICES) {
+                    voices[0].close();
+                    remove(voices[0]);
+                }
+                voices[voiceCount++] = next;
+                current = next;
+            }
+            publish();
+            next.heard = true;
+            fireTrackChanged(next.song);
+            return next;
+        }
+
+        // Fades out and closes the line once the fade has been heard, without waiting for it
+        void close() {
+            level.fadeTo(0f, declickFrames);
+            closing = true;
+            LockSupport.unpark(thread);
+        }
+
+        // Waits until the mixer thread has closed the line after close()
+        void awaitClosed() {
+            try {
+                thread.join(CLOSE_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Clamps to -1..1 and writes 16-bit signed little-endian samples
+    public static void toPcm16(float[] samples, int count, byte[] pcm) {
+        for (int i = 0; i < count; i++) {
+            float sample = Math.max(-1f, Math.min(1f, samples[i]));
+            int value = Math.round(sample * 32767f);
+            pcm[2 * i] = (byte) value;
+            pcm[2 * i + 1] = (byte) (value >> 8);
+        }
+    }
+}
@@ -0,0 +1,1168 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// MP3 files (MPEG-1, MPEG-2 and MPEG-2.5 Layer III), decoded here to 16-bit PCM. Free-format
+// streams (no bitrate in the header) are not supported.
+//
+// Gapless: when the encoder left a LAME tag in the first frame, the encoder delay, the decoder
+// delay and the padding at the end are dropped, so a track is exactly as long as what was
+// encoded. The Xing/VBRI frame gives the exact length; without one, the length is estimated
+// from the bitrate of the first frame.
+//
+// A seek walks the frame headers once to build the file's seek table (a point every few
+// frames), then starts decoding a little before the target, so the frames it may take data
+// from (the bit reservoir) and the one it overlaps with are decoded too, and drops what comes
+// before the target.
+class Mp3Decoder implements AudioDecoder {
+    static final AudioFileFormat.Type MP3 = new AudioFileFormat.Type("MP3", "mp3");
+    // Indexed by the header's version bits; 1 is reserved
+    private static final AudioFormat.Encoding[] ENCODINGS = {new AudioFormat.Encoding("MPEG2DOT5L3"), null,
+            new AudioFormat.Encoding("MPEG2L3"), new AudioFormat.Encoding("MPEG1L3")};
+    private static final int MPEG1 = 3;
+    private static final int[][] BITRATES = {
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}};
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+    // Sync, version, layer and sample rate: the same in every frame of a stream
+    private static final int STREAM_MASK = 0xFFFE0C00;
+    private static final int JOINT_STEREO = 1;
+    private static final int MONO = 3;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    // The synthesis filter bank's delay, dropped with the encoder's (LAME's convention)
+    private static final int DECODER_DELAY = 529;
+    private static final int SEEK_POINT_FRAMES = 16;
+    // A seek starts decoding at least this far before the target: more than the bit reservoir
+    // (511 bytes) and the frame before the target
+    private static final int WARMUP_BYTES = 4096;
+
+    // Main data kept for the next frames; the slack after it lets a corrupt granule read past
+    // the end without running off the array
+    private static final int RESERVOIR_BYTES = 4096;
+    private static final int RESERVOIR_SLACK = 4096;
+
+    private static final float[] POW43 = new float[8207];
+    private static final float[] ALIAS_CS = new float[8];
+    private static final float[] ALIAS_CA = new float[8];
+    // Windowed IMDCT kernels for the long block types 0, 1 and 3, and the short one
+    private static final float[][][] IMDCT_LONG = new float[4][36][18];
+    private static final float[][] IMDCT_SHORT = new float[12][6];
+    // Matrixing of the synthesis filter bank, rows 0-15 and 33-48 (the rest mirror them)
+    private static final float[][] SYNTH_COS = new float[64][32];
+    // Intensity stereo factors: MPEG-1 by position, MPEG-2 by scale (scalefac_compress & 1)
+    // and position
+    private static final float[] IS_LEFT = new float[7];
+    private static final float[] IS_RIGHT = new float[7];
+    private static final float[][] LSF_IS_LEFT = new float[2][32];
+    private static final float[][] LSF_IS_RIGHT = new float[2][32];
+    private static final float SQRT_HALF = (float) Math.sqrt(0.5);
+
+    static {
+        for (int i = 0; i < POW43.length; i++) {
+            POW43[i] = (float) Math.pow(i, 4.0 / 3);
+        }
+        double[] ci = {-0.6, -0.535, -0.33, -0.185, -0.095, -0.041, -0.0142, -0.0037};
+        for (int i = 0; i < 8; i++) {
+            double norm = Math.sqrt(1 + ci[i] * ci[i]);
+            ALIAS_CS[i] = (float) (1 / norm);
+            ALIAS_CA[i] = (float) (ci[i] / norm);
+        }
+        double[][] windows = new double[4][36];
+        for (int i = 0; i < 36; i++) {
+            double sine = Math.sin(Math.PI / 36 * (i + 0.5));
+            windows[0][i] = sine;
+            windows[1][i] = i < 18 ? sine : i < 24 ? 1 : i < 30 ? Math.sin(Math.PI / 12 * (i - 18 + 0.5)) : 0;
+            windows[3][i] = i < 6 ? 0 : i < 12 ? Math.sin(Math.PI / 12 * (i - 6 + 0.5)) : i < 18 ? 1 : sine;
+        }
+        for (int type : new int[]{0, 1, 3}) {
+            for (int i = 0; i < 36; i++) {
+                for (int k = 0; k < 18; k++) {
+                    IMDCT_LONG[type][i][k] = (float) (windows[type][i]
+                            * Math.cos(Math.PI / 72 * (2 * i + 1 + 18) * (2 * k + 1)));
+                }
+            }
+        }
+        for (int i = 0; i < 12; i++) {
+            for (int k = 0; k < 6; k++) {
+                IMDCT_SHORT[i][k] = (float) (Math.sin(Math.PI / 12 * (i + 0.5))
+                        * Math.cos(Math.PI / 24 * (2 * i + 1 + 6) * (2 * k + 1)));
+            }
+        }
+        for (int i = 0; i < 64; i++) {
+            for (int k = 0; k < 32; k++) {
+                SYNTH_COS[i][k] = (float) Math.cos((16 + i) * (2 * k + 1) * Math.PI / 64);
+            }
+        }
+        for (int pos = 0; pos < 7; pos++) {
+            if (pos == 6) {
+                IS_LEFT[pos] = 1;
+                IS_RIGHT[pos] = 0;
+            } else {
+                double ratio = Math.tan(pos * Math.PI / 12);
+                IS_LEFT[pos] = (float) (ratio / (1 + ratio));
+                IS_RIGHT[pos] = (float) (1 / (1 + ratio));
+            }
+        }
+        for (int scale = 0; scale < 2; scale++) {
+            double io = scale == 0 ? Math.pow(2, -0.25) : Math.sqrt(0.5);
+            for (int pos = 0; pos < 32; pos++) {
+                LSF_IS_LEFT[scale][pos] = (float) (pos % 2 == 1 ? Math.pow(io, (pos + 1) / 2) : 1);
+                LSF_IS_RIGHT[scale][pos] = (float) (pos % 2 == 0 ? Math.pow(io, pos / 2) : 1);
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "MP3";
+    }
+
+    @Override
+    public boolean accepts(byte[] head, int length) {
+        return findFrame(head, length) >= 0;
+    }
+
+    @Override
+    public AudioFileFormat getFormat(File file) throws IOException, UnsupportedAudioFileException {
+        StreamInfo info;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            info = readStreamInfo(channel);
+        }
+        long frames = info.totalSamples();
+        if (frames >= 0 && frames <= Integer.MAX_VALUE) {
+            return new AudioFileFormat(MP3, info.format(), (int) frames);
+        }
+        // No frame count: estimated from the first frame's bitrate, as a CBR file would be
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("duration", (info.audioEnd - info.audioOffset) * 8000L / info.bitrate);
+        return new AudioFileFormat(MP3, info.format(), AudioSystem.NOT_SPECIFIED, properties);
+    }
+
+    @Override
+    public AudioInputStream open(File file, long frame) throws IOException, UnsupportedAudioFileException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            StreamInfo info = readStreamInfo(channel);
+            long skip = info.gapless ? info.delay + DECODER_DELAY : 0;
+            long offset = info.audioOffset;
+            long first = 0;
+            frame = Math.max(0, frame);
+            if (frame > 0) {
+                SeekIndex index = seekIndex(file, channel, info);
+                long target = frame + skip;
+                first = index.pointFrame(Math.max(0, target - info.samplesPerFrame));
+                long targetOffset = index.offsetFor(target);
+                while (first > 0 && targetOffset - index.offsetFor(first) < WARMUP_BYTES) {
+                    first = index.pointFrame(first - 1);
+                }
+                offset = index.offsetFor(first);
+            }
+            Mp3Stream stream = new Mp3Stream(channel, info, offset);
+            stream.skipFrames(frame + skip - first);
+            long total = info.totalSamples();
+            if (info.gapless && total >= 0) {
+                stream.limitFrames(Math.max(0, total - frame));
+            }
+            return new AudioInputStream(stream, stream.format,
+                    total >= 0 ? Math.max(0, total - frame) : AudioSystem.NOT_SPECIFIED);
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static final class StreamInfo {
+        int version;
+        int sampleRate;
+        int channels;
+        int samplesPerFrame;
+        // Of the first frame, in kbit/s
+        int bitrate;
+        // Header of the first frame, which the others are checked against
+        int header;
+        // First frame of audio (after the Xing/VBRI frame), and the end of the frames (before
+        // any tags at the end of the file)
+        long audioOffset;
+        long audioEnd;
+        // Frames of audio from the Xing/VBRI frame, -1 if there is none
+        long frames = -1;
+        // From the LAME tag: samples the encoder added before and after the audio
+        boolean gapless;
+        int delay;
+        int padding;
+
+        // Samples of audio in all, -1 if unknown
+        long totalSamples() {
+            if (frames < 0) {
+                return -1;
+            }
+            long samples = frames * samplesPerFrame;
+            return gapless ? Math.max(0, samples - delay - padding) : samples;
+        }
+
+        AudioFormat format() {
+            return new AudioFormat(ENCODINGS[version], sampleRate, AudioSystem.NOT_SPECIFIED, channels,
+                    AudioSystem.NOT_SPECIFIED, sampleRate, false);
+        }
+    }
+
+    // Length in bytes of the frame with this header, or -1 if it is not a Layer III header
+    static int frameLength(int header) {
+        int version = header >>> 19 & 3;
+        int bitrate = header >>> 12 & 15;
+        if ((header & 0xFFE00000) != 0xFFE00000 || version == 1 || (header >>> 17 & 3) != 1
+                || bitrate == 0 || bitrate == 15 || (header >>> 10 & 3) == 3 || (header & 3) == 2) {
+            return -1;
+        }
+        int kbps = BITRATES[version == MPEG1 ? 0 : 1][bitrate];
+        return (version == MPEG1 ? 144 : 72) * kbps * 1000 / sampleRate(header) + (header >>> 9 & 1);
+    }
+
+    static int sampleRate(int header) {
+        int version = header >>> 19 & 3;
+        return SAMPLE_RATES[header >>> 10 & 3] >> (version == MPEG1 ? 0 : version == 2 ? 1 : 2);
+    }
+
+    private static boolean sameStream(int header, int first) {
+        return (header & STREAM_MASK) == (first & STREAM_MASK)
+                && ((header >>> 6 & 3) == MONO) == ((first >>> 6 & 3) == MONO);
+    }
+
+    private static int sideInfoBytes(int header) {
+        boolean mono = (header >>> 6 & 3) == MONO;
+        if ((header >>> 19 & 3) == MPEG1) {
+            return mono ? 17 : 32;
+        }
+        return mono ? 9 : 17;
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return (b[off] & 0xFF) << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | b[off + 3] & 0xFF;
+    }
+
+    private static boolean matches(byte[] b, int off, String tag) {
+        if (off < 0 || off + tag.length() > b.length) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (b[off + i] != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Offset of the first frame header that is followed by another of the same stream (or by
+    // the end of the data), -1 if there is none
+    static int findFrame(byte[] b, int length) {
+        for (int p = 0; p + 4 <= length; p++) {
+            if ((b[p] & 0xFF) != 0xFF) {
+                continue;
+            }
+            int header = getInt(b, p);
+            int frameLength = frameLength(header);
+            if (frameLength < 0) {
+                continue;
+            }
+            int next = p + frameLength;
+            if (next == length || next + 4 <= length && frameLength(getInt(b, next)) > 0
+                    && sameStream(getInt(b, next), header)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    // Finds the first frame and reads the Xing/VBRI frame and LAME tag if it is one
+    static StreamInfo readStreamInfo(FileChannel channel) throws IOException, UnsupportedAudioFileException {
+        long start = AudioDecoders.audioStart(channel);
+        byte[] head = new byte[AudioDecoders.SNIFF_BYTES];
+        int p = findFrame(head, AudioDecoders.read(channel, start, head));
+        if (p < 0) {
+            throw new UnsupportedAudioFileException("Not an MP3 file");
+        }
+        StreamInfo info = new StreamInfo();
+        int header = getInt(head, p);
+        info.header = header;
+        info.version = header >>> 19 & 3;
+        info.sampleRate = sampleRate(header);
+        info.channels = (header >>> 6 & 3) == MONO ? 1 : 2;
+        info.samplesPerFrame = info.version == MPEG1 ? 1152 : 576;
+        info.bitrate = BITRATES[info.version == MPEG1 ? 0 : 1][header >>> 12 & 15];
+        info.audioOffset = start + p;
+        info.audioEnd = audioEnd(channel);
+
+        byte[] frame = new byte[frameLength(header)];
+        AudioDecoders.read(channel, start + p, frame);
+        int xing = 4 + sideInfoBytes(header);
+        if (matches(frame, xing, "Xing") || matches(frame, xing, "Info")) {
+            int flags = getInt(frame, xing + 4);
+            int q = xing + 8;
+            if ((flags & 1) != 0) {
+                info.frames = getInt(frame, q) & 0xFFFFFFFFL;
+                q += 4;
+            }
+            q += ((flags & 2) != 0 ? 4 : 0) + ((flags & 4) != 0 ? 100 : 0) + ((flags & 8) != 0 ? 4 : 0);
+            if ((matches(frame, q, "LAME") || matches(frame, q, "Lavf") || matches(frame, q, "Lavc"))
+                    && q + 24 <= frame.length) {
+                info.gapless = true;
+                info.delay = (frame[q + 21] & 0xFF) << 4 | (frame[q + 22] & 0xFF) >> 4;
+                info.padding = (frame[q + 22] & 0x0F) << 8 | frame[q + 23] & 0xFF;
+            }
+            info.audioOffset += frame.length;
+        } else if (matches(frame, 36, "VBRI") && frame.length >= 36 + 18) {
+            info.frames = getInt(frame, 36 + 14) & 0xFFFFFFFFL;
+            info.audioOffset += frame.length;
+        }
+        return info;
+    }
+
+    // Where the frames end: before an ID3v1 tag and an APEv2 tag at the end of the file
+    private static long audioEnd(FileChannel channel) throws IOException {
+        long end = channel.size();
+        byte[] tag = new byte[3];
+        if (end >= 128 && AudioDecoders.read(channel, end - 128, tag) == 3
+                && tag[0] == 'T' && tag[1] == 'A' && tag[2] == 'G') {
+            end -= 128;
+        }
+        byte[] footer = new byte[32];
+        if (end >= 32 && AudioDecoders.read(channel, end - 32, footer) == 32 && matches(footer, 0, "APETAGEX")) {
+            ByteBuffer b = ByteBuffer.wrap(footer).order(ByteOrder.LITTLE_ENDIAN);
+            long size = (b.getInt(12) & 0xFFFFFFFFL) + ((b.getInt(20) & 0x80000000) != 0 ? 32 : 0);
+            end = Math.max(0, end - size);
+        }
+        return end;
+    }
+
+    // The file's seek table: the first sample and offset of every SEEK_POINT_FRAMES-th frame
+    private static SeekIndex seekIndex(File file, FileChannel channel, StreamInfo info) throws IOException {
+        SeekIndex index = SeekIndex.cached(file);
+        if (index != null) {
+            return index;
+        }
+        long[] frames = new long[256];
+        long[] offsets = new long[256];
+        int count = 0;
+        long n = 0;
+        FrameReader reader = new FrameReader(channel, info, info.audioOffset);
+        while (reader.next()) {
+            if (n % SEEK_POINT_FRAMES == 0) {
+                if (count == frames.length) {
+                    frames = Arrays.copyOf(frames, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                frames[count] = n * info.samplesPerFrame;
+                offsets[count++] = reader.position();
+            }
+            n++;
+        }
+        if (count == 0) {
+            frames[0] = 0;
+            offsets[0] = info.audioOffset;
+            count = 1;
+        }
+        long samples = n * info.samplesPerFrame;
+        if (info.gapless) {
+            samples = Math.max(0, samples - info.delay - info.padding);
+        }
+        index = SeekIndex.table(file, info.format(), samples, frames, offsets, count);
+        SeekIndex.put(file, index);
+        return index;
+    }
+
+    // Reads the frames of a stream one after another, skipping whatever between them is not a
+    // frame of the stream
+    private static final class FrameReader {
+        private final FileChannel channel;
+        private final int first;
+        private final long end;
+        // 8 bytes of slack after the data so reading a few bytes ahead never runs off the end
+        final byte[] buf = new byte[BUFFER_BYTES + 8];
+        private long filePosition;
+        // File offset of buf[0]
+        private long bufStart;
+        private int pos;
+        private int limit;
+        // The current frame: its header, where it starts in `buf`, and its length
+        int header;
+        int offset;
+        int length;
+
+        FrameReader(FileChannel channel, StreamInfo info, long offset) {
+            this.channel = channel;
+            this.first = info.header;
+            this.end = info.audioEnd;
+            this.filePosition = offset;
+            this.bufStart = offset;
+        }
+
+        // Moves to the next frame; false at the end of the stream
+        boolean next() throws IOException {
+            while (true) {
+                if (limit - pos < 4 && !fill(4)) {
+                    return false;
+                }
+                int h = getInt(buf, pos);
+                int frameLength = frameLength(h);
+                if (frameLength < 0 || !sameStream(h, first)) {
+                    pos++;
+                    continue;
+                }
+                if (limit - pos < frameLength && !fill(frameLength)) {
+                    return false;
+                }
+                header = h;
+                offset = pos;
+                length = frameLength;
+                pos += frameLength;
+                return true;
+            }
+        }
+
+        // File offset of the current frame
+        long position() {
+            return bufStart + offset;
+        }
+
+        private boolean fill(int needed) throws IOException {
+            int left = limit - pos;
+            System.arraycopy(buf, pos, buf, 0, left);
+            bufStart += pos;
+            limit = left;
+            pos = 0;
+            long remaining = end - filePosition;
+            if (remaining > 0) {
+                ByteBuffer target = ByteBuffer.wrap(buf, limit, (int) Math.min(BUFFER_BYTES - limit, remaining));
+                while (target.hasRemaining()) {
+                    int read = channel.read(target, filePosition);
+                    if (read < 0) {
+                        break;
+                    }
+                    filePosition += read;
+                }
+                limit = target.position();
+            }
+            return limit >= needed;
+        }
+    }
+
+    // Side info of one granule of one channel
+    private static final class Granule {
+        int part23Length;
+        int bigValues;
+        int globalGain;
+        int scalefacCompress;
+        boolean windowSwitching;
+        int blockType;
+        boolean mixed;
+        final int[] tableSelect = new int[3];
+        final int[] subblockGain = new int[3];
+        // Lines where the second and third Huffman regions start
+        int region1Start;
+        int region2Start;
+        boolean preflag;
+        boolean scalefacScale;
+        boolean count1TableB;
+
+        boolean shortBlocks() {
+            return windowSwitching && blockType == 2;
+        }
+    }
+
+    static final class Mp3Stream extends BlockDecodingStream {
+        final AudioFormat format;
+        private final FileChannel channel;
+        private final FrameReader reader;
+        private final boolean lsf;
+        private final int channels;
+        private final int granules;
+        private final int[] sfbLong;
+        private final int[] sfbShort;
+        // Long bands before the short ones in a mixed block
+        private final int mixedLongBands;
+
+        private final byte[] reservoir = new byte[RESERVOIR_BYTES + RESERVOIR_SLACK];
+        private int reservoirLength;
+        // Bit reader over the side info (in the frame) or the main data (in the reservoir)
+        private byte[] data;
+        private int bitPos;
+
+        private int mainDataBegin;
+        private final int[][] scfsi = new int[2][4];
+        private final Granule[][] sideInfo = new Granule[2][2];
+        private final int[][] scalefacLong = new int[2][22];
+        private final int[][][] scalefacShort = new int[2][13][3];
+        // MPEG-2 intensity stereo: the right channel's scale factor that marks a band as not
+        // intensity-coded, per band
+        private final int[] illegalLong = new int[22];
+        private final int[] illegalShort = new int[13];
+        private final int[] lsfValues = new int[54];
+        private final int[] lsfMax = new int[54];
+        private int intensityScale;
+
+        private final int[][] quantized = new int[2][576];
+        // Lines of each channel past which all are zero
+        private final int[] nonzero = new int[2];
+        private final float[][] xr = new float[2][576];
+        private final int[] intensityPos = new int[576];
+        private final float[] reordered = new float[576];
+        private final float[] imdctOut = new float[36];
+        private final float[][] overlap = new float[2][576];
+        private final float[][] synthBuffer = new float[2][1024];
+        private final int[] synthOffset = new int[2];
+        private final float[] subbands = new float[32];
+        private boolean reportedError;
+
+        Mp3Stream(FileChannel channel, StreamInfo info, long offset) {
+            super(2 * info.channels);
+            this.channel = channel;
+            reader = new FrameReader(channel, info, offset);
+            lsf = info.version != MPEG1;
+            channels = info.channels;
+            granules = lsf ? 1 : 2;
+            int rate = info.header >>> 10 & 3;
+            int table = (info.version == MPEG1 ? 0 : info.version == 2 ? 3 : 6) + rate;
+            sfbLong = Mp3Tables.SFB_LONG[table];
+            sfbShort = Mp3Tables.SFB_SHORT[table];
+            mixedLongBands = lsf ? 6 : 8;
+            format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, info.sampleRate, 16, channels,
+                    2 * channels, info.sampleRate, false);
+            pcm = new byte[info.samplesPerFrame * channels * 2];
+            for (int gr = 0; gr < 2; gr++) {
+                for (int ch = 0; ch < 2; ch++) {
+                    sideInfo[gr][ch] = new Granule();
+                }
+            }
+        }
+
+        @Override
+        protected int decodeBlock() throws IOException {
+            if (!reader.next()) {
+                return -1;
+            }
+            int header = reader.header;
+            int sideStart = reader.offset + 4 + ((header >>> 16 & 1) == 0 ? 2 : 0);
+            int dataStart = sideStart + sideInfoBytes(header);
+            int dataLength = reader.offset + reader.length - dataStart;
+            if (dataLength < 0) {
+                Arrays.fill(pcm, (byte) 0);
+                return pcm.length;
+            }
+            data = reader.buf;
+            bitPos = sideStart * 8;
+            readSideInfo();
+
+            if (reservoirLength + dataLength > RESERVOIR_BYTES) {
+                int keep = Math.min(reservoirLength, 512);
+                System.arraycopy(reservoir, reservoirLength - keep, reservoir, 0, keep);
+                reservoirLength = keep;
+            }
+            // A frame whose main data starts before what was read (the first frames after a
+            // seek point) cannot be decoded
+            boolean complete = mainDataBegin <= reservoirLength;
+            int mainStart = reservoirLength - mainDataBegin;
+            System.arraycopy(reader.buf, dataStart, reservoir, reservoirLength, dataLength);
+            reservoirLength += dataLength;
+            if (!complete) {
+                Arrays.fill(pcm, (byte) 0);
+                return pcm.length;
+            }
+
+            data = reservoir;
+            bitPos = mainStart * 8;
+            int mode = header >>> 6 & 3;
+            int modeExtension = header >>> 4 & 3;
+            try {
+                for (int gr = 0; gr < granules; gr++) {
+                    for (int ch = 0; ch < channels; ch++) {
+                        Granule g = sideInfo[gr][ch];
+                        int part2Start = bitPos;
+                        if (lsf) {
+                            readLsfScalefactors(g, ch, mode == JOINT_STEREO && (modeExtension & 1) != 0);
+                        } else {
+                            readScalefactors(g, gr, ch);
+                        }
+                        readHuffman(g, ch, part2Start + g.part23Length);
+                        bitPos = part2Start + g.part23Length;
+                        requantize(g, ch);
+                    }
+                    if (mode == JOINT_STEREO && channels == 2) {
+                        stereo(sideInfo[gr][1], modeExtension);
+                    }
+                    for (int ch = 0; ch < channels; ch++) {
+                        Granule g = sideInfo[gr][ch];
+                        reorder(g, ch);
+                        int lines = antialias(g, xr[ch], nonzero[ch]);
+                        hybrid(g, ch, lines);
+                        synthesize(ch, gr * 576);
+                    }
+                }
+            } catch (ArrayIndexOutOfBoundsException e) {
+                // Side info or Huffman data that points outside the frame: a corrupt frame
+                if (!reportedError) {
+                    reportedError = true;
+                    System.err.println("Error decoding MP3: corrupt frame, playing silence");
+                }
+                Arrays.fill(pcm, (byte) 0);
+                for (int ch = 0; ch < 2; ch++) {
+                    Arrays.fill(overlap[ch], 0);
+                }
+            }
+            return pcm.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private int bits(int n) {
+            if (n == 0) {
+                return 0;
+            }
+            int i = bitPos >>> 3;
+            int window = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | data[i + 2] & 0xFF;
+            bitPos += n;
+            return window << 8 + ((bitPos - n) & 7) >>> 32 - n;
+        }
+
+        private int bit() {
+            int b = data[bitPos >>> 3] >> 7 - (bitPos & 7) & 1;
+            bitPos++;
+            return b;
+        }
+
+        private void readSideInfo() {
+            if (lsf) {
+                mainDataBegin = bits(8);
+                bits(channels == 1 ? 1 : 2);
+            } else {
+                mainDataBegin = bits(9);
+                bits(channels == 1 ? 5 : 3);
+                for (int ch = 0; ch < channels; ch++) {
+                    for (int band = 0; band < 4; band++) {
+                        scfsi[ch][band] = bit();
+                    }
+                }
+            }
+            for (int gr = 0; gr < granules; gr++) {
+                for (int ch = 0; ch < channels; ch++) {
+                    Granule g = sideInfo[gr][ch];
+                    g.part23Length = bits(12);
+                    g.bigValues = Math.min(bits(9), 288);
+                    g.globalGain = bits(8);
+                    g.scalefacCompress = bits(lsf ? 9 : 4);
+                    g.windowSwitching = bit() != 0;
+                    if (g.windowSwitching) {
+                        g.blockType = bits(2);
+                        g.mixed = bit() != 0;
+                        g.tableSelect[0] = bits(5);
+                        g.tableSelect[1] = bits(5);
+                        g.tableSelect[2] = 0;
+                        for (int w = 0; w < 3; w++) {
+                            g.subblockGain[w] = bits(3);
+                        }
+                        if (g.blockType == 2) {
+                            g.region1Start = g.mixed ? 36 : sfbShort[3] * 3;
+                        } else {
+                            g.region1Start = sfbLong[8];
+                        }
+                        g.region2Start = 576;
+                    } else {
+                        g.blockType = 0;
+                        g.mixed = false;
+                        for (int r = 0; r < 3; r++) {
+                            g.tableSelect[r] = bits(5);
+                        }
+                        Arrays.fill(g.subblockGain, 0);
+                        int region0Count = bits(4);
+                        int region1Count = bits(3);
+                        g.region1Start = sfbLong[Math.min(region0Count + 1, 22)];
+                        g.region2Start = sfbLong[Math.min(region0Count + region1Count + 2, 22)];
+                    }
+                    g.preflag = !lsf && bit() != 0;
+                    g.scalefacScale = bit() != 0;
+                    g.count1TableB = bit() != 0;
+                }
+            }
+        }
+
+        private void readScalefactors(Granule g, int gr, int ch) {
+            int slen1 = Mp3Tables.SLEN1[g.scalefacCompress];
+            int slen2 = Mp3Tables.SLEN2[g.scalefacCompress];
+            int[] longs = scalefacLong[ch];
+            int[][] shorts = scalefacShort[ch];
+            if (g.shortBlocks()) {
+                int sfb = 0;
+                if (g.mixed) {
+                    for (; sfb < 8; sfb++) {
+                        longs[sfb] = bits(slen1);
+                    }
+                    sfb = 3;
+                }
+                for (; sfb < 12; sfb++) {
+                    int slen = sfb < 6 ? slen1 : slen2;
+                    for (int w = 0; w < 3; w++) {
+                        shorts[sfb][w] = bits(slen);
+                    }
+                }
+                Arrays.fill(shorts[12], 0);
+            } else {
+                int[] groups = {0, 6, 11, 16, 21};
+                for (int k = 0; k < 4; k++) {
+                    if (gr == 0 || scfsi[ch][k] == 0) {
+                        int slen = k < 2 ? slen1 : slen2;
+                        for (int sfb = groups[k]; sfb < groups[k + 1]; sfb++) {
+                            longs[sfb] = bits(slen);
+                        }
+                    }
+                }
+                longs[21] = 0;
+            }
+        }
+
+        // MPEG-2 scale factors (ISO/IEC 13818-3 2.4.3.2); `intensity` for the right channel of
+        // an intensity-stereo frame, whose scale factors are intensity positions
+        private void readLsfScalefactors(Granule g, int ch, boolean intensity) {
+            int sc = g.scalefacCompress;
+            int[] slen = new int[4];
+            int blocks;
+            if (!(intensity && ch == 1)) {
+                if (sc < 400) {
+                    slen[0] = (sc >> 4) / 5;
+                    slen[1] = (sc >> 4) % 5;
+                    slen[2] = (sc & 15) >> 2;
+                    slen[3] = sc & 3;
+                    blocks = 0;
+                } else if (sc < 500) {
+                    sc -= 400;
+                    slen[0] = (sc >> 2) / 5;
+                    slen[1] = (sc >> 2) % 5;
+                    slen[2] = sc & 3;
+                    blocks = 1;
+                } else {
+                    sc -= 500;
+                    slen[0] = sc / 3;
+                    slen[1] = sc % 3;
+                    g.preflag = true;
+                    blocks = 2;
+                }
+            } else {
+                intensityScale = sc & 1;
+                sc >>= 1;
+                if (sc < 180) {
+                    slen[0] = sc / 36;
+                    slen[1] = sc % 36 / 6;
+                    slen[2] = sc % 36 % 6;
+                    blocks = 3;
+                } else if (sc < 244) {
+                    sc -= 180;
+                    slen[0] = (sc & 63) >> 4;
+                    slen[1] = (sc & 15) >> 2;
+                    slen[2] = sc & 3;
+                    blocks = 4;
+                } else {
+                    sc -= 244;
+                    slen[0] = sc / 3;
+                    slen[1] = sc % 3;
+                    blocks = 5;
+                }
+            }
+            int[] counts = Mp3Tables.LSF_BANDS[blocks][g.shortBlocks() ? (g.mixed ? 2 : 1) : 0];
+            int n = 0;
+            for (int k = 0; k < 4; k++) {
+                for (int i = 0; i < counts[k]; i++) {
+                    lsfValues[n] = bits(slen[k]);
+                    lsfMax[n++] = (1 << slen[k]) - 1;
+                }
+            }
+            Arrays.fill(lsfValues, n, lsfValues.length, 0);
+            Arrays.fill(lsfMax, n, lsfMax.length, 0);
+
+            int[] longs = scalefacLong[ch];
+            int[][] shorts = scalefacShort[ch];
+            n = 0;
+            if (g.shortBlocks()) {
+                int sfb = 0;
+                if (g.mixed) {
+                    for (; sfb < mixedLongBands; sfb++) {
+                        illegalLong[sfb] = lsfMax[n];
+                        longs[sfb] = lsfValues[n++];
+                    }
+                    sfb = 3;
+                }
+                for (; sfb < 12; sfb++) {
+                    illegalShort[sfb] = lsfMax[n];
+                    for (int w = 0; w < 3; w++) {
+                        shorts[sfb][w] = lsfValues[n++];
+                    }
+                }
+                Arrays.fill(shorts[12], 0);
+                illegalShort[12] = illegalShort[11];
+            } else {
+                for (int sfb = 0; sfb < 21; sfb++) {
+                    illegalLong[sfb] = lsfMax[n];
+                    longs[sfb] = lsfValues[n++];
+                }
+                longs[21] = 0;
+                illegalLong[21] = illegalLong[20];
+            }
+        }
+
+        private void readHuffman(Granule g, int ch, int end) {
+            int[] out = quantized[ch];
+            int bigLines = g.bigValues * 2;
+            int i = 0;
+            for (; i < bigLines; i += 2) {
+                int table = g.tableSelect[i < g.region1Start ? 0 : i < g.region2Start ? 1 : 2];
+                int[] tree = Mp3Tables.TREES[table];
+                if (tree == null) {
+                    out[i] = 0;
+                    out[i + 1] = 0;
+                    continue;
+                }
+                int node = 0;
+                int value;
+                while ((value = tree[2 * node + bit()]) >= 0) {
+                    node = value;
+                }
+                value = ~value;
+                int x = value >> 4;
+                int y = value & 15;
+                int linbits = Mp3Tables.LINBITS[table];
+                if (x == 15 && linbits > 0) {
+                    x += bits(linbits);
+                }
+                if (x != 0 && bit() != 0) {
+                    x = -x;
+                }
+                if (y == 15 && linbits > 0) {
+                    y += bits(linbits);
+                }
+                if (y != 0 && bit() != 0) {
+                    y = -y;
+                }
+                out[i] = x;
+                out[i + 1] = y;
+            }
+            while (i + 4 <= 576 && bitPos < end) {
+                int value;
+                if (g.count1TableB) {
+                    value = 15 - bits(4);
+                } else {
+                    int node = 0;
+                    while ((value = Mp3Tables.COUNT1_TREE[2 * node + bit()]) >= 0) {
+                        node = value;
+                    }
+                    value = ~value;
+                }
+                int v = value >> 3 & 1;
+                int w = value >> 2 & 1;
+                int x = value >> 1 & 1;
+                int y = value & 1;
+                if (v != 0 && bit() != 0) {
+                    v = -1;
+                }
+                if (w != 0 && bit() != 0) {
+                    w = -1;
+                }
+                if (x != 0 && bit() != 0) {
+                    x = -1;
+                }
+                if (y != 0 && bit() != 0) {
+                    y = -1;
+                }
+                if (bitPos > end) {
+                    // Ran into the next granule's data: this quadruple was padding
+                    break;
+                }
+                out[i] = v;
+                out[i + 1] = w;
+                out[i + 2] = x;
+                out[i + 3] = y;
+                i += 4;
+            }
+            Arrays.fill(out, i, 576, 0);
+            nonzero[ch] = i;
+        }
+
+        private void requantize(Granule g, int ch) {
+            int[] q = quantized[ch];
+            float[] x = xr[ch];
+            int n = nonzero[ch];
+            double global = Math.pow(2, 0.25 * (g.globalGain - 210));
+            double multiplier = g.scalefacScale ? 1 : 0.5;
+            int[] longs = scalefacLong[ch];
+            int[][] shorts = scalefacShort[ch];
+            int longBands = g.shortBlocks() ? (g.mixed ? mixedLongBands : 0) : 22;
+            for (int sfb = 0; sfb < longBands && sfbLong[sfb] < n; sfb++) {
+                int exponent = longs[sfb] + (g.preflag ? Mp3Tables.PRETAB[sfb] : 0);
+                float gain = (float) (global * Math.pow(2, -multiplier * exponent));
+                for (int i = sfbLong[sfb], end = Math.min(sfbLong[sfb + 1], n); i < end; i++) {
+                    x[i] = scale(q[i], gain);
+                }
+            }
+            if (g.shortBlocks()) {
+                for (int sfb = g.mixed ? 3 : 0; sfb < 13 && sfbShort[sfb] * 3 < n; sfb++) {
+                    int width = sfbShort[sfb + 1] - sfbShort[sfb];
+                    for (int w = 0; w < 3; w++) {
+                        float gain = (float) (global * Math.pow(2, -2 * g.subblockGain[w]
+                                - multiplier * shorts[sfb][w]));
+                        int start = sfbShort[sfb] * 3 + w * width;
+                        for (int i = start, end = Math.min(start + width, n); i < end; i++) {
+                            x[i] = scale(q[i], gain);
+                        }
+                    }
+                }
+            }
+            Arrays.fill(x, n, 576, 0);
+        }
+
+        private static float scale(int q, float gain) {
+            if (q == 0) {
+                return 0;
+            }
+            return q > 0 ? POW43[Math.min(q, 8206)] * gain : -POW43[Math.min(-q, 8206)] * gain;
+        }
+
+        // Mid/side and intensity stereo, with `right` the right channel's side info
+        private void stereo(Granule right, int modeExtension) {
+            boolean midSide = (modeExtension & 2) != 0;
+            boolean intensity = (modeExtension & 1) != 0;
+            float[] l = xr[0];
+            float[] r = xr[1];
+            int n = Math.max(nonzero[0], nonzero[1]);
+            if (intensity) {
+                Arrays.fill(intensityPos, -1);
+                markIntensity(right);
+                n = Math.max(n, nonzero[0]);
+            }
+            float[] left = lsf ? LSF_IS_LEFT[intensityScale] : IS_LEFT;
+            float[] rightFactors = lsf ? LSF_IS_RIGHT[intensityScale] : IS_RIGHT;
+            for (int i = 0; i < n; i++) {
+                int pos = intensity ? intensityPos[i] : -1;
+                if (pos >= 0) {
+                    float v = l[i];
+                    l[i] = v * left[pos];
+                    r[i] = v * rightFactors[pos];
+                } else if (midSide) {
+                    float m = l[i];
+                    float s = r[i];
+                    l[i] = (m + s) * SQRT_HALF;
+                    r[i] = (m - s) * SQRT_HALF;
+                }
+            }
+            nonzero[0] = n;
+            nonzero[1] = n;
+        }
+
+        // Intensity positions of the lines above the last nonzero one of the right channel (in
+        // each window, for short blocks); lines with an illegal position stay -1
+        private void markIntensity(Granule g) {
+            int[] q = quantized[1];
+            if (g.shortBlocks()) {
+                int firstShort = g.mixed ? 3 : 0;
+                for (int w = 0; w < 3; w++) {
+                    int bound = firstShort;
+                    for (int sfb = 12; sfb >= firstShort && bound == firstShort; sfb--) {
+                        int width = sfbShort[sfb + 1] - sfbShort[sfb];
+                        int start = sfbShort[sfb] * 3 + w * width;
+                        for (int i = start; i < start + width; i++) {
+                            if (q[i] != 0) {
+                                bound = sfb + 1;
+                                break;
+                            }
+                        }
+                    }
+                    for (int sfb = bound; sfb < 13; sfb++) {
+                        int pos = scalefacShort[1][Math.min(sfb, 11)][w];
+                        if (lsf ? pos == illegalShort[sfb] : pos >= 7) {
+                            continue;
+                        }
+                        int width = sfbShort[sfb + 1] - sfbShort[sfb];
+                        int start = sfbShort[sfb] * 3 + w * width;
+                        Arrays.fill(intensityPos, start, start + width, pos);
+                    }
+                }
+            } else {
+                int last = nonzero[1] - 1;
+                while (last >= 0 && q[last] == 0) {
+                    last--;
+                }
+                int bound = 0;
+                while (bound < 22 && sfbLong[bound] <= last) {
+                    bound++;
+                }
+                for (int sfb = bound; sfb < 22; sfb++) {
+                    int pos = scalefacLong[1][Math.min(sfb, 20)];
+                    if (lsf ? pos == illegalLong[sfb] : pos >= 7) {
+                        continue;
+                    }
+                    Arrays.fill(intensityPos, sfbLong[sfb], sfbLong[sfb + 1], pos);
+                }
+            }
+        }
+
+        // Short blocks come window by window in each band; the IMDCT wants them line by line.
+        // A band's nonzero lines can move up to its end, so that is where the nonzero lines end
+        private void reorder(Granule g, int ch) {
+            if (!g.shortBlocks()) {
+                return;
+            }
+            float[] x = xr[ch];
+            int firstShort = g.mixed ? 3 : 0;
+            for (int sfb = firstShort; sfb < 13; sfb++) {
+                int start = sfbShort[sfb] * 3;
+                int width = sfbShort[sfb + 1] - sfbShort[sfb];
+                for (int w = 0; w < 3; w++) {
+                    for (int i = 0; i < width; i++) {
+                        reordered[start + 3 * i + w] = x[start + w * width + i];
+                    }
+                }
+            }
+            int from = sfbShort[firstShort] * 3;
+            System.arraycopy(reordered, from, x, from, 576 - from);
+            int band = firstShort;
+            while (band < 13 && sfbShort[band] * 3 < nonzero[ch]) {
+                band++;
+            }
+            nonzero[ch] = Math.max(nonzero[ch], sfbShort[band] * 3);
+        }
+
+        // Returns the lines past which all are zero afterwards
+        private int antialias(Granule g, float[] x, int n) {
+            if (g.shortBlocks() && !g.mixed) {
+                return n;
+            }
+            int limit = g.shortBlocks() ? 1 : Math.min(31, (n + 7) / 18);
+            for (int sb = 1; sb <= limit; sb++) {
+                int edge = 18 * sb;
+                for (int k = 0; k < 8; k++) {
+                    float a = x[edge - 1 - k];
+                    float b = x[edge + k];
+                    x[edge - 1 - k] = a * ALIAS_CS[k] - b * ALIAS_CA[k];
+                    x[edge + k] = b * ALIAS_CS[k] + a * ALIAS_CA[k];
+                }
+            }
+            return Math.min(576, n + 8);
+        }
+
+        // IMDCT of each subband, overlapped with the previous granule's, then frequency
+        // inversion; leaves the subband samples in xr
+        private void hybrid(Granule g, int ch, int lines) {
+            float[] x = xr[ch];
+            float[] prev = overlap[ch];
+            float[] out = imdctOut;
+            int active = (lines + 17) / 18;
+            for (int sb = 0; sb < 32; sb++) {
+                int base = 18 * sb;
+                if (sb >= active) {
+                    for (int i = 0; i < 18; i++) {
+                        x[base + i] = prev[base + i];
+                        prev[base + i] = 0;
+                    }
+                } else {
+                    int type = g.windowSwitching && !(g.mixed && sb < 2) ? g.blockType : 0;
+                    if (type == 2) {
+                        Arrays.fill(out, 0);
+                        for (int w = 0; w < 3; w++) {
+                            for (int i = 0; i < 12; i++) {
+                                float[] kernel = IMDCT_SHORT[i];
+                                float sum = 0;
+                                for (int k = 0; k < 6; k++) {
+                                    sum += kernel[k] * x[base + 3 * k + w];
+                                }
+                                out[6 + 6 * w + i] += sum;
+                            }
+                        }
+                    } else {
+                        float[][] kernel = IMDCT_LONG[type];
+                        for (int i = 0; i < 36; i++) {
+                            float[] row = kernel[i];
+                            float sum = 0;
+                            for (int k = 0; k < 18; k++) {
+                                sum += row[k] * x[base + k];
+                            }
+                            out[i] = sum;
+                        }
+                    }
+                    for (int i = 0; i < 18; i++) {
+                        x[base + i] = out[i] + prev[base + i];
+                        prev[base + i] = out[i + 18];
+                    }
+                }
+                if ((sb & 1) != 0) {
+                    for (int i = 1; i < 18; i += 2) {
+                        x[base + i] = -x[base + i];
+                    }
+                }
+            }
+        }
+
+        // Polyphase synthesis of the granule's 18 time slots into 16-bit samples in pcm
+        private void synthesize(int ch, int firstSample) {
+            float[] x = xr[ch];
+            float[] v = synthBuffer[ch];
+            float[] s = subbands;
+            float[] window = Mp3Tables.SYNTH_WINDOW;
+            int offset = synthOffset[ch];
+            for (int t = 0; t < 18; t++) {
+                for (int k = 0; k < 32; k++) {
+                    s[k] = x[18 * k + t];
+                }
+                offset = (offset - 64) & 1023;
+                // V[32 - i] = -V[i] for i in 0..16, V[96 - i] = V[i] for i in 33..63
+                for (int i = 0; i <= 15; i++) {
+                    float sum = dot(SYNTH_COS[i], s);
+                    v[offset + i] = sum;
+                    v[offset + 32 - i] = -sum;
+                }
+                v[offset + 16] = 0;
+                for (int i = 33; i <= 48; i++) {
+                    float sum = dot(SYNTH_COS[i], s);
+                    v[offset + i] = sum;
+                    v[offset + 96 - i] = sum;
+                }
+                int out = ((firstSample + t * 32) * channels + ch) * 2;
+                for (int j = 0; j < 32; j++) {
+                    float sum = 0;
+                    for (int m = 0; m < 8; m++) {
+                        sum += window[j + 64 * m] * v[(offset + j + 128 * m) & 1023]
+                                + window[j + 64 * m + 32] * v[(offset + j + 128 * m + 96) & 1023];
+                    }
+                    int sample = Math.round(sum * 32768);
+                    if (sample > Short.MAX_VALUE) {
+                        sample = Short.MAX_VALUE;
+                    } else if (sample < Short.MIN_VALUE) {
+                        sample = Short.MIN_VALUE;
+                    }
+                    pcm[out] = (byte) sample;
+                    pcm[out + 1] = (byte) (sample >> 8);
+                    out += channels * 2;
+                }
+            }
+            synthOffset[ch] = offset;
+        }
+
+        private static float dot(float[] a, float[] b) {
+            float sum = 0;
+            for (int k = 0; k < 32; k++) {
+                sum += a[k] * b[k];
+            }
+            return sum;
+        }
+    }
+}
@@ -1,41 +1,57 @@
 package src.main.java.musicplayer;
 
-import javax.sound.sampled.*;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntSupplier;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Properties;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import src.main.java.musicplayer.Song;
 
+// The Swing window. Library and playback state live in Library and PlayerEngine; this class
+// shows them and turns user input into calls on them.
 public class MusicPlayer {
-    private List<Song> playlist;
     private String csvFilePath = "songs.csv";
-    private Clip currentClip;
-    private boolean isPlaying;
+    private final Library library = new Library(csvFilePath);
+    private final PlayerEngine player = new PlayerEngine();
+    private Timer searchDebounceTimer;
+    private String searchQuery = "";
     private JFrame frame;
-    private DefaultListModel<Song> songListModel;
+    private SongListModel songListModel;
     private JList<Song> songList;
     private JSlider volumeSlider;
     private JLabel nowPlayingLabel;
-    private JLabel timeLabel;
-    private Timer timer;
-    private boolean isMuted = false;
-    private float lastVolume = 100;
-    private JProgressBar progressBar;
-    private boolean isLooping = false;
+    private TimeDisplay timeDisplay;
+    // The one timer that moves the time and playhead while a song plays, at the display's
+    // refresh rate; started and stopped, never replaced
+    private Timer clockTimer;
+    private WaveformView waveformView;
     private JToggleButton loopButton;
+    private JToggleButton shuffleButton;
+    private JButton repeatButton;
+    private JButton crossfadeButton;
+    private JToggleButton normalizeButton;
     private int currentSongIndex = -1;
     private boolean sortAscending = true;
+    private JComboBox<String> sortKeyBox;
+    // Labels for SongSort.Key, in the same order
+    private static final String[] SORT_KEY_LABELS = {"Name", "Path", "Duration", "Date Added", "Play Count"};
+    private static final String ALL_SONGS = "All Songs";
+    private JComboBox<String> playlistBox;
+    // The named playlist the list shows, or null for the whole library
+    private Playlist shownPlaylist;
     private boolean isDarkMode = false;
     private final Color LIGHT_BG = new Color(240, 240, 240);
     private final Color LIGHT_FG = Color.BLACK;
@@ -43,12 +59,82 @@ public class MusicPlayer {
     private final Color DARK_FG = Color.WHITE;
     private JPanel searchPanel;
     private JPanel buttonPanel;
+    private static final int SEARCH_DEBOUNCE_MILLIS = 150;
+    private static final Histogram SETTINGS_SAVE_LATENCY = Metrics.histogram("persist.settingsNanos");
+    private static final Histogram IMPORT_LATENCY = Metrics.histogram("library.importNanos");
+    private LibraryLoader libraryLoader;
+    private FolderImport folderImport;
+    private int savedSongIndex = -1;
+    private final long startNanos = System.nanoTime();
+    // Set on the event thread, read by the startup gauges
+    private volatile long firstPaintNanos = -1;
+    private volatile long libraryLoadedNanos = -1;
 
     public MusicPlayer() {
-        playlist = new ArrayList<>();
-        isLooping = false;
+        Metrics.gauge("startup.firstPaintMillis", this::getTimeToFirstPaintMillis);
+        Metrics.gauge("startup.fullLibraryMillis", this::getTimeToFullLibraryMillis);
+        player.addPlayerListener(new PlayerListener() {
+            @Override
+            public void songStarted(Song song) {
+                library.recordPlay(song.getId());
+            }
+
+            @Override
+            public void songFinished(Song song) {
+                SwingUtilities.invokeLater(() -> {
+                    // Auto-play the next song in the queue
+                    if (song == player.getCurrentSong()) {
+                        playFollowingSong();
+                    }
+                });
+            }
+
+            @Override
+            public void songChanged(Song song) {
+                SwingUtilities.invokeLater(() -> {
+                    library.recordPlay(song.getId());
+                    onTrackChanged(song);
+                });
+            }
+
+            @Override
+            public void stateChanged() {
+                // Mute and loop can change without the controls being used
+                if (volumeSlider.getValue() != player.getVolume()) {
+                    volumeSlider.setValue(player.getVolume());
+                }
+                loopButton.setSelected(player.isLooping());
+            }
+        });
         createGUI();
-        loadSongsFromCSV();
+        library.addLibraryListener(new LibraryListener() {
+            @Override
+            public void songsAdded(int from, int to) {
+                // New songs are not in any playlist yet
+                if (shownPlaylist == null) {
+                    songListModel.appendRows(from, to);
+                }
+            }
+
+            @Override
+            public void songsRemoved(int[] positions) {
+                songListModel.positionsRemoved(positions);
+            }
+
+            @Override
+            public void songChanged(int position) {
+                songListModel.positionChanged(position);
+            }
+
+            @Override
+            public void libraryReordered() {
+                // The library is in the order that was shown; re-apply the current view so
+                // the list shows it in one update
+                showView();
+            }
+        });
+        libraryLoader = new LibraryLoader();
+        libraryLoader.execute();
         loadSettings();
     }
 
@@ -63,18 +149,56 @@ public class MusicPlayer {
         JTextField searchField = new JTextField(20);
         JButton searchButton = new JButton("Search");
         JButton sortButton = new JButton("Sort A-Z");
+        sortKeyBox = new JComboBox<>(SORT_KEY_LABELS);
         sortButton.addActionListener(e -> {
             sortSongList();
             sortButton.setText(sortAscending ? "Sort Z-A" : "Sort A-Z");
         });
+        JButton saveOrderButton = new JButton("Save Order");
+        saveOrderButton.addActionListener(e -> saveSortOrder());
         searchButton.addActionListener(e -> searchSongs(searchField.getText()));
+
+        // Search as you type, once typing pauses
+        searchDebounceTimer = new Timer(SEARCH_DEBOUNCE_MILLIS, e -> searchSongs(searchField.getText()));
+        searchDebounceTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                searchDebounceTimer.restart();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                searchDebounceTimer.restart();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                searchDebounceTimer.restart();
+            }
+        });
         searchPanel.add(searchField);
         searchPanel.add(searchButton);
+        searchPanel.add(sortKeyBox);
         searchPanel.add(sortButton);
+        searchPanel.add(saveOrderButton);
+
+        playlistBox = new JComboBox<>(new String[]{ALL_SONGS});
+        playlistBox.addActionListener(e -> {
+            int index = playlistBox.getSelectedIndex();
+            showPlaylist(index > 0 ? (String) playlistBox.getSelectedItem() : null);
+        });
+        JButton newPlaylistButton = new JButton("New Playlist");
+        newPlaylistButton.addActionListener(e -> newPlaylist());
+        JButton addToPlaylistButton = new JButton("Add to Playlist");
+        addToPlaylistButton.addActionListener(e -> addSelectedToPlaylist());
+        searchPanel.add(playlistBox);
+        searchPanel.add(newPlaylistButton);
+        searchPanel.add(addToPlaylistButton);
 
         // Create the song list panel
-        songListModel = new DefaultListModel<>();
+        songListModel = new SongListModel(library.getSongs());
         songList = new JList<>(songListModel);
+        // Fixed row size, so the list never has to measure every song to lay itself out
+        songList.setCellRenderer(new SongCellRenderer());
+        songList.setPrototypeCellValue(new Song("A typical song name for sizing rows", "", 600_000_000L, 44100, 2));
         JScrollPane songListScrollPane = new JScrollPane(songList);
         songListScrollPane.setPreferredSize(new Dimension(200, 300));
 
@@ -91,6 +215,8 @@ public class MusicPlayer {
         stopButton.addActionListener(e -> stop());
         JButton addButton = new JButton("Add Song");
         addButton.addActionListener(e -> addSong());
+        JButton importButton = new JButton("Import Folder");
+        importButton.addActionListener(e -> importFolder());
         JButton renameButton = new JButton("Rename Song");
         renameButton.addActionListener(e -> renameSelectedSong());
         JButton deleteButton = new JButton("Delete Song");
@@ -107,6 +233,7 @@ public class MusicPlayer {
         buttonPanel.add(resumeButton);
         buttonPanel.add(stopButton);
         buttonPanel.add(addButton);
+        buttonPanel.add(importButton);
         buttonPanel.add(renameButton);
         buttonPanel.add(deleteButton);
 
@@ -118,6 +245,25 @@ public class MusicPlayer {
         loopButton.addActionListener(e -> toggleLoop());
         buttonPanel.add(loopButton);
 
+        shuffleButton = new JToggleButton("Shuffle");
+        shuffleButton.addActionListener(e -> toggleShuffle());
+        buttonPanel.add(shuffleButton);
+        repeatButton = new JButton("Repeat: Off");
+        repeatButton.addActionListener(e -> cycleRepeat());
+        buttonPanel.add(repeatButton);
+        JButton playNextButton = new JButton("Play Next");
+        playNextButton.addActionListener(e -> queueSelectedSongs(true));
+        buttonPanel.add(playNextButton);
+        JButton enqueueButton = new JButton("Add to Queue");
+        enqueueButton.addActionListener(e -> queueSelectedSongs(false));
+        buttonPanel.add(enqueueButton);
+        crossfadeButton = new JButton("Crossfade: Off");
+        crossfadeButton.addActionListener(e -> cycleCrossfade());
+        buttonPanel.add(crossfadeButton);
+        normalizeButton = new JToggleButton("Normalize", true);
+        normalizeButton.addActionListener(e -> player.setNormalizing(normalizeButton.isSelected()));
+        buttonPanel.add(normalizeButton);
+
         volumeSlider = new JSlider(JSlider.HORIZONTAL, 0, 100, 100);
         volumeSlider.addChangeListener(e -> updateVolume());
         buttonPanel.add(volumeSlider);
@@ -130,7 +276,15 @@ public class MusicPlayer {
         searchPanel.add(themeButton);
 
         // Create a main panel to hold the song list and button panel
-        JPanel mainPanel = new JPanel();
+        JPanel mainPanel = new JPanel() {
+            @Override
+            public void paint(Graphics g) {
+                super.paint(g);
+                if (firstPaintNanos < 0) {
+                    firstPaintNanos = System.nanoTime();
+                }
+            }
+        };
         mainPanel.setLayout(new BorderLayout());
         mainPanel.add(songListScrollPane, BorderLayout.CENTER);
         mainPanel.add(buttonPanel, BorderLayout.SOUTH);
@@ -141,27 +295,21 @@ public class MusicPlayer {
         
         nowPlayingLabel = new JLabel("Now Playing: None");
         nowPlayingLabel.setHorizontalAlignment(JLabel.CENTER);
-        timeLabel = new JLabel("0:00");
-        timeLabel.setHorizontalAlignment(JLabel.CENTER);
-        progressBar = new JProgressBar(0, 100);
-        progressBar.setStringPainted(true);
-        progressBar.addMouseListener(new MouseAdapter() {
-            @Override
-            public void mouseClicked(MouseEvent e) {
-                if (currentClip != null && currentClip.isOpen()) {
-                    int mouseX = e.getX();
-                    int progressBarWidth = progressBar.getWidth();
-                    float percentage = (float) mouseX / progressBarWidth;
-                    long newPosition = (long) (currentClip.getMicrosecondLength() * percentage);
-                    currentClip.setMicrosecondPosition(newPosition);
-                    updateTimeLabel(); // Update the display immediately
-                }
+        timeDisplay = new TimeDisplay();
+        clockTimer = new Timer(displayRefreshMillis(), e -> updateTimeLabel());
+        waveformView = new WaveformView();
+        waveformView.setBackground(LIGHT_BG);
+        waveformView.setForeground(LIGHT_FG);
+        waveformView.setSeekListener(position -> {
+            if (player.isOpen()) {
+                player.seek(position);
+                updateTimeLabel(); // Update the display immediately
             }
         });
         JPanel southPanel = new JPanel(new BorderLayout());
         southPanel.add(nowPlayingLabel, BorderLayout.NORTH);
-        southPanel.add(progressBar, BorderLayout.CENTER);
-        southPanel.add(timeLabel, BorderLayout.EAST);
+        southPanel.add(waveformView, BorderLayout.CENTER);
+        southPanel.add(timeDisplay, BorderLayout.EAST);
         frame.add(southPanel, BorderLayout.SOUTH);
 
         // Add key bindings after creating the frame
@@ -171,6 +319,11 @@ public class MusicPlayer {
             @Override
             public void windowClosing(WindowEvent e) {
                 saveSettings();
+                if (folderImport != null) {
+                    folderImport.cancelAndFinish();
+                }
+                finishLibraryLoad();
+                library.close();
             }
         });
 
@@ -195,7 +348,7 @@ public class MusicPlayer {
         inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_SPACE, 0), "playPause");
         actionMap.put("playPause", new AbstractAction() {
             public void actionPerformed(ActionEvent e) {
-                if (isPlaying) pause();
+                if (player.isPlaying()) pause();
                 else resume();
             }
         });
@@ -257,145 +410,466 @@ public class MusicPlayer {
         });
     }
 
+    // Plays the selected song, and queues the list as shown from there on
     private void playSelectedSong() {
-        Song selectedSong = songList.getSelectedValue();
-        if (selectedSong != null) {
-            currentSongIndex = songList.getSelectedIndex();
-            playSong(selectedSong);
+        int index = songList.getSelectedIndex();
+        if (index >= 0) {
+            finishLibraryLoad();
+            int[] ids = new int[songListModel.getSize()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = library.getSongs().idAt(songListModel.positionAt(i));
+            }
+            playQueued(library.getPlayQueue().setSongs(ids, index));
+        }
+    }
+
+    // Adds the selected songs to the queue: after the current song, or at the end
+    private void queueSelectedSongs(boolean next) {
+        List<Song> selected = songList.getSelectedValuesList();
+        if (selected.isEmpty()) {
+            JOptionPane.showMessageDialog(frame, "Please select songs to queue.");
+            return;
+        }
+        finishLibraryLoad();
+        PlayQueue queue = library.getPlayQueue();
+        for (Song song : selected) {
+            if (next) {
+                queue.playNext(song.getId());
+            } else {
+                queue.enqueue(song.getId());
+            }
+        }
+        prefetchNextSong();
+    }
+
+    public void toggleShuffle() {
+        finishLibraryLoad();
+        PlayQueue queue = library.getPlayQueue();
+        queue.setShuffle(!queue.isShuffled());
+        shuffleButton.setSelected(queue.isShuffled());
+        prefetchNextSong();
+    }
+
+    // Off, then all, then one
+    public void cycleRepeat() {
+        finishLibraryLoad();
+        PlayQueue queue = library.getPlayQueue();
+        PlayQueue.Repeat[] modes = PlayQueue.Repeat.values();
+        queue.setRepeat(modes[(queue.getRepeat().ordinal() + 1) % modes.length]);
+        showQueueModes();
+        prefetchNextSong();
+    }
+
+    // Off, then 2, 5 and 10 seconds of overlap between songs
+    public void cycleCrossfade() {
+        int[] steps = {0, 2000, 5000, 10000};
+        int next = 0;
+        for (int i = 0; i < steps.length; i++) {
+            if (steps[i] > player.getCrossfadeMillis()) {
+                next = steps[i];
+                break;
+            }
         }
+        setCrossfadeMillis(next);
+    }
+
+    private void setCrossfadeMillis(int millis) {
+        player.setCrossfadeMillis(millis);
+        crossfadeButton.setText(millis == 0 ? "Crossfade: Off" : "Crossfade: " + millis / 1000 + "s");
+    }
+
+    private void showQueueModes() {
+        PlayQueue queue = library.getPlayQueue();
+        shuffleButton.setSelected(queue.isShuffled());
+        String mode = queue.getRepeat().name();
+        repeatButton.setText("Repeat: " + mode.charAt(0) + mode.substring(1).toLowerCase());
     }
 
     private void addSong() {
         String name = JOptionPane.showInputDialog(frame, "Enter song name:");
         if (name != null && !name.trim().isEmpty()) {
             JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setFileFilter(new FileNameExtensionFilter("Audio Files", "wav", "mp3"));
+            fileChooser.setFileFilter(new FileNameExtensionFilter("Audio Files", "wav", "mp3", "flac"));
             
             if (fileChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
                 String path = fileChooser.getSelectedFile().getAbsolutePath();
                 addSong(name, path);
-                songListModel.addElement(new Song(name, path));
             }
         }
     }
 
-    public void loadSongsFromCSV() {
-        try (BufferedReader br = new BufferedReader(new FileReader(csvFilePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data.length == 2) {
-                    String name = data[0].trim();
-                    String path = data[1].trim();
-                    playlist.add(new Song(name, path));
-                    songListModel.addElement(new Song(name, path));
+    private void importFolder() {
+        if (folderImport != null) {
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (fileChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
+            finishLibraryLoad();
+            folderImport = new FolderImport(fileChooser.getSelectedFile());
+            folderImport.execute();
+        }
+    }
+
+    // Scans a folder in the background. Songs show up in the list batch by batch as they are
+    // found, and are journaled together with one write once the scan ends or is cancelled.
+    private final class FolderImport extends SwingWorker<Integer, List<Song>> {
+        private final File folder;
+        private final LibraryScanner scanner = new LibraryScanner(library.getMetadataCache());
+        private final long startNanos = System.nanoTime();
+        private final JDialog dialog;
+        private final JLabel statusLabel = new JLabel("Scanning...");
+        private boolean finished;
+
+        FolderImport(File folder) {
+            this.folder = folder;
+            dialog = new JDialog(frame, "Import Folder", false);
+            JProgressBar bar = new JProgressBar();
+            bar.setIndeterminate(true);
+            JButton cancelButton = new JButton("Cancel");
+            cancelButton.addActionListener(e -> scanner.cancel());
+            JPanel panel = new JPanel(new BorderLayout(5, 5));
+            panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+            panel.add(statusLabel, BorderLayout.NORTH);
+            panel.add(bar, BorderLayout.CENTER);
+            panel.add(cancelButton, BorderLayout.SOUTH);
+            dialog.add(panel);
+            dialog.pack();
+            dialog.setLocationRelativeTo(frame);
+            dialog.setVisible(true);
+        }
+
+        @Override
+        protected Integer doInBackground() throws IOException {
+            return scanner.scan(folder.toPath(), new LibraryScanner.Listener() {
+                @Override
+                public void songsFound(List<Song> batch) {
+                    publish(batch);
+                }
+
+                @Override
+                public void progress(int scanned, int added, int skipped) {
+                    SwingUtilities.invokeLater(() -> statusLabel.setText(
+                            "Scanned " + scanned + " files, added " + added + ", skipped " + skipped));
+                }
+            });
+        }
+
+        @Override
+        protected void process(List<List<Song>> batches) {
+            for (List<Song> batch : batches) {
+                if (finished) {
+                    // Delivered after the final flush; journal it on its own
+                    library.addAll(batch);
+                } else {
+                    library.addPending(batch);
                 }
             }
-        } catch (IOException e) {
-            System.err.println("Error loading songs: " + e.getMessage());
+        }
+
+        @Override
+        protected void done() {
+            finish();
+        }
+
+        void cancelAndFinish() {
+            scanner.cancel();
+            finish();
+        }
+
+        private void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            folderImport = null;
+            dialog.dispose();
+            try {
+                get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                System.err.println("Error importing folder: " + e.getCause().getMessage());
+            }
+            library.flushPending();
+            library.getMetadataCache().save();
+            IMPORT_LATENCY.recordSince(startNanos);
         }
     }
 
-    public void saveSongsToCSV() {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(csvFilePath))) {
-            for (Song song : playlist) {
-                pw.println(song.getName() + "," + song.getPath());
+    // Fills in the format of songs that were added without it (with "Add Song", or from an
+    // older songs.csv) so the list can show their durations. Unchanged files are answered by
+    // the metadata cache without being opened.
+    private final class MetadataFill extends SwingWorker<Void, Map.Entry<Song, MetadataCache.Entry>> {
+        private final List<Song> songs;
+
+        MetadataFill(List<Song> songs) {
+            this.songs = songs;
+        }
+
+        @Override
+        protected Void doInBackground() {
+            for (Song song : songs) {
+                MetadataCache.Entry entry = library.readMetadata(song.getPath());
+                if (entry != null) {
+                    publish(Map.entry(song, entry));
+                }
             }
-        } catch (IOException e) {
-            System.err.println("Error saving songs: " + e.getMessage());
+            return null;
+        }
+
+        @Override
+        protected void process(List<Map.Entry<Song, MetadataCache.Entry>> found) {
+            for (Map.Entry<Song, MetadataCache.Entry> e : found) {
+                MetadataCache.Entry entry = e.getValue();
+                e.getKey().setMetadata(entry.getDurationMicros(), entry.getSampleRate(), entry.getChannels());
+            }
+            songList.repaint();
+        }
+
+        @Override
+        protected void done() {
+            library.getMetadataCache().save();
         }
     }
 
-    public void playSong(Song song) {
-        try {
-            if (currentClip != null) {
-                currentClip.stop();
-                currentClip.close();
+    private void fillMissingMetadata() {
+        List<Song> missing = library.songsMissingMetadata();
+        if (!missing.isEmpty()) {
+            new MetadataFill(missing).execute();
+        }
+    }
+
+    public void loadSongsFromCSV() {
+        finishLibraryLoad();
+        library.load();
+    }
+
+    // Rewrites songs.csv from the playlist and clears the journal
+    public void saveSongsToCSV() {
+        finishLibraryLoad();
+        library.save();
+    }
+
+    // Loads the library off the EDT so the window shows up right away. With a mapped
+    // library the list itself is ready almost at once (rows are only read when painted);
+    // it is shown as soon as it is loaded, while the search index is still being built.
+    private final class LibraryLoader extends SwingWorker<SongSearchIndex, Integer> {
+        private volatile LazySongList loaded;
+        private boolean applied;
+        private boolean finished;
+
+        @Override
+        protected SongSearchIndex doInBackground() throws IOException {
+            LazySongList songs = library.readSnapshot();
+            loaded = songs;
+            publish(songs.size());
+            return Library.buildIndex(songs);
+        }
+
+        @Override
+        protected void process(List<Integer> sizes) {
+            applyLoaded();
+        }
+
+        @Override
+        protected void done() {
+            finish();
+        }
+
+        // Waits for the background read if needed and adds whatever is not in the list yet
+        void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            SongSearchIndex index = null;
+            try {
+                index = get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                System.err.println("Error loading songs: " + e.getCause().getMessage());
             }
+            applyLoaded();
+            if (index != null) {
+                library.useIndex(index);
+            }
+            libraryLoaded();
+        }
 
-            File audioFile = new File(song.getPath());
-            AudioInputStream audioStream = AudioSystem.getAudioInputStream(audioFile);
-            currentClip = AudioSystem.getClip();
-            currentClip.open(audioStream);
-            if (isLooping) {
-                currentClip.loop(Clip.LOOP_CONTINUOUSLY);
+        // Adds the loaded songs to the library once
+        private void applyLoaded() {
+            LazySongList songs = loaded;
+            if (songs != null && !applied) {
+                applied = true;
+                library.append(songs);
             }
-            currentClip.start();
+        }
+    }
+
+    // Library operations need the whole library, so they wait for the startup load
+    private void finishLibraryLoad() {
+        if (libraryLoader != null) {
+            LibraryLoader loader = libraryLoader;
+            libraryLoader = null;
+            loader.finish();
+        }
+    }
+
+    private void libraryLoaded() {
+        libraryLoader = null;
+        libraryLoadedNanos = System.nanoTime();
+        restoreLastSong();
+        showQueueModes();
+        for (String name : library.getPlaylists().getNames()) {
+            playlistBox.addItem(name);
+        }
+        fillMissingMetadata();
+        // Loudness for normalization, measured in the background from here on
+        player.setLoudnessScanner(library.getLoudnessScanner());
+        library.analyzeLoudness();
+    }
+
+    public long getTimeToFirstPaintMillis() {
+        return firstPaintNanos < 0 ? -1 : (firstPaintNanos - startNanos) / 1_000_000;
+    }
+
+    public long getTimeToFullLibraryMillis() {
+        return libraryLoadedNanos < 0 ? -1 : (libraryLoadedNanos - startNanos) / 1_000_000;
+    }
+
+    public void playSong(Song song) {
+        if (player.play(song)) {
             nowPlayingLabel.setText("Now Playing: " + song.getName());
-            isPlaying = true;
-            if (timer != null) timer.stop();
-            timer = new Timer(1000, e -> updateTimeLabel());
-            timer.start();
-
-            currentClip.addLineListener(event -> {
-                if (event.getType() == LineEvent.Type.STOP) {
-                    if (isLooping && currentClip.getMicrosecondPosition() >= currentClip.getMicrosecondLength()) {
-                        // Existing loop code...
-                    } else if (!isLooping && currentClip.getMicrosecondPosition() >= currentClip.getMicrosecondLength()) {
-                        // Auto-play next song
-                        SwingUtilities.invokeLater(() -> {
-                            if (currentSongIndex < songListModel.getSize() - 1) {
-                                playNextSong();
-                            }
-                        });
-                    }
-                }
-            });
-        } catch (Exception e) {
-            System.err.println("Error playing song: " + e.getMessage());
+            showWaveform(song);
+            updateTimeLabel();
+            clockTimer.start();
+            prefetchNextSong();
         }
     }
 
-    public void pause() {
-        if (currentClip != null && isPlaying) {
-            currentClip.stop();
-            isPlaying = false;
+    // Lets the engine open and buffer the following song while this one plays
+    private void prefetchNextSong() {
+        if (libraryLoader != null) {
+            return;
         }
+        int next = library.getPlayQueue().peekNext();
+        player.setNextSong(next >= 0 ? library.getById(next) : null);
     }
 
-    public void resume() {
-        if (currentClip != null && !isPlaying) {
-            currentClip.start();
-            isPlaying = true;
+    // The engine continued into the prefetched song on its own (gapless playback)
+    private void onTrackChanged(Song song) {
+        PlayQueue queue = library.getPlayQueue();
+        if (queue.peekNext() == song.getId()) {
+            queue.advance();
+        }
+        nowPlayingLabel.setText("Now Playing: " + song.getName());
+        showWaveform(song);
+        selectPlayingSong(song.getId());
+        updateTimeLabel();
+        prefetchNextSong();
+    }
+
+    // Shows a plain bar until the waveform is read from the cache or computed
+    private void showWaveform(Song song) {
+        waveformView.setWaveform(null);
+        library.getWaveforms().request(song.getPath(), waveform -> SwingUtilities.invokeLater(() -> {
+            if (player.getCurrentSong() == song) {
+                waveformView.setWaveform(waveform);
+            }
+        }));
+    }
+
+    // Plays a song the queue moved to, skipping songs removed from the library since they
+    // were queued (`step` is queue.next or queue.previous)
+    private void playQueued(int id, IntSupplier step) {
+        PlayQueue queue = library.getPlayQueue();
+        for (int tries = queue.size() + queue.getUpNextCount(); id >= 0 && library.positionOf(id) < 0 && tries > 0; tries--) {
+            id = step.getAsInt();
+        }
+        if (id >= 0 && library.positionOf(id) >= 0) {
+            playSong(library.getById(id));
+            selectPlayingSong(id);
+        }
+    }
+
+    private void playQueued(int id) {
+        playQueued(id, library.getPlayQueue()::next);
+    }
+
+    // Selects the playing song's row, if the list shows it
+    private void selectPlayingSong(int id) {
+        currentSongIndex = songListModel.rowOf(library.positionOf(id));
+        if (currentSongIndex >= 0) {
+            songList.setSelectedIndex(currentSongIndex);
         }
     }
 
+    // Silence between the last two songs that were played back to back, in microseconds
+    public long getLastTrackGapMicros() {
+        return player.getLastTrackGapMicros();
+    }
+
+    public void pause() {
+        player.pause();
+    }
+
+    public void resume() {
+        player.resume();
+    }
+
     public void addSong(String name, String path) {
-        playlist.add(new Song(name, path));
-        saveSongsToCSV();
+        finishLibraryLoad();
+        library.add(name, path);
+    }
+
+    // Adds a batch of songs with a single journal write
+    public void addSongs(List<Song> songs) {
+        finishLibraryLoad();
+        library.addAll(songs);
     }
 
     public void removeSong(String name) {
-        playlist.removeIf(song -> song.getName().equals(name));
-        saveSongsToCSV();
+        finishLibraryLoad();
+        library.remove(name);
     }
 
     public void renameSong(String oldName, String newName) {
-        for (Song song : playlist) {
-            if (song.getName().equals(oldName)) {
-                song.setName(newName);
-                break;
-            }
-        }
-        saveSongsToCSV();
+        finishLibraryLoad();
+        library.rename(oldName, newName);
     }
 
+    // All songs, in the order the list shows them when no search is active
     public List<Song> getPlaylist() {
-        return new ArrayList<>(playlist);
+        int[] order = songListModel.getOrder();
+        if (order == null) {
+            return new ArrayList<>(library.getSongs());
+        }
+        List<Song> songs = new ArrayList<>(order.length);
+        for (int position : order) {
+            songs.add(library.get(position));
+        }
+        return songs;
+    }
+
+    public Library getLibrary() {
+        return library;
+    }
+
+    public PlayerEngine getPlayerEngine() {
+        return player;
     }
 
     public void stop() {
-        if (currentClip != null) {
-            currentClip.stop();
-            currentClip.close();
-            isPlaying = false;
+        if (player.getCurrentSong() != null) {
+            player.stop();
             currentSongIndex = -1;
             nowPlayingLabel.setText("Now Playing: None");
-            if (timer != null) {
-                timer.stop();
-                timeLabel.setText("0:00");
-                progressBar.setValue(0);
-            }
+            clockTimer.stop();
+            timeDisplay.clear();
+            waveformView.setProgress(0, 0);
+            waveformView.setWaveform(null);
         }
     }
 
@@ -407,7 +881,7 @@ public class MusicPlayer {
             
             // File chooser for new path
             JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setFileFilter(new FileNameExtensionFilter("Audio Files", "wav", "mp3"));
+            fileChooser.setFileFilter(new FileNameExtensionFilter("Audio Files", "wav", "mp3", "flac"));
             String newPath = selectedSong.getPath();
             
             int choice = JOptionPane.showConfirmDialog(frame, 
@@ -424,18 +898,19 @@ public class MusicPlayer {
             if ((newName != null && !newName.trim().isEmpty()) || 
                 !newPath.equals(selectedSong.getPath())) {
                 
-                // Update name if changed
+                finishLibraryLoad();
+                // Update name if changed; by ID, so a song with the same name is left alone
                 if (newName != null && !newName.trim().isEmpty()) {
-                    renameSong(selectedSong.getName(), newName.trim());
-                } else {
-                    newName = selectedSong.getName();
+                    library.rename(selectedSong.getId(), newName.trim());
                 }
                 
-                // Update list and save changes
-                int selectedIndex = songList.getSelectedIndex();
-                songListModel.set(selectedIndex, new Song(newName, newPath));
+                // Update path if changed
+                if (!newPath.equals(selectedSong.getPath())) {
+                    library.changePath(selectedSong.getId(), newPath);
+                }
+
+                // Update list
                 songList.repaint();
-                saveSongsToCSV();
             }
         } else {
             JOptionPane.showMessageDialog(frame, "Please select a song to rename.");
@@ -444,125 +919,222 @@ public class MusicPlayer {
 
     private void deleteSelectedSong() {
         Song selectedSong = songList.getSelectedValue();
-        if (selectedSong != null) {
+        if (selectedSong != null && shownPlaylist != null) {
+            // In a playlist, Delete takes the song out of the playlist and leaves the library alone
+            removeFromPlaylist(shownPlaylist, selectedSong.getId());
+        } else if (selectedSong != null) {
             int confirm = JOptionPane.showConfirmDialog(frame, "Are you sure you want to delete the selected song?", "Confirm Delete", JOptionPane.YES_NO_OPTION);
             if (confirm == JOptionPane.YES_OPTION) {
-                removeSong(selectedSong.getName());
-                songListModel.removeElement(selectedSong);
+                finishLibraryLoad();
+                library.remove(selectedSong.getId());
             }
         } else {
             JOptionPane.showMessageDialog(frame, "Please select a song to delete.");
         }
     }
 
+    // Shows a named playlist, or the whole library for null
+    public void showPlaylist(String name) {
+        finishLibraryLoad();
+        shownPlaylist = name != null ? library.getPlaylists().get(name) : null;
+        showView();
+    }
+
+    // Re-applies the shown playlist (or the library) and the current search
+    private void showView() {
+        if (shownPlaylist == null) {
+            songListModel.clearOrder();
+        } else {
+            songListModel.setOrder(playlistPositions(shownPlaylist));
+        }
+        searchSongs(searchQuery);
+    }
+
+    // Library positions of the playlist's songs, in playlist order
+    private int[] playlistPositions(Playlist playlist) {
+        int[] positions = new int[playlist.size()];
+        int count = 0;
+        for (int i = 0; i < playlist.size(); i++) {
+            int position = library.positionOf(playlist.idAt(i));
+            if (position >= 0) {
+                positions[count++] = position;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    public void newPlaylist() {
+        String name = JOptionPane.showInputDialog(frame, "Playlist name:");
+        if (name == null || name.trim().isEmpty()) {
+            return;
+        }
+        finishLibraryLoad();
+        Playlists playlists = library.getPlaylists();
+        if (playlists.get(name.trim()) == null) {
+            playlists.create(name.trim());
+            playlistBox.addItem(name.trim());
+        }
+        playlistBox.setSelectedItem(name.trim());
+    }
+
+    private void addSelectedToPlaylist() {
+        List<Song> selected = songList.getSelectedValuesList();
+        if (selected.isEmpty()) {
+            JOptionPane.showMessageDialog(frame, "Please select songs to add.");
+            return;
+        }
+        finishLibraryLoad();
+        List<String> names = library.getPlaylists().getNames();
+        if (names.isEmpty()) {
+            JOptionPane.showMessageDialog(frame, "Create a playlist first.");
+            return;
+        }
+        String name = (String) JOptionPane.showInputDialog(frame, "Add to playlist:", "Add to Playlist",
+                JOptionPane.PLAIN_MESSAGE, null, names.toArray(), names.get(0));
+        if (name != null) {
+            addToPlaylist(name, selected);
+        }
+    }
+
+    public void addToPlaylist(String name, List<Song> songs) {
+        finishLibraryLoad();
+        Playlist playlist = library.getPlaylists().create(name);
+        int[] ids = new int[songs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = songs.get(i).getId();
+        }
+        playlist.addAll(ids);
+        if (playlist == shownPlaylist) {
+            showView();
+        }
+    }
+
+    private void removeFromPlaylist(Playlist playlist, int id) {
+        for (int i = 0; i < playlist.size(); i++) {
+            if (playlist.idAt(i) == id) {
+                playlist.remove(i);
+                break;
+            }
+        }
+        showView();
+    }
+
     // Method to handle song search
     public void searchSongs(String query) {
-        songListModel.clear();
+        finishLibraryLoad();
+        searchQuery = query;
+        songList.clearSelection();
         if (query.trim().isEmpty()) {
             // If search is empty, show all songs
-            for (Song song : playlist) {
-                songListModel.addElement(song);
-            }
+            songListModel.showAll();
         } else {
             // Show only matching songs
-            for (Song song : playlist) {
-                if (song.getName().toLowerCase().contains(query.toLowerCase())) {
-                    songListModel.addElement(song);
-                }
-            }
+            songListModel.showMatches(library.search(query), query);
         }
     }
 
     private void updateVolume() {
-        if (currentClip != null) {
-            FloatControl gainControl = (FloatControl) currentClip.getControl(FloatControl.Type.MASTER_GAIN);
-            float range = gainControl.getMaximum() - gainControl.getMinimum();
-            float gain = (range * (volumeSlider.getValue() / 100.0f)) + gainControl.getMinimum();
-            gainControl.setValue(gain);
-        }
+        player.setVolume(volumeSlider.getValue());
     }
 
     private void updateTimeLabel() {
-        if (currentClip != null) {
-            long currentPosition = currentClip.getMicrosecondPosition();
-            long totalLength = currentClip.getMicrosecondLength();
-            String currentTime = formatDuration(currentPosition);
-            String totalTime = formatDuration(totalLength);
-            timeLabel.setText(currentTime + " / " + totalTime);
-            
-            int progress = (int)((currentPosition * 100.0) / totalLength);
-            progressBar.setValue(progress);
+        if (player.isOpen()) {
+            long currentPosition = player.getPositionMicros();
+            long totalLength = player.getLengthMicros();
+            timeDisplay.setTime(currentPosition, totalLength);
+            waveformView.setProgress(currentPosition, totalLength);
         }
     }
 
-    private String formatDuration(long microseconds) {
-        long seconds = microseconds / 1_000_000;
-        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    // One frame of the screen the window opens on, in milliseconds (60 Hz if it does not say)
+    private static int displayRefreshMillis() {
+        int hertz = DisplayMode.REFRESH_RATE_UNKNOWN;
+        if (!GraphicsEnvironment.isHeadless()) {
+            hertz = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                    .getDisplayMode().getRefreshRate();
+        }
+        return 1000 / (hertz > 0 ? hertz : 60);
     }
 
     public void toggleMute() {
-        if (currentClip != null) {
-            isMuted = !isMuted;
-            if (isMuted) {
-                lastVolume = volumeSlider.getValue();
-                volumeSlider.setValue(0);
-            } else {
-                volumeSlider.setValue((int) lastVolume);
-            }
-            updateVolume();
-        }
+        player.toggleMute();
     }
 
     public void toggleLoop() {
-        isLooping = !isLooping;
-        if (currentClip != null) {
-            currentClip.loop(isLooping ? Clip.LOOP_CONTINUOUSLY : 0);
-        }
-        if (loopButton != null) {
-            loopButton.setSelected(isLooping);
-        }
+        player.setLooping(!player.isLooping());
     }
 
+    // Next and previous follow the play queue, not the list, so sorting or searching the list
+    // while a song plays does not change what comes next
     public void playNextSong() {
-        if (currentSongIndex < songListModel.getSize() - 1) {
-            currentSongIndex++;
-            Song nextSong = songListModel.getElementAt(currentSongIndex);
-            playSong(nextSong);
-            songList.setSelectedIndex(currentSongIndex);
-        }
+        finishLibraryLoad();
+        PlayQueue queue = library.getPlayQueue();
+        playQueued(queue.next(), queue::next);
+    }
+
+    // The song played to its end: the queue moves on, or repeats it with repeat one
+    private void playFollowingSong() {
+        finishLibraryLoad();
+        PlayQueue queue = library.getPlayQueue();
+        playQueued(queue.advance(), queue::next);
     }
 
     public void playPreviousSong() {
-        if (currentSongIndex > 0) {
-            currentSongIndex--;
-            Song previousSong = songListModel.getElementAt(currentSongIndex);
-            playSong(previousSong);
-            songList.setSelectedIndex(currentSongIndex);
-        }
+        finishLibraryLoad();
+        PlayQueue queue = library.getPlayQueue();
+        playQueued(queue.previous(), queue::previous);
     }
 
+    // Shows the songs sorted by the chosen key (then by name, or path when sorting by name).
+    // Only the view changes; "Save Order" writes the order to songs.csv.
     public void sortSongList() {
-        List<Song> songs = new ArrayList<>();
-        for (int i = 0; i < songListModel.getSize(); i++) {
-            songs.add(songListModel.getElementAt(i));
+        finishLibraryLoad();
+        SongSort.Key key = SongSort.Key.values()[sortKeyBox.getSelectedIndex()];
+        SongSort sort = SongSort.by(key, !sortAscending)
+                .thenBy(key == SongSort.Key.NAME ? SongSort.Key.PATH : SongSort.Key.NAME, false);
+        int[] order = library.sortedOrder(sort);
+        if (shownPlaylist != null) {
+            order = sortPlaylist(playlistPositions(shownPlaylist), order);
         }
-        
-        Comparator<Song> comparator = Comparator.comparing(Song::getName, String.CASE_INSENSITIVE_ORDER);
-        if (!sortAscending) {
-            comparator = comparator.reversed();
+        songListModel.setOrder(order);
+        searchSongs(searchQuery);
+
+        sortAscending = !sortAscending;
+    }
+
+    // A playlist's positions in the order they come in the sorted library order
+    private static int[] sortPlaylist(int[] positions, int[] libraryOrder) {
+        int[] rank = new int[libraryOrder.length];
+        for (int i = 0; i < libraryOrder.length; i++) {
+            rank[libraryOrder[i]] = i;
         }
-        Collections.sort(songs, comparator);
-        
-        songListModel.clear();
-        for (Song song : songs) {
-            songListModel.addElement(song);
+        long[] packed = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            packed[i] = (long) rank[positions[i]] << 32 | positions[i];
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = (int) packed[i];
+        }
+        return positions;
+    }
+
+    // Makes the sorted view the library's (or the shown playlist's) own order and saves it
+    public void saveSortOrder() {
+        finishLibraryLoad();
+        int[] order = songListModel.getOrder();
+        if (order == null) {
+            return;
+        }
+        if (shownPlaylist != null) {
+            int[] ids = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                ids[i] = library.getSongs().idAt(order[i]);
+            }
+            shownPlaylist.setIds(ids);
+        } else {
+            library.reorder(order);
         }
-        
-        playlist.clear();
-        playlist.addAll(songs);
-        saveSongsToCSV();
-        
-        sortAscending = !sortAscending;
     }
 
     public void toggleTheme() {
@@ -575,23 +1147,27 @@ public class MusicPlayer {
         songList.setForeground(fg);
         searchPanel.setBackground(bg);
         buttonPanel.setBackground(bg);
-        progressBar.setBackground(bg);
-        progressBar.setForeground(fg);
+        waveformView.setBackground(bg);
+        waveformView.setForeground(fg);
         nowPlayingLabel.setBackground(fg);
         nowPlayingLabel.setForeground(fg);
-        timeLabel.setBackground(bg);
-        timeLabel.setForeground(fg);
+        timeDisplay.setBackground(bg);
+        timeDisplay.setForeground(fg);
 
         // Update all components in the frame
         SwingUtilities.updateComponentTreeUI(frame);
     }
 
     public void saveSettings() {
+        long start = System.nanoTime();
         try {
             Properties props = new Properties();
             props.setProperty("lastSong", String.valueOf(currentSongIndex));
             props.setProperty("volume", String.valueOf(volumeSlider.getValue()));
+            props.setProperty("crossfade", String.valueOf(player.getCrossfadeMillis()));
+            props.setProperty("normalize", String.valueOf(player.isNormalizing()));
             props.store(new FileOutputStream("settings.properties"), null);
+            SETTINGS_SAVE_LATENCY.recordSince(start);
         } catch (IOException e) {
             System.err.println("Error saving settings: " + e.getMessage());
         }
@@ -606,13 +1182,15 @@ public class MusicPlayer {
                 // Restore volume
                 String volume = props.getProperty("volume", "100");
                 volumeSlider.setValue(Integer.parseInt(volume));
+                setCrossfadeMillis(Integer.parseInt(props.getProperty("crossfade", "0")));
+                player.setNormalizing(Boolean.parseBoolean(props.getProperty("normalize", "true")));
+                normalizeButton.setSelected(player.isNormalizing());
                 
-                // Restore last played song
+                // Restore last played song once the library is there
                 String lastSong = props.getProperty("lastSong", "-1");
-                int songIndex = Integer.parseInt(lastSong);
-                if (songIndex >= 0 && songIndex < songListModel.getSize()) {
-                    songList.setSelectedIndex(songIndex);
-                    currentSongIndex = songIndex;
+                savedSongIndex = Integer.parseInt(lastSong);
+                if (libraryLoader == null) {
+                    restoreLastSong();
                 }
             }
         } catch (IOException e) {
@@ -620,16 +1198,25 @@ public class MusicPlayer {
         }
     }
 
+    private void restoreLastSong() {
+        int songIndex = savedSongIndex;
+        savedSongIndex = -1;
+        if (songIndex >= 0 && songIndex < songListModel.getSize()) {
+            songList.setSelectedIndex(songIndex);
+            currentSongIndex = songIndex;
+        }
+    }
+
     public boolean isPlaying() {
-        return isPlaying;
+        return player.isPlaying();
     }
 
     public boolean isMuted() {
-        return isMuted;
+        return player.isMuted();
     }
 
     public boolean isLooping() {
-        return isLooping;
+        return player.isLooping();
     }
 
     public int getVolume() {
@@ -658,6 +1245,7 @@ public class MusicPlayer {
     }
 
     public static void main(String[] args) {
+        Metrics.startConfiguredServer();
         SwingUtilities.invokeLater(MusicPlayer::new);
     }
 }
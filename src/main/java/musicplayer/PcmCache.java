@@ -0,0 +1,514 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Decoded PCM of the songs played lately, so that playing one again, looping it or seeking in
+// it reads memory instead of opening and decoding the file. The audio is kept off the Java
+// heap, in direct buffers cut into 64 KiB blocks, within a budget of -Dmusicplayer.pcmCacheMB
+// (default 128; 0 turns the cache off). Only what the budget holds is ever allocated.
+//
+// A song is recorded as it is decoded for playback from its start. Played to the end, the
+// whole song is kept; cut short (skipped, or only prefetched as the next song), what was decoded
+// is kept as a head, which plays from memory while the file is opened after it. Songs longer
+// than a quarter of the budget only keep their first HEAD_SECONDS. When the budget is full the
+// least recently used songs are evicted, weighted by size: a song's blocks are all given back at
+// once, so one long song can make room for several short ones. A song still being read when it
+// is evicted gives its blocks back when its stream is closed.
+//
+// Entries are keyed by path and checked against the file's size and modification time, so an
+// edited file is decoded afresh.
+public final class PcmCache {
+    private static final int BLOCK_BYTES = 64 * 1024;
+    private static final int SLAB_BLOCKS = 64;
+    static final int HEAD_SECONDS = 10;
+    // Shorter heads are not worth an entry
+    private static final int MIN_HEAD_MILLIS = 500;
+    private static final Metrics.Counter HITS = Metrics.counter("pcmCache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("pcmCache.misses");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("pcmCache.evictions");
+    private static final PcmCache shared = new PcmCache(Long.getLong("musicplayer.pcmCacheMB", 128) << 20);
+
+    static {
+        Metrics.gauge("pcmCache.bytes", () -> shared.getUsedBytes());
+        Metrics.gauge("pcmCache.songs", () -> shared.getSongCount());
+    }
+
+    private final int maxBlocks;
+    private final long maxEntryBytes;
+    // Blocks are numbered across the slabs; a slab is created when its first block is needed.
+    // A block number is only ever handed out under the lock, after its slab was created.
+    private final ByteBuffer[] slabs;
+    private final int[] free;
+    private int freeCount;
+    private int created;
+    // maxBlocks, or fewer if the VM allows less direct memory than the budget
+    private int blockLimit;
+    private int usedBlocks;
+    // In access order, least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final class Entry {
+        final String path;
+        final long fileLength;
+        final long modified;
+        final AudioFormat format;
+        final int[] blocks;
+        final long bytes;
+        // The whole song, or only its start
+        final boolean complete;
+        // Frames in the whole song as its decoder gave them, or NOT_SPECIFIED
+        final long frameLength;
+        // Guarded by the cache: streams reading the entry, and whether it left the cache
+        int readers;
+        boolean evicted;
+
+        Entry(String path, long fileLength, long modified, AudioFormat format, int[] blocks, long bytes,
+              boolean complete, long frameLength) {
+            this.path = path;
+            this.fileLength = fileLength;
+            this.modified = modified;
+            this.format = format;
+            this.blocks = blocks;
+            this.bytes = bytes;
+            this.complete = complete;
+            this.frameLength = frameLength;
+        }
+
+        int blockCount() {
+            return (int) ((bytes + BLOCK_BYTES - 1) / BLOCK_BYTES);
+        }
+    }
+
+    public PcmCache(long budgetBytes) {
+        maxBlocks = (int) Math.min(Integer.MAX_VALUE, Math.max(0, budgetBytes) / BLOCK_BYTES);
+        maxEntryBytes = (long) maxBlocks * BLOCK_BYTES / 4;
+        blockLimit = maxBlocks;
+        free = new int[maxBlocks];
+        slabs = new ByteBuffer[(maxBlocks + SLAB_BLOCKS - 1) / SLAB_BLOCKS];
+    }
+
+    public static PcmCache shared() {
+        return shared;
+    }
+
+    // Integer PCM of the file from `frame` on, like AudioDecoders.open(file, frame): from
+    // memory as far as the cache has it, and recorded into the cache when decoded from the start
+    public AudioInputStream open(File file, long frame) throws IOException, UnsupportedAudioFileException {
+        frame = Math.max(0, frame);
+        if (maxBlocks == 0) {
+            return AudioDecoders.open(file, frame);
+        }
+        Entry entry = acquire(file);
+        if (entry != null) {
+            int frameSize = entry.format.getFrameSize();
+            if (entry.complete || frame * frameSize < entry.bytes) {
+                HITS.increment();
+                return cached(file, entry, frame);
+            }
+            release(entry);
+        }
+        MISSES.increment();
+        AudioInputStream decoded = AudioDecoders.open(file, frame);
+        return frame == 0 ? recorded(file, decoded, null) : decoded;
+    }
+
+    // The same, from the frame at or just before `micros`
+    public AudioInputStream openAtMicros(File file, long micros) throws IOException, UnsupportedAudioFileException {
+        Entry entry = maxBlocks > 0 ? acquire(file) : null;
+        if (entry == null) {
+            return micros > 0 ? AudioDecoders.openAtMicros(file, micros) : open(file, 0);
+        }
+        long frame = (long) (Math.max(0, micros) / 1_000_000.0 * entry.format.getFrameRate());
+        release(entry);
+        return open(file, frame);
+    }
+
+    // Decodes the first HEAD_SECONDS of the file into the cache unless it is there already, e.g.
+    // for the song queued next, so that starting it does not wait for the file
+    public void warm(File file) {
+        if (maxBlocks == 0) {
+            return;
+        }
+        Entry entry = acquire(file);
+        if (entry != null) {
+            release(entry);
+            return;
+        }
+        try (AudioInputStream stream = recorded(file, AudioDecoders.open(file), null)) {
+            byte[] buffer = new byte[BLOCK_BYTES];
+            long head = bytesFor(stream.getFormat(), HEAD_SECONDS * 1000);
+            for (long total = 0; total < head; ) {
+                int read = stream.read(buffer, 0, (int) Math.min(buffer.length, head - total));
+                if (read <= 0) {
+                    break;
+                }
+                total += read;
+            }
+        } catch (IOException | UnsupportedAudioFileException | IllegalArgumentException e) {
+            // Not cached; playing it will report the error
+        }
+    }
+
+    public synchronized long getUsedBytes() {
+        return (long) usedBlocks * BLOCK_BYTES;
+    }
+
+    public synchronized int getSongCount() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            evict(entry);
+        }
+        entries.clear();
+    }
+
+    // The file's entry, marked as being read, or null; an entry for an older version of the
+    // file is dropped
+    private synchronized Entry acquire(File file) {
+        String path = file.getPath();
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.fileLength != file.length() || entry.modified != file.lastModified()) {
+            entries.remove(path);
+            evict(entry);
+            return null;
+        }
+        entry.readers++;
+        return entry;
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.readers--;
+        if (entry.evicted && entry.readers == 0) {
+            freeBlocks(entry.blocks, entry.blockCount());
+        }
+    }
+
+    private void evict(Entry entry) {
+        entry.evicted = true;
+        if (entry.readers == 0) {
+            freeBlocks(entry.blocks, entry.blockCount());
+        }
+    }
+
+    private synchronized void freeBlocks(int[] blocks, int count) {
+        for (int i = 0; i < count; i++) {
+            free[freeCount++] = blocks[i];
+        }
+        usedBlocks -= count;
+    }
+
+    // A block for a recording, evicting the least recently used songs to make room; -1 if all
+    // of the budget is held by recordings and songs being read
+    private synchronized int allocate() {
+        while (true) {
+            if (freeCount > 0) {
+                usedBlocks++;
+                return free[--freeCount];
+            }
+            if (created < blockLimit) {
+                if (created % SLAB_BLOCKS == 0) {
+                    try {
+                        slabs[created / SLAB_BLOCKS] = ByteBuffer.allocateDirect(Math.min(SLAB_BLOCKS, maxBlocks - created) * BLOCK_BYTES);
+                    } catch (OutOfMemoryError e) {
+                        // Over -XX:MaxDirectMemorySize: make do with the slabs there are
+                        System.err.println("Error growing PCM cache: " + e.getMessage());
+                        blockLimit = created;
+                        continue;
+                    }
+                }
+                usedBlocks++;
+                return created++;
+            }
+            Iterator<Entry> eldest = entries.values().iterator();
+            if (!eldest.hasNext()) {
+                return -1;
+            }
+            Entry entry = eldest.next();
+            eldest.remove();
+            EVICTIONS.increment();
+            evict(entry);
+        }
+    }
+
+    private ByteBuffer slab(int block) {
+        return slabs[block / SLAB_BLOCKS];
+    }
+
+    private static int offsetOf(int block) {
+        return block % SLAB_BLOCKS * BLOCK_BYTES;
+    }
+
+    // Keeps what was recorded unless the cache has as much of the song already
+    private synchronized void store(Entry entry) {
+        Entry old = entries.get(entry.path);
+        boolean keep = entry.complete || entry.bytes >= bytesFor(entry.format, MIN_HEAD_MILLIS);
+        boolean same = old != null && old.fileLength == entry.fileLength && old.modified == entry.modified;
+        if (!keep || same && (old.complete || old.bytes >= entry.bytes)) {
+            freeBlocks(entry.blocks, entry.blockCount());
+            return;
+        }
+        if (old != null) {
+            evict(old);
+        }
+        entries.put(entry.path, entry);
+    }
+
+    private static long bytesFor(AudioFormat format, int millis) {
+        return (long) (format.getFrameRate() * millis / 1000) * format.getFrameSize();
+    }
+
+    private AudioInputStream cached(File file, Entry entry, long frame) {
+        int frameSize = entry.format.getFrameSize();
+        long frames = entry.complete ? entry.bytes / frameSize : entry.frameLength;
+        long left = frames != AudioSystem.NOT_SPECIFIED ? Math.max(0, frames - frame) : AudioSystem.NOT_SPECIFIED;
+        return new AudioInputStream(new CachedStream(file, entry, frame * frameSize), entry.format, left);
+    }
+
+    // The decoded stream, copying what is read into a new entry; `head` is what the cache had of
+    // the song before the point `decoded` starts at
+    private AudioInputStream recorded(File file, AudioInputStream decoded, Entry head) {
+        AudioFormat format = decoded.getFormat();
+        if (format.getFrameSize() <= 0 || head != null && !head.format.matches(format)) {
+            return decoded;
+        }
+        long frameLength = head != null ? head.frameLength : decoded.getFrameLength();
+        long limit = maxEntryBytes;
+        if (frameLength != AudioSystem.NOT_SPECIFIED && frameLength * format.getFrameSize() > maxEntryBytes) {
+            limit = Math.min(maxEntryBytes, bytesFor(format, HEAD_SECONDS * 1000));
+        }
+        Recorder recorder = new Recorder(file, format, frameLength, limit);
+        if (head != null) {
+            recorder.copy(head);
+        }
+        return new AudioInputStream(new RecordingStream(decoded, recorder), format, decoded.getFrameLength());
+    }
+
+    // Audio going into the cache, block by block; stored as an entry when finished
+    private final class Recorder {
+        final File file;
+        final long fileLength;
+        final long modified;
+        final AudioFormat format;
+        final long frameLength;
+        final long limit;
+        int[] blocks = new int[16];
+        int blockCount;
+        long bytes;
+        // Past the limit, or out of room: the entry ends here and is only a head
+        boolean truncated;
+
+        Recorder(File file, AudioFormat format, long frameLength, long limit) {
+            this.file = file;
+            this.fileLength = file.length();
+            this.modified = file.lastModified();
+            this.format = format;
+            this.frameLength = frameLength;
+            this.limit = limit;
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            while (length > 0 && !truncated) {
+                if (this.bytes >= limit) {
+                    truncated = true;
+                    return;
+                }
+                int at = (int) (this.bytes % BLOCK_BYTES);
+                if (at == 0 && !addBlock()) {
+                    return;
+                }
+                int n = (int) Math.min(Math.min(length, BLOCK_BYTES - at), limit - this.bytes);
+                int block = blocks[(int) (this.bytes / BLOCK_BYTES)];
+                slab(block).put(offsetOf(block) + at, bytes, offset, n);
+                this.bytes += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        // Off-heap to off-heap, for a head the recording continues from
+        void copy(Entry head) {
+            for (long at = 0; at < head.bytes && !truncated; ) {
+                if (!addBlock()) {
+                    return;
+                }
+                int source = head.blocks[(int) (at / BLOCK_BYTES)];
+                int target = blocks[(int) (at / BLOCK_BYTES)];
+                int n = (int) Math.min(Math.min(BLOCK_BYTES, head.bytes - at), limit - at);
+                slab(target).put(offsetOf(target), slab(source), offsetOf(source), n);
+                at += n;
+                bytes = at;
+            }
+        }
+
+        private boolean addBlock() {
+            int block = bytes < limit ? allocate() : -1;
+            if (block < 0) {
+                truncated = true;
+                return false;
+            }
+            if (blockCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+            }
+            blocks[blockCount++] = block;
+            return true;
+        }
+
+        // `ended`: the decoder reached the end of the song
+        void finish(boolean ended) {
+            // A limit or a full cache can cut the last frame short
+            long whole = bytes - bytes % format.getFrameSize();
+            int used = (int) ((whole + BLOCK_BYTES - 1) / BLOCK_BYTES);
+            freeBlocks(Arrays.copyOfRange(blocks, used, blockCount), blockCount - used);
+            // An AudioInputStream stops at its frame length without reading the end, so a song
+            // read that far is whole even if it is closed before the decoder says so
+            boolean all = ended || frameLength != AudioSystem.NOT_SPECIFIED && bytes == frameLength * format.getFrameSize();
+            store(new Entry(file.getPath(), fileLength, modified, format, Arrays.copyOf(blocks, used), whole,
+                    all && !truncated, frameLength));
+        }
+    }
+
+    // A decoded stream whose bytes are also written to a Recorder; the entry is stored at the
+    // end of the song, or on close with what was read until then
+    private static final class RecordingStream extends InputStream {
+        private final AudioInputStream decoded;
+        private final Recorder recorder;
+        private boolean finished;
+
+        RecordingStream(AudioInputStream decoded, Recorder recorder) {
+            this.decoded = decoded;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) > 0 ? one[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = decoded.read(b, off, len);
+            if (finished) {
+                return read;
+            }
+            if (read > 0) {
+                recorder.write(b, off, read);
+            } else if (read < 0) {
+                finished = true;
+                recorder.finish(true);
+            }
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return decoded.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                finished = true;
+                recorder.finish(false);
+            }
+            decoded.close();
+        }
+    }
+
+    // Reads an entry from `position` on, then, for a head, the file after it
+    private final class CachedStream extends InputStream {
+        private final File file;
+        private final Entry entry;
+        private long position;
+        private AudioInputStream rest;
+        private boolean closed;
+
+        CachedStream(File file, Entry entry, long position) {
+            this.file = file;
+            this.entry = entry;
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) > 0 ? one[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (position < entry.bytes) {
+                int at = (int) (position % BLOCK_BYTES);
+                int n = (int) Math.min(Math.min(len, BLOCK_BYTES - at), entry.bytes - position);
+                int block = entry.blocks[(int) (position / BLOCK_BYTES)];
+                slab(block).get(offsetOf(block) + at, b, off, n);
+                position += n;
+                return n;
+            }
+            if (entry.complete) {
+                return -1;
+            }
+            if (rest == null) {
+                rest = continuation();
+                if (rest == null) {
+                    return -1;
+                }
+            }
+            return rest.read(b, off, len);
+        }
+
+        // The file after the head, recorded along with a copy of the head unless the song is too
+        // long to keep whole
+        private AudioInputStream continuation() throws IOException {
+            AudioInputStream decoded;
+            try {
+                decoded = AudioDecoders.open(file, entry.bytes / entry.format.getFrameSize());
+            } catch (UnsupportedAudioFileException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            if (!decoded.getFormat().matches(entry.format)) {
+                decoded.close();
+                return new AudioInputStream(new ByteArrayInputStream(new byte[0]), entry.format, 0);
+            }
+            long frames = entry.frameLength;
+            boolean fits = frames == AudioSystem.NOT_SPECIFIED || frames * entry.format.getFrameSize() <= maxEntryBytes;
+            return fits ? recorded(file, decoded, entry) : decoded;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, entry.bytes - position));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (rest != null) {
+                rest.close();
+            }
+            release(entry);
+        }
+    }
+}
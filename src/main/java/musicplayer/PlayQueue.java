@@ -0,0 +1,335 @@
+package src.main.java.musicplayer;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+// What plays next, independent of what the song list shows: sorting or searching the list
+// does not change the queue. Songs are held by ID, like playlists.
+//
+// The queue is a list of entries played in order, or in shuffled order: shuffling computes a
+// Fisher-Yates permutation of the entries once, and playback walks it with a cursor, so
+// next() and previous() are constant time at any queue length. Songs added with playNext()
+// go into a separate "up next" list that is played before the queue continues. Every song
+// played goes into a bounded history.
+//
+// Saved as queue.dat next to songs.csv by Library.close(). IDs do not outlive a session, so
+// the file holds library positions, which only match if the library did not change in between;
+// a queue saved for a library of another size is dropped.
+public class PlayQueue {
+    public enum Repeat {
+        OFF, ALL, ONE
+    }
+
+    private static final int MAGIC = 0x4D505051; // "MPPQ"
+    private static final int VERSION = 1;
+    private static final Histogram SAVE_LATENCY = Metrics.histogram("persist.queueNanos");
+    static final int HISTORY_SIZE = 1000;
+
+    private int[] entries = new int[16];
+    private int size;
+    // Play order as entry indexes when shuffled; null plays entries in order
+    private int[] order;
+    // Index into the play order of the entry last played from the queue; -1 before the first
+    private int cursor = -1;
+    // The song playing, which may come from up next rather than the entry at the cursor
+    private int current = -1;
+    private int[] upNext = new int[16];
+    private int upNextHead;
+    private int upNextCount;
+    private final int[] history = new int[HISTORY_SIZE];
+    private int historyEnd;
+    private int historyCount;
+    private Repeat repeat = Repeat.OFF;
+    private final Random random = new Random();
+
+    // Replaces the queue with these songs (e.g. the list as shown) and makes `start` current;
+    // when shuffled, the rest is shuffled to come after it. Returns the ID of the start song.
+    public int setSongs(int[] ids, int start) {
+        entries = Arrays.copyOf(ids, Math.max(16, ids.length));
+        size = ids.length;
+        upNextCount = 0;
+        if (start < 0 || start >= size) {
+            cursor = -1;
+            current = -1;
+            if (order != null) {
+                shuffle(-1);
+            }
+            return -1;
+        }
+        if (order != null) {
+            shuffle(start);
+            cursor = 0;
+        } else {
+            cursor = start;
+        }
+        return play(entries[start]);
+    }
+
+    // Adds a song at the end of the queue; when shuffled, somewhere among the songs not yet played
+    public void enqueue(int id) {
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        entries[size] = id;
+        if (order != null) {
+            if (size == order.length) {
+                order = Arrays.copyOf(order, Math.max(16, size * 2));
+            }
+            // One more Fisher-Yates step: swap the new entry with a random unplayed place
+            int place = cursor + 1 + random.nextInt(size - cursor);
+            order[size] = order[place];
+            order[place] = size;
+        }
+        size++;
+    }
+
+    // Plays the song after the current one, before the rest of the queue
+    public void playNext(int id) {
+        if (upNextCount == upNext.length) {
+            int[] grown = new int[upNextCount * 2];
+            for (int i = 0; i < upNextCount; i++) {
+                grown[i] = upNext[(upNextHead + i) % upNext.length];
+            }
+            upNext = grown;
+            upNextHead = 0;
+        }
+        upNext[(upNextHead + upNextCount) % upNext.length] = id;
+        upNextCount++;
+    }
+
+    // Moves on when the current song has ended: plays it again with Repeat.ONE, otherwise
+    // like next(). Returns the ID of the song to play, or -1 at the end of the queue.
+    public int advance() {
+        if (repeat == Repeat.ONE && current >= 0) {
+            return play(current);
+        }
+        return next();
+    }
+
+    // Skips to the next song, as the user asked to, so Repeat.ONE does not hold it back.
+    // Returns the ID of the song to play, or -1 at the end of the queue.
+    public int next() {
+        if (upNextCount > 0) {
+            int id = upNext[upNextHead];
+            upNextHead = (upNextHead + 1) % upNext.length;
+            upNextCount--;
+            return play(id);
+        }
+        if (cursor + 1 < size) {
+            cursor++;
+        } else if (repeat == Repeat.ALL && size > 0) {
+            cursor = 0;
+        } else {
+            return -1;
+        }
+        return play(entryAt(cursor));
+    }
+
+    // What advance() would return, without moving on; for prefetching the next song
+    public int peekNext() {
+        if (repeat == Repeat.ONE && current >= 0) {
+            return current;
+        }
+        if (upNextCount > 0) {
+            return upNext[upNextHead];
+        }
+        if (cursor + 1 < size) {
+            return entryAt(cursor + 1);
+        }
+        return repeat == Repeat.ALL && size > 0 ? entryAt(0) : -1;
+    }
+
+    // Steps back in the queue and returns the ID to play, or -1 at the start. From a song that
+    // came from up next, that is the queue entry it was played after.
+    public int previous() {
+        if (cursor >= 0 && current != entryAt(cursor)) {
+            return play(entryAt(cursor));
+        }
+        if (cursor > 0) {
+            cursor--;
+        } else if (repeat == Repeat.ALL && size > 0) {
+            cursor = size - 1;
+        } else {
+            return -1;
+        }
+        return play(entryAt(cursor));
+    }
+
+    private int play(int id) {
+        current = id;
+        history[historyEnd] = id;
+        historyEnd = (historyEnd + 1) % HISTORY_SIZE;
+        historyCount = Math.min(historyCount + 1, HISTORY_SIZE);
+        return id;
+    }
+
+    private int entryAt(int playIndex) {
+        return entries[order != null ? order[playIndex] : playIndex];
+    }
+
+    // Shuffles the entries, with entry `first` (if any) first and the rest in random order
+    private void shuffle(int first) {
+        order = new int[Math.max(16, size)];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int from = 0;
+        if (first >= 0) {
+            order[0] = first;
+            order[first] = 0;
+            from = 1;
+        }
+        for (int i = size - 1; i > from; i--) {
+            int j = from + random.nextInt(i - from + 1);
+            int entry = order[i];
+            order[i] = order[j];
+            order[j] = entry;
+        }
+    }
+
+    // Shuffling keeps the current song playing and shuffles the rest after it; turning it off
+    // continues in queue order from the current song
+    public void setShuffle(boolean shuffle) {
+        if (shuffle == (order != null)) {
+            return;
+        }
+        if (shuffle) {
+            shuffle(cursor);
+            cursor = cursor >= 0 ? 0 : -1;
+        } else {
+            cursor = cursor >= 0 ? order[cursor] : -1;
+            order = null;
+        }
+    }
+
+    public boolean isShuffled() {
+        return order != null;
+    }
+
+    public void setRepeat(Repeat repeat) {
+        this.repeat = repeat;
+    }
+
+    public Repeat getRepeat() {
+        return repeat;
+    }
+
+    // ID of the song playing, or -1
+    public int getCurrent() {
+        return current;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getUpNextCount() {
+        return upNextCount;
+    }
+
+    // IDs of the songs played, most recent first
+    public int[] getHistory() {
+        int[] recent = new int[historyCount];
+        for (int i = 0; i < historyCount; i++) {
+            recent[i] = history[(historyEnd - 1 - i + HISTORY_SIZE) % HISTORY_SIZE];
+        }
+        return recent;
+    }
+
+    // Loads the queue saved for this library; an empty queue if there is none or it does not fit
+    static PlayQueue load(File file, Library library) {
+        PlayQueue queue = new PlayQueue();
+        if (!file.exists()) {
+            return queue;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != library.size()) {
+                return queue;
+            }
+            queue.repeat = Repeat.values()[in.readByte()];
+            boolean shuffled = in.readBoolean();
+            int size = in.readInt();
+            queue.entries = readIds(in, size, Math.max(16, size), library);
+            queue.size = size;
+            if (shuffled) {
+                queue.order = new int[Math.max(16, size)];
+                for (int i = 0; i < size; i++) {
+                    queue.order[i] = in.readInt();
+                }
+            }
+            queue.cursor = in.readInt();
+            queue.current = readIds(in, 1, 1, library)[0];
+            queue.upNextCount = in.readInt();
+            queue.upNext = readIds(in, queue.upNextCount, Math.max(16, queue.upNextCount), library);
+            // Oldest first, so play() puts them back in order
+            int[] played = readIds(in, in.readInt(), 0, library);
+            for (int i = played.length - 1; i >= 0; i--) {
+                queue.history[queue.historyEnd] = played[i];
+                queue.historyEnd = (queue.historyEnd + 1) % HISTORY_SIZE;
+                queue.historyCount++;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error loading play queue: " + e.getMessage());
+            return new PlayQueue();
+        }
+        return queue;
+    }
+
+    // Reads `count` positions as IDs into an array of at least `capacity`; -1 stays -1
+    private static int[] readIds(DataInputStream in, int count, int capacity, Library library) throws IOException {
+        int[] ids = new int[Math.max(count, capacity)];
+        LazySongList songs = library.getSongs();
+        for (int i = 0; i < count; i++) {
+            int position = in.readInt();
+            ids[i] = position >= 0 && position < songs.size() ? songs.idAt(position) : -1;
+        }
+        return ids;
+    }
+
+    void save(File file, Library library) {
+        long start = System.nanoTime();
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(library.size());
+                out.writeByte(repeat.ordinal());
+                out.writeBoolean(order != null);
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    // Removed songs are saved as -1 and skipped like they are now
+                    out.writeInt(library.positionOf(entries[i]));
+                }
+                if (order != null) {
+                    for (int i = 0; i < size; i++) {
+                        out.writeInt(order[i]);
+                    }
+                }
+                out.writeInt(cursor);
+                out.writeInt(library.positionOf(current));
+                out.writeInt(upNextCount);
+                for (int i = 0; i < upNextCount; i++) {
+                    out.writeInt(library.positionOf(upNext[(upNextHead + i) % upNext.length]));
+                }
+                int[] played = getHistory();
+                out.writeInt(played.length);
+                for (int id : played) {
+                    out.writeInt(library.positionOf(id));
+                }
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            SAVE_LATENCY.recordSince(start);
+        } catch (IOException e) {
+            System.err.println("Error saving play queue: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package src.main.java.musicplayer;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+// Position of the song being heard, shared by the thread writing audio to the line and whoever
+// shows it. After each write the writer publishes how many frames of the song have gone to the
+// line since `startMicros`; a reader takes off what the line still holds, so the position
+// follows what reached the speakers rather than what was decoded, and moves at once on a seek.
+//
+// Reading takes no lock and allocates nothing, so it can be polled at the display's refresh
+// rate: writers bump `sequence` to odd before an update and to even after it, and a reader
+// that saw it odd or changed reads again.
+final class PlaybackClock {
+    private static final LongSupplier NOTHING_QUEUED = () -> 0;
+
+    private final BooleanSupplier looping;
+    private volatile long sequence;
+    private volatile Song song;
+    private volatile long startMicros;
+    private volatile long framesWritten;
+    private volatile long lengthMicros;
+    private volatile float frameRate = 1;
+    private volatile LongSupplier queuedFrames = NOTHING_QUEUED;
+
+    PlaybackClock(BooleanSupplier looping) {
+        this.looping = looping;
+    }
+
+    // The line now written to: its frame rate and the frames it holds that are not heard yet
+    synchronized void setOutput(float frameRate, LongSupplier queuedFrames) {
+        sequence++;
+        this.frameRate = frameRate;
+        this.queuedFrames = queuedFrames;
+        sequence++;
+    }
+
+    // `frames` of `song` from `startMicros` on have been written to the line
+    synchronized void publish(Song song, long startMicros, long frames, long lengthMicros) {
+        sequence++;
+        this.song = song;
+        this.startMicros = startMicros;
+        this.framesWritten = frames;
+        this.lengthMicros = lengthMicros;
+        sequence++;
+    }
+
+    synchronized void clear() {
+        publish(null, 0, 0, 0);
+    }
+
+    Song getSong() {
+        return song;
+    }
+
+    long getLengthMicros() {
+        return lengthMicros;
+    }
+
+    long getPositionMicros() {
+        long seen;
+        Song current;
+        long start;
+        long frames;
+        long length;
+        float rate;
+        LongSupplier queued;
+        do {
+            seen = sequence;
+            current = song;
+            start = startMicros;
+            frames = framesWritten;
+            length = lengthMicros;
+            rate = frameRate;
+            queued = queuedFrames;
+        } while ((seen & 1) != 0 || seen != sequence);
+        if (current == null) {
+            return 0;
+        }
+        long heard = Math.max(0, frames - queued.getAsLong());
+        long position = start + (long) (heard * 1_000_000.0 / rate);
+        if (length > 0 && position >= length) {
+            return looping.getAsBoolean() ? position % length : length;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,77 @@
+package src.main.java.musicplayer;
+
+import java.io.IOException;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+// Common contract for the audio back ends MusicPlayer can drive.
+// Positions and lengths are reported in microseconds, like javax.sound.sampled.Clip.
+public interface PlaybackEngine {
+
+    // Opens the song and starts playing it, replacing whatever was playing before.
+    void open(Song song) throws IOException, UnsupportedAudioFileException, LineUnavailableException;
+
+    void pause();
+
+    void resume();
+
+    // Stops playback and releases the audio line.
+    void stop();
+
+    boolean isOpen();
+
+    boolean isPlaying();
+
+    long getMicrosecondPosition();
+
+    long getMicrosecondLength();
+
+    void setMicrosecondPosition(long microseconds);
+
+    void setLooping(boolean looping);
+
+    // Volume as a fraction between 0 and 1.
+    void setVolume(float volume);
+
+    // Nanoseconds between open() and the first sample reaching the audio line, or -1 if unknown.
+    long getTimeToFirstSampleNanos();
+
+    // Song to continue into without a gap when the current one ends. Engines that cannot
+    // play gaplessly ignore this and report playbackFinished as usual.
+    default void setNextSong(Song song) {
+    }
+
+    // Silence heard at the last gapless track change in microseconds, or -1 if there was none.
+    default long getLastTransitionGapMicros() {
+        return -1;
+    }
+
+    // Overlap of the end of a song with the start of the next one, in milliseconds; 0 plays
+    // them back to back. Engines without a mixer ignore this.
+    default void setCrossfadeMillis(int millis) {
+    }
+
+    // Whether to play songs at the gain from Song.getTrackGainDb(), where it is known. Takes
+    // effect from the next song; engines without a mixer ignore this.
+    default void setNormalizing(boolean normalizing) {
+    }
+
+    // Times the audio line ran out of data to play, or -1 if the engine does not count them.
+    default long getOutputUnderruns() {
+        return -1;
+    }
+
+    // Blocks a decoder had not decoded in time, so silence was played instead; -1 if not counted.
+    default long getDecoderUnderruns() {
+        return -1;
+    }
+
+    // Blocks that took longer to mix than they take to play; -1 if not counted.
+    default long getLateBlocks() {
+        return -1;
+    }
+
+    void addPlaybackListener(PlaybackListener listener);
+
+    void removePlaybackListener(PlaybackListener listener);
+}
@@ -0,0 +1,13 @@
+package src.main.java.musicplayer;
+
+// Callbacks from a PlaybackEngine. These are invoked on one of the engine's own threads
+// (the audio thread or an event thread), so Swing listeners have to hop onto the EDT themselves.
+public interface PlaybackListener {
+
+    // The song played through to its end without looping.
+    void playbackFinished(Song song);
+
+    // The engine moved on to the song set with setNextSong() without stopping.
+    default void trackChanged(Song song) {
+    }
+}
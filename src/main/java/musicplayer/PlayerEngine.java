@@ -0,0 +1,242 @@
+package src.main.java.musicplayer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Playback state without any UI: which song is loaded, whether it plays, looping, volume and
+// mute, on top of a PlaybackEngine. What plays next is up to the caller (setNextSong).
+// Control methods are meant to be called from one thread; state read by the audio callbacks
+// is volatile.
+public class PlayerEngine {
+    private final PlaybackEngine engine;
+    private final List<PlayerListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Song currentSong;
+    private volatile boolean playing;
+    private boolean looping;
+    private int volume = 100;
+    private boolean muted;
+    private int volumeBeforeMute = 100;
+    private int crossfadeMillis;
+    private boolean normalizing = true;
+    private LoudnessScanner loudnessScanner;
+
+    public PlayerEngine() {
+        this(createPlaybackEngine());
+    }
+
+    public PlayerEngine(PlaybackEngine engine) {
+        this.engine = engine;
+        engine.addPlaybackListener(new PlaybackListener() {
+            @Override
+            public void playbackFinished(Song song) {
+                for (PlayerListener listener : listeners) {
+                    listener.songFinished(song);
+                }
+            }
+
+            @Override
+            public void trackChanged(Song song) {
+                currentSong = song;
+                for (PlayerListener listener : listeners) {
+                    listener.songChanged(song);
+                }
+            }
+        });
+    }
+
+    // Mixes in process by default; -Dmusicplayer.engine=stream selects the engine that streams
+    // bytes straight to the line, and =clip the old Clip-based one
+    static PlaybackEngine createPlaybackEngine() {
+        String engine = System.getProperty("musicplayer.engine", "");
+        if (engine.equals("clip")) {
+            return new ClipPlaybackEngine();
+        }
+        if (engine.equals("stream")) {
+            return new StreamingPlaybackEngine();
+        }
+        return new MixingPlaybackEngine();
+    }
+
+    public void addPlayerListener(PlayerListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removePlayerListener(PlayerListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Starts the song from the beginning; false if it could not be opened
+    public boolean play(Song song) {
+        lookUpTrackGain(song);
+        try {
+            engine.setLooping(looping);
+            engine.setVolume(volume / 100.0f);
+            engine.open(song);
+        } catch (Exception e) {
+            System.err.println("Error playing song: " + e.getMessage());
+            return false;
+        }
+        currentSong = song;
+        playing = true;
+        for (PlayerListener listener : listeners) {
+            listener.songStarted(song);
+        }
+        fireStateChanged();
+        return true;
+    }
+
+    public void pause() {
+        if (currentSong != null && playing) {
+            engine.pause();
+            playing = false;
+            fireStateChanged();
+        }
+    }
+
+    public void resume() {
+        if (currentSong != null && !playing) {
+            engine.resume();
+            playing = true;
+            fireStateChanged();
+        }
+    }
+
+    public void stop() {
+        if (currentSong != null) {
+            engine.stop();
+            playing = false;
+            fireStateChanged();
+        }
+    }
+
+    // The song the engine should open and buffer ahead of time, to continue into without a gap
+    public void setNextSong(Song song) {
+        lookUpTrackGain(song);
+        engine.setNextSong(song);
+    }
+
+    // Where songs' loudness comes from; without one, songs play without normalization
+    public void setLoudnessScanner(LoudnessScanner scanner) {
+        loudnessScanner = scanner;
+    }
+
+    // Plays songs at the same loudness (ReplayGain style), from the next song on
+    public void setNormalizing(boolean normalizing) {
+        this.normalizing = normalizing;
+        engine.setNormalizing(normalizing);
+        fireStateChanged();
+    }
+
+    public boolean isNormalizing() {
+        return normalizing;
+    }
+
+    // A song that was not measured yet is measured next, so it is normalized next time it plays
+    private void lookUpTrackGain(Song song) {
+        if (song != null && loudnessScanner != null && !song.hasTrackGain()) {
+            song.setTrackGainDb(loudnessScanner.gainDb(song.getPath()));
+        }
+    }
+
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+        engine.setLooping(looping);
+        fireStateChanged();
+    }
+
+    // 0 to 100
+    public void setVolume(int volume) {
+        volume = Math.max(0, Math.min(100, volume));
+        if (volume != this.volume) {
+            this.volume = volume;
+            engine.setVolume(volume / 100.0f);
+            fireStateChanged();
+        }
+    }
+
+    public void toggleMute() {
+        if (currentSong != null) {
+            muted = !muted;
+            if (muted) {
+                volumeBeforeMute = volume;
+                setVolume(0);
+            } else {
+                setVolume(volumeBeforeMute);
+            }
+            fireStateChanged();
+        }
+    }
+
+    public void setCrossfadeMillis(int millis) {
+        crossfadeMillis = Math.max(0, millis);
+        engine.setCrossfadeMillis(crossfadeMillis);
+        fireStateChanged();
+    }
+
+    public int getCrossfadeMillis() {
+        return crossfadeMillis;
+    }
+
+    public void seek(long microseconds) {
+        engine.setMicrosecondPosition(microseconds);
+    }
+
+    public boolean isOpen() {
+        return engine.isOpen();
+    }
+
+    public long getPositionMicros() {
+        return engine.getMicrosecondPosition();
+    }
+
+    public long getLengthMicros() {
+        return engine.getMicrosecondLength();
+    }
+
+    public Song getCurrentSong() {
+        return currentSong;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    public boolean isLooping() {
+        return looping;
+    }
+
+    public boolean isMuted() {
+        return muted;
+    }
+
+    public int getVolume() {
+        return volume;
+    }
+
+    // Silence between the last two songs that were played back to back, in microseconds
+    public long getLastTrackGapMicros() {
+        return engine.getLastTransitionGapMicros();
+    }
+
+    public long getTimeToFirstSampleNanos() {
+        return engine.getTimeToFirstSampleNanos();
+    }
+
+    public long getOutputUnderruns() {
+        return engine.getOutputUnderruns();
+    }
+
+    public long getDecoderUnderruns() {
+        return engine.getDecoderUnderruns();
+    }
+
+    public long getLateBlocks() {
+        return engine.getLateBlocks();
+    }
+
+    private void fireStateChanged() {
+        for (PlayerListener listener : listeners) {
+            listener.stateChanged();
+        }
+    }
+}
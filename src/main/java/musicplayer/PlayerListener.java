@@ -0,0 +1,20 @@
+package src.main.java.musicplayer;
+
+// Events from a PlayerEngine. songFinished and songChanged come from the audio thread when
+// playback moves on by itself; the others are called on the thread that made the change.
+public interface PlayerListener {
+    // A song started because play() was called
+    default void songStarted(Song song) {
+    }
+
+    // Playback continued into the next song without a call to play() (gapless handoff)
+    default void songChanged(Song song) {
+    }
+
+    default void songFinished(Song song) {
+    }
+
+    // Playing/paused/stopped, looping or volume changed
+    default void stateChanged() {
+    }
+}
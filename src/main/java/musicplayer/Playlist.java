@@ -0,0 +1,113 @@
+package src.main.java.musicplayer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+
+// A named list of songs from the Library, held as the songs' IDs: 4 bytes per entry however
+// large the songs are, and no copies of them. A song can be in any number of playlists, or
+// in the same one more than once.
+public class Playlist {
+    private String name;
+    private int[] ids = new int[8];
+    private int size;
+    private boolean dirty = true;
+    // Where Playlists last saved it; null until then
+    File file;
+
+    Playlist(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void setName(String name) {
+        this.name = name;
+        dirty = true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int idAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return ids[index];
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    public boolean contains(int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void add(int id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = id;
+        dirty = true;
+    }
+
+    public void addAll(int[] newIds) {
+        if (size + newIds.length > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(size + newIds.length, ids.length * 2));
+        }
+        System.arraycopy(newIds, 0, ids, size, newIds.length);
+        size += newIds.length;
+        dirty = true;
+    }
+
+    public void remove(int index) {
+        idAt(index);
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        size--;
+        dirty = true;
+    }
+
+    // Replaces the contents, e.g. with the same songs in a new order
+    public void setIds(int[] newIds) {
+        ids = Arrays.copyOf(newIds, Math.max(8, newIds.length));
+        size = newIds.length;
+        dirty = true;
+    }
+
+    // Drops every entry whose ID is set in `removed`; false if there were none
+    boolean removeIds(BitSet removed) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!removed.get(ids[i])) {
+                ids[kept++] = ids[i];
+            }
+        }
+        if (kept == size) {
+            return false;
+        }
+        size = kept;
+        dirty = true;
+        return true;
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    void markChanged() {
+        dirty = true;
+    }
+
+    void markSaved() {
+        dirty = false;
+    }
+}
@@ -0,0 +1,421 @@
+package src.main.java.musicplayer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// Persists the playlist as a snapshot (the songs.csv file) plus an append-only journal of
+// the mutations made since. Each add/remove/rename appends a single line to the journal
+// instead of rewriting the whole CSV; compact() folds the journal back into a new snapshot.
+//
+// The journal starts with the CRC32 of the snapshot it applies to. A journal whose CRC does
+// not match the snapshot on disk (e.g. the process died right after a compaction replaced the
+// snapshot) is ignored instead of being applied twice.
+//
+// Journal records name songs by slot: row N of the snapshot is slot N, and each song added
+// after it takes the next slot. load() gives every song its slot as its ID; slotOfId keeps
+// track of which slot each ID maps to once IDs and slots drift apart (after a compaction, or
+// for songs added in this session).
+//
+// Unless -Dmusicplayer.binaryLibrary=false is given, each snapshot is also written as a
+// MappedLibrary (songs.lib). When songs.lib still matches songs.csv, load() maps it instead of
+// parsing the CSV, and songs are only created once something reads them.
+public class PlaylistStore {
+    private static final int COMPACT_MIN_RECORDS = 1000;
+    private static final String HEADER_PREFIX = "#snapshot ";
+    private static final Histogram APPEND_LATENCY = Metrics.histogram("persist.journalNanos");
+    private static final Histogram COMPACT_LATENCY = Metrics.histogram("persist.snapshotNanos");
+    private static final Histogram LIBRARY_FILE_LATENCY = Metrics.histogram("persist.libraryFileNanos");
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final File libraryFile;
+    private final boolean useLibrary;
+    private OutputStream journal;
+    private long snapshotCrc = -1;
+    private boolean journalValid;
+    private int journalRecords;
+    private int[] slotOfId = new int[0];
+    private int nextSlot;
+
+    public PlaylistStore(String csvFilePath) {
+        snapshotFile = new File(csvFilePath);
+        journalFile = new File(csvFilePath + ".journal");
+        libraryFile = new File(csvFilePath.endsWith(".csv")
+                ? csvFilePath.substring(0, csvFilePath.length() - 4) + ".lib" : csvFilePath + ".lib");
+        useLibrary = !"false".equals(System.getProperty("musicplayer.binaryLibrary"));
+    }
+
+    // Reads the snapshot and replays the journal on top of it.
+    public LazySongList load() throws IOException {
+        closeJournal();
+        LazySongList songs = new LazySongList();
+        MappedLibrary library = useLibrary ? MappedLibrary.openIfCurrent(libraryFile, snapshotFile) : null;
+        if (library != null) {
+            snapshotCrc = library.getSnapshotCrc();
+            songs.appendLibrary(library);
+        } else {
+            // No songs.csv before the first compaction: an empty snapshot, which has the CRC
+            // openJournal() writes for it, so the journal still replays
+            boolean exists = snapshotFile.exists();
+            byte[] snapshot = exists ? Files.readAllBytes(snapshotFile.toPath()) : new byte[0];
+            CRC32 crc = new CRC32();
+            crc.update(snapshot);
+            snapshotCrc = crc.getValue();
+            songs.addAll(SongCsv.parse(snapshot));
+            if (useLibrary && exists) {
+                // First launch with this songs.csv: convert it so the next launch can map it
+                writeLibrary(songs);
+            }
+        }
+        songs.assignIds(0, 0);
+        journalRecords = 0;
+        BitSet removed = new BitSet();
+        journalValid = replayJournal(songs, removed);
+        // Removals were only marked so that slots and positions stay the same during replay
+        nextSlot = songs.size();
+        slotOfId = new int[Math.max(16, nextSlot)];
+        Arrays.fill(slotOfId, -1);
+        for (int slot = 0; slot < nextSlot; slot++) {
+            if (!removed.get(slot)) {
+                slotOfId[slot] = slot;
+            }
+        }
+        songs.removePositions(removed.stream().toArray(), removed.cardinality());
+        return songs;
+    }
+
+    private void writeLibrary(LazySongList songs) {
+        long start = System.nanoTime();
+        try {
+            MappedLibrary.write(libraryFile, songs, snapshotFile, snapshotCrc);
+            LIBRARY_FILE_LATENCY.recordSince(start);
+        } catch (IOException e) {
+            // songs.lib is only a cache of songs.csv; a stale one fails the size/mtime check
+            System.err.println("Error writing library file: " + e.getMessage());
+        }
+    }
+
+    private boolean replayJournal(LazySongList songs, BitSet removed) throws IOException {
+        if (!journalFile.exists()) {
+            return false;
+        }
+        byte[] content = Files.readAllBytes(journalFile.toPath());
+        int end = indexOfNewline(content, 0);
+        if (end < 0 || !new String(content, 0, end, StandardCharsets.UTF_8).equals(HEADER_PREFIX + Long.toHexString(snapshotCrc))) {
+            return false;
+        }
+        int start = end + 1;
+        while ((end = indexOfNewline(content, start)) >= 0) {
+            apply(new String(content, start, end - start, StandardCharsets.UTF_8), songs, removed);
+            journalRecords++;
+            start = end + 1;
+        }
+        if (start < content.length) {
+            // Only newline-terminated records are complete; cut off a torn final write
+            // so the next append starts on a fresh line
+            try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+                file.setLength(start);
+            }
+        }
+        return true;
+    }
+
+    private static int indexOfNewline(byte[] content, int from) {
+        for (int i = from; i < content.length; i++) {
+            if (content[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Positions equal slots while replaying, since removed songs are only marked in `removed`
+    private static void apply(String record, LazySongList songs, BitSet removed) {
+        String[] fields = record.split("\t", -1);
+        for (int i = 1; i < fields.length; i++) {
+            fields[i] = unescape(fields[i]);
+        }
+        switch (fields[0]) {
+            case "A": {
+                Song song = fields.length >= 6
+                        ? new Song(fields[1], fields[2], Long.parseLong(fields[3]),
+                                Float.parseFloat(fields[4]), Integer.parseInt(fields[5]))
+                        : new Song(fields[1], fields[2]);
+                if (fields.length >= 8) {
+                    song.setAddedMillis(Long.parseLong(fields[6]));
+                    song.setPlayCount(Integer.parseInt(fields[7]));
+                }
+                song.setId(songs.size());
+                songs.add(song);
+                break;
+            }
+            case "CI": {
+                int slot = Integer.parseInt(fields[1]);
+                if (slot < songs.size() && !removed.get(slot)) {
+                    songs.get(slot).setPlayCount(Integer.parseInt(fields[2]));
+                }
+                break;
+            }
+            case "DI":
+                removed.set(Integer.parseInt(fields[1]));
+                break;
+            case "RI": {
+                int slot = Integer.parseInt(fields[1]);
+                if (slot < songs.size() && !removed.get(slot)) {
+                    songs.get(slot).setName(fields[2]);
+                }
+                break;
+            }
+            case "PI": {
+                int slot = Integer.parseInt(fields[1]);
+                if (slot < songs.size() && !removed.get(slot)) {
+                    songs.get(slot).setPath(fields[2]);
+                }
+                break;
+            }
+            // Name-based records, written before songs had IDs
+            case "D":
+                for (int i = 0; i < songs.size(); i++) {
+                    if (!removed.get(i) && songs.nameAt(i).equals(fields[1])) {
+                        removed.set(i);
+                    }
+                }
+                break;
+            case "R":
+                for (int i = 0; i < songs.size(); i++) {
+                    if (!removed.get(i) && songs.nameAt(i).equals(fields[1])) {
+                        songs.get(i).setName(fields[2]);
+                        break;
+                    }
+                }
+                break;
+            case "P":
+                for (int i = 0; i < songs.size(); i++) {
+                    if (!removed.get(i) && songs.nameAt(i).equals(fields[1])) {
+                        songs.get(i).setPath(fields[2]);
+                        break;
+                    }
+                }
+                break;
+            default:
+                System.err.println("Skipping unknown journal record: " + fields[0]);
+        }
+    }
+
+    public void recordAdd(Song song) throws IOException {
+        append(addRecord(song));
+    }
+
+    // Journals a whole batch of added songs with a single write
+    public void recordAdds(List<Song> songs) throws IOException {
+        if (songs.isEmpty()) {
+            return;
+        }
+        StringBuilder records = new StringBuilder();
+        for (Song song : songs) {
+            records.append(addRecord(song));
+        }
+        append(records.toString(), songs.size());
+    }
+
+    // Also gives the song the next slot
+    private String addRecord(Song song) {
+        setSlot(song.getId(), nextSlot++);
+        if (!song.hasMetadata() && !song.hasStats()) {
+            return record("A", song.getName(), song.getPath());
+        }
+        if (!song.hasStats()) {
+            return record("A", song.getName(), song.getPath(), Long.toString(song.getDurationMicros()),
+                    Float.toString(song.getSampleRate()), Integer.toString(song.getChannels()));
+        }
+        return record("A", song.getName(), song.getPath(), Long.toString(song.getDurationMicros()),
+                Float.toString(song.getSampleRate()), Integer.toString(song.getChannels()),
+                Long.toString(song.getAddedMillis()), Integer.toString(song.getPlayCount()));
+    }
+
+    // Journals the removal of the first `count` IDs with a single write. Songs that were never
+    // saved (no slot) need no record.
+    public void recordRemoves(int[] ids, int count) throws IOException {
+        StringBuilder records = new StringBuilder();
+        int written = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = slotOf(ids[i]);
+            if (slot >= 0) {
+                records.append("DI\t").append(slot).append('\n');
+                slotOfId[ids[i]] = -1;
+                written++;
+            }
+        }
+        if (written > 0) {
+            append(records.toString(), written);
+        }
+    }
+
+    public void recordRename(int id, String newName) throws IOException {
+        int slot = slotOf(id);
+        if (slot >= 0) {
+            append(record("RI", Integer.toString(slot), newName));
+        }
+    }
+
+    public void recordPathChange(int id, String newPath) throws IOException {
+        int slot = slotOf(id);
+        if (slot >= 0) {
+            append(record("PI", Integer.toString(slot), newPath));
+        }
+    }
+
+    public void recordPlayCount(int id, int playCount) throws IOException {
+        int slot = slotOf(id);
+        if (slot >= 0) {
+            append(record("CI", Integer.toString(slot), Integer.toString(playCount)));
+        }
+    }
+
+    private int slotOf(int id) {
+        return id >= 0 && id < slotOfId.length ? slotOfId[id] : -1;
+    }
+
+    private void setSlot(int id, int slot) {
+        if (id < 0) {
+            return;
+        }
+        if (id >= slotOfId.length) {
+            int oldLength = slotOfId.length;
+            slotOfId = Arrays.copyOf(slotOfId, Math.max(id + 1, oldLength * 2));
+            Arrays.fill(slotOfId, oldLength, slotOfId.length, -1);
+        }
+        slotOfId[id] = slot;
+    }
+
+    private static String record(String op, String... fields) {
+        StringBuilder record = new StringBuilder(op);
+        for (String field : fields) {
+            record.append('\t').append(escape(field));
+        }
+        return record.append('\n').toString();
+    }
+
+    private void append(String record) throws IOException {
+        append(record, 1);
+    }
+
+    // One write per call, so a crash can only ever tear the last line
+    private void append(String records, int count) throws IOException {
+        long start = System.nanoTime();
+        openJournal().write(records.getBytes(StandardCharsets.UTF_8));
+        APPEND_LATENCY.recordSince(start);
+        journalRecords += count;
+    }
+
+    // True once the journal has grown large enough relative to the library that replaying
+    // it costs more than rewriting the snapshot.
+    public boolean needsCompaction(int librarySize) {
+        return journalRecords >= Math.max(COMPACT_MIN_RECORDS, librarySize);
+    }
+
+    public int getJournalRecordCount() {
+        return journalRecords;
+    }
+
+    // Writes a new snapshot next to the old one, syncs it, atomically renames it into
+    // place and starts an empty journal for it.
+    public void compact(List<Song> playlist) throws IOException {
+        long start = System.nanoTime();
+        closeJournal();
+        LazySongList songs = playlist instanceof LazySongList ? (LazySongList) playlist : LazySongList.of(playlist);
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new CheckedOutputStream(out, crc), StandardCharsets.UTF_8));
+            for (int i = 0; i < songs.size(); i++) {
+                // Straight from the mapping where possible, without creating the Song
+                SongCsv.writeRow(writer, songs.nameAt(i), songs.pathAt(i), songs.durationAt(i),
+                        songs.sampleRateAt(i), songs.channelsAt(i), songs.addedAt(i), songs.playCountAt(i));
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        try {
+            Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        COMPACT_LATENCY.recordSince(start);
+        snapshotCrc = crc.getValue();
+        journalValid = false;
+        journalRecords = 0;
+        // The new snapshot renumbers the slots; the songs keep their IDs
+        Arrays.fill(slotOfId, -1);
+        for (int i = 0; i < songs.size(); i++) {
+            setSlot(songs.idAt(i), i);
+        }
+        nextSlot = songs.size();
+        openJournal();
+        if (useLibrary) {
+            writeLibrary(songs);
+        }
+    }
+
+    private OutputStream openJournal() throws IOException {
+        if (journal == null) {
+            if (snapshotCrc < 0) {
+                snapshotCrc = snapshotFile.exists() ? checksum(snapshotFile) : 0;
+            }
+            if (journalValid) {
+                journal = new FileOutputStream(journalFile, true);
+            } else {
+                journal = new FileOutputStream(journalFile);
+                journal.write((HEADER_PREFIX + Long.toHexString(snapshotCrc) + "\n").getBytes(StandardCharsets.UTF_8));
+                journalValid = true;
+            }
+        }
+        return journal;
+    }
+
+    private static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(file.toPath()));
+        return crc.getValue();
+    }
+
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    public void close() throws IOException {
+        closeJournal();
+    }
+
+    private static String escape(String field) {
+        return field.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder sb = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,233 @@
+package src.main.java.musicplayer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// The named playlists of a Library, one .m3u8 file each in the playlists directory next to
+// songs.csv. In memory a playlist only holds song IDs; IDs are not kept between runs, so the
+// files list file paths (which other players can open too) and load() finds each song by path.
+//
+// save() only writes the playlists that changed since they were loaded or last saved, so
+// editing one of hundreds of playlists costs one small file write.
+public class Playlists {
+    private static final String HEADER = "#EXTM3U";
+    private static final String NAME_PREFIX = "#PLAYLIST:";
+    private static final String EXTENSION = ".m3u8";
+    private static final Histogram SAVE_LATENCY = Metrics.histogram("persist.playlistNanos");
+
+    private final Library library;
+    private final File directory;
+    private final Map<String, Playlist> playlists = new LinkedHashMap<>();
+    private final List<File> deletedFiles = new ArrayList<>();
+
+    Playlists(Library library, File directory) {
+        this.library = library;
+        this.directory = directory;
+    }
+
+    void load() {
+        File[] files = directory.listFiles((dir, fileName) -> fileName.endsWith(EXTENSION));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                Playlist playlist = read(file);
+                if (!playlists.containsKey(playlist.getName())) {
+                    playlists.put(playlist.getName(), playlist);
+                }
+            } catch (IOException e) {
+                System.err.println("Error loading playlist: " + e.getMessage());
+            }
+        }
+    }
+
+    private Playlist read(File file) throws IOException {
+        String name = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+        List<String> paths = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(NAME_PREFIX)) {
+                    name = line.substring(NAME_PREFIX.length());
+                } else if (!line.isEmpty() && !line.startsWith("#")) {
+                    paths.add(line);
+                }
+            }
+        }
+        Playlist playlist = new Playlist(name);
+        int missing = 0;
+        for (String path : paths) {
+            int id = library.idOfPath(path);
+            if (id >= 0) {
+                playlist.add(id);
+            } else {
+                missing++;
+            }
+        }
+        if (missing > 0) {
+            System.err.println("Playlist " + name + ": " + missing + " songs are no longer in the library");
+        }
+        playlist.file = file;
+        // Songs that are gone get dropped from the file on the next save
+        if (missing == 0) {
+            playlist.markSaved();
+        }
+        return playlist;
+    }
+
+    public List<String> getNames() {
+        return new ArrayList<>(playlists.keySet());
+    }
+
+    public Playlist get(String name) {
+        return playlists.get(name);
+    }
+
+    // The playlist with this name, created empty if there is none
+    public Playlist create(String name) {
+        return playlists.computeIfAbsent(name, Playlist::new);
+    }
+
+    public void delete(String name) {
+        Playlist playlist = playlists.remove(name);
+        if (playlist != null && playlist.file != null) {
+            deletedFiles.add(playlist.file);
+        }
+    }
+
+    public void rename(String oldName, String newName) {
+        Playlist playlist = playlists.get(oldName);
+        if (playlist == null || playlists.containsKey(newName)) {
+            return;
+        }
+        // Rebuild the map to keep the playlist in its place in the order
+        Map<String, Playlist> renamed = new LinkedHashMap<>();
+        for (Map.Entry<String, Playlist> entry : playlists.entrySet()) {
+            renamed.put(entry.getKey().equals(oldName) ? newName : entry.getKey(), entry.getValue());
+        }
+        playlists.clear();
+        playlists.putAll(renamed);
+        playlist.setName(newName);
+    }
+
+    // Called by the library after it removed songs
+    void songsRemoved(BitSet ids) {
+        for (Playlist playlist : playlists.values()) {
+            playlist.removeIds(ids);
+        }
+    }
+
+    // Called by the library after a song's path changed: the files list paths, so playlists
+    // with the song have to be written again
+    void songMoved(int id) {
+        for (Playlist playlist : playlists.values()) {
+            if (playlist.contains(id)) {
+                playlist.markChanged();
+            }
+        }
+    }
+
+    // Writes the playlists that changed and removes the files of deleted ones; returns how
+    // many files were written
+    public int save() {
+        int written = 0;
+        for (File file : deletedFiles) {
+            file.delete();
+        }
+        deletedFiles.clear();
+        if (playlists.isEmpty()) {
+            return 0;
+        }
+        directory.mkdirs();
+        Set<String> usedFileNames = new HashSet<>();
+        for (Playlist playlist : playlists.values()) {
+            if (playlist.file != null) {
+                usedFileNames.add(playlist.file.getName());
+            }
+        }
+        for (Playlist playlist : playlists.values()) {
+            if (!playlist.isDirty()) {
+                continue;
+            }
+            try {
+                File file = new File(directory, fileName(playlist.getName(), usedFileNames, playlist.file));
+                write(playlist, file);
+                if (playlist.file != null && !playlist.file.equals(file)) {
+                    // Renamed; the old file goes
+                    usedFileNames.remove(playlist.file.getName());
+                    playlist.file.delete();
+                }
+                playlist.file = file;
+                playlist.markSaved();
+                written++;
+            } catch (IOException e) {
+                System.err.println("Error saving playlist: " + e.getMessage());
+            }
+        }
+        return written;
+    }
+
+    private void write(Playlist playlist, File file) throws IOException {
+        long start = System.nanoTime();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write(HEADER + "\n" + NAME_PREFIX + playlist.getName() + "\n");
+            LazySongList songs = library.getSongs();
+            for (int i = 0; i < playlist.size(); i++) {
+                int position = library.positionOf(playlist.idAt(i));
+                if (position >= 0) {
+                    writer.write(songs.pathAt(position));
+                    writer.write('\n');
+                }
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        SAVE_LATENCY.recordSince(start);
+    }
+
+    // A file name for the playlist that no other playlist uses; its current one if that fits
+    private static String fileName(String name, Set<String> used, File current) {
+        StringBuilder base = new StringBuilder();
+        for (int i = 0; i < name.length() && base.length() < 100; i++) {
+            char c = name.charAt(i);
+            base.append(Character.isLetterOrDigit(c) || c == ' ' || c == '-' || c == '_' ? c : '_');
+        }
+        String candidate = base + EXTENSION;
+        if (current != null && current.getName().equals(candidate)) {
+            return candidate;
+        }
+        for (int n = 2; used.contains(candidate); n++) {
+            candidate = base + " (" + n + ")" + EXTENSION;
+        }
+        used.add(candidate);
+        return candidate;
+    }
+}
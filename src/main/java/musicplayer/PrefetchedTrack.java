@@ -0,0 +1,78 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+// An opened PCM stream whose first few seconds have already been decoded into memory.
+// The stream is left positioned right after the buffered head.
+public class PrefetchedTrack {
+    final Song song;
+    final File file;
+    final AudioFormat format;
+    final long lengthFrames;
+    final byte[] head;
+    final int headLength;
+    final AudioInputStream stream;
+
+    private PrefetchedTrack(Song song, File file, AudioInputStream stream, byte[] head, int headLength) {
+        this.song = song;
+        this.file = file;
+        this.stream = stream;
+        this.format = stream.getFormat();
+        this.lengthFrames = Math.max(0, stream.getFrameLength());
+        this.head = head;
+        this.headLength = headLength;
+    }
+
+    public static PrefetchedTrack load(Song song, int headMillis) throws IOException, UnsupportedAudioFileException {
+        File file = new File(song.getPath());
+        AudioInputStream stream = StreamingPlaybackEngine.openPcmStream(file);
+        try {
+            byte[] head = new byte[headMillis > 0 ? StreamingPlaybackEngine.bytesFor(stream.getFormat(), headMillis) : 0];
+            int total = 0;
+            while (total < head.length) {
+                int read = stream.read(head, total, head.length - total);
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+            int frameSize = Math.max(1, stream.getFormat().getFrameSize());
+            return new PrefetchedTrack(song, file, stream, head, total - (total % frameSize));
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    // An already opened stream (e.g. positioned at a seek target), with nothing buffered
+    static PrefetchedTrack opened(Song song, File file, AudioInputStream stream) {
+        return new PrefetchedTrack(song, file, stream, new byte[0], 0);
+    }
+
+    public Song getSong() {
+        return song;
+    }
+
+    // The decoded head, without the unused end of its buffer
+    public byte[] getHead() {
+        return Arrays.copyOf(head, headLength);
+    }
+
+    // Positioned right after the head
+    public AudioInputStream getStream() {
+        return stream;
+    }
+
+    public void close() {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // Nothing left to do with a stream we are discarding
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Where a file's audio frames are, so a stream can be opened at any frame without reading or
+// decoding what comes before it: a seek costs one file open and one position, however long
+// the file and wherever the target.
+//
+// For WAV files with a fixed frame size (integer and float PCM, mu-law, A-law) the offset of
+// frame n is computed from the header: start of the data chunk + n * frame size. Formats with
+// variable-size frames are described by a table of seek points instead (first frame and byte
+// offset of a frame the decoder can start at), built by the decoder in one pass (Mp3Decoder
+// walks the frame headers); a seek then starts at the nearest point before the target and
+// decodes only from there.
+//
+// Indexes are kept for the most recently used files and rebuilt when a file changes.
+public final class SeekIndex {
+    private static final int CACHED_FILES = 64;
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    private static final int WAVE_FORMAT_ALAW = 6;
+    private static final int WAVE_FORMAT_MULAW = 7;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private static final Map<String, SeekIndex> recent = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SeekIndex> eldest) {
+            return size() > CACHED_FILES;
+        }
+    };
+
+    private final long fileSize;
+    private final long modified;
+    // Format of the frames as stored in the file, before any conversion to PCM
+    final AudioFormat format;
+    final long frameLength;
+    // Fixed frame size: byte offset of frame 0
+    private final long dataOffset;
+    // Variable frame size: ascending first frames and their byte offsets; null for fixed
+    private final long[] pointFrames;
+    private final long[] pointOffsets;
+
+    private SeekIndex(File file, AudioFormat format, long frameLength, long dataOffset,
+                      long[] pointFrames, long[] pointOffsets) {
+        this.fileSize = file.length();
+        this.modified = file.lastModified();
+        this.format = format;
+        this.frameLength = frameLength;
+        this.dataOffset = dataOffset;
+        this.pointFrames = pointFrames;
+        this.pointOffsets = pointOffsets;
+    }
+
+    // Index of a file whose frames are all `format.getFrameSize()` bytes, starting at `dataOffset`
+    static SeekIndex fixed(File file, AudioFormat format, long frameLength, long dataOffset) {
+        return new SeekIndex(file, format, frameLength, dataOffset, null, null);
+    }
+
+    // Index from seek points in ascending order; the arrays are copied up to `count`
+    static SeekIndex table(File file, AudioFormat format, long frameLength,
+                           long[] pointFrames, long[] pointOffsets, int count) {
+        return new SeekIndex(file, format, frameLength, -1,
+                Arrays.copyOf(pointFrames, count), Arrays.copyOf(pointOffsets, count));
+    }
+
+    // The file's index, from the cache while the file is unchanged; null if its format has no
+    // index (the caller falls back to opening the file and skipping)
+    public static SeekIndex of(File file) throws IOException {
+        SeekIndex index = cached(file);
+        if (index != null) {
+            return index;
+        }
+        index = readWave(file);
+        if (index != null) {
+            put(file, index);
+        }
+        return index;
+    }
+
+    // The cached index while the file is unchanged, else null
+    static SeekIndex cached(File file) {
+        synchronized (recent) {
+            SeekIndex index = recent.get(file.getAbsolutePath());
+            if (index != null && index.fileSize == file.length() && index.modified == file.lastModified()) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    // Caches an index built elsewhere (by a decoder that made a seek table)
+    static void put(File file, SeekIndex index) {
+        synchronized (recent) {
+            recent.put(file.getAbsolutePath(), index);
+        }
+    }
+
+    public boolean hasFixedFrameSize() {
+        return pointFrames == null;
+    }
+
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    // Byte offset to start reading at for `frame`: exact for fixed-size frames, else the
+    // seek point at or before it (use pointFrame() to know how much to decode and drop)
+    public long offsetFor(long frame) {
+        if (pointFrames == null) {
+            return dataOffset + frame * format.getFrameSize();
+        }
+        return pointOffsets[pointIndex(frame)];
+    }
+
+    // First frame decoded when starting at offsetFor(frame)
+    public long pointFrame(long frame) {
+        return pointFrames == null ? frame : pointFrames[pointIndex(frame)];
+    }
+
+    public int getPointCount() {
+        return pointFrames == null ? 0 : pointFrames.length;
+    }
+
+    private int pointIndex(long frame) {
+        int i = Arrays.binarySearch(pointFrames, frame);
+        return i >= 0 ? i : Math.max(0, -i - 2);
+    }
+
+    static void skipFully(InputStream stream, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = stream.skip(bytes);
+            if (skipped <= 0) {
+                break;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    // Walks the RIFF chunks for "fmt " and "data"; null if the file is not a WAV file this
+    // can index
+    private static SeekIndex readWave(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(channel, header, 0) || header.getInt(0) != 0x46464952 || header.getInt(8) != 0x45564157) {
+                return null; // not "RIFF" ... "WAVE"
+            }
+            ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            AudioFormat format = null;
+            long position = 12;
+            long size = channel.size();
+            while (position + 8 <= size && readFully(channel, chunk.clear(), position)) {
+                int id = chunk.getInt(0);
+                long length = chunk.getInt(4) & 0xFFFFFFFFL;
+                if (id == 0x20746D66) { // "fmt "
+                    ByteBuffer fmt = ByteBuffer.allocate((int) Math.min(length, 64)).order(ByteOrder.LITTLE_ENDIAN);
+                    if (!readFully(channel, fmt, position + 8)) {
+                        return null;
+                    }
+                    format = waveFormat(fmt);
+                    if (format == null) {
+                        return null;
+                    }
+                } else if (id == 0x61746164) { // "data"
+                    if (format == null) {
+                        return null;
+                    }
+                    long start = position + 8;
+                    // Streamed files may leave the length at 0 or at its maximum
+                    long end = length == 0 || start + length > size ? size : start + length;
+                    return fixed(file, format, (end - start) / format.getFrameSize(), start);
+                }
+                position += 8 + length + (length & 1);
+            }
+            return null;
+        }
+    }
+
+    private static AudioFormat waveFormat(ByteBuffer fmt) {
+        if (fmt.capacity() < 16) {
+            return null;
+        }
+        int tag = fmt.getShort(0) & 0xFFFF;
+        int channels = fmt.getShort(2) & 0xFFFF;
+        float rate = fmt.getInt(4);
+        int blockAlign = fmt.getShort(12) & 0xFFFF;
+        int bits = fmt.getShort(14) & 0xFFFF;
+        if (tag == WAVE_FORMAT_EXTENSIBLE && fmt.capacity() >= 26) {
+            // The sub-format GUID starts with the actual format tag
+            tag = fmt.getShort(24) & 0xFFFF;
+        }
+        if (channels == 0 || blockAlign == 0 || rate <= 0) {
+            return null;
+        }
+        switch (tag) {
+            case WAVE_FORMAT_PCM:
+                return new AudioFormat(bits <= 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED,
+                        rate, bits, channels, blockAlign, rate, false);
+            case WAVE_FORMAT_IEEE_FLOAT:
+                return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, rate, bits, channels, blockAlign, rate, false);
+            case WAVE_FORMAT_MULAW:
+                return new AudioFormat(AudioFormat.Encoding.ULAW, rate, 8, channels, blockAlign, rate, false);
+            case WAVE_FORMAT_ALAW:
+                return new AudioFormat(AudioFormat.Encoding.ALAW, rate, 8, channels, blockAlign, rate, false);
+            default:
+                return null;
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,14 +1,42 @@
 package src.main.java.musicplayer;
 
 public class Song {
+    // Assigned by the Library the song belongs to; stays the same while it is loaded. -1 before that
+    private int id = -1;
     private String name;
     private String path;
+    // Read from the file header when the song is imported; -1 when not known
+    private long durationMicros = -1;
+    private float sampleRate = -1;
+    private int channels = -1;
+    // When the song was added to the library (0 if not known) and how often it was played
+    private long addedMillis;
+    private int playCount;
+    // Gain that brings the song to the reference loudness, from LoudnessScanner; NaN until
+    // measured. Written by whichever thread looked it up, read by the audio engine.
+    private volatile float trackGainDb = Float.NaN;
 
     public Song(String name, String path) {
         this.name = name;
         this.path = path;
     }
 
+    public Song(String name, String path, long durationMicros, float sampleRate, int channels) {
+        this.name = name;
+        this.path = path;
+        this.durationMicros = durationMicros;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
     public String getName() {
         return name;
     }
@@ -25,6 +53,61 @@ public class Song {
         this.path = path;
     }
 
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public void setMetadata(long durationMicros, float sampleRate, int channels) {
+        this.durationMicros = durationMicros;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+    }
+
+    public boolean hasMetadata() {
+        return durationMicros >= 0;
+    }
+
+    public long getAddedMillis() {
+        return addedMillis;
+    }
+
+    public void setAddedMillis(long addedMillis) {
+        this.addedMillis = addedMillis;
+    }
+
+    public int getPlayCount() {
+        return playCount;
+    }
+
+    public void setPlayCount(int playCount) {
+        this.playCount = playCount;
+    }
+
+    public float getTrackGainDb() {
+        return trackGainDb;
+    }
+
+    public void setTrackGainDb(float trackGainDb) {
+        this.trackGainDb = trackGainDb;
+    }
+
+    public boolean hasTrackGain() {
+        return !Float.isNaN(trackGainDb);
+    }
+
+    // Whether there is anything to save beyond name, path and format
+    boolean hasStats() {
+        return addedMillis > 0 || playCount > 0;
+    }
+
     @Override
     public String toString() {
         return name;
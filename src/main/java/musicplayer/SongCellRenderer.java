@@ -0,0 +1,39 @@
+package src.main.java.musicplayer;
+
+import javax.swing.*;
+import java.awt.*;
+
+// List row with the song name on the left and its duration on the right. The duration comes
+// from the Song (filled in from the metadata cache), so painting never touches the file.
+public class SongCellRenderer extends JPanel implements ListCellRenderer<Song> {
+    private static final long serialVersionUID = 1L;
+
+    private final JLabel nameLabel = new JLabel();
+    private final JLabel durationLabel = new JLabel();
+
+    public SongCellRenderer() {
+        super(new BorderLayout(8, 0));
+        setBorder(BorderFactory.createEmptyBorder(1, 2, 1, 4));
+        add(nameLabel, BorderLayout.CENTER);
+        add(durationLabel, BorderLayout.EAST);
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends Song> list, Song song, int index,
+                                                  boolean isSelected, boolean cellHasFocus) {
+        nameLabel.setText(song.getName());
+        durationLabel.setText(song.hasMetadata() ? formatDuration(song.getDurationMicros()) : "");
+        Color bg = isSelected ? list.getSelectionBackground() : list.getBackground();
+        Color fg = isSelected ? list.getSelectionForeground() : list.getForeground();
+        setBackground(bg);
+        nameLabel.setForeground(fg);
+        durationLabel.setForeground(fg);
+        nameLabel.setFont(list.getFont());
+        durationLabel.setFont(list.getFont());
+        return this;
+    }
+
+    static String formatDuration(long microseconds) {
+        return Durations.toString(microseconds);
+    }
+}
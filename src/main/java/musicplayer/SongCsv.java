@@ -0,0 +1,186 @@
+package src.main.java.musicplayer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Reads and writes the name,path rows of songs.csv. Parsing works directly on the file bytes:
+// the only allocations per row are the field strings and the Song itself. Fields may be
+// quoted ("Hello, World",path) so names can contain commas; "" inside quotes is a quote.
+// Songs whose format is known get three more fields: duration (microseconds), sample rate
+// and channels. Songs with a known date added or play count get those two after that
+// (duration -1 if the format is not known). Rows with any other number of fields are skipped,
+// as before.
+final class SongCsv {
+    // Below this size a single thread is faster than splitting the work
+    private static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    private SongCsv() {
+    }
+
+    static List<Song> parse(byte[] data) {
+        int chunks = data.length < PARALLEL_THRESHOLD ? 1 : Runtime.getRuntime().availableProcessors() * 2;
+        if (chunks == 1) {
+            List<Song> songs = new ArrayList<>();
+            parse(data, 0, data.length, songs);
+            return songs;
+        }
+        // Split on line boundaries and parse the pieces in parallel, keeping file order
+        int[] bounds = new int[chunks + 1];
+        bounds[chunks] = data.length;
+        for (int i = 1; i < chunks; i++) {
+            int pos = Math.max(bounds[i - 1], (int) ((long) data.length * i / chunks));
+            while (pos < data.length && data[pos] != '\n') {
+                pos++;
+            }
+            bounds[i] = Math.min(data.length, pos + 1);
+        }
+        List<List<Song>> parts = IntStream.range(0, chunks).parallel()
+                .mapToObj(i -> {
+                    List<Song> part = new ArrayList<>();
+                    parse(data, bounds[i], bounds[i + 1], part);
+                    return part;
+                })
+                .collect(Collectors.toList());
+        List<Song> songs = new ArrayList<>(parts.stream().mapToInt(List::size).sum());
+        for (List<Song> part : parts) {
+            songs.addAll(part);
+        }
+        return songs;
+    }
+
+    static void parse(byte[] data, int from, int to, List<Song> out) {
+        String[] fields = new String[7];
+        int pos = from;
+        while (pos < to) {
+            int fieldCount = 0;
+            boolean tooMany = false;
+            // One row: fields until end of line
+            while (true) {
+                int start = pos;
+                String value;
+                if (pos < to && data[pos] == '"') {
+                    value = readQuoted(data, pos, to);
+                    pos = skipQuoted(data, pos, to);
+                    // Anything between the closing quote and the separator is ignored
+                    while (pos < to && data[pos] != ',' && data[pos] != '\n') {
+                        pos++;
+                    }
+                } else {
+                    while (pos < to && data[pos] != ',' && data[pos] != '\n') {
+                        pos++;
+                    }
+                    value = trimmed(data, start, pos);
+                }
+                if (fieldCount < fields.length) {
+                    fields[fieldCount] = value;
+                } else {
+                    tooMany = true;
+                }
+                fieldCount++;
+                if (pos >= to || data[pos] == '\n') {
+                    pos++;
+                    break;
+                }
+                pos++; // the comma
+            }
+            if (fieldCount == 2 && !tooMany) {
+                out.add(new Song(fields[0], fields[1]));
+            } else if ((fieldCount == 5 || fieldCount == 7) && !tooMany) {
+                try {
+                    Song song = new Song(fields[0], fields[1], Long.parseLong(fields[2]),
+                            Float.parseFloat(fields[3]), Integer.parseInt(fields[4]));
+                    if (fieldCount == 7) {
+                        song.setAddedMillis(Long.parseLong(fields[5]));
+                        song.setPlayCount(Integer.parseInt(fields[6]));
+                    }
+                    out.add(song);
+                } catch (NumberFormatException e) {
+                    // Malformed row, skipped like one with the wrong number of fields
+                }
+            }
+        }
+    }
+
+    private static String trimmed(byte[] data, int start, int end) {
+        while (start < end && isBlank(data[start])) {
+            start++;
+        }
+        while (end > start && isBlank(data[end - 1])) {
+            end--;
+        }
+        return new String(data, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    // Position just past the closing quote of the quoted field starting at pos
+    private static int skipQuoted(byte[] data, int pos, int to) {
+        pos++;
+        while (pos < to) {
+            if (data[pos] == '"') {
+                if (pos + 1 < to && data[pos + 1] == '"') {
+                    pos += 2;
+                    continue;
+                }
+                return pos + 1;
+            }
+            pos++;
+        }
+        return to;
+    }
+
+    private static String readQuoted(byte[] data, int pos, int to) {
+        int end = skipQuoted(data, pos, to);
+        int contentEnd = end > pos + 1 && data[end - 1] == '"' ? end - 1 : end;
+        String value = new String(data, pos + 1, contentEnd - pos - 1, StandardCharsets.UTF_8);
+        return value.indexOf("\"\"") >= 0 ? value.replace("\"\"", "\"") : value;
+    }
+
+    static void writeRow(Writer writer, Song song) throws IOException {
+        writeRow(writer, song.getName(), song.getPath(), song.getDurationMicros(), song.getSampleRate(), song.getChannels(),
+                song.getAddedMillis(), song.getPlayCount());
+    }
+
+    static void writeRow(Writer writer, String name, String path, long durationMicros, float sampleRate, int channels,
+            long addedMillis, int playCount) throws IOException {
+        writeField(writer, name);
+        writer.write(',');
+        writeField(writer, path);
+        boolean stats = addedMillis > 0 || playCount > 0;
+        if (durationMicros >= 0 || stats) {
+            writer.write(',');
+            writer.write(Long.toString(durationMicros));
+            writer.write(',');
+            writer.write(Float.toString(sampleRate));
+            writer.write(',');
+            writer.write(Integer.toString(channels));
+        }
+        if (stats) {
+            writer.write(',');
+            writer.write(Long.toString(addedMillis));
+            writer.write(',');
+            writer.write(Integer.toString(playCount));
+        }
+        writer.write(System.lineSeparator());
+    }
+
+    private static void writeField(Writer writer, String value) throws IOException {
+        // Quote anything the parser would otherwise split or trim
+        boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || (!value.isEmpty() && (value.charAt(0) <= ' ' || value.charAt(value.length() - 1) <= ' '));
+        if (quote) {
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        } else {
+            writer.write(value);
+        }
+    }
+}
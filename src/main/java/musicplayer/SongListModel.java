@@ -0,0 +1,213 @@
+package src.main.java.musicplayer;
+
+import javax.swing.AbstractListModel;
+import java.util.Arrays;
+import java.util.List;
+
+// JList model that is a view over the playlist rather than a copy of it. Each row holds the
+// playlist position it shows, so filtering or re-showing the whole playlist just swaps the
+// row array and fires one event, instead of one intervalAdded per song.
+//
+// A sorted view is an order of playlist positions (see SongSort) that the rows follow instead
+// of playlist order; the playlist itself stays as it is.
+public class SongListModel extends AbstractListModel<Song> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Song> songs;
+    private int[] rows = new int[0];
+    private int size;
+    // Playlist positions in display order; null for playlist order
+    private int[] order;
+    private int orderSize;
+    // Normalized search query the rows are filtered by; null when every song is shown
+    private String filter;
+
+    public SongListModel(List<Song> songs) {
+        this.songs = songs;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Song getElementAt(int index) {
+        return songs.get(rows[index]);
+    }
+
+    // Playlist position shown in the given row
+    public int positionAt(int index) {
+        return rows[index];
+    }
+
+    public int indexOf(Song song) {
+        for (int i = 0; i < size; i++) {
+            if (songs.get(rows[i]) == song) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Row showing this playlist position, or -1; scans the row array, not the songs
+    public int rowOf(int position) {
+        for (int i = 0; i < size; i++) {
+            if (rows[i] == position) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Shows songs in this order of playlist positions from now on (the array is taken over);
+    // call showAll() or showMatches() to apply it
+    public void setOrder(int[] order) {
+        this.order = order;
+        orderSize = order.length;
+    }
+
+    // Back to playlist order
+    public void clearOrder() {
+        order = null;
+    }
+
+    // The sorted view's order, or null when songs are shown in playlist order
+    public int[] getOrder() {
+        return order != null ? Arrays.copyOf(order, orderSize) : null;
+    }
+
+    // Shows every song in the current order
+    public void showAll() {
+        filter = null;
+        if (order != null) {
+            showRows(Arrays.copyOf(order, orderSize), orderSize);
+            return;
+        }
+        int[] all = new int[songs.size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        showRows(all, all.length);
+    }
+
+    // Shows the given playlist positions (ascending), the search results for `query`, in the
+    // current order. Songs added later are shown too if their name matches the query.
+    public void showMatches(int[] positions, String query) {
+        filter = SongSearchIndex.normalize(query);
+        if (order == null) {
+            showRows(positions, positions.length);
+            return;
+        }
+        boolean[] matched = new boolean[songs.size()];
+        for (int position : positions) {
+            matched[position] = true;
+        }
+        int count = 0;
+        for (int i = 0; i < orderSize; i++) {
+            if (matched[order[i]]) {
+                count++;
+            }
+        }
+        // A playlist can show a song more than once, so there may be more rows than matches
+        int[] shown = count <= positions.length ? positions : new int[count];
+        count = 0;
+        for (int i = 0; i < orderSize; i++) {
+            if (matched[order[i]]) {
+                shown[count++] = order[i];
+            }
+        }
+        showRows(shown, count);
+    }
+
+    // Shows the given playlist positions, e.g. search results. The array is taken over.
+    public void showRows(int[] positions, int count) {
+        int oldSize = size;
+        rows = positions;
+        size = count;
+        if (oldSize > 0 || size > 0) {
+            fireContentsChanged(this, 0, Math.max(oldSize, size) - 1);
+        }
+    }
+
+    // Appends rows for playlist positions from..to (inclusive) that were just added, leaving out
+    // those that do not match the search being shown
+    public void appendRows(int from, int to) {
+        if (to < from) {
+            return;
+        }
+        int count = to - from + 1;
+        if (order != null) {
+            // New songs go at the end of a sorted view too
+            if (orderSize + count > order.length) {
+                order = Arrays.copyOf(order, Math.max(orderSize + count, order.length * 2));
+            }
+            for (int position = from; position <= to; position++) {
+                order[orderSize++] = position;
+            }
+        }
+        if (size + count > rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(size + count, rows.length * 2));
+        }
+        int first = size;
+        for (int position = from; position <= to; position++) {
+            if (filter == null || SongSearchIndex.normalize(songs.get(position).getName()).contains(filter)) {
+                rows[size++] = position;
+            }
+        }
+        if (size > first) {
+            fireIntervalAdded(this, first, size - 1);
+        }
+    }
+
+    // The song at this playlist position was removed; drops its row and renumbers the rest
+    public void positionRemoved(int position) {
+        positionsRemoved(new int[]{position});
+    }
+
+    // Same for several songs at once (ascending positions, as they were before the removal)
+    public void positionsRemoved(int[] positions) {
+        int oldSize = size;
+        size = removeAndRenumber(rows, size, positions);
+        if (order != null) {
+            orderSize = removeAndRenumber(order, orderSize, positions);
+        }
+        if (oldSize > 0) {
+            fireContentsChanged(this, 0, oldSize - 1);
+        }
+    }
+
+    // Drops the removed positions from the first `count` entries and moves the others down;
+    // returns how many are left
+    private static int removeAndRenumber(int[] entries, int count, int[] positions) {
+        int kept = 0;
+        // Usually ascending (unless sorted), so walk both arrays together; search only when not
+        int before = 0;
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            int entry = entries[i];
+            if (entry < previous) {
+                int index = Arrays.binarySearch(positions, entry);
+                before = index >= 0 ? index : -index - 1;
+            }
+            while (before < positions.length && positions[before] < entry) {
+                before++;
+            }
+            previous = entry;
+            if (before == positions.length || positions[before] != entry) {
+                // Moves down by the number of removed positions before it
+                entries[kept++] = entry - before;
+            }
+        }
+        return kept;
+    }
+
+    // The song at this playlist position was renamed or otherwise edited
+    public void positionChanged(int position) {
+        for (int i = 0; i < size; i++) {
+            if (rows[i] == position) {
+                fireContentsChanged(this, i, i);
+            }
+        }
+    }
+}
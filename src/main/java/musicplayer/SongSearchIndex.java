@@ -0,0 +1,168 @@
+package src.main.java.musicplayer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Case-insensitive substring index over song names, addressed by song ID.
+// Names are lower-cased once when they are indexed, and every ID is listed under each
+// trigram (three consecutive characters) of its name. A query of three or more characters
+// only has to check the IDs under its rarest trigram instead of the whole playlist.
+//
+// Being keyed by ID rather than position, removing a song or reordering the playlist does not
+// renumber anything: a removed song's key is cleared and its postings are skipped by search
+// until there are enough of them to be worth rebuilding. Renaming works the same way; postings
+// of the old name are left behind, and search checks every candidate against its key anyway.
+public class SongSearchIndex {
+    private static final int MIN_STALE_TO_REBUILD = 1024;
+
+    private String[] keys = new String[16];
+    private int limit;
+    private int size;
+    private int stale;
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    // Sorted list of song IDs that contain one trigram
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == 0 || ids[size - 1] < id) {
+                // Common case: indexing a newly added song, which has the highest ID so far
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                }
+                ids[size++] = id;
+                return;
+            }
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+    }
+
+    static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    private static long trigram(String key, int i) {
+        return ((long) key.charAt(i) << 32) | ((long) key.charAt(i + 1) << 16) | key.charAt(i + 2);
+    }
+
+    // Number of names indexed
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        keys = new String[16];
+        limit = 0;
+        size = 0;
+        stale = 0;
+        postings.clear();
+    }
+
+    public void add(int id, String name) {
+        if (id >= keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(id + 1, keys.length * 2));
+        }
+        if (keys[id] != null) {
+            rename(id, name);
+            return;
+        }
+        keys[id] = normalize(name);
+        addPostings(id, keys[id]);
+        limit = Math.max(limit, id + 1);
+        size++;
+    }
+
+    public void remove(int id) {
+        if (id >= limit || keys[id] == null) {
+            return;
+        }
+        keys[id] = null;
+        size--;
+        addStale();
+    }
+
+    public void rename(int id, String newName) {
+        keys[id] = normalize(newName);
+        addPostings(id, keys[id]);
+        addStale();
+    }
+
+    private void addStale() {
+        if (++stale >= MIN_STALE_TO_REBUILD && stale > size) {
+            rebuildPostings();
+        }
+    }
+
+    // Drops the postings of removed songs and old names
+    private void rebuildPostings() {
+        postings.clear();
+        for (int id = 0; id < limit; id++) {
+            if (keys[id] != null) {
+                addPostings(id, keys[id]);
+            }
+        }
+        stale = 0;
+    }
+
+    private void addPostings(int id, String key) {
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            postings.computeIfAbsent(trigram(key, i), k -> new Postings()).add(id);
+        }
+    }
+
+    // IDs of all names containing the query, ignoring case, in ascending order
+    public int[] search(String query) {
+        String q = normalize(query);
+        if (q.length() < 3) {
+            // Too short for a trigram; the pre-normalized keys still make this a plain scan
+            return scan(q);
+        }
+        Postings rarest = null;
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            Postings list = postings.get(trigram(q, i));
+            if (list == null) {
+                return new int[0];
+            }
+            if (rarest == null || list.size < rarest.size) {
+                rarest = list;
+            }
+        }
+        int[] result = new int[rarest.size];
+        int count = 0;
+        for (int i = 0; i < rarest.size; i++) {
+            String key = keys[rarest.ids[i]];
+            if (key != null && key.contains(q)) {
+                result[count++] = rarest.ids[i];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private int[] scan(String q) {
+        int[] result = new int[size];
+        int count = 0;
+        for (int id = 0; id < limit; id++) {
+            if (keys[id] != null && keys[id].contains(q)) {
+                result[count++] = id;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+}
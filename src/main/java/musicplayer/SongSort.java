@@ -0,0 +1,123 @@
+package src.main.java.musicplayer;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Multi-key ordering of a playlist. order() returns playlist positions in sorted order and
+// leaves the playlist alone, so showing a sorted view does not touch songs.csv;
+// Library.reorder() makes an order permanent. Ties keep playlist order.
+//
+// Every key is read once per song into a column before sorting: names and paths are
+// case-folded once instead of on every comparison, and durations, dates and play counts are
+// read straight from the mapped library without creating Songs. The sort is
+// Arrays.parallelSort, which splits large lists across cores and stays sequential for small ones.
+public final class SongSort {
+    public enum Key {
+        NAME, PATH, DURATION, DATE_ADDED, PLAY_COUNT
+    }
+
+    // A single numeric key and the position are packed into one long when they fit
+    private static final int POSITION_BITS = 21;
+    private static final long MAX_PACKED_KEY = (1L << (63 - POSITION_BITS)) - 1;
+
+    private final Key[] keys;
+    private final boolean[] descending;
+
+    private SongSort(Key[] keys, boolean[] descending) {
+        this.keys = keys;
+        this.descending = descending;
+    }
+
+    public static SongSort by(Key key, boolean descending) {
+        return new SongSort(new Key[]{key}, new boolean[]{descending});
+    }
+
+    // This order, with ties broken by another key
+    public SongSort thenBy(Key key, boolean descending) {
+        Key[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+        boolean[] newDescending = Arrays.copyOf(this.descending, keys.length + 1);
+        newKeys[keys.length] = key;
+        newDescending[keys.length] = descending;
+        return new SongSort(newKeys, newDescending);
+    }
+
+    public int[] order(LazySongList songs) {
+        int size = songs.size();
+        Object[] columns = new Object[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            columns[k] = column(songs, keys[k]);
+        }
+        if (keys.length == 1 && columns[0] instanceof long[] && size <= 1 << POSITION_BITS) {
+            int[] order = packedOrder((long[]) columns[0], descending[0]);
+            if (order != null) {
+                return order;
+            }
+        }
+        Integer[] positions = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+        }
+        Arrays.parallelSort(positions, comparator(columns));
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = positions[i];
+        }
+        return order;
+    }
+
+    private Comparator<Integer> comparator(Object[] columns) {
+        return (a, b) -> {
+            for (int k = 0; k < columns.length; k++) {
+                int result;
+                if (columns[k] instanceof String[]) {
+                    String[] text = (String[]) columns[k];
+                    result = text[a].compareTo(text[b]);
+                } else {
+                    long[] numbers = (long[]) columns[k];
+                    result = Long.compare(numbers[a], numbers[b]);
+                }
+                if (result != 0) {
+                    return descending[k] ? -result : result;
+                }
+            }
+            return Integer.compare(a, b);
+        };
+    }
+
+    // Sorts key and position as one primitive long; null if some key is too large to pack
+    private static int[] packedOrder(long[] keys, boolean descending) {
+        long[] packed = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            // Unknown values are -1, so shift everything up by one to keep it non-negative
+            long key = keys[i] + 1;
+            if (key < 0 || key > MAX_PACKED_KEY) {
+                return null;
+            }
+            packed[i] = (descending ? MAX_PACKED_KEY - key : key) << POSITION_BITS | i;
+        }
+        Arrays.parallelSort(packed);
+        int[] order = new int[keys.length];
+        long mask = (1L << POSITION_BITS) - 1;
+        for (int i = 0; i < packed.length; i++) {
+            order[i] = (int) (packed[i] & mask);
+        }
+        return order;
+    }
+
+    private static Object column(LazySongList songs, Key key) {
+        int size = songs.size();
+        if (key == Key.NAME || key == Key.PATH) {
+            String[] text = new String[size];
+            for (int i = 0; i < size; i++) {
+                text[i] = SongSearchIndex.normalize(key == Key.NAME ? songs.nameAt(i) : songs.pathAt(i));
+            }
+            return text;
+        }
+        long[] numbers = new long[size];
+        for (int i = 0; i < size; i++) {
+            numbers[i] = key == Key.DURATION ? songs.durationAt(i)
+                    : key == Key.DATE_ADDED ? songs.addedAt(i) : songs.playCountAt(i);
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,538 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Streams a song from disk into a SourceDataLine instead of decoding it into a Clip.
+// A decoder thread reads the file into a small ring buffer and a dedicated audio
+// thread drains the ring into the line, so memory use no longer depends on track length.
+//
+// When a next song has been set, the decoder continues straight into it at the end of
+// the current one (same line, no drain), which makes track changes gapless as long as
+// both songs share a sample format.
+public class StreamingPlaybackEngine implements PlaybackEngine {
+    private static final int RING_BUFFER_MILLIS = 500;
+    private static final int LINE_BUFFER_MILLIS = 200;
+    private static final int CHUNK_MILLIS = 20;
+    private static final Histogram TIME_TO_FIRST_SAMPLE = Metrics.histogram("playback.timeToFirstSampleNanos");
+
+    private final List<PlaybackListener> listeners = new CopyOnWriteArrayList<>();
+    private final LineSource lines;
+    private final TrackPrefetcher prefetcher = new TrackPrefetcher();
+    private volatile Session session;
+    private volatile Song nextSong;
+    private volatile boolean isLooping;
+    private volatile float volume = 1.0f;
+    private volatile long timeToFirstSampleNanos = -1;
+    private volatile long lastTransitionGapMicros = -1;
+
+    public StreamingPlaybackEngine() {
+        this(LineSource.SYSTEM);
+    }
+
+    public StreamingPlaybackEngine(LineSource lines) {
+        this.lines = lines;
+    }
+
+    @Override
+    public void open(Song song) throws IOException, UnsupportedAudioFileException, LineUnavailableException {
+        long openStart = System.nanoTime();
+        stop();
+
+        // Starting the song we prefetched (e.g. the user pressed Next) skips the file open
+        PrefetchedTrack track = prefetcher.take(song);
+        if (track == null) {
+            track = PrefetchedTrack.load(song, 0);
+        }
+        SourceDataLine line;
+        try {
+            line = lines.getLine(track.format);
+            line.open(track.format, bytesFor(track.format, LINE_BUFFER_MILLIS));
+        } catch (LineUnavailableException | RuntimeException e) {
+            track.close();
+            throw e;
+        }
+
+        Session s = new Session(track, line, openStart);
+        applyVolume(line);
+        line.start();
+        session = s;
+        s.start();
+    }
+
+    // Opens the file as PCM through the decoder its first bytes call for, or from PcmCache
+    static AudioInputStream openPcmStream(File audioFile) throws IOException, UnsupportedAudioFileException {
+        return PcmCache.shared().open(audioFile, 0);
+    }
+
+    // The stream itself if it is integer PCM already, else converted to 16-bit PCM
+    static AudioInputStream toPcm(AudioInputStream stream) {
+        AudioFormat format = stream.getFormat();
+        AudioFormat.Encoding encoding = format.getEncoding();
+        if (!encoding.equals(AudioFormat.Encoding.PCM_SIGNED) && !encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED)) {
+            AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+                    format.getChannels(), format.getChannels() * 2, format.getSampleRate(), false);
+            stream = AudioSystem.getAudioInputStream(pcm, stream);
+        }
+        return stream;
+    }
+
+    static int bytesFor(AudioFormat format, int millis) {
+        int frameSize = Math.max(1, format.getFrameSize());
+        int frames = Math.max(1, (int) (format.getFrameRate() * millis / 1000));
+        return frames * frameSize;
+    }
+
+    @Override
+    public void setNextSong(Song song) {
+        nextSong = song;
+        prefetcher.prefetch(song);
+    }
+
+    // Called by the decoder when the current song runs out.
+    private PrefetchedTrack takeNextTrack() {
+        Song song = nextSong;
+        if (song == null) {
+            return null;
+        }
+        nextSong = null;
+        PrefetchedTrack track = prefetcher.take(song);
+        if (track == null) {
+            try {
+                track = PrefetchedTrack.load(song, 0);
+            } catch (IOException | UnsupportedAudioFileException e) {
+                System.err.println("Error opening next song: " + e.getMessage());
+            }
+        }
+        return track;
+    }
+
+    @Override
+    public void pause() {
+        Session s = session;
+        if (s != null && !s.paused) {
+            s.paused = true;
+            s.line.stop();
+        }
+    }
+
+    @Override
+    public void resume() {
+        Session s = session;
+        if (s != null && s.paused) {
+            s.paused = false;
+            s.line.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        Session s = session;
+        session = null;
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return session != null;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        Session s = session;
+        return s != null && !s.paused;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        Session s = session;
+        return s != null ? s.framesToMicros(s.positionFrames()) : 0;
+    }
+
+    @Override
+    public long getMicrosecondLength() {
+        Session s = session;
+        return s != null ? s.framesToMicros(s.current.lengthFrames) : 0;
+    }
+
+    @Override
+    public void setMicrosecondPosition(long microseconds) {
+        Session s = session;
+        if (s != null) {
+            s.seek((long) (microseconds / 1_000_000.0 * s.format.getFrameRate()));
+        }
+    }
+
+    @Override
+    public void setLooping(boolean looping) {
+        isLooping = looping;
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        this.volume = volume;
+        Session s = session;
+        if (s != null) {
+            applyVolume(s.line);
+        }
+    }
+
+    private void applyVolume(SourceDataLine line) {
+        if (line.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
+            FloatControl gainControl = (FloatControl) line.getControl(FloatControl.Type.MASTER_GAIN);
+            float range = gainControl.getMaximum() - gainControl.getMinimum();
+            gainControl.setValue(range * volume + gainControl.getMinimum());
+        }
+    }
+
+    @Override
+    public long getTimeToFirstSampleNanos() {
+        return timeToFirstSampleNanos;
+    }
+
+    @Override
+    public long getLastTransitionGapMicros() {
+        return lastTransitionGapMicros;
+    }
+
+    @Override
+    public void addPlaybackListener(PlaybackListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removePlaybackListener(PlaybackListener listener) {
+        listeners.remove(listener);
+    }
+
+    // The stretch of output that belongs to one song. startFrame counts frames written
+    // to the line since the last seek; startPosition is the song frame found there.
+    private static final class Segment {
+        final Song song;
+        final File file;
+        final long lengthFrames;
+        final long startFrame;
+        final long startPosition;
+
+        Segment(Song song, File file, long lengthFrames, long startFrame, long startPosition) {
+            this.song = song;
+            this.file = file;
+            this.lengthFrames = lengthFrames;
+            this.startFrame = startFrame;
+            this.startPosition = startPosition;
+        }
+    }
+
+    // Everything belonging to one opened line. A new Session is created for every open(),
+    // so threads left over from the previous song only ever touch their own state.
+    private final class Session {
+        final AudioFormat format;
+        final int frameSize;
+        final SourceDataLine line;
+        final AudioRingBuffer ring;
+        final long openedAt;
+        final Thread decoderThread;
+        final Thread audioThread;
+
+        // The song being heard, and songs the decoder has already moved on to. Guarded by this.
+        volatile Segment current;
+        final ArrayDeque<Segment> upcoming = new ArrayDeque<>();
+
+        // Decoder state, only touched by the decoder thread
+        PrefetchedTrack track;
+        AudioInputStream stream;
+        long framesDecoded;
+
+        volatile boolean paused;
+        volatile boolean closed;
+        // Pending seek target in frames, or -1. Guarded by this.
+        long seekFrame = -1;
+        long seekGeneration;
+        // Line position at the last seek, so frames played since then can be derived
+        volatile long lineBaseFrame;
+
+        Session(PrefetchedTrack track, SourceDataLine line, long openedAt) {
+            this.track = track;
+            this.stream = track.stream;
+            this.format = track.format;
+            this.frameSize = Math.max(1, format.getFrameSize());
+            this.line = line;
+            this.ring = new AudioRingBuffer(bytesFor(format, RING_BUFFER_MILLIS));
+            this.openedAt = openedAt;
+            this.current = new Segment(track.song, track.file, track.lengthFrames, 0, 0);
+            this.lineBaseFrame = line.getLongFramePosition();
+            decoderThread = new Thread(this::decodeLoop, "audio-decoder");
+            audioThread = new Thread(this::outputLoop, "audio-output");
+            decoderThread.setDaemon(true);
+            audioThread.setDaemon(true);
+            audioThread.setPriority(Thread.MAX_PRIORITY);
+        }
+
+        void start() {
+            decoderThread.start();
+            audioThread.start();
+        }
+
+        long framesPlayed() {
+            return line.getLongFramePosition() - lineBaseFrame;
+        }
+
+        long positionFrames() {
+            Segment segment = current;
+            long position = segment.startPosition + (framesPlayed() - segment.startFrame);
+            if (segment.lengthFrames > 0 && position >= segment.lengthFrames) {
+                position = isLooping ? position % segment.lengthFrames : segment.lengthFrames;
+            }
+            return Math.max(0, position);
+        }
+
+        long framesToMicros(long frames) {
+            return (long) (frames * 1_000_000.0 / format.getFrameRate());
+        }
+
+        void seek(long frame) {
+            synchronized (this) {
+                Segment segment = current;
+                if (segment.lengthFrames > 0) {
+                    frame = Math.min(frame, segment.lengthFrames);
+                }
+                frame = Math.max(0, frame);
+                // If the decoder already moved on to the next song, it has to be queued again
+                Segment last = upcoming.peekLast();
+                if (last != null && nextSong == null) {
+                    setNextSong(last.song);
+                }
+                upcoming.clear();
+                seekGeneration = ring.clear();
+                seekFrame = frame;
+                line.flush();
+                lineBaseFrame = line.getLongFramePosition();
+                current = new Segment(segment.song, segment.file, segment.lengthFrames, 0, frame);
+                notifyAll();
+            }
+        }
+
+        // Producer: reads PCM from the file into the ring buffer.
+        private void decodeLoop() {
+            byte[] chunk = new byte[bytesFor(format, CHUNK_MILLIS)];
+            long generation = ring.generation();
+            try {
+                write(track.head, track.headLength, generation);
+                while (!closed) {
+                    Segment target;
+                    long frame;
+                    long targetGeneration;
+                    synchronized (this) {
+                        target = current;
+                        frame = seekFrame;
+                        targetGeneration = seekGeneration;
+                        seekFrame = -1;
+                    }
+                    if (frame >= 0) {
+                        // Opening the file can take a while, and seek() must not wait for it on
+                        // the event thread; a seek made meanwhile is picked up on the next pass
+                        reopenAt(target.song, target.file, frame);
+                        if (ring.generation() != targetGeneration) {
+                            continue;
+                        }
+                        generation = targetGeneration;
+                        framesDecoded = 0;
+                    }
+                    int read = readFrames(chunk);
+                    if (read > 0) {
+                        write(chunk, read, generation);
+                    } else if (isLooping) {
+                        reopenAt(track.song, track.file, 0);
+                    } else if (!continueWithNextTrack(generation)) {
+                        ring.finish(generation);
+                        synchronized (this) {
+                            while (!closed && seekFrame < 0) {
+                                wait();
+                            }
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | UnsupportedAudioFileException e) {
+                if (!closed) {
+                    System.err.println("Error streaming song: " + e.getMessage());
+                    ring.finish(generation);
+                }
+            } finally {
+                closeStream();
+            }
+        }
+
+        private boolean write(byte[] data, int length, long generation) throws InterruptedException {
+            if (length == 0) {
+                return true;
+            }
+            boolean written = ring.write(data, 0, length, generation);
+            if (written) {
+                framesDecoded += length / frameSize;
+            }
+            return written;
+        }
+
+        // Gapless handoff: keep feeding the same ring and line from the next song's stream.
+        private boolean continueWithNextTrack(long generation) throws InterruptedException {
+            PrefetchedTrack next = takeNextTrack();
+            if (next == null) {
+                return false;
+            }
+            if (!next.format.matches(format)) {
+                // Different sample format needs a new line; let the player open it normally
+                next.close();
+                return false;
+            }
+            synchronized (this) {
+                if (ring.generation() != generation || seekFrame >= 0) {
+                    next.close();
+                    return true;
+                }
+                upcoming.add(new Segment(next.song, next.file, next.lengthFrames, framesDecoded, 0));
+            }
+            closeStream();
+            track = next;
+            stream = next.stream;
+            write(next.head, next.headLength, generation);
+            return true;
+        }
+
+        private int readFrames(byte[] chunk) throws IOException {
+            int total = 0;
+            while (total < chunk.length) {
+                int read = stream.read(chunk, total, chunk.length - total);
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+            return total - (total % frameSize);
+        }
+
+        private void reopenAt(Song song, File file, long frame) throws IOException, UnsupportedAudioFileException {
+            closeStream();
+            // From memory if PcmCache has that far; else the decoder starts at the frame without
+            // decoding what comes before it
+            stream = PcmCache.shared().open(file, frame);
+            if (!file.equals(track.file)) {
+                // Seeking back into the song that was playing before a gapless handoff
+                track = PrefetchedTrack.opened(song, file, stream);
+            }
+        }
+
+        private void closeStream() {
+            try {
+                if (stream != null) {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                // Nothing left to do with a stream we are discarding
+            }
+        }
+
+        // Consumer: drains the ring buffer into the audio line.
+        private void outputLoop() {
+            byte[] chunk = new byte[bytesFor(format, CHUNK_MILLIS)];
+            boolean firstSample = true;
+            long writtenGeneration = ring.generation();
+            long framesWritten = 0;
+            long lastWriteNanos = 0;
+            long queuedNanos = 0;
+            try {
+                while (!closed) {
+                    long generation = ring.generation();
+                    int read = ring.read(chunk, 0, chunk.length);
+                    if (read < 0) {
+                        if (closed) {
+                            break;
+                        }
+                        line.drain();
+                        if (!closed && ring.generation() == generation) {
+                            advanceSegments();
+                            for (PlaybackListener listener : listeners) {
+                                listener.playbackFinished(current.song);
+                            }
+                            ring.awaitClear(generation);
+                        }
+                        continue;
+                    }
+                    if (ring.generation() != generation) {
+                        continue;
+                    }
+                    if (generation != writtenGeneration) {
+                        writtenGeneration = generation;
+                        framesWritten = 0;
+                    }
+
+                    long now = System.nanoTime();
+                    int frames = read / frameSize;
+                    if (startsNextSegment(framesWritten, frames) && lastWriteNanos != 0) {
+                        // Anything beyond what the line still had queued was heard as silence
+                        lastTransitionGapMicros = Math.max(0, now - lastWriteNanos - queuedNanos) / 1000;
+                    }
+                    line.write(chunk, 0, read);
+                    framesWritten += frames;
+                    lastWriteNanos = System.nanoTime();
+                    queuedNanos = (long) ((line.getBufferSize() - line.available()) / frameSize
+                            * 1_000_000_000.0 / format.getFrameRate());
+                    if (firstSample) {
+                        timeToFirstSampleNanos = lastWriteNanos - openedAt;
+                        TIME_TO_FIRST_SAMPLE.record(timeToFirstSampleNanos);
+                        firstSample = false;
+                    }
+                    advanceSegments();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized boolean startsNextSegment(long framesWritten, int frames) {
+            for (Segment segment : upcoming) {
+                if (segment.startFrame >= framesWritten && segment.startFrame < framesWritten + frames) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Moves `current` forward once the line has actually played into the next song.
+        private void advanceSegments() {
+            while (true) {
+                Segment next;
+                synchronized (this) {
+                    next = upcoming.peek();
+                    if (next == null || framesPlayed() < next.startFrame) {
+                        return;
+                    }
+                    upcoming.poll();
+                    current = next;
+                }
+                for (PlaybackListener listener : listeners) {
+                    listener.trackChanged(next.song);
+                }
+            }
+        }
+
+        void close() {
+            closed = true;
+            ring.close();
+            synchronized (this) {
+                notifyAll();
+            }
+            line.stop();
+            line.flush();
+            line.close();
+            decoderThread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package src.main.java.musicplayer;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.Map;
+
+// "position / length" next to the waveform. It is updated at the display's refresh rate while
+// a song plays, so setTime() only repaints when one of the shown seconds changes, and formats
+// into a char array it keeps rather than building strings.
+public class TimeDisplay extends JComponent {
+    private static final long serialVersionUID = 1L;
+    private static final String WIDEST = "00:00 / 00:00";
+
+    private final char[] text = new char[2 * Durations.MAX_LENGTH + 3];
+    private int length;
+    private long shownPosition = -1;
+    private long shownLength = -1;
+
+    public TimeDisplay() {
+        setFont(UIManager.getFont("Label.font"));
+        setForeground(UIManager.getColor("Label.foreground"));
+        clear();
+    }
+
+    // Shows "0:00", as when nothing is playing
+    public void clear() {
+        shownPosition = -1;
+        shownLength = -1;
+        setText(Durations.format(0, text, 0));
+    }
+
+    public void setTime(long positionMicros, long lengthMicros) {
+        long position = Math.max(0, positionMicros) / 1_000_000;
+        long total = Math.max(0, lengthMicros) / 1_000_000;
+        if (position == shownPosition && total == shownLength) {
+            return;
+        }
+        shownPosition = position;
+        shownLength = total;
+        int at = Durations.format(positionMicros, text, 0);
+        text[at++] = ' ';
+        text[at++] = '/';
+        text[at++] = ' ';
+        setText(Durations.format(lengthMicros, text, at));
+    }
+
+    public String getText() {
+        return new String(text, 0, length);
+    }
+
+    private void setText(int newLength) {
+        // Past 99 minutes the text gets wider than the room kept for it
+        boolean wider = newLength > WIDEST.length() && newLength != length;
+        length = newLength;
+        if (wider) {
+            revalidate();
+        }
+        repaint();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (isPreferredSizeSet()) {
+            return super.getPreferredSize();
+        }
+        FontMetrics metrics = getFontMetrics(getFont());
+        Insets insets = getInsets();
+        int width = Math.max(metrics.stringWidth(WIDEST), metrics.charsWidth(text, 0, length));
+        return new Dimension(width + insets.left + insets.right + 4, metrics.getHeight() + insets.top + insets.bottom);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (isOpaque()) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+        Map<?, ?> hints = (Map<?, ?>) Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+        if (hints != null) {
+            ((Graphics2D) g).addRenderingHints(hints);
+        }
+        g.setFont(getFont());
+        g.setColor(getForeground());
+        FontMetrics metrics = g.getFontMetrics();
+        int x = (getWidth() - metrics.charsWidth(text, 0, length)) / 2;
+        int y = (getHeight() - metrics.getHeight()) / 2 + metrics.getAscent();
+        g.drawChars(text, 0, length, x, y);
+    }
+}
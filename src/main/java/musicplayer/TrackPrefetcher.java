@@ -0,0 +1,74 @@
+package src.main.java.musicplayer;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Opens and pre-decodes the head of the song that is expected to play next, on a
+// background thread, so that the handoff at the end of the current song is instant.
+public class TrackPrefetcher {
+    static final int PREFETCH_MILLIS = 3000;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "track-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Song song;
+    private Future<PrefetchedTrack> pending;
+
+    public synchronized void prefetch(Song song) {
+        if (song == this.song) {
+            return;
+        }
+        discard();
+        if (song != null) {
+            this.song = song;
+            pending = executor.submit(() -> PrefetchedTrack.load(song, PREFETCH_MILLIS));
+        }
+    }
+
+    // Hands over the prefetched track for this song, waiting for the load to finish if needed.
+    // Returns null if a different song (or nothing) was prefetched, or if loading failed.
+    public PrefetchedTrack take(Song song) {
+        Future<PrefetchedTrack> future;
+        synchronized (this) {
+            if (song == null || song != this.song) {
+                return null;
+            }
+            future = pending;
+            this.song = null;
+            pending = null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closeWhenLoaded(future);
+            return null;
+        } catch (ExecutionException e) {
+            System.err.println("Error prefetching song: " + e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    public synchronized void discard() {
+        if (pending != null) {
+            closeWhenLoaded(pending);
+        }
+        song = null;
+        pending = null;
+    }
+
+    // The executor is single threaded, so this runs after the load it cleans up after.
+    private void closeWhenLoaded(Future<PrefetchedTrack> future) {
+        executor.execute(() -> {
+            try {
+                future.get().close();
+            } catch (Exception e) {
+                // Load failed, nothing to close
+            }
+        });
+    }
+}
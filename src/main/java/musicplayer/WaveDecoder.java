@@ -0,0 +1,62 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// WAV files. Those with a fixed frame size (integer and float PCM, mu-law, A-law) are read
+// straight from the data chunk through their SeekIndex, so opening one at any frame is a
+// single positioned read; other WAV encodings go through Java Sound.
+class WaveDecoder implements AudioDecoder {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final JavaSoundDecoder fallback = new JavaSoundDecoder();
+
+    @Override
+    public String getName() {
+        return "WAV";
+    }
+
+    @Override
+    public boolean accepts(byte[] head, int length) {
+        return length >= 12 && head[0] == 'R' && head[1] == 'I' && head[2] == 'F' && head[3] == 'F'
+                && head[8] == 'W' && head[9] == 'A' && head[10] == 'V' && head[11] == 'E';
+    }
+
+    @Override
+    public AudioFileFormat getFormat(File file) throws IOException, UnsupportedAudioFileException {
+        SeekIndex index = SeekIndex.of(file);
+        if (index == null) {
+            return fallback.getFormat(file);
+        }
+        long frames = index.frameLength;
+        return new AudioFileFormat(AudioFileFormat.Type.WAVE, index.format,
+                frames > Integer.MAX_VALUE ? AudioSystem.NOT_SPECIFIED : (int) frames);
+    }
+
+    @Override
+    public AudioInputStream open(File file, long frame) throws IOException, UnsupportedAudioFileException {
+        SeekIndex index = SeekIndex.of(file);
+        if (index == null || !index.hasFixedFrameSize()) {
+            return fallback.open(file, frame);
+        }
+        frame = Math.max(0, Math.min(frame, index.frameLength));
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(index.offsetFor(frame));
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_BYTES);
+            return StreamingPlaybackEngine.toPcm(new AudioInputStream(in, index.format, index.frameLength - frame));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// WaveformPyramids on disk, one file per track in the waveforms folder next to songs.csv,
+// named after a hash of the track's path. A file is used only while the track still has the
+// size and modification time recorded in it; otherwise the waveform is computed again.
+// Computing happens on one low-priority background thread, for the track asked for last.
+public class WaveformCache {
+    private static final int MAGIC = 0x4D505746; // "MPWF"
+    private static final int VERSION = 1;
+    private static final Histogram SAVE_LATENCY = Metrics.histogram("persist.waveformNanos");
+
+    private final File directory;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "waveform");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    // The path asked for last; older requests still waiting are dropped
+    private volatile String wanted;
+
+    public WaveformCache(File directory) {
+        this.directory = directory;
+    }
+
+    // Hands the track's waveform to `done` on the background thread: from disk if it is there
+    // and up to date, else computed and saved. Not called if another track was asked for
+    // before this one got its turn, or if the file cannot be read.
+    public void request(String path, Consumer<WaveformPyramid> done) {
+        wanted = path;
+        executor.execute(() -> {
+            if (!path.equals(wanted)) {
+                return;
+            }
+            WaveformPyramid pyramid = get(path);
+            if (pyramid != null) {
+                done.accept(pyramid);
+            }
+        });
+    }
+
+    // Same as request(), on the calling thread; null if the file cannot be read
+    public WaveformPyramid get(String path) {
+        File audio = new File(path);
+        File cached = fileFor(audio);
+        WaveformPyramid pyramid = load(cached, audio);
+        if (pyramid != null) {
+            return pyramid;
+        }
+        try {
+            pyramid = WaveformPyramid.compute(audio);
+        } catch (IOException | UnsupportedAudioFileException e) {
+            System.err.println("Error reading waveform: " + e.getMessage());
+            return null;
+        }
+        save(cached, audio, pyramid);
+        return pyramid;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Two different hashes of the path; the file's header holds the full path, so two tracks
+    // that still clashed would only cost each other a recompute
+    File fileFor(File audio) {
+        String path = audio.getAbsolutePath();
+        CRC32 crc = new CRC32();
+        crc.update(path.getBytes(StandardCharsets.UTF_8));
+        return new File(directory, String.format("%08x%08x.wfm", path.hashCode(), crc.getValue()));
+    }
+
+    private static WaveformPyramid load(File cached, File audio) {
+        if (!cached.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cached)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals(audio.getAbsolutePath())
+                    || in.readLong() != audio.length() || in.readLong() != audio.lastModified()) {
+                return null;
+            }
+            return WaveformPyramid.read(in);
+        } catch (IOException e) {
+            // Only a cache: compute it again
+            return null;
+        }
+    }
+
+    private void save(File cached, File audio, WaveformPyramid pyramid) {
+        long start = System.nanoTime();
+        File tmp = new File(cached.getPath() + ".tmp");
+        try {
+            Files.createDirectories(directory.toPath());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(audio.getAbsolutePath());
+                out.writeLong(audio.length());
+                out.writeLong(audio.lastModified());
+                pyramid.write(out);
+            }
+            try {
+                Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            SAVE_LATENCY.recordSince(start);
+        } catch (IOException e) {
+            System.err.println("Error saving waveform: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package src.main.java.musicplayer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Min/max summary of a track's waveform at several zoom levels. Level 0 has one bucket per
+// BASE_FRAMES frames (all channels together); each level above combines FACTOR buckets of the
+// one below, up to a level of at most TOP_BUCKETS. Samples are stored as bytes (-127..127),
+// which is as fine as a waveform on screen gets.
+//
+// Drawing n pixels reads only the coarsest level with at least n buckets, so the cost depends
+// on the width, not on the length of the track: a 2-hour track is as cheap as a 2-minute one.
+public class WaveformPyramid {
+    static final int BASE_FRAMES = 1024;
+    static final int FACTOR = 4;
+    private static final int TOP_BUCKETS = 256;
+
+    private final float sampleRate;
+    private final long frameLength;
+    // Per level: min and max of each bucket, interleaved
+    private final byte[][] levels;
+
+    WaveformPyramid(float sampleRate, long frameLength, byte[][] levels) {
+        this.sampleRate = sampleRate;
+        this.frameLength = frameLength;
+        this.levels = levels;
+    }
+
+    // Decodes the file once, start to end
+    public static WaveformPyramid compute(File file) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream stream = StreamingPlaybackEngine.openPcmStream(file)) {
+            AudioFormat format = stream.getFormat();
+            int channels = format.getChannels();
+            int frameSize = Math.max(1, format.getFrameSize());
+            byte[] bytes = new byte[BASE_FRAMES * frameSize];
+            float[] samples = new float[BASE_FRAMES * channels];
+            ByteList base = new ByteList();
+            long frames = 0;
+            int n;
+            // One bucket per BASE_FRAMES frames; the last one may be shorter
+            while ((n = MixerVoice.readFrames(stream, bytes, frameSize)) > 0) {
+                MixerVoice.toFloats(bytes, n, format, samples);
+                float min = 0f;
+                float max = 0f;
+                for (int i = 0; i < n * channels; i++) {
+                    min = Math.min(min, samples[i]);
+                    max = Math.max(max, samples[i]);
+                }
+                base.add(toByte(min), toByte(max));
+                frames += n;
+            }
+            return new WaveformPyramid(format.getSampleRate(), frames, buildLevels(base.toArray()));
+        }
+    }
+
+    private static byte[][] buildLevels(byte[] base) {
+        List<byte[]> levels = new ArrayList<>();
+        levels.add(base);
+        byte[] level = base;
+        while (level.length / 2 > TOP_BUCKETS) {
+            int buckets = level.length / 2;
+            byte[] up = new byte[(buckets + FACTOR - 1) / FACTOR * 2];
+            for (int b = 0; b < buckets; b++) {
+                int to = b / FACTOR * 2;
+                if (b % FACTOR == 0) {
+                    up[to] = level[2 * b];
+                    up[to + 1] = level[2 * b + 1];
+                } else {
+                    up[to] = (byte) Math.min(up[to], level[2 * b]);
+                    up[to + 1] = (byte) Math.max(up[to + 1], level[2 * b + 1]);
+                }
+            }
+            levels.add(up);
+            level = up;
+        }
+        return levels.toArray(new byte[0][]);
+    }
+
+    private static byte toByte(float sample) {
+        return (byte) Math.round(Math.max(-1f, Math.min(1f, sample)) * 127);
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    // Exact length in frames, as decoded
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    public long getLengthMicros() {
+        return (long) (frameLength * 1_000_000.0 / sampleRate);
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public int getBucketCount(int level) {
+        return levels[level].length / 2;
+    }
+
+    // The coarsest level with at least `pixels` buckets, or level 0 for a short track
+    public int levelFor(int pixels) {
+        int level = 0;
+        while (level + 1 < levels.length && getBucketCount(level + 1) >= pixels) {
+            level++;
+        }
+        return level;
+    }
+
+    // Min and max of each of `pixels` equal columns across the track, between -1 and 1
+    public void columns(int pixels, float[] min, float[] max) {
+        byte[] level = levels[levelFor(pixels)];
+        int buckets = level.length / 2;
+        for (int x = 0; x < pixels; x++) {
+            int from = (int) ((long) x * buckets / pixels);
+            int to = Math.max(from + 1, (int) ((long) (x + 1) * buckets / pixels));
+            int lo = 0;
+            int hi = 0;
+            for (int b = from; b < Math.min(to, buckets); b++) {
+                lo = Math.min(lo, level[2 * b]);
+                hi = Math.max(hi, level[2 * b + 1]);
+            }
+            min[x] = lo / 127f;
+            max[x] = hi / 127f;
+        }
+    }
+
+    // Position of the frame nearest to `fraction` of the way through, in microseconds; a
+    // whole frame, so a seek lands on a sample boundary
+    public long positionAt(double fraction) {
+        long frame = Math.round(Math.max(0, Math.min(1, fraction)) * frameLength);
+        return (long) Math.ceil(frame * 1_000_000.0 / sampleRate);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeFloat(sampleRate);
+        out.writeLong(frameLength);
+        out.writeInt(levels.length);
+        for (byte[] level : levels) {
+            out.writeInt(level.length);
+            out.write(level);
+        }
+    }
+
+    static WaveformPyramid read(DataInputStream in) throws IOException {
+        float sampleRate = in.readFloat();
+        long frameLength = in.readLong();
+        byte[][] levels = new byte[in.readInt()][];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new byte[in.readInt()];
+            in.readFully(levels[i]);
+        }
+        return new WaveformPyramid(sampleRate, frameLength, levels);
+    }
+
+    private static final class ByteList {
+        private byte[] bytes = new byte[4096];
+        private int size;
+
+        void add(byte min, byte max) {
+            if (size + 2 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = min;
+            bytes[size++] = max;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
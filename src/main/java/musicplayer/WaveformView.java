@@ -0,0 +1,142 @@
+package src.main.java.musicplayer;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.function.LongConsumer;
+
+// Progress bar that shows the playing song's waveform, the part already played in the
+// foreground colour. Click or drag to seek; the seek happens when the mouse is released.
+// Until the song's WaveformPyramid is there it shows a plain bar.
+//
+// The columns are taken from the pyramid once per width and song, so a repaint while the
+// song plays only draws lines. Progress that does not move the playhead by a pixel repaints
+// nothing; progress that does repaints only the columns between the old and new playhead.
+public class WaveformView extends JComponent {
+    private static final long serialVersionUID = 1L;
+
+    private WaveformPyramid waveform;
+    private long positionMicros;
+    private long lengthMicros;
+    private LongConsumer seekListener;
+    // Where the mouse is while dragging, as a fraction; -1 when not dragging
+    private double dragFraction = -1;
+    private float[] min = new float[0];
+    private float[] max = new float[0];
+    private int columnsWidth = -1;
+
+    public WaveformView() {
+        setPreferredSize(new Dimension(200, 40));
+        setOpaque(true);
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                drag(e);
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                drag(e);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (dragFraction >= 0 && seekListener != null && lengthMicros > 0) {
+                    seekListener.accept(positionAt(dragFraction));
+                }
+                dragFraction = -1;
+                repaint();
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+    }
+
+    // Called with the position to seek to, in microseconds
+    public void setSeekListener(LongConsumer listener) {
+        seekListener = listener;
+    }
+
+    // The waveform of the song playing, or null while there is none (yet)
+    public void setWaveform(WaveformPyramid waveform) {
+        this.waveform = waveform;
+        columnsWidth = -1;
+        repaint();
+    }
+
+    public WaveformPyramid getWaveform() {
+        return waveform;
+    }
+
+    public void setProgress(long positionMicros, long lengthMicros) {
+        int before = playhead();
+        this.positionMicros = positionMicros;
+        this.lengthMicros = lengthMicros;
+        int after = playhead();
+        if (after != before) {
+            repaint(Math.min(before, after), 0, Math.abs(after - before) + 1, getHeight());
+        }
+    }
+
+    private int playhead() {
+        double fraction = dragFraction >= 0 ? dragFraction
+                : lengthMicros > 0 ? Math.min(1, (double) positionMicros / lengthMicros) : 0;
+        return (int) Math.round(fraction * getWidth());
+    }
+
+    // Lands on a whole frame when the waveform is known
+    long positionAt(double fraction) {
+        if (waveform != null) {
+            return waveform.positionAt(fraction);
+        }
+        return (long) (lengthMicros * fraction);
+    }
+
+    private void drag(MouseEvent e) {
+        if (SwingUtilities.isLeftMouseButton(e) && getWidth() > 0) {
+            dragFraction = Math.max(0, Math.min(1, (double) e.getX() / getWidth()));
+            repaint();
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        int width = getWidth();
+        int height = getHeight();
+        g.setColor(getBackground());
+        g.fillRect(0, 0, width, height);
+        int playhead = playhead();
+        Color played = getForeground();
+        Color ahead = blend(getForeground(), getBackground());
+        if (waveform == null) {
+            g.setColor(ahead);
+            g.fillRect(0, height / 2 - 1, width, 3);
+            g.setColor(played);
+            g.fillRect(0, height / 2 - 1, playhead, 3);
+            return;
+        }
+        if (columnsWidth != width) {
+            min = new float[width];
+            max = new float[width];
+            waveform.columns(width, min, max);
+            columnsWidth = width;
+        }
+        int middle = height / 2;
+        float scale = (height - 2) / 2f;
+        Rectangle clip = g.getClipBounds();
+        int from = clip != null ? Math.max(0, clip.x) : 0;
+        int to = clip != null ? Math.min(width, clip.x + clip.width) : width;
+        for (int x = from; x < to; x++) {
+            g.setColor(x < playhead ? played : ahead);
+            g.drawLine(x, middle - Math.round(max[x] * scale), x, middle - Math.round(min[x] * scale));
+        }
+        g.setColor(played);
+        g.drawLine(playhead, 0, playhead, height);
+    }
+
+    private static Color blend(Color a, Color b) {
+        return new Color((a.getRed() + 2 * b.getRed()) / 3, (a.getGreen() + 2 * b.getGreen()) / 3,
+                (a.getBlue() + 2 * b.getBlue()) / 3);
+    }
+}
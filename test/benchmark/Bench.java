@@ -0,0 +1,59 @@
+package test.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+// Minimal benchmark runner: warmup runs, then measured runs, reported as min / median / p90.
+// Each trial times only the work it is measuring, so per-run setup (copying a list, writing
+// a file) stays out of the numbers.
+public final class Bench {
+    public interface Trial {
+        // Runs the operation once and returns its duration in nanoseconds
+        long run() throws Exception;
+    }
+
+    static final int WARMUP = Integer.getInteger("bench.warmup", 5);
+    static final int RUNS = Integer.getInteger("bench.runs", 10);
+
+    // Keeps results alive so the JIT cannot drop the measured work
+    static volatile Object sink;
+
+    private Bench() {
+    }
+
+    public static void measure(String name, Trial trial) throws Exception {
+        measure(name, WARMUP, RUNS, trial);
+    }
+
+    public static void measure(String name, int warmup, int runs, Trial trial) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            trial.run();
+        }
+        long[] times = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            times[i] = trial.run();
+        }
+        Arrays.sort(times);
+        System.out.println(String.format(Locale.ROOT, "%-40s min %10s   median %10s   p90 %10s",
+                name, format(times[0]), format(times[runs / 2]), format(times[Math.min(runs - 1, runs * 9 / 10)])));
+    }
+
+    public static long time(Runnable work) {
+        long start = System.nanoTime();
+        work.run();
+        return System.nanoTime() - start;
+    }
+
+    static String format(long nanos) {
+        if (nanos >= 10_000_000L) {
+            return String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+        }
+        return String.format(Locale.ROOT, "%.1f us", nanos / 1e3);
+    }
+
+    // Sizes to run at, e.g. -Dbench.sizes=1000,100000
+    static int[] sizes() {
+        return Arrays.stream(System.getProperty("bench.sizes", "1000,100000,1000000").split(","))
+                .mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    }
+}
@@ -0,0 +1,104 @@
+package test.benchmark;
+
+import src.main.java.musicplayer.AudioDecoders;
+import src.main.java.musicplayer.Broadcast;
+import src.main.java.musicplayer.Song;
+
+import javax.sound.sampled.AudioInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Many listeners of one 30-second FLAC song: decoded once into a Broadcast and read by every
+// listener at its own cursor, against every listener decoding the file itself. The station is
+// not paced and its listeners are lossless, so this times how fast all of them get the whole
+// song; the decoded seconds show the decoding staying the same at any number of listeners.
+//
+//   java -cp <classes> test.benchmark.BroadcastBenchmark
+public class BroadcastBenchmark {
+    private static final int SECONDS = 30;
+    private static final int[] LISTENERS = {1, 10, 100, 500};
+    // Decoding for each listener is left out above this many; it only gets slower
+    private static final int MAX_SEPARATE = 100;
+
+    public static void main(String[] args) throws Exception {
+        File file = Files.createTempFile("musicplayer-bench", ".flac").toFile();
+        ExecutorService threads = Executors.newCachedThreadPool();
+        try {
+            DecodeBenchmark.writeFlac(file, DecodeBenchmark.generate(44100 * SECONDS));
+            Song song = new Song("Station", file.getPath());
+            for (int listeners : LISTENERS) {
+                double decodedBefore = decodedSeconds(file);
+                Bench.measure("shared, " + listeners + " listener(s)", 1, 3, () -> shared(threads, song, listeners));
+                System.out.printf("  decoded %.0f s of audio per run%n", (decodedSeconds(file) - decodedBefore) / 4);
+                if (listeners <= MAX_SEPARATE) {
+                    Bench.measure("separate, " + listeners + " listener(s)", 1, 3, () -> separate(threads, file, listeners));
+                }
+            }
+        } finally {
+            threads.shutdownNow();
+            file.delete();
+        }
+    }
+
+    private static long shared(ExecutorService threads, Song song, int listeners) throws Exception {
+        boolean[] given = new boolean[1];
+        Broadcast broadcast = new Broadcast("bench", () -> {
+            if (given[0]) {
+                return null;
+            }
+            given[0] = true;
+            return song;
+        }, false);
+        List<Callable<Long>> batch = new ArrayList<>();
+        for (int i = 0; i < listeners; i++) {
+            Broadcast.Subscription subscription = broadcast.subscribe(true);
+            batch.add(() -> {
+                long[] sum = new long[1];
+                while (subscription.transferTo((bytes, offset, length) -> sum[0] += bytes[offset] + bytes[offset + length - 1]) >= 0) {
+                    // Takes the slice like a sink would, by looking at it
+                }
+                return sum[0];
+            });
+        }
+        long start = System.nanoTime();
+        broadcast.start();
+        for (Future<Long> result : threads.invokeAll(batch)) {
+            Bench.sink = result.get();
+        }
+        long time = System.nanoTime() - start;
+        broadcast.close();
+        return time;
+    }
+
+    private static long separate(ExecutorService threads, File file, int listeners) throws Exception {
+        List<Callable<Long>> batch = new ArrayList<>();
+        for (int i = 0; i < listeners; i++) {
+            batch.add(() -> {
+                long sum = 0;
+                byte[] buffer = new byte[16 * 1024];
+                try (AudioInputStream in = AudioDecoders.open(file)) {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        sum += buffer[0] + buffer[read - 1];
+                    }
+                }
+                return sum;
+            });
+        }
+        long start = System.nanoTime();
+        for (Future<Long> result : threads.invokeAll(batch)) {
+            Bench.sink = result.get();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static double decodedSeconds(File file) throws Exception {
+        return AudioDecoders.getDecodedSeconds(AudioDecoders.forFile(file));
+    }
+}
@@ -0,0 +1,125 @@
+package test.benchmark;
+
+import src.main.java.musicplayer.ControlServer;
+import src.main.java.musicplayer.HeadlessPlayer;
+import src.main.java.musicplayer.Song;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Load on ControlServer from local clients: many small JSON requests (status, search) at once,
+// then many clients streaming a 30-second WAV song at once. Nothing is played, so it runs
+// without an audio device. -Dbench.clients sets how many clients (default 16).
+//
+//   java -cp <classes> test.benchmark.ControlServerBenchmark
+public class ControlServerBenchmark {
+    private static final int CLIENTS = Integer.getInteger("bench.clients", 16);
+    private static final int REQUESTS = 800;
+    private static final int SONGS = 10_000;
+    private static final int TRACKS = 4;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("musicplayer-bench").toFile();
+        HeadlessPlayer headless = new HeadlessPlayer(new File(dir, "songs.csv").getPath());
+        ControlServer server = new ControlServer(headless);
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            String[] tracks = new String[TRACKS];
+            for (int i = 0; i < TRACKS; i++) {
+                File wav = new File(dir, "track" + i + ".wav");
+                PlaybackBenchmark.writeWav(wav, 30);
+                tracks[i] = wav.getPath();
+            }
+            List<Song> songs = new ArrayList<>();
+            for (int i = 0; i < SONGS; i++) {
+                songs.add(new Song("Track " + i, tracks[i % TRACKS]));
+            }
+            headless.getLibrary().addAll(songs);
+            server.start(0);
+            String base = "http://localhost:" + server.getPort();
+            HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+            requests(http, clients, "GET /status", URI.create(base + "/status"));
+            requests(http, clients, "GET /search?q=track 12", URI.create(base + "/search?q=track%2012"));
+            requests(http, clients, "GET /songs?from=5000&count=100", URI.create(base + "/songs?from=5000&count=100"));
+            streams(http, clients, URI.create(base + "/stream?id=" + headless.getLibrary().getSongs().idAt(0)));
+        } finally {
+            clients.shutdownNow();
+            server.stop();
+            headless.close();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    // REQUESTS requests spread over the clients; reports the time per request
+    private static void requests(HttpClient http, ExecutorService clients, String name, URI uri) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri).build();
+        Bench.measure(name + ", " + CLIENTS + " clients", 3, 10, () -> {
+            List<Callable<Integer>> batch = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                batch.add(() -> {
+                    int bytes = 0;
+                    for (int i = 0; i < REQUESTS / CLIENTS; i++) {
+                        HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                        if (response.statusCode() != 200) {
+                            throw new IllegalStateException("HTTP " + response.statusCode());
+                        }
+                        bytes += response.body().length;
+                    }
+                    return bytes;
+                });
+            }
+            long start = System.nanoTime();
+            for (Future<Integer> result : clients.invokeAll(batch)) {
+                Bench.sink = result.get();
+            }
+            return (System.nanoTime() - start) / (REQUESTS / CLIENTS * CLIENTS);
+        });
+    }
+
+    // Every client downloads the song at once; reports the time for all of them and the throughput
+    private static void streams(HttpClient http, ExecutorService clients, URI uri) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri).build();
+        long[] bytes = new long[1];
+        long[] last = new long[1];
+        Bench.measure("GET /stream (30 s WAV), " + CLIENTS + " clients", 2, 5, () -> {
+            List<Callable<Long>> batch = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                batch.add(() -> {
+                    long total = 0;
+                    byte[] buffer = new byte[64 * 1024];
+                    try (InputStream in = http.send(request, HttpResponse.BodyHandlers.ofInputStream()).body()) {
+                        int read;
+                        while ((read = in.read(buffer)) > 0) {
+                            total += read;
+                        }
+                    }
+                    return total;
+                });
+            }
+            long start = System.nanoTime();
+            long total = 0;
+            for (Future<Long> result : clients.invokeAll(batch)) {
+                total += result.get();
+            }
+            bytes[0] = total;
+            return last[0] = System.nanoTime() - start;
+        });
+        System.out.println(String.format(Locale.ROOT, "  last run: %.0f MB/s in all", bytes[0] / (last[0] / 1e9) / 1e6));
+    }
+}
@@ -0,0 +1,230 @@
+package test.benchmark;
+
+import src.main.java.musicplayer.AudioDecoders;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+
+// Time to decode a whole track to PCM through AudioDecoders, and the speed in multiples of
+// real time: a generated 60-second WAV, the same audio as FLAC (written here with the simplest
+// encoding FLAC has: fixed second-order prediction and one Rice parameter per subframe), and
+// any files named on the command line (there is no MP3 encoder here, so pass MP3 files in).
+//
+//   java -cp <classes> test.benchmark.DecodeBenchmark [file.mp3 ...]
+public class DecodeBenchmark {
+    private static final int SECONDS = 60;
+    private static final int RATE = 44100;
+    private static final int BLOCK_SIZE = 4096;
+
+    public static void main(String[] args) throws Exception {
+        short[][] samples = generate(SECONDS * RATE);
+        File dir = Files.createTempDirectory("musicplayer-bench").toFile();
+        File wav = new File(dir, "track.wav");
+        File flac = new File(dir, "track.flac");
+        try {
+            writeWav(wav, samples);
+            writeFlac(flac, samples);
+            measure("WAV, " + SECONDS + " s", wav);
+            measure("FLAC, " + SECONDS + " s", flac);
+            for (String path : args) {
+                File file = new File(path);
+                measure(AudioDecoders.forFile(file).getName() + ", " + file.getName(), file);
+            }
+        } finally {
+            wav.delete();
+            flac.delete();
+            dir.delete();
+        }
+    }
+
+    private static void measure(String name, File file) throws Exception {
+        byte[] buffer = new byte[64 * 1024];
+        long[] last = new long[2];
+        Bench.measure(name, () -> {
+            long start = System.nanoTime();
+            long bytes = 0;
+            try (AudioInputStream stream = AudioDecoders.open(file)) {
+                int frameSize = stream.getFormat().getFrameSize();
+                int read;
+                while ((read = stream.read(buffer)) > 0) {
+                    bytes += read;
+                }
+                last[1] = (long) (bytes / frameSize * 1e9 / stream.getFormat().getFrameRate());
+            }
+            Bench.sink = bytes;
+            return last[0] = System.nanoTime() - start;
+        });
+        System.out.println(String.format(Locale.ROOT, "  last run: %.0fx real time", (double) last[1] / last[0]));
+    }
+
+    // A few drifting tones over quiet noise: enough going on that FLAC's residuals are not trivial
+    public static short[][] generate(int frames) {
+        Random random = new Random(42);
+        short[][] samples = new short[2][frames];
+        for (int i = 0; i < frames; i++) {
+            double t = (double) i / RATE;
+            double tone = Math.sin(2 * Math.PI * 220 * t) * 4000 + Math.sin(2 * Math.PI * (330 + 20 * Math.sin(t)) * t) * 3000
+                    + Math.sin(2 * Math.PI * 1760 * t) * 1000 * Math.abs(Math.sin(3 * t));
+            samples[0][i] = (short) (tone + random.nextGaussian() * 200);
+            samples[1][i] = (short) (tone * 0.8 + random.nextGaussian() * 200);
+        }
+        return samples;
+    }
+
+    private static void writeWav(File file, short[][] samples) throws IOException {
+        int frames = samples[0].length;
+        byte[] pcm = new byte[frames * 4];
+        for (int i = 0; i < frames; i++) {
+            for (int ch = 0; ch < 2; ch++) {
+                pcm[i * 4 + ch * 2] = (byte) samples[ch][i];
+                pcm[i * 4 + ch * 2 + 1] = (byte) (samples[ch][i] >> 8);
+            }
+        }
+        AudioFormat format = new AudioFormat(RATE, 16, 2, true, false);
+        try (AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), format, frames)) {
+            AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file);
+        }
+    }
+
+    // 16-bit stereo FLAC, 4096-sample blocks, each channel coded on its own
+    public static void writeFlac(File file, short[][] samples) throws IOException {
+        int frames = samples[0].length;
+        try (OutputStream out = new FileOutputStream(file)) {
+            BitWriter info = new BitWriter();
+            info.write(BLOCK_SIZE, 16);
+            info.write(BLOCK_SIZE, 16);
+            info.write(0, 24);
+            info.write(0, 24);
+            info.write(RATE, 20);
+            info.write(2 - 1, 3);
+            info.write(16 - 1, 5);
+            info.write(frames >>> 4, 32);
+            info.write(frames & 15, 4);
+            for (int i = 0; i < 16; i++) {
+                info.write(0, 8);
+            }
+            byte[] streamInfo = info.toByteArray();
+            out.write(new byte[]{'f', 'L', 'a', 'C', (byte) 0x80, 0, 0, (byte) streamInfo.length});
+            out.write(streamInfo);
+
+            long frameNumber = 0;
+            for (int start = 0; start < frames; start += BLOCK_SIZE, frameNumber++) {
+                int size = Math.min(BLOCK_SIZE, frames - start);
+                BitWriter frame = new BitWriter();
+                frame.write(0xFFF8, 16);
+                // Block size from the 16 bits at the end of the header, rate from STREAMINFO,
+                // independent channels, 16 bits per sample
+                frame.write(7, 4);
+                frame.write(0, 4);
+                frame.write(1, 4);
+                frame.write(4, 3);
+                frame.write(0, 1);
+                writeUtf8(frame, frameNumber);
+                frame.write(size - 1, 16);
+                frame.write(crc(frame.toByteArray(), 8, 0x07), 8);
+                for (int ch = 0; ch < 2; ch++) {
+                    writeSubframe(frame, samples[ch], start, size);
+                }
+                frame.align();
+                byte[] bytes = frame.toByteArray();
+                out.write(bytes);
+                int crc16 = crc(bytes, 16, 0x8005);
+                out.write(crc16 >> 8);
+                out.write(crc16);
+            }
+        }
+    }
+
+    // Fixed order-2 prediction, residual as one Rice partition
+    private static void writeSubframe(BitWriter out, short[] x, int start, int size) {
+        out.write(0, 1);
+        out.write(8 + 2, 6);
+        out.write(0, 1);
+        out.write(x[start], 16);
+        out.write(x[start + 1], 16);
+        int[] residual = new int[size];
+        long sum = 0;
+        for (int i = 2; i < size; i++) {
+            residual[i] = x[start + i] - 2 * x[start + i - 1] + x[start + i - 2];
+            sum += Math.abs(residual[i]);
+        }
+        long mean = sum / Math.max(1, size - 2);
+        int parameter = mean > 0 ? Math.min(14, 63 - Long.numberOfLeadingZeros(mean)) : 0;
+        out.write(0, 2);
+        out.write(0, 4);
+        out.write(parameter, 4);
+        for (int i = 2; i < size; i++) {
+            int folded = residual[i] >= 0 ? residual[i] << 1 : (-residual[i] << 1) - 1;
+            for (int q = folded >>> parameter; q > 0; q--) {
+                out.write(0, 1);
+            }
+            out.write(1, 1);
+            out.write(folded, parameter);
+        }
+    }
+
+    private static void writeUtf8(BitWriter out, long value) {
+        if (value < 0x80) {
+            out.write((int) value, 8);
+            return;
+        }
+        int extra = value < 0x800 ? 1 : value < 0x10000 ? 2 : value < 0x200000 ? 3 : 4;
+        out.write((0xFF00 >> (extra + 1) & 0xFF) | (int) (value >>> 6 * extra), 8);
+        for (int i = extra - 1; i >= 0; i--) {
+            out.write(0x80 | (int) (value >>> 6 * i & 0x3F), 8);
+        }
+    }
+
+    // CRC-8 (width 8) or CRC-16 (width 16) of the data, MSB first, as FLAC computes them
+    private static int crc(byte[] data, int width, int polynomial) {
+        int top = 1 << (width - 1);
+        int mask = (1 << width) - 1;
+        int crc = 0;
+        for (byte b : data) {
+            crc ^= (b & 0xFF) << (width - 8);
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & top) != 0 ? (crc << 1 ^ polynomial) & mask : crc << 1 & mask;
+            }
+        }
+        return crc;
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private long bits;
+        private int count;
+
+        // The low `width` bits of `value`, most significant first
+        void write(int value, int width) {
+            for (int i = width - 1; i >= 0; i--) {
+                bits = bits << 1 | (value >>> i & 1);
+                if (++count == 8) {
+                    bytes.write((int) bits);
+                    bits = 0;
+                    count = 0;
+                }
+            }
+        }
+
+        void align() {
+            while (count != 0) {
+                write(0, 1);
+            }
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package test.benchmark;
+
+import src.main.java.musicplayer.LazySongList;
+import src.main.java.musicplayer.Library;
+import src.main.java.musicplayer.LibraryListener;
+import src.main.java.musicplayer.PlaylistStore;
+import src.main.java.musicplayer.Song;
+import src.main.java.musicplayer.SongListModel;
+import src.main.java.musicplayer.SongSort;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Times the library operations behind MusicPlayer's loadSongsFromCSV, saveSongsToCSV,
+// searchSongs, sortSongList, removeSong and renameSong at several library sizes, plus bulk
+// removal of 10k songs by ID. Runs without
+// a window: it drives the Library core with the player's list model attached, minus the JFrame.
+//
+//   java -cp <classes> test.benchmark.LibraryBenchmark [-Dbench.sizes=1000,100000,1000000]
+public class LibraryBenchmark {
+    private static final String[] WORDS = {"love", "night", "blue", "heart", "dance", "fire", "rain",
+            "summer", "dream", "river", "light", "road", "home", "gold", "wild", "moon", "city", "song"};
+    private static final int BULK_REMOVE = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("musicplayer-bench").toFile();
+        try {
+            for (int size : Bench.sizes()) {
+                System.out.println("== " + size + " songs");
+                run(dir, size);
+            }
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void run(File dir, int size) throws Exception {
+        // Fewer runs for the big libraries, where a single run already takes seconds
+        int warmup = size >= 1_000_000 ? 2 : Bench.WARMUP;
+        int runs = size >= 1_000_000 ? 5 : Bench.RUNS;
+        String csvPath = new File(dir, "songs.csv").getPath();
+        writeLibrary(csvPath, size);
+
+        Bench.measure("loadSongsFromCSV (parse csv)", warmup, runs, () -> {
+            deleteLibraryFiles(csvPath);
+            System.setProperty("musicplayer.binaryLibrary", "false");
+            try {
+                PlaylistStore store = new PlaylistStore(csvPath);
+                long start = System.nanoTime();
+                Bench.sink = store.load();
+                long elapsed = System.nanoTime() - start;
+                store.close();
+                return elapsed;
+            } finally {
+                System.clearProperty("musicplayer.binaryLibrary");
+            }
+        });
+        new PlaylistStore(csvPath).load(); // converts to songs.lib
+        Bench.measure("loadSongsFromCSV (mapped library)", warmup, runs, () -> {
+            PlaylistStore store = new PlaylistStore(csvPath);
+            long start = System.nanoTime();
+            LazySongList songs = store.load();
+            // What the first screenful of the list reads
+            for (int i = 0; i < Math.min(40, songs.size()); i++) {
+                Bench.sink = songs.get(i);
+            }
+            long elapsed = System.nanoTime() - start;
+            store.close();
+            return elapsed;
+        });
+
+        Library library = new Library(csvPath);
+        LazySongList snapshot = library.readSnapshot();
+        Bench.measure("search index build", warmup, runs, () -> Bench.time(() -> Bench.sink = Library.buildIndex(snapshot)));
+        LazySongList playlist = library.getSongs();
+        SongListModel model = new SongListModel(playlist);
+        library.addLibraryListener(new LibraryListener() {
+            @Override
+            public void songsAdded(int from, int to) {
+                model.appendRows(from, to);
+            }
+
+            @Override
+            public void songsRemoved(int[] positions) {
+                model.positionsRemoved(positions);
+            }
+
+            @Override
+            public void songChanged(int position) {
+                model.positionChanged(position);
+            }
+
+            @Override
+            public void libraryReordered() {
+                model.showAll();
+            }
+        });
+        library.append(snapshot);
+        library.useIndex(Library.buildIndex(snapshot));
+
+        Bench.measure("saveSongsToCSV", warmup, runs, () -> Bench.time(library::save));
+
+        for (String query : new String[]{"lo", "night river", "love", "song 4242"}) {
+            Bench.measure("searchSongs \"" + query + "\"", () -> Bench.time(() -> {
+                int[] matches = library.search(query);
+                model.showRows(matches, matches.length);
+            }));
+        }
+
+        SongSort byName = SongSort.by(SongSort.Key.NAME, false).thenBy(SongSort.Key.PATH, false);
+        Bench.measure("sortSongList (view)", warmup, runs, () -> Bench.time(() -> {
+            model.setOrder(library.sortedOrder(byName));
+            model.showAll();
+        }));
+        SongSort byDuration = SongSort.by(SongSort.Key.DURATION, true);
+        Bench.measure("sortSongList by duration (view)", warmup, runs, () -> Bench.time(() -> {
+            model.setOrder(library.sortedOrder(byDuration));
+            model.showAll();
+        }));
+        model.clearOrder();
+        Bench.measure("sortSongList + Save Order", warmup, runs, () -> {
+            shuffle(library);
+            return Bench.time(() -> library.sort(byName));
+        });
+
+        Random random = new Random(7);
+        Bench.measure("removeSong", () -> {
+            // Put a song back at the end so every run removes from a library of the same size
+            library.add("Removable " + random.nextInt(), "/music/removable.wav");
+            int id = playlist.idAt(random.nextInt(playlist.size()));
+            return Bench.time(() -> library.remove(id));
+        });
+
+        Bench.measure("renameSong", () -> {
+            int id = playlist.idAt(random.nextInt(playlist.size()));
+            String newName = playlist.nameAt(library.positionOf(id)) + " (live)";
+            return Bench.time(() -> library.rename(id, newName));
+        });
+
+        int bulk = Math.min(BULK_REMOVE, size / 10);
+        Bench.measure("removeSongs " + bulk + " by ID", warmup, runs, () -> {
+            // Put back as many songs as the last run removed, then pick a random spread of IDs
+            List<Song> refill = new ArrayList<>();
+            for (int i = 0; i < bulk; i++) {
+                refill.add(new Song("Bulk " + i, "/music/bulk" + i + ".wav"));
+            }
+            library.addAll(refill);
+            // Folds the journal into the snapshot so a compaction does not land in the timing
+            library.save();
+            int[] ids = new int[bulk];
+            for (int i = 0; i < bulk; i++) {
+                ids[i] = playlist.idAt(random.nextInt(playlist.size()));
+            }
+            return Bench.time(() -> library.removeAll(ids));
+        });
+        library.close();
+        deleteLibraryFiles(csvPath);
+    }
+
+    static void writeLibrary(String csvPath, int size) throws IOException {
+        Random random = new Random(42);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvPath), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < size; i++) {
+                String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                        + " song " + i;
+                writer.write(name + ",/music/artist" + (i % 997) + "/track" + i + ".wav\n");
+            }
+        }
+    }
+
+    private static void deleteLibraryFiles(String csvPath) {
+        String base = csvPath.substring(0, csvPath.length() - ".csv".length());
+        new File(base + ".lib").delete();
+        new File(csvPath + ".journal").delete();
+    }
+
+    private static void shuffle(Library library) {
+        Random random = new Random(library.size());
+        int[] order = new int[library.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int position = order[i];
+            order[i] = order[j];
+            order[j] = position;
+        }
+        library.reorder(order);
+    }
+}
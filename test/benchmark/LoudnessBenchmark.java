@@ -0,0 +1,55 @@
+package test.benchmark;
+
+import src.main.java.musicplayer.LoudnessAnalyzer;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Locale;
+
+// Loudness analysis speed on one core: the analyzer alone on samples already in memory, and
+// the whole file path (read, convert, analyze) on a generated 3-minute WAV. Printed as time
+// per run and as multiples of real time.
+//
+//   java -cp <classes> test.benchmark.LoudnessBenchmark
+public class LoudnessBenchmark {
+    private static final int SECONDS = 180;
+    private static final float RATE = 44100;
+
+    public static void main(String[] args) throws Exception {
+        float[] samples = new float[(int) RATE * 2];
+        for (int i = 0; i < samples.length / 2; i++) {
+            samples[2 * i] = (float) (Math.sin(2 * Math.PI * 440 * i / RATE) * 0.1);
+            samples[2 * i + 1] = samples[2 * i];
+        }
+        long[] last = new long[1];
+        Bench.measure("analyzer only, " + SECONDS + " s stereo", () -> {
+            LoudnessAnalyzer analyzer = new LoudnessAnalyzer(RATE, 2);
+            long start = System.nanoTime();
+            for (int s = 0; s < SECONDS; s++) {
+                analyzer.process(samples, samples.length / 2);
+            }
+            Bench.sink = analyzer.getIntegratedLoudness();
+            return last[0] = System.nanoTime() - start;
+        });
+        printSpeed(last[0]);
+
+        File dir = Files.createTempDirectory("musicplayer-bench").toFile();
+        File wav = new File(dir, "track.wav");
+        try {
+            PlaybackBenchmark.writeWav(wav, SECONDS);
+            Bench.measure("analyze(file), " + SECONDS + " s WAV", () -> {
+                long start = System.nanoTime();
+                Bench.sink = LoudnessAnalyzer.analyze(wav);
+                return last[0] = System.nanoTime() - start;
+            });
+            printSpeed(last[0]);
+        } finally {
+            wav.delete();
+            dir.delete();
+        }
+    }
+
+    private static void printSpeed(long nanos) {
+        System.out.println(String.format(Locale.ROOT, "  last run: %.0fx real time", SECONDS * 1e9 / nanos));
+    }
+}
@@ -0,0 +1,68 @@
+package test.benchmark;
+
+import src.main.java.musicplayer.FadeStage;
+import src.main.java.musicplayer.GainStage;
+import src.main.java.musicplayer.LimiterStage;
+import src.main.java.musicplayer.MixingPlaybackEngine;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Cost of the mixer's work for one output block: fade and sum up to four songs, then volume,
+// limiter and conversion to 16-bit PCM. A block has to be done well within its own length
+// (10 ms by default) or the audio line runs dry; times are per block.
+//
+//   java -cp <classes> test.benchmark.MixerBenchmark [-Dbench.blockMillis=10]
+public class MixerBenchmark {
+    private static final int RATE = 44100;
+    private static final int CHANNELS = 2;
+    private static final int BLOCKS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int blockMillis = Integer.getInteger("bench.blockMillis", 10);
+        int frames = RATE * blockMillis / 1000;
+        for (int voices : new int[] {1, 2, 4}) {
+            measure(voices, frames, blockMillis);
+        }
+    }
+
+    private static void measure(int voices, int frames, int blockMillis) throws Exception {
+        Random random = new Random(42);
+        float[][] sources = new float[voices][frames * CHANNELS];
+        FadeStage[] fades = new FadeStage[voices];
+        for (int v = 0; v < voices; v++) {
+            for (int i = 0; i < sources[v].length; i++) {
+                sources[v][i] = random.nextFloat() * 2 - 1;
+            }
+            fades[v] = new FadeStage(1f);
+        }
+        float[] voice = new float[frames * CHANNELS];
+        float[] mix = new float[frames * CHANNELS];
+        byte[] pcm = new byte[frames * CHANNELS * 2];
+        GainStage gain = new GainStage(GainStage.volumeToGain(0.8f));
+        LimiterStage limiter = new LimiterStage(RATE);
+        Bench.measure(voices + " voice(s), per " + blockMillis + " ms block", () -> {
+            // Keep every block fading so the fade's per-frame path is the one measured
+            for (int v = 0; v < voices; v++) {
+                fades[v].fadeTo(v % 2 == 0 ? 0f : 1f, (long) frames * BLOCKS);
+            }
+            long start = System.nanoTime();
+            for (int block = 0; block < BLOCKS; block++) {
+                Arrays.fill(mix, 0f);
+                for (int v = 0; v < voices; v++) {
+                    System.arraycopy(sources[v], 0, voice, 0, voice.length);
+                    fades[v].process(voice, frames, CHANNELS);
+                    for (int i = 0; i < voice.length; i++) {
+                        mix[i] += voice[i];
+                    }
+                }
+                gain.process(mix, frames, CHANNELS);
+                limiter.process(mix, frames, CHANNELS);
+                MixingPlaybackEngine.toPcm16(mix, mix.length, pcm);
+            }
+            long elapsed = System.nanoTime() - start;
+            Bench.sink = pcm;
+            return elapsed / BLOCKS;
+        });
+    }
+}
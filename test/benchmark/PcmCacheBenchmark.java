@@ -0,0 +1,84 @@
+package test.benchmark;
+
+import src.main.java.musicplayer.PcmCache;
+
+import javax.sound.sampled.AudioInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Locale;
+
+// Restarting a song from PcmCache against decoding it again, on generated 3-minute FLAC files:
+// the time to the first 20 ms of audio (what playSong waits for) and to the whole song (a loop
+// going round). Then how much the Java heap grows while the cache fills its budget.
+//
+//   java -cp <classes> test.benchmark.PcmCacheBenchmark
+public class PcmCacheBenchmark {
+    private static final int SECONDS = 180;
+    private static final int RATE = 44100;
+    private static final int TRACKS = 8;
+    private static final long BUDGET = 256L << 20;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("musicplayer-bench").toFile();
+        try {
+            File[] files = new File[TRACKS];
+            short[][] samples = DecodeBenchmark.generate(RATE * SECONDS);
+            for (int i = 0; i < TRACKS; i++) {
+                files[i] = new File(dir, "track" + i + ".flac");
+                DecodeBenchmark.writeFlac(files[i], samples);
+            }
+            PcmCache off = new PcmCache(0);
+            PcmCache cache = new PcmCache(BUDGET);
+            read(cache, files[0], Long.MAX_VALUE);
+            int firstBytes = RATE / 50 * 4;
+            Bench.measure("restart, first 20 ms, decoded", () -> read(off, files[0], firstBytes));
+            Bench.measure("restart, first 20 ms, cached", () -> read(cache, files[0], firstBytes));
+            Bench.measure("whole song, decoded", 1, 5, () -> read(off, files[0], Long.MAX_VALUE));
+            Bench.measure("whole song, cached", 1, 5, () -> read(cache, files[0], Long.MAX_VALUE));
+            measureHeap(files);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    // Opens the file through the cache and reads up to `bytes` of it
+    private static long read(PcmCache cache, File file, long bytes) throws Exception {
+        long start = System.nanoTime();
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        try (AudioInputStream stream = cache.open(file, 0)) {
+            while (total < bytes) {
+                int read = stream.read(buffer, 0, (int) Math.min(buffer.length, bytes - total));
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+        }
+        Bench.sink = buffer;
+        return System.nanoTime() - start;
+    }
+
+    private static void measureHeap(File[] files) throws Exception {
+        PcmCache cache = new PcmCache(BUDGET);
+        long before = usedHeap();
+        for (File file : files) {
+            read(cache, file, Long.MAX_VALUE);
+        }
+        long after = usedHeap();
+        System.out.println(String.format(Locale.ROOT, "%d songs, %.0f MB cached: Java heap %+.1f MB",
+                cache.getSongCount(), cache.getUsedBytes() / 1e6, (after - before) / 1e6));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
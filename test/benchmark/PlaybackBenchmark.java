@@ -0,0 +1,108 @@
+package test.benchmark;
+
+import src.main.java.musicplayer.PlaybackEngine;
+import src.main.java.musicplayer.Song;
+import src.main.java.musicplayer.StreamingPlaybackEngine;
+
+import javax.sound.sampled.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+// Time from playSong() to the first frame written to the audio line, on generated WAV files.
+// Without an audio device (e.g. on a build server) the line cannot be opened; the decode side
+// of the same path (open the file, read the first chunk) is measured instead.
+//
+//   java -cp <classes> test.benchmark.PlaybackBenchmark
+public class PlaybackBenchmark {
+    private static final int TRACKS = 4;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("musicplayer-bench").toFile();
+        try {
+            Song[] songs = new Song[TRACKS];
+            for (int i = 0; i < TRACKS; i++) {
+                File wav = new File(dir, "track" + i + ".wav");
+                writeWav(wav, 30);
+                songs[i] = new Song("Track " + i, wav.getPath());
+            }
+            if (hasAudioOutput()) {
+                measureTimeToFirstFrame(songs);
+            } else {
+                System.out.println("No audio output available; measuring decode only");
+            }
+            measureTimeToFirstChunk(songs);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void measureTimeToFirstFrame(Song[] songs) throws Exception {
+        PlaybackEngine engine = new StreamingPlaybackEngine();
+        int[] next = {0};
+        Bench.measure("playSong time to first frame", () -> {
+            engine.open(songs[next[0]++ % songs.length]);
+            long deadline = System.nanoTime() + 2_000_000_000L;
+            while (engine.getTimeToFirstSampleNanos() <= 0 && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            long elapsed = engine.getTimeToFirstSampleNanos();
+            engine.stop();
+            return elapsed;
+        });
+    }
+
+    private static void measureTimeToFirstChunk(Song[] songs) throws Exception {
+        int[] next = {0};
+        Bench.measure("playSong open + first 20 ms decoded", () -> {
+            Song song = songs[next[0]++ % songs.length];
+            long start = System.nanoTime();
+            try (AudioInputStream stream = AudioSystem.getAudioInputStream(new File(song.getPath()))) {
+                AudioFormat format = stream.getFormat();
+                byte[] chunk = new byte[(int) (format.getFrameRate() / 50) * format.getFrameSize()];
+                int read = 0;
+                while (read < chunk.length) {
+                    int n = stream.read(chunk, read, chunk.length - read);
+                    if (n < 0) {
+                        break;
+                    }
+                    read += n;
+                }
+                Bench.sink = chunk;
+            }
+            return System.nanoTime() - start;
+        });
+    }
+
+    private static boolean hasAudioOutput() {
+        AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        try {
+            SourceDataLine line = AudioSystem.getSourceDataLine(format);
+            line.open(format);
+            line.close();
+            return true;
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Writes a quiet 440 Hz tone, 16-bit stereo at 44.1 kHz
+    static void writeWav(File file, int seconds) throws Exception {
+        AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        int frames = 44100 * seconds;
+        byte[] pcm = new byte[frames * 4];
+        for (int i = 0; i < frames; i++) {
+            short sample = (short) (Math.sin(2 * Math.PI * 440 * i / 44100.0) * 3000);
+            pcm[i * 4] = (byte) sample;
+            pcm[i * 4 + 1] = (byte) (sample >> 8);
+            pcm[i * 4 + 2] = (byte) sample;
+            pcm[i * 4 + 3] = (byte) (sample >> 8);
+        }
+        try (AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), format, frames)) {
+            AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file);
+        }
+    }
+}
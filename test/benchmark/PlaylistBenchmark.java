@@ -0,0 +1,91 @@
+package test.benchmark;
+
+import src.main.java.musicplayer.Library;
+import src.main.java.musicplayer.Playlist;
+import src.main.java.musicplayer.Playlists;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+
+// Memory and save cost of many named playlists over one large library: heap taken by the
+// playlists next to the song table, saving after one playlist changed versus all of them, and
+// reading them all back.
+//
+//   java -cp <classes> test.benchmark.PlaylistBenchmark [-Dbench.songs=500000] [-Dbench.playlists=200]
+public class PlaylistBenchmark {
+    private static final int SONGS = Integer.getInteger("bench.songs", 500_000);
+    private static final int PLAYLISTS = Integer.getInteger("bench.playlists", 200);
+    private static final int AVERAGE_PLAYLIST_SIZE = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("musicplayer-bench").toFile();
+        try {
+            run(dir);
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    private static void run(File dir) throws Exception {
+        String csvPath = new File(dir, "songs.csv").getPath();
+        LibraryBenchmark.writeLibrary(csvPath, SONGS);
+        Library library = new Library(csvPath);
+        library.load();
+        long songTableBytes = usedHeap();
+        System.out.println(String.format(Locale.ROOT, "%,d songs: %.1f MB heap (+ %.1f MB mapped songs.lib)",
+                SONGS, songTableBytes / 1e6, new File(dir, "songs.lib").length() / 1e6));
+
+        Playlists playlists = library.getPlaylists();
+        Random random = new Random(42);
+        long entries = 0;
+        for (int p = 0; p < PLAYLISTS; p++) {
+            Playlist playlist = playlists.create("Playlist " + p);
+            int count = 1 + random.nextInt(AVERAGE_PLAYLIST_SIZE * 2);
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = library.getSongs().idAt(random.nextInt(library.size()));
+            }
+            playlist.addAll(ids);
+            entries += count;
+        }
+        long withPlaylists = usedHeap();
+        System.out.println(String.format(Locale.ROOT, "%d playlists, %,d entries: +%.1f MB heap",
+                PLAYLISTS, entries, (withPlaylists - songTableBytes) / 1e6));
+
+        Bench.measure("save all playlists", 0, 1, () -> Bench.time(playlists::save));
+        Bench.measure("save after one changed", () -> {
+            playlists.get("Playlist " + random.nextInt(PLAYLISTS)).add(library.getSongs().idAt(0));
+            return Bench.time(playlists::save);
+        });
+        Bench.measure("save with nothing changed", () -> Bench.time(playlists::save));
+        library.close();
+
+        Bench.measure("load all playlists", 2, 5, () -> {
+            Library reopened = new Library(csvPath);
+            reopened.load();
+            long elapsed = Bench.time(() -> Bench.sink = reopened.getPlaylists());
+            reopened.close();
+            return elapsed;
+        });
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
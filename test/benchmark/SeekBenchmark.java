@@ -0,0 +1,75 @@
+package test.benchmark;
+
+import src.main.java.musicplayer.AudioDecoders;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+// Time to reposition a stream at a random point of a 2-hour WAV and read the first 10 ms
+// from there: through SeekIndex (byte offset from the header), and the old way (open the file
+// through AudioSystem and skip). The file is sparse, so it takes no disk space.
+//
+//   java -cp <classes> test.benchmark.SeekBenchmark
+public class SeekBenchmark {
+    private static final int RATE = 44100;
+    private static final long FRAMES = RATE * 2L * 60 * 60;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("musicplayer-bench").toFile();
+        File wav = new File(dir, "long.wav");
+        try {
+            writeSparseWav(wav);
+            Random random = new Random(42);
+            byte[] chunk = new byte[RATE / 100 * 4];
+            Bench.measure("SeekIndex, 2 h file", 20, 200, () -> {
+                long frame = (long) (random.nextDouble() * (FRAMES - RATE));
+                long start = System.nanoTime();
+                try (AudioInputStream stream = AudioDecoders.open(wav, frame)) {
+                    Bench.sink = stream.read(chunk);
+                }
+                return System.nanoTime() - start;
+            });
+            Bench.measure("open + skip, 2 h file", 20, 200, () -> {
+                long frame = (long) (random.nextDouble() * (FRAMES - RATE));
+                long start = System.nanoTime();
+                try (AudioInputStream stream = AudioSystem.getAudioInputStream(wav)) {
+                    long bytes = frame * 4;
+                    while (bytes > 0) {
+                        long skipped = stream.skip(bytes);
+                        if (skipped <= 0) {
+                            break;
+                        }
+                        bytes -= skipped;
+                    }
+                    Bench.sink = stream.read(chunk);
+                }
+                return System.nanoTime() - start;
+            });
+        } finally {
+            wav.delete();
+            dir.delete();
+        }
+    }
+
+    // 16-bit stereo header, then the file is extended to its full length without writing
+    private static void writeSparseWav(File file) throws Exception {
+        long data = FRAMES * 4;
+        ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt((int) (36 + data))
+                .put("WAVE".getBytes(StandardCharsets.US_ASCII))
+                .put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16).putShort((short) 1).putShort((short) 2)
+                .putInt(RATE).putInt(RATE * 4).putShort((short) 4).putShort((short) 16)
+                .put("data".getBytes(StandardCharsets.US_ASCII)).putInt((int) data);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.write(header.array());
+            out.setLength(44 + data);
+        }
+    }
+}
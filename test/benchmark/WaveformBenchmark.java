@@ -0,0 +1,71 @@
+package test.benchmark;
+
+import src.main.java.musicplayer.WaveformCache;
+import src.main.java.musicplayer.WaveformPyramid;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+// Waveform summaries for the progress bar on a generated 2-hour WAV (8 kHz mono, to keep the
+// file small): computing the pyramid, loading it from the waveforms cache, and taking the
+// columns for one repaint at a few widths.
+//
+//   java -cp <classes> test.benchmark.WaveformBenchmark
+public class WaveformBenchmark {
+    private static final int SECONDS = 2 * 60 * 60;
+    private static final int RATE = 8000;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("musicplayer-bench").toFile();
+        File wav = new File(dir, "long.wav");
+        File cacheDir = new File(dir, "waveforms");
+        try {
+            writeWav(wav);
+            Bench.measure("compute, 2 h track", 1, 3, () -> Bench.time(() -> {
+                try {
+                    Bench.sink = WaveformPyramid.compute(wav);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+            WaveformCache cache = new WaveformCache(cacheDir);
+            WaveformPyramid pyramid = cache.get(wav.getPath());
+            System.out.println("  " + pyramid.getLevelCount() + " levels, " + pyramid.getBucketCount(0)
+                    + " buckets at level 0, " + cacheDir.listFiles()[0].length() / 1024 + " KB on disk");
+            Bench.measure("load from cache", () -> Bench.time(() -> Bench.sink = cache.get(wav.getPath())));
+            for (int width : new int[] {400, 1000, 4000}) {
+                float[] min = new float[width];
+                float[] max = new float[width];
+                Bench.measure("columns for " + width + " px (level " + pyramid.levelFor(width) + ")",
+                        () -> Bench.time(() -> pyramid.columns(width, min, max)));
+            }
+            cache.shutdown();
+        } finally {
+            for (File file : cacheDir.listFiles() != null ? cacheDir.listFiles() : new File[0]) {
+                file.delete();
+            }
+            cacheDir.delete();
+            wav.delete();
+            dir.delete();
+        }
+    }
+
+    // A tone whose level rises and falls every few seconds, 8-bit mono
+    private static void writeWav(File file) throws Exception {
+        AudioFormat format = new AudioFormat(RATE, 8, 1, true, false);
+        int frames = RATE * SECONDS;
+        byte[] pcm = new byte[frames];
+        for (int i = 0; i < frames; i++) {
+            double level = 0.5 + 0.4 * Math.sin(2 * Math.PI * i / (RATE * 7.0));
+            pcm[i] = (byte) (Math.sin(2 * Math.PI * 440 * i / RATE) * level * 127);
+        }
+        try (AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), format, frames)) {
+            AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file);
+        }
+    }
+}
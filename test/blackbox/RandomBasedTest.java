@@ -69,6 +69,12 @@ public class RandomBasedTest {
         }
         testWavFile.delete();
         new File("settings.properties").delete();
+        new File("songs.csv.journal").delete();
+        new File("songs.lib").delete();
+        new File("metadata.cache").delete();
+        new File("queue.dat").delete();
+        deleteDirectory(new File("playlists"));
+        deleteDirectory(new File("waveforms"));
         
         // Restore original CSV content
         try {
@@ -81,6 +87,16 @@ public class RandomBasedTest {
         }
     }
 
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
     @Test
     @DisplayName("Test random playback operations")
     void testRandomPlayback() {
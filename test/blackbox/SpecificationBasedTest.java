@@ -50,6 +50,12 @@ public class SpecificationBasedTest {
         player.stop();
         testWavFile.delete();
         new File("settings.properties").delete();
+        new File("songs.csv.journal").delete();
+        new File("songs.lib").delete();
+        new File("metadata.cache").delete();
+        new File("queue.dat").delete();
+        deleteDirectory(new File("playlists"));
+        deleteDirectory(new File("waveforms"));
         
         try {
             if (originalCsvContent != null) {
@@ -61,6 +67,16 @@ public class SpecificationBasedTest {
         }
     }
 
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
     @Test
     @DisplayName("Test basic playback controls")
     void testBasicPlayback() {
@@ -237,6 +253,27 @@ public class SpecificationBasedTest {
         }
     }
 
+    @Test
+    @DisplayName("Test changes survive restart without a full save")
+    void testJournaledChanges() {
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                player.addSong("Journal Test", testWavFile.getAbsolutePath());
+                player.renameSong("Journal Test", "Journal Renamed");
+
+                // A new instance replays the journal on top of songs.csv
+                MusicPlayer newPlayer = new MusicPlayer();
+                List<Song> songs = newPlayer.getPlaylist();
+                assertTrue(songs.stream().anyMatch(s -> s.getName().equals("Journal Renamed")));
+                assertFalse(songs.stream().anyMatch(s -> s.getName().equals("Journal Test")));
+
+                newPlayer.getFrame().dispose();
+            });
+        } catch (Exception e) {
+            fail("GUI operation failed: " + e.getMessage());
+        }
+    }
+
     @Test
     @DisplayName("Test save and load settings")
     void testSettings() {
@@ -0,0 +1,188 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import src.main.java.musicplayer.AudioRingBuffer;
+
+// The ring between the decoder and the audio thread: bytes come out in order across the wrap,
+// a clear() turns away writes begun before it, and only the current generation can end the
+// stream
+public class AudioRingBufferTest {
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 3 + seed);
+        }
+        return bytes;
+    }
+
+    private static Thread start(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitBlocked(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (thread.getState() != Thread.State.WAITING && thread.isAlive()) {
+            assertTrue(System.nanoTime() < deadline, "thread never blocked");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Test bytes come out in order across the end of the ring, with the writer blocking when full")
+    void testWrapAround() throws Exception {
+        AudioRingBuffer ring = new AudioRingBuffer(1000);
+        assertEquals(1000, ring.capacity());
+        byte[] data = bytes(10_000, 1);
+        long generation = ring.generation();
+        AtomicReference<Boolean> written = new AtomicReference<>();
+        Thread writer = start(() -> {
+            try {
+                written.set(ring.write(data, 0, data.length, generation));
+                ring.finish(generation);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        byte[] read = new byte[data.length];
+        int total = 0;
+        byte[] chunk = new byte[333];
+        int n;
+        while ((n = ring.read(chunk, 0, chunk.length)) >= 0) {
+            assertTrue(n > 0 && n <= chunk.length);
+            System.arraycopy(chunk, 0, read, total, n);
+            total += n;
+        }
+        writer.join(5000);
+        assertEquals(Boolean.TRUE, written.get());
+        assertEquals(data.length, total);
+        assertArrayEquals(data, read);
+        // Ended and empty: stays that way
+        assertEquals(-1, ring.read(chunk, 0, chunk.length));
+    }
+
+    @Test
+    @DisplayName("Test clear() empties the ring and turns away a write from before it")
+    void testClear() throws Exception {
+        AudioRingBuffer ring = new AudioRingBuffer(100);
+        long old = ring.generation();
+        assertTrue(ring.write(bytes(100, 2), 0, 100, old));
+        // Full: this write blocks until the clear
+        AtomicReference<Boolean> stale = new AtomicReference<>();
+        Thread writer = start(() -> {
+            try {
+                stale.set(ring.write(bytes(50, 3), 0, 50, old));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        awaitBlocked(writer);
+        long generation = ring.clear();
+        assertEquals(generation, ring.generation());
+        assertNotEquals(old, generation);
+        writer.join(5000);
+        assertEquals(Boolean.FALSE, stale.get());
+
+        // Nothing from before the clear is left, and writes of the old generation do nothing
+        assertFalse(ring.write(bytes(10, 4), 0, 10, old));
+        byte[] fresh = bytes(30, 5);
+        assertTrue(ring.write(fresh, 0, 30, generation));
+        byte[] read = new byte[100];
+        assertEquals(30, ring.read(read, 0, read.length));
+        assertArrayEquals(fresh, Arrays.copyOf(read, 30));
+    }
+
+    @Test
+    @DisplayName("Test only the current generation can end the stream, and clear() undoes the end")
+    void testFinish() throws Exception {
+        AudioRingBuffer ring = new AudioRingBuffer(100);
+        long old = ring.generation();
+        long generation = ring.clear();
+        // The decoder of the previous generation reaching its end must not end this one
+        ring.finish(old);
+        assertTrue(ring.write(bytes(20, 6), 0, 20, generation));
+        ring.finish(generation);
+        byte[] read = new byte[100];
+        // What was written before the end is still read
+        assertEquals(20, ring.read(read, 0, read.length));
+        assertEquals(-1, ring.read(read, 0, read.length));
+
+        // After a clear the ring is not at its end anymore: a reader waits for new data
+        long next = ring.clear();
+        AtomicInteger got = new AtomicInteger(Integer.MIN_VALUE);
+        Thread reader = start(() -> {
+            try {
+                got.set(ring.read(new byte[100], 0, 100));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        awaitBlocked(reader);
+        assertTrue(ring.write(bytes(7, 7), 0, 7, next));
+        reader.join(5000);
+        assertEquals(7, got.get());
+    }
+
+    @Test
+    @DisplayName("Test awaitClear() waits for the next generation")
+    void testAwaitClear() throws Exception {
+        AudioRingBuffer ring = new AudioRingBuffer(100);
+        long generation = ring.generation();
+        Thread waiter = start(() -> {
+            try {
+                ring.awaitClear(generation);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        awaitBlocked(waiter);
+        ring.clear();
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        // Already past it: returns at once
+        ring.awaitClear(generation);
+    }
+
+    @Test
+    @DisplayName("Test close() releases a blocked reader and a blocked writer")
+    void testClose() throws Exception {
+        AudioRingBuffer ring = new AudioRingBuffer(10);
+        AtomicInteger read = new AtomicInteger(Integer.MIN_VALUE);
+        Thread reader = start(() -> {
+            try {
+                read.set(ring.read(new byte[10], 0, 10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        awaitBlocked(reader);
+        ring.close();
+        reader.join(5000);
+        assertEquals(-1, read.get());
+
+        AudioRingBuffer full = new AudioRingBuffer(10);
+        long fullGeneration = full.generation();
+        assertTrue(full.write(bytes(10, 8), 0, 10, fullGeneration));
+        AtomicReference<Boolean> written = new AtomicReference<>();
+        Thread writer = start(() -> {
+            try {
+                written.set(full.write(bytes(5, 9), 0, 5, fullGeneration));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        awaitBlocked(writer);
+        full.close();
+        writer.join(5000);
+        assertEquals(Boolean.FALSE, written.get());
+        // Closed with data still in it: nothing more is read
+        assertEquals(-1, full.read(new byte[10], 0, 10));
+    }
+}
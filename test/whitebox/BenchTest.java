@@ -0,0 +1,71 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import test.benchmark.Bench;
+import test.benchmark.LibraryBenchmark;
+
+// The benchmark runner, and the library benchmark kept runnable at a small size
+public class BenchTest {
+    private PrintStream originalOut;
+    private ByteArrayOutputStream out;
+
+    @BeforeEach
+    void setUp() {
+        originalOut = System.out;
+        out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+        System.clearProperty("bench.sizes");
+    }
+
+    private String output() {
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Test measure runs the warmup and measured runs and reports min, median and p90")
+    void testMeasure() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        Bench.measure("trial", 3, 5, () -> (calls.incrementAndGet() - 3) * 1000L);
+
+        assertEquals(8, calls.get());
+        String line = output().trim();
+        assertTrue(line.startsWith("trial"), line);
+        // Measured runs took 1..5 us
+        assertTrue(line.matches(".*min +1\\.0 us +median +3\\.0 us +p90 +5\\.0 us"), line);
+    }
+
+    @Test
+    @DisplayName("Test time measures the work it is given")
+    void testTime() {
+        long nanos = Bench.time(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(nanos >= 20_000_000L, Long.toString(nanos));
+    }
+
+    @Test
+    @DisplayName("Test the library benchmark runs headless and cleans up after itself")
+    void testLibraryBenchmark() throws Exception {
+        System.setProperty("bench.sizes", "500");
+        LibraryBenchmark.main(new String[0]);
+
+        String output = output();
+        assertTrue(output.contains("== 500 songs"), output);
+        assertTrue(output.contains("loadSongsFromCSV (parse csv)"), output);
+        assertTrue(output.contains("searchSongs"), output);
+        assertTrue(output.contains("renameSong"), output);
+    }
+}
@@ -56,6 +56,12 @@ public class BranchBasedTest {
         player.stop();
         testWavFile.delete();
         new File("settings.properties").delete();
+        new File("songs.csv.journal").delete();
+        new File("songs.lib").delete();
+        new File("metadata.cache").delete();
+        new File("queue.dat").delete();
+        deleteDirectory(new File("playlists"));
+        deleteDirectory(new File("waveforms"));
         
         // Restore original CSV content
         try {
@@ -68,6 +74,16 @@ public class BranchBasedTest {
         }
     }
 
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
     @Test
     @DisplayName("Test playback control branches")
     void testPlaybackControlBranches() {
@@ -0,0 +1,200 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import src.main.java.musicplayer.Broadcast;
+import src.main.java.musicplayer.Metrics;
+import src.main.java.musicplayer.Song;
+import test.benchmark.DecodeBenchmark;
+
+// The shared ring of a station: a lossless listener hears every byte of every song in order,
+// slices never exceed a chunk, and a listener that falls a ring behind is dropped without
+// being handed audio that was being overwritten
+public class BroadcastTest {
+    private static final int RATE = 44100;
+    private static final int RING_BYTES = 1 << 20;
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private Broadcast station;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (station != null) {
+            station.close();
+            station.join();
+        }
+    }
+
+    // 16-bit stereo at the station's own format, each frame different from its neighbours
+    private static byte[] pcm(int frames, int seed) {
+        byte[] pcm = new byte[frames * 4];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (byte) (i * 7 + seed + i / 4093);
+        }
+        return pcm;
+    }
+
+    private Song writeWav(String name, byte[] pcm) throws Exception {
+        File file = dir.resolve(name).toFile();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), Broadcast.FORMAT, pcm.length / 4),
+                AudioFileFormat.Type.WAVE, file);
+        return new Song(name, file.getPath());
+    }
+
+    private static Broadcast playing(List<Song> songs, boolean live) {
+        Iterator<Song> next = new ArrayList<>(songs).iterator();
+        return new Broadcast("test", () -> next.hasNext() ? next.next() : null, live);
+    }
+
+    @Test
+    @DisplayName("Test a lossless listener hears every song in full, in slices of at most a chunk")
+    void testLosslessListener() throws Exception {
+        byte[] first = pcm(3 * RATE, 1);
+        File flacFile = dir.resolve("second.flac").toFile();
+        short[][] samples = DecodeBenchmark.generate(5 * RATE);
+        DecodeBenchmark.writeFlac(flacFile, samples);
+        byte[] second = new byte[samples[0].length * 4];
+        for (int i = 0; i < samples[0].length; i++) {
+            for (int ch = 0; ch < 2; ch++) {
+                second[i * 4 + ch * 2] = (byte) samples[ch][i];
+                second[i * 4 + ch * 2 + 1] = (byte) (samples[ch][i] >> 8);
+            }
+        }
+        byte[] third = pcm(4 * RATE, 3);
+
+        station = playing(List.of(writeWav("first.wav", first), new Song("second", flacFile.getPath()),
+                writeWav("third.wav", third)), false);
+        // Subscribed before the start, so it hears everything from the first byte
+        Broadcast.Subscription recorder = station.subscribe(true);
+        station.start();
+
+        ByteArrayOutputStream heard = new ByteArrayOutputStream();
+        int[] largest = {0};
+        while (recorder.transferTo((bytes, offset, length) -> {
+            heard.write(bytes, offset, length);
+            largest[0] = Math.max(largest[0], length);
+        }) >= 0) {
+            assertFalse(recorder.isDropped());
+        }
+        station.join();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(first);
+        expected.write(second);
+        expected.write(third);
+        // Far more than a ring went through, so the station really did wait for the recorder
+        assertTrue(expected.size() > 2 * RING_BYTES);
+        assertEquals(expected.size(), heard.size());
+        assertArrayEquals(expected.toByteArray(), heard.toByteArray());
+        assertEquals(expected.size(), station.getBytesWritten());
+        assertTrue(largest[0] <= CHUNK_BYTES, "slice of " + largest[0]);
+        assertTrue(station.isEnded());
+        assertFalse(recorder.isDropped());
+        assertEquals(0, station.getListenerCount());
+    }
+
+    @Test
+    @DisplayName("Test a listener a whole ring behind is dropped before it is handed anything")
+    void testLappedListener() throws Exception {
+        Song song = writeWav("long.wav", pcm(15 * RATE, 5));
+        station = playing(List.of(song), false);
+        Broadcast.Subscription idle = station.subscribe(false);
+        Metrics.Counter dropped = Metrics.counter("broadcast.listenersDropped");
+        long droppedBefore = dropped.getCount();
+        station.start();
+        station.join();
+        assertTrue(station.getBytesWritten() > RING_BYTES + CHUNK_BYTES);
+
+        int[] writes = {0};
+        assertEquals(-1, idle.transferTo((bytes, offset, length) -> writes[0]++));
+        assertEquals(0, writes[0]);
+        assertTrue(idle.isDropped());
+        assertEquals(droppedBefore + 1, dropped.getCount());
+        assertEquals(0, station.getListenerCount());
+    }
+
+    @Test
+    @DisplayName("Test a listener lapped while its sink was busy is dropped after that slice only")
+    void testLappedDuringWrite() throws Exception {
+        Song song = writeWav("long.wav", pcm(20 * RATE, 9));
+        station = playing(List.of(song), false);
+        Broadcast.Subscription slow = station.subscribe(false);
+        // An unread recorder holds the station a ring ahead of the start until it leaves
+        Broadcast.Subscription gate = station.subscribe(true);
+        station.start();
+
+        List<Integer> lengths = new ArrayList<>();
+        int handed = slow.transferTo((bytes, offset, length) -> {
+            lengths.add(length);
+            // The sink stalls while the station goes a whole ring past this slice
+            gate.close();
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (station.getBytesWritten() < RING_BYTES + 2L * CHUNK_BYTES && !station.isEnded()
+                    && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+        });
+        assertEquals(-1, handed);
+        assertTrue(slow.isDropped());
+        // The first slice was found overwritten once the sink returned; nothing more was sent
+        assertEquals(1, lengths.size());
+        assertTrue(lengths.get(0) <= CHUNK_BYTES);
+    }
+
+    @Test
+    @DisplayName("Test a live station runs at most about a second ahead of the clock")
+    void testLivePacing() throws Exception {
+        Song song = writeWav("long.wav", pcm(30 * RATE, 11));
+        station = playing(List.of(song), true);
+        long start = System.nanoTime();
+        station.start();
+        Thread.sleep(500);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        long bytesPerSecond = RATE * 4L;
+        assertTrue(station.getBytesWritten() <= bytesPerSecond * (1000 + elapsedMillis) / 1000 + CHUNK_BYTES,
+                station.getBytesWritten() + " bytes after " + elapsedMillis + " ms");
+        assertEquals(song, station.getSong());
+
+        // A new listener starts a little back from the newest audio, so it gets some at once
+        Broadcast.Subscription listener = station.subscribe(false);
+        assertTrue(listener.getLag() > 0);
+        int[] got = {0};
+        assertTrue(listener.transferTo((bytes, offset, length) -> got[0] += length) > 0);
+        assertEquals(1, station.getListenerCount());
+        listener.close();
+        assertEquals(0, station.getListenerCount());
+        assertEquals(-1, listener.transferTo((bytes, offset, length) -> fail("closed")));
+    }
+
+    @Test
+    @DisplayName("Test songs that cannot be opened are skipped")
+    void testUnreadableSong() throws Exception {
+        byte[] good = pcm(RATE, 13);
+        File broken = dir.resolve("broken.wav").toFile();
+        Files.write(broken.toPath(), "RIFF....WAVEnothing".getBytes());
+        station = playing(List.of(new Song("missing", dir.resolve("missing.wav").toString()),
+                new Song("broken", broken.getPath()), writeWav("good.wav", good)), false);
+        Broadcast.Subscription recorder = station.subscribe(true);
+        station.start();
+        ByteArrayOutputStream heard = new ByteArrayOutputStream();
+        while (recorder.transferTo(heard::write) >= 0) {
+            // Until the end
+        }
+        assertArrayEquals(good, heard.toByteArray());
+    }
+}
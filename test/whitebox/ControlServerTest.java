@@ -0,0 +1,270 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import src.main.java.musicplayer.ControlServer;
+import src.main.java.musicplayer.HeadlessPlayer;
+import src.main.java.musicplayer.Library;
+import src.main.java.musicplayer.Song;
+import test.benchmark.DecodeBenchmark;
+
+// The HTTP API of a HeadlessPlayer, end to end over the loopback interface. Nothing is played
+// (there may be no audio device), so the transport controls are checked where they refuse.
+public class ControlServerTest {
+    private static final int RATE = 44100;
+
+    @TempDir
+    Path dir;
+
+    private HeadlessPlayer headless;
+    private ControlServer server;
+    private HttpClient http;
+    private String base;
+    private File wav;
+    private File flac;
+    private byte[] wavBytes;
+    private byte[] flacPcm;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        wav = dir.resolve("tone.wav").toFile();
+        byte[] pcm = new byte[RATE * 4];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (byte) (i * 31);
+        }
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), new AudioFormat(RATE, 16, 2, true, false), RATE),
+                AudioFileFormat.Type.WAVE, wav);
+        wavBytes = Files.readAllBytes(wav.toPath());
+
+        flac = dir.resolve("noise.flac").toFile();
+        short[][] samples = DecodeBenchmark.generate(RATE / 2);
+        DecodeBenchmark.writeFlac(flac, samples);
+        flacPcm = new byte[samples[0].length * 4];
+        for (int i = 0; i < samples[0].length; i++) {
+            for (int ch = 0; ch < 2; ch++) {
+                flacPcm[i * 4 + ch * 2] = (byte) samples[ch][i];
+                flacPcm[i * 4 + ch * 2 + 1] = (byte) (samples[ch][i] >> 8);
+            }
+        }
+
+        headless = new HeadlessPlayer(dir.resolve("songs.csv").toString());
+        List<Song> songs = new ArrayList<>();
+        songs.add(new Song("Tone", wav.getPath()));
+        songs.add(new Song("Noise", flac.getPath()));
+        songs.add(new Song("Say \"Hi\"", wav.getPath()));
+        for (int i = 0; i < 7; i++) {
+            songs.add(new Song("Filler " + i, wav.getPath()));
+        }
+        headless.getLibrary().addAll(songs);
+        server = new ControlServer(headless);
+        server.start(0);
+        base = "http://localhost:" + server.getPort();
+        http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+        headless.close();
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return http.send(HttpRequest.newBuilder(URI.create(base + path)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(String path) throws Exception {
+        return http.send(HttpRequest.newBuilder(URI.create(base + path)).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<byte[]> getBytes(String path) throws Exception {
+        return http.send(HttpRequest.newBuilder(URI.create(base + path)).build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private int idAt(int position) {
+        return headless.getLibrary().getSongs().idAt(position);
+    }
+
+    @Test
+    @DisplayName("Test the status of a stopped player")
+    void testStatus() throws Exception {
+        HttpResponse<String> response = get("/status");
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("application/json"));
+        String body = response.body();
+        assertTrue(body.startsWith("{\"state\":\"stopped\",\"song\":null,"), body);
+        assertTrue(body.contains("\"volume\":100"), body);
+        assertTrue(body.contains("\"repeat\":\"off\""), body);
+        assertTrue(body.endsWith("\"librarySize\":10}"), body);
+    }
+
+    @Test
+    @DisplayName("Test library pages and search results, with names escaped for JSON")
+    void testSongsAndSearch() throws Exception {
+        String page = get("/songs?from=1&count=2").body();
+        assertTrue(page.startsWith("{\"total\":10,\"songs\":[{\"position\":1,\"id\":" + idAt(1) + ",\"name\":\"Noise\""), page);
+        assertTrue(page.contains("{\"position\":2,\"id\":" + idAt(2) + ",\"name\":\"Say \\\"Hi\\\"\""), page);
+        assertFalse(page.contains("\"position\":3"), page);
+
+        assertEquals("{\"total\":10,\"songs\":[]}", get("/songs?from=50").body());
+        assertEquals(10, count(get("/songs?count=100000").body(), "\"position\":"));
+
+        String found = get("/search?q=filler&limit=3").body();
+        assertTrue(found.startsWith("{\"total\":7,"), found);
+        assertEquals(3, count(found, "\"position\":"));
+        assertTrue(get("/search?q=nothing%20like%20it").body().startsWith("{\"total\":0,"));
+    }
+
+    private static int count(String text, String part) {
+        int n = 0;
+        for (int at = text.indexOf(part); at >= 0; at = text.indexOf(part, at + 1)) {
+            n++;
+        }
+        return n;
+    }
+
+    @Test
+    @DisplayName("Test bad requests get the right status and a JSON error")
+    void testErrors() throws Exception {
+        HttpResponse<String> unknown = get("/nowhere");
+        assertEquals(404, unknown.statusCode());
+        assertEquals("{\"error\":\"No such endpoint: /nowhere\"}", unknown.body());
+
+        assertEquals(405, get("/next").statusCode());
+        assertEquals(405, post("/status").statusCode());
+        assertEquals(400, get("/songs?from=first").statusCode());
+        assertEquals(400, post("/volume?level=loud").statusCode());
+        assertEquals(409, post("/seek?seconds=3").statusCode());
+        assertEquals(404, post("/play?position=99").statusCode());
+        assertEquals(404, post("/play?id=-5").statusCode());
+        assertEquals(404, post("/station/start?position=10").statusCode());
+        assertEquals(404, get("/stream?id=12345").statusCode());
+        assertEquals(404, getBytes("/station").statusCode());
+
+        // Nothing has been queued, so there is no next or previous song
+        HttpResponse<String> next = post("/next");
+        assertEquals(404, next.statusCode());
+        assertEquals("{\"error\":\"End of the queue\"}", next.body());
+        assertEquals(404, post("/prev").statusCode());
+    }
+
+    @Test
+    @DisplayName("Test requests addressed to another host name are refused")
+    void testHostCheck() throws Exception {
+        assertTrue(rawRequest("localhost").startsWith("HTTP/1.1 200"));
+        assertTrue(rawRequest("127.0.0.1:" + server.getPort()).startsWith("HTTP/1.1 200"));
+        assertTrue(rawRequest("evil.example").startsWith("HTTP/1.1 403"));
+        assertTrue(rawRequest("evil.example:" + server.getPort()).startsWith("HTTP/1.1 403"));
+    }
+
+    // GET /status with the given Host header; the HTTP client will not send a made-up one
+    private String rawRequest(String host) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /status HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    @DisplayName("Test volume changes show in the status")
+    void testVolume() throws Exception {
+        HttpResponse<String> response = post("/volume?level=40");
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("\"volume\":40"), response.body());
+        assertTrue(get("/status").body().contains("\"volume\":40"));
+    }
+
+    @Test
+    @DisplayName("Test a PCM WAV song streams as the file and a FLAC song as its decoded PCM")
+    void testStream() throws Exception {
+        HttpResponse<byte[]> pcm = getBytes("/stream?id=" + idAt(0));
+        assertEquals(200, pcm.statusCode());
+        assertEquals("audio/wav", pcm.headers().firstValue("Content-Type").orElse(""));
+        assertArrayEquals(wavBytes, pcm.body());
+
+        HttpResponse<byte[]> decoded = getBytes("/stream?id=" + idAt(1));
+        assertEquals(200, decoded.statusCode());
+        byte[] body = decoded.body();
+        assertEquals(44 + flacPcm.length, body.length);
+        assertEquals("RIFF", new String(body, 0, 4, StandardCharsets.US_ASCII));
+        assertEquals(flacPcm.length, littleEndianInt(body, 40));
+        assertArrayEquals(flacPcm, Arrays.copyOfRange(body, 44, body.length));
+    }
+
+    private static int littleEndianInt(byte[] bytes, int at) {
+        return bytes[at] & 0xFF | (bytes[at + 1] & 0xFF) << 8 | (bytes[at + 2] & 0xFF) << 16 | (bytes[at + 3] & 0xFF) << 24;
+    }
+
+    @Test
+    @DisplayName("Test a station can be started, listened to and stopped")
+    void testStation() throws Exception {
+        assertEquals("{\"running\":false,\"song\":null,\"listeners\":0}", get("/station/status").body());
+
+        HttpResponse<String> started = post("/station/start?position=1");
+        assertEquals(200, started.statusCode());
+        assertTrue(started.body().startsWith("{\"running\":true,"), started.body());
+
+        HttpResponse<InputStream> listening = http.send(HttpRequest.newBuilder(URI.create(base + "/station")).build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        assertEquals(200, listening.statusCode());
+        try (InputStream in = listening.body()) {
+            byte[] header = in.readNBytes(44);
+            assertEquals("WAVE", new String(header, 8, 4, StandardCharsets.US_ASCII));
+            // An endless stream: the longest length RIFF has
+            assertEquals(-1 - 36, littleEndianInt(header, 40));
+            // The station starts with the FLAC song, so the first audio is its first samples
+            byte[] audio = in.readNBytes(4096);
+            assertArrayEquals(Arrays.copyOf(flacPcm, 4096), audio);
+            assertTrue(get("/station/status").body().endsWith("\"listeners\":1}"));
+        }
+
+        assertEquals("{\"running\":false,\"song\":null,\"listeners\":0}", post("/station/stop").body());
+        assertEquals(404, getBytes("/station").statusCode());
+    }
+
+    @Test
+    @DisplayName("Test the metrics endpoint counts the requests served")
+    void testMetrics() throws Exception {
+        get("/status");
+        HttpResponse<String> metrics = get("/metrics");
+        assertEquals(200, metrics.statusCode());
+        assertTrue(metrics.body().contains("http.requestNanos.count "), metrics.body());
+        assertEquals(405, post("/metrics").statusCode());
+    }
+
+    @Test
+    @DisplayName("Test a song removed from the library can no longer be streamed")
+    void testRemovedSong() throws Exception {
+        Library library = headless.getLibrary();
+        int id = idAt(0);
+        synchronized (headless) {
+            library.removeAll(new int[] {id});
+        }
+        assertEquals(404, get("/stream?id=" + id).statusCode());
+        assertTrue(get("/status").body().endsWith("\"librarySize\":9}"));
+    }
+}
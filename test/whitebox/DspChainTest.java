@@ -0,0 +1,130 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.Arrays;
+import src.main.java.musicplayer.FadeStage;
+import src.main.java.musicplayer.GainStage;
+import src.main.java.musicplayer.LimiterStage;
+import src.main.java.musicplayer.MixingPlaybackEngine;
+
+// The mixer's DSP stages, run on plain sample blocks as the audio thread runs them
+public class DspChainTest {
+    private static final int CHANNELS = 2;
+
+    private static float[] block(int frames, float value) {
+        float[] samples = new float[frames * CHANNELS];
+        Arrays.fill(samples, value);
+        return samples;
+    }
+
+    @Test
+    @DisplayName("Test a fade ramps linearly to its target and reports silence only once there")
+    void testFadeOut() {
+        FadeStage fade = new FadeStage(1f);
+        fade.fadeTo(0f, 100);
+        assertFalse(fade.isSilent());
+
+        float[] samples = block(64, 1f);
+        fade.process(samples, 64, CHANNELS);
+        for (int frame = 0; frame < 64; frame++) {
+            assertEquals(1f - (frame + 1) / 100f, samples[frame * CHANNELS], 1e-4);
+            assertEquals(samples[frame * CHANNELS], samples[frame * CHANNELS + 1]);
+        }
+        assertFalse(fade.isSilent());
+
+        samples = block(64, 1f);
+        fade.process(samples, 64, CHANNELS);
+        assertEquals(0f, samples[35 * CHANNELS]);
+        assertEquals(0f, samples[63 * CHANNELS]);
+        assertTrue(fade.isSilent());
+    }
+
+    @Test
+    @DisplayName("Test a fade-in starts from silence and a zero-length fade jumps")
+    void testFadeInAndJump() {
+        FadeStage fade = new FadeStage(1f);
+        fade.fadeIn(4);
+        float[] samples = block(6, 1f);
+        fade.process(samples, 6, CHANNELS);
+        assertArrayEquals(new float[] {0.25f, 0.25f, 0.5f, 0.5f, 0.75f, 0.75f, 1f, 1f, 1f, 1f, 1f, 1f}, samples, 1e-6f);
+
+        fade.fadeTo(0f, 0);
+        samples = block(2, 1f);
+        fade.process(samples, 2, CHANNELS);
+        assertArrayEquals(new float[4], samples);
+        assertTrue(fade.isSilent());
+    }
+
+    @Test
+    @DisplayName("Test a fade requested mid-fade continues from the level reached")
+    void testFadeReversed() {
+        FadeStage fade = new FadeStage(1f);
+        fade.fadeTo(0f, 10);
+        float[] samples = block(5, 1f);
+        fade.process(samples, 5, CHANNELS);
+        assertEquals(0.5f, samples[4 * CHANNELS], 1e-6);
+
+        fade.fadeTo(1f, 5);
+        samples = block(5, 1f);
+        fade.process(samples, 5, CHANNELS);
+        assertEquals(0.6f, samples[0], 1e-6);
+        assertEquals(1f, samples[4 * CHANNELS], 1e-6);
+    }
+
+    @Test
+    @DisplayName("Test volume is a decibel scale and a change is ramped over one block")
+    void testGain() {
+        assertEquals(0f, GainStage.volumeToGain(0f));
+        assertEquals(1f, GainStage.volumeToGain(1f));
+        assertEquals(1f, GainStage.volumeToGain(2f));
+        // Half way on the control is half of the 60 dB range
+        assertEquals(Math.pow(10, -30 / 20.0), GainStage.volumeToGain(0.5f), 1e-6);
+        float previous = 0f;
+        for (int volume = 1; volume <= 100; volume++) {
+            float gain = GainStage.volumeToGain(volume / 100f);
+            assertTrue(gain > previous);
+            previous = gain;
+        }
+
+        GainStage stage = new GainStage(1f);
+        stage.setGain(0f);
+        float[] samples = block(4, 1f);
+        stage.process(samples, 4, CHANNELS);
+        assertArrayEquals(new float[] {0.75f, 0.75f, 0.5f, 0.5f, 0.25f, 0.25f, 0f, 0f}, samples, 1e-6f);
+        samples = block(4, 1f);
+        stage.process(samples, 4, CHANNELS);
+        assertArrayEquals(new float[8], samples);
+    }
+
+    @Test
+    @DisplayName("Test the limiter keeps peaks below its threshold and leaves quiet audio alone")
+    void testLimiter() {
+        LimiterStage limiter = new LimiterStage(0.5f, 44100, 100);
+        float[] quiet = block(256, 0.25f);
+        limiter.process(quiet, 256, CHANNELS);
+        for (float sample : quiet) {
+            assertEquals(0.25f, sample);
+        }
+
+        float[] loud = new float[4096 * CHANNELS];
+        for (int i = 0; i < loud.length; i++) {
+            loud[i] = (float) (1.8 * Math.sin(i * 0.01));
+        }
+        limiter.process(loud, 4096, CHANNELS);
+        for (float sample : loud) {
+            assertTrue(Math.abs(sample) <= 0.5f + 1e-6f, Float.toString(sample));
+        }
+    }
+
+    @Test
+    @DisplayName("Test conversion to 16-bit PCM clamps and rounds")
+    void testPcm16() {
+        byte[] pcm = new byte[8];
+        MixingPlaybackEngine.toPcm16(new float[] {0f, 1.5f, -2f, 0.5f}, 4, pcm);
+        assertEquals(0, (short) ((pcm[1] << 8) | (pcm[0] & 0xFF)));
+        assertEquals(32767, (short) ((pcm[3] << 8) | (pcm[2] & 0xFF)));
+        assertEquals(-32767, (short) ((pcm[5] << 8) | (pcm[4] & 0xFF)));
+        assertEquals(16384, (short) ((pcm[7] << 8) | (pcm[6] & 0xFF)));
+    }
+}
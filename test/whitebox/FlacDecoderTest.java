@@ -0,0 +1,180 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import src.main.java.musicplayer.AudioDecoders;
+import test.benchmark.DecodeBenchmark;
+
+// FLAC decoding against the encoder in DecodeBenchmark: FLAC is lossless, so whole files and
+// streams opened at any frame must come out bit for bit as the samples that went in, and a
+// damaged frame must cost only its own samples
+public class FlacDecoderTest {
+    private static final int RATE = 44100;
+    private static final int BLOCK_SIZE = 4096;
+    // Not a whole number of blocks, so the last frame is a short one
+    private static final int FRAMES = 40 * BLOCK_SIZE + 10;
+
+    @TempDir
+    Path dir;
+
+    private static short[][] samples;
+    private static byte[] pcm;
+
+    @BeforeAll
+    static void generate() {
+        samples = DecodeBenchmark.generate(FRAMES);
+        pcm = new byte[FRAMES * 4];
+        for (int i = 0; i < FRAMES; i++) {
+            for (int ch = 0; ch < 2; ch++) {
+                pcm[i * 4 + ch * 2] = (byte) samples[ch][i];
+                pcm[i * 4 + ch * 2 + 1] = (byte) (samples[ch][i] >> 8);
+            }
+        }
+    }
+
+    private File writeFlac(String name) throws IOException {
+        File file = dir.resolve(name).toFile();
+        DecodeBenchmark.writeFlac(file, samples);
+        return file;
+    }
+
+    private static byte[] readAll(AudioInputStream stream) throws IOException {
+        try (AudioInputStream in = stream) {
+            return in.readAllBytes();
+        }
+    }
+
+    // Offset of the header of frame `number` (under 128), which the encoder writes as
+    // FF F8 70 18 <number>
+    private static int frameOffset(byte[] file, int number) {
+        for (int i = 0; i + 4 < file.length; i++) {
+            if ((file[i] & 0xFF) == 0xFF && (file[i + 1] & 0xFF) == 0xF8 && file[i + 2] == 0x70
+                    && file[i + 3] == 0x18 && file[i + 4] == number) {
+                return i;
+            }
+        }
+        throw new AssertionError("no frame " + number);
+    }
+
+    private static void assertSilent(byte[] decoded, int fromFrame, int toFrame) {
+        for (int i = fromFrame * 4; i < toFrame * 4; i++) {
+            assertEquals(0, decoded[i], "byte " + i);
+        }
+    }
+
+    private static void assertIntact(byte[] decoded, int fromFrame, int toFrame) {
+        assertArrayEquals(Arrays.copyOfRange(pcm, fromFrame * 4, toFrame * 4),
+                Arrays.copyOfRange(decoded, fromFrame * 4, toFrame * 4), "frames " + fromFrame + ".." + toFrame);
+    }
+
+    @Test
+    @DisplayName("Test a FLAC file is recognised by its header and decodes bit-exact")
+    void testRoundTrip() throws Exception {
+        // No .flac extension: the decoder is chosen by the file's first bytes
+        File file = writeFlac("track.dat");
+        assertEquals("FLAC", AudioDecoders.forFile(file).getName());
+        assertEquals(FRAMES, AudioDecoders.getFormat(file).getFrameLength());
+
+        AudioInputStream stream = AudioDecoders.open(file);
+        AudioFormat format = stream.getFormat();
+        assertEquals(AudioFormat.Encoding.PCM_SIGNED, format.getEncoding());
+        assertEquals(16, format.getSampleSizeInBits());
+        assertEquals(2, format.getChannels());
+        assertFalse(format.isBigEndian());
+        assertEquals(FRAMES, stream.getFrameLength());
+        assertArrayEquals(pcm, readAll(stream));
+    }
+
+    @Test
+    @DisplayName("Test a stream opened at any frame matches the same frames decoded from the start")
+    void testSeek() throws Exception {
+        File file = writeFlac("seek.flac");
+        for (int frame : new int[] {1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 77_777,
+                20 * BLOCK_SIZE + 5, FRAMES - 11, FRAMES - 1, FRAMES}) {
+            AudioInputStream stream = AudioDecoders.open(file, frame);
+            assertEquals(FRAMES - frame, stream.getFrameLength(), "frame " + frame);
+            assertArrayEquals(Arrays.copyOfRange(pcm, frame * 4, pcm.length), readAll(stream), "frame " + frame);
+        }
+
+        // 2 s in is frame 88200 exactly
+        byte[] fromTwoSeconds = readAll(AudioDecoders.openAtMicros(file, 2_000_000));
+        assertArrayEquals(Arrays.copyOfRange(pcm, 2 * RATE * 4, pcm.length), fromTwoSeconds);
+    }
+
+    @Test
+    @DisplayName("Test a frame with a damaged subframe plays as silence and the next frames decode")
+    void testDamagedSubframe() throws Exception {
+        File file = writeFlac("damaged.flac");
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        // The first subframe header is right after the 8-byte frame header; a set padding bit
+        // makes it invalid
+        bytes[frameOffset(bytes, 7) + 8] = (byte) 0x80;
+        Files.write(file.toPath(), bytes);
+
+        byte[] decoded = readAll(AudioDecoders.open(file));
+        assertEquals(pcm.length, decoded.length);
+        assertIntact(decoded, 0, 7 * BLOCK_SIZE);
+        assertSilent(decoded, 7 * BLOCK_SIZE, 8 * BLOCK_SIZE);
+        assertIntact(decoded, 8 * BLOCK_SIZE, FRAMES);
+    }
+
+    @Test
+    @DisplayName("Test a predictor order larger than its frame is treated as a damaged frame")
+    void testPredictorOrderTooLarge() throws Exception {
+        File file = writeFlac("order.flac");
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        // The last frame holds 10 samples; make its first subframe an order-32 LPC one
+        int last = FRAMES / BLOCK_SIZE;
+        bytes[frameOffset(bytes, last) + 8] = (byte) ((32 + 31) << 1);
+        // And a fixed order-4 subframe in a frame cut down to 3 samples: the frame header's
+        // block size (minus one) is in bytes 5 and 6, and CRC-8 must still match
+        int third = frameOffset(bytes, 3);
+        bytes[third + 5] = 0;
+        bytes[third + 6] = 2;
+        bytes[third + 7] = (byte) crc8(bytes, third, 7);
+        bytes[third + 8] = (byte) ((8 + 4) << 1);
+        Files.write(file.toPath(), bytes);
+
+        byte[] decoded = readAll(AudioDecoders.open(file));
+        // Frame 3 now claims 3 samples, not 4096
+        int lost = BLOCK_SIZE - 3;
+        assertEquals(pcm.length - lost * 4, decoded.length);
+        assertIntact(decoded, 0, 3 * BLOCK_SIZE);
+        assertSilent(decoded, 3 * BLOCK_SIZE, 3 * BLOCK_SIZE + 3);
+        assertArrayEquals(Arrays.copyOfRange(pcm, 4 * BLOCK_SIZE * 4, last * BLOCK_SIZE * 4),
+                Arrays.copyOfRange(decoded, (4 * BLOCK_SIZE - lost) * 4, (last * BLOCK_SIZE - lost) * 4));
+        assertSilent(decoded, last * BLOCK_SIZE - lost, FRAMES - lost);
+    }
+
+    @Test
+    @DisplayName("Test a file cut off inside a frame ends after the last whole frame")
+    void testTruncated() throws Exception {
+        File file = writeFlac("cut.flac");
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int cut = frameOffset(bytes, 12) + 500;
+        Files.write(file.toPath(), Arrays.copyOf(bytes, cut));
+
+        byte[] decoded = readAll(AudioDecoders.open(file));
+        assertEquals(12 * BLOCK_SIZE * 4, decoded.length);
+        assertIntact(decoded, 0, 12 * BLOCK_SIZE);
+    }
+
+    private static int crc8(byte[] data, int from, int length) {
+        int crc = 0;
+        for (int i = from; i < from + length; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1 ^ 0x07) & 0xFF : crc << 1 & 0xFF;
+            }
+        }
+        return crc;
+    }
+}
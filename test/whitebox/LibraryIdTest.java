@@ -0,0 +1,105 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import src.main.java.musicplayer.Library;
+import src.main.java.musicplayer.Song;
+import src.main.java.musicplayer.SongSort;
+
+// Songs keep their ID while the library changes around them; lookups by ID and by path follow
+// them to wherever they are now
+public class LibraryIdTest {
+    @TempDir
+    Path dir;
+
+    private String csv;
+    private Library library;
+    private final List<Song> added = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        csv = dir.resolve("songs.csv").toString();
+        library = new Library(csv);
+        library.load();
+        for (int i = 0; i < 10; i++) {
+            added.add(library.add("Song " + i, "/music/" + i + ".wav"));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        library.close();
+    }
+
+    @Test
+    @DisplayName("Test IDs are unique and stay with their song when others are removed")
+    void testStableIds() {
+        int id7 = added.get(7).getId();
+        library.removeAll(new int[] {added.get(0).getId(), added.get(3).getId(), added.get(5).getId()});
+
+        assertEquals(7, library.size());
+        assertEquals("Song 7", library.getById(id7).getName());
+        assertEquals(4, library.positionOf(id7));
+        assertSame(library.get(4), library.getById(id7));
+        assertNull(library.getById(added.get(3).getId()));
+        assertEquals(-1, library.positionOf(added.get(3).getId()));
+        // An ID is never handed out again
+        Song next = library.add("Song 10", "/music/10.wav");
+        for (Song song : added) {
+            assertNotEquals(song.getId(), next.getId());
+        }
+    }
+
+    @Test
+    @DisplayName("Test unknown and repeated IDs in a bulk removal are ignored")
+    void testRemoveUnknownIds() {
+        int id = added.get(2).getId();
+        library.removeAll(new int[] {id, id, 9999, -1});
+        assertEquals(9, library.size());
+        library.remove(id);
+        assertEquals(9, library.size());
+    }
+
+    @Test
+    @DisplayName("Test lookups by path follow renames, path changes and removals")
+    void testFindByPath() {
+        Song song = added.get(4);
+        assertSame(song, library.findByPath("/music/4.wav"));
+        library.rename(song.getId(), "Renamed");
+        assertEquals("Renamed", library.findByPath("/music/4.wav").getName());
+
+        library.changePath(song.getId(), "/music/moved.wav");
+        assertNull(library.findByPath("/music/4.wav"));
+        assertSame(song, library.findByPath("/music/moved.wav"));
+
+        library.remove(song.getId());
+        assertNull(library.findByPath("/music/moved.wav"));
+        assertEquals(-1, library.idOfPath("/music/moved.wav"));
+    }
+
+    @Test
+    @DisplayName("Test IDs keep working after the library is reordered and saved")
+    void testReorder() {
+        int id = added.get(1).getId();
+        library.sort(SongSort.by(SongSort.Key.NAME, true));
+        assertEquals("Song 9", library.get(0).getName());
+        assertEquals("Song 1", library.getById(id).getName());
+        assertEquals(8, library.positionOf(id));
+
+        library.rename(id, "First");
+        library.remove(added.get(9).getId());
+        assertArrayEquals(new int[] {7}, library.search("first"));
+        library.close();
+
+        Library reopened = new Library(csv);
+        reopened.load();
+        assertEquals("Song 8", reopened.get(0).getName());
+        assertEquals("First", reopened.get(7).getName());
+        assertEquals(9, reopened.size());
+        library = reopened;
+    }
+}
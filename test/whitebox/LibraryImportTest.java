@@ -0,0 +1,122 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.sampled.*;
+import src.main.java.musicplayer.Library;
+import src.main.java.musicplayer.LibraryScanner;
+import src.main.java.musicplayer.MetadataCache;
+import src.main.java.musicplayer.Song;
+
+// Folder imports: songs are added at once but journaled in one write at the end (addPending /
+// flushPending), so whatever happens to them in between must survive a restart as it was.
+public class LibraryImportTest {
+    @TempDir
+    Path dir;
+
+    private String csv;
+
+    @BeforeEach
+    void setUp() {
+        csv = dir.resolve("songs.csv").toString();
+        Library library = new Library(csv);
+        library.load();
+        library.add("A", "/music/a.wav");
+        library.add("B", "/music/b.wav");
+        library.save();
+        library.close();
+    }
+
+    private static List<String> names(Library library) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < library.size(); i++) {
+            names.add(library.get(i).getName());
+        }
+        return names;
+    }
+
+    private static List<Song> songs(String... names) {
+        List<Song> songs = new ArrayList<>();
+        for (String name : names) {
+            songs.add(new Song(name, "/music/" + name + ".wav"));
+        }
+        return songs;
+    }
+
+    // Reads songs.csv and replays the journal, as after a crash
+    private Library reopen() {
+        Library library = new Library(csv);
+        library.load();
+        return library;
+    }
+
+    @Test
+    @DisplayName("Test a song removed during an import stays removed after a restart")
+    void testRemoveDuringImport() {
+        Library library = reopen();
+        List<Song> batch = songs("C", "D", "E");
+        library.addPending(batch);
+        library.remove(batch.get(1).getId());
+        library.flushPending();
+
+        assertEquals(List.of("A", "B", "C", "E"), names(library));
+        assertEquals(List.of("A", "B", "C", "E"), names(reopen()));
+    }
+
+    @Test
+    @DisplayName("Test an import is not journaled twice when the library is saved before it ends")
+    void testSaveDuringImport() {
+        Library library = reopen();
+        library.addPending(songs("C", "D"));
+        library.save();
+        library.flushPending();
+
+        assertEquals(List.of("A", "B", "C", "D"), names(reopen()));
+    }
+
+    @Test
+    @DisplayName("Test a renamed song of an import is journaled with its new name")
+    void testRenameDuringImport() {
+        Library library = reopen();
+        List<Song> batch = songs("C");
+        library.addPending(batch);
+        library.rename(batch.get(0).getId(), "C2");
+        library.flushPending();
+
+        assertEquals(List.of("A", "B", "C2"), names(reopen()));
+    }
+
+    @Test
+    @DisplayName("Test scanning a folder finds the audio files and skips the rest")
+    void testScanFolder() throws Exception {
+        File folder = dir.resolve("import").toFile();
+        new File(folder, "sub").mkdirs();
+        writeWav(new File(folder, "one.wav"));
+        writeWav(new File(folder, "sub/two.wav"));
+        try (FileWriter notes = new FileWriter(new File(folder, "notes.txt"))) {
+            notes.write("not audio");
+        }
+        List<Song> found = new ArrayList<>();
+        LibraryScanner scanner = new LibraryScanner(2, new MetadataCache(dir.resolve("metadata.cache").toFile()));
+        int count = scanner.scan(folder.toPath(), found::addAll);
+
+        assertEquals(2, count);
+        assertEquals(2, found.size());
+        for (Song song : found) {
+            assertTrue(song.getPath().endsWith(".wav"));
+            assertEquals(1_000_000, song.getDurationMicros(), 1000);
+        }
+    }
+
+    private static void writeWav(File file) throws IOException {
+        AudioFormat format = new AudioFormat(44100, 16, 1, true, false);
+        byte[] data = new byte[44100 * 2];
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, 44100),
+                AudioFileFormat.Type.WAVE, file);
+    }
+}
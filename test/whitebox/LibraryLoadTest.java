@@ -0,0 +1,124 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import src.main.java.musicplayer.LazySongList;
+import src.main.java.musicplayer.PlaylistStore;
+import src.main.java.musicplayer.Song;
+
+// Parsing songs.csv at startup: large files are parsed in parallel pieces, which must come
+// back as the same songs in file order as a small file parsed in one go
+public class LibraryLoadTest {
+    @TempDir
+    Path dir;
+
+    private String csv;
+
+    @BeforeEach
+    void setUp() {
+        csv = dir.resolve("songs.csv").toString();
+        // Parse songs.csv every time rather than mapping the songs.lib written on first load
+        System.setProperty("musicplayer.binaryLibrary", "false");
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("musicplayer.binaryLibrary");
+    }
+
+    private LazySongList load() throws IOException {
+        PlaylistStore store = new PlaylistStore(csv);
+        try {
+            return store.load();
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test a library large enough to be parsed in parallel keeps file order")
+    void testLargeFile() throws IOException {
+        StringBuilder content = new StringBuilder();
+        int rows = 60_000;
+        for (int i = 0; i < rows; i++) {
+            switch (i % 3) {
+                case 0:
+                    content.append("Song ").append(i).append(",/music/").append(i).append(".wav\n");
+                    break;
+                case 1:
+                    content.append("\"Song, ").append(i).append("\",/music/").append(i).append(".flac,")
+                            .append(i * 1000L).append(",44100.0,2\n");
+                    break;
+                default:
+                    content.append("Song ").append(i).append(",/music/").append(i).append(".mp3,-1,-1.0,-1,")
+                            .append(1000L + i).append(',').append(i % 7).append('\n');
+            }
+        }
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+        assertTrue(bytes.length > 1 << 20);
+        Files.write(Path.of(csv), bytes);
+
+        LazySongList songs = load();
+        assertEquals(rows, songs.size());
+        for (int i = 0; i < rows; i++) {
+            Song song = songs.get(i);
+            assertEquals(i % 3 == 1 ? "Song, " + i : "Song " + i, song.getName());
+            assertEquals(i, song.getId());
+            if (i % 3 == 1) {
+                assertEquals(i * 1000L, song.getDurationMicros());
+                assertEquals(2, song.getChannels());
+            } else if (i % 3 == 2) {
+                assertEquals(1000L + i, song.getAddedMillis());
+                assertEquals(i % 7, song.getPlayCount());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test names with commas, quotes and edge spaces survive a rewrite of songs.csv")
+    void testQuotedRoundTrip() throws IOException {
+        Files.write(Path.of(csv), "Plain,/music/plain.wav\n".getBytes(StandardCharsets.UTF_8));
+        PlaylistStore store = new PlaylistStore(csv);
+        LazySongList songs = store.load();
+        String[] names = {"Hello, World", "Say \"Hi\"", " Padded ", ""};
+        for (String name : names) {
+            Song song = new Song(name, "/music/" + name.trim() + ", copy.wav");
+            store.recordAdd(song);
+            songs.add(song);
+        }
+        store.compact(songs);
+        store.close();
+
+        LazySongList loaded = load();
+        assertEquals(5, loaded.size());
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], loaded.get(i + 1).getName());
+            assertEquals("/music/" + names[i].trim() + ", copy.wav", loaded.get(i + 1).getPath());
+        }
+    }
+
+    @Test
+    @DisplayName("Test malformed rows are skipped without losing the rows around them")
+    void testMalformedRows() throws IOException {
+        Files.write(Path.of(csv), ("One,/music/one.wav\n"
+                + "no path\n"
+                + "Two,/music/two.wav,notanumber,44100.0,2\n"
+                + "Three,/music/three.wav,a,b,c,d,e,f\n"
+                + "\n"
+                + "  Four  ,  /music/four.wav  \r\n"
+                + "Five,/music/five.wav").getBytes(StandardCharsets.UTF_8));
+
+        List<String> names = new ArrayList<>();
+        for (Song song : load()) {
+            names.add(song.getName() + "|" + song.getPath());
+        }
+        assertEquals(List.of("One|/music/one.wav", "Four|/music/four.wav", "Five|/music/five.wav"), names);
+    }
+}
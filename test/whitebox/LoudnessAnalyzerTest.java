@@ -0,0 +1,132 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Path;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import src.main.java.musicplayer.LoudnessAnalyzer;
+
+// Loudness measurement against the BS.1770 calibration signal (a 997 Hz stereo sine at
+// -23 dBFS reads -23 LUFS) and the gating and gain rules built on it
+public class LoudnessAnalyzerTest {
+    private static final float RATE = 48000f;
+    private static final int CHANNELS = 2;
+
+    @TempDir
+    Path dir;
+
+    private static float[] sine(double seconds, double hz, double dbfs) {
+        int frames = (int) (seconds * RATE);
+        float amplitude = (float) Math.pow(10, dbfs / 20);
+        float[] samples = new float[frames * CHANNELS];
+        for (int i = 0; i < frames; i++) {
+            float value = (float) (amplitude * Math.sin(2 * Math.PI * hz * i / RATE));
+            samples[i * CHANNELS] = value;
+            samples[i * CHANNELS + 1] = value;
+        }
+        return samples;
+    }
+
+    private static LoudnessAnalyzer measure(float[] samples, int chunkFrames) {
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer(RATE, CHANNELS);
+        int frames = samples.length / CHANNELS;
+        float[] chunk = new float[chunkFrames * CHANNELS];
+        for (int at = 0; at < frames; at += chunkFrames) {
+            int count = Math.min(chunkFrames, frames - at);
+            System.arraycopy(samples, at * CHANNELS, chunk, 0, count * CHANNELS);
+            analyzer.process(chunk, count);
+        }
+        return analyzer;
+    }
+
+    private static float[] concat(float[] a, float[] b) {
+        float[] joined = new float[a.length + b.length];
+        System.arraycopy(a, 0, joined, 0, a.length);
+        System.arraycopy(b, 0, joined, a.length, b.length);
+        return joined;
+    }
+
+    @Test
+    @DisplayName("Test the calibration sine reads its level in LUFS and its peak")
+    void testCalibrationSine() {
+        LoudnessAnalyzer analyzer = measure(sine(10, 997, -23), 4096);
+        assertEquals(-23f, analyzer.getIntegratedLoudness(), 0.1f);
+        assertEquals(Math.pow(10, -23 / 20.0), analyzer.getPeak(), 1e-3);
+
+        assertEquals(-13f, measure(sine(10, 997, -13), 4096).getIntegratedLoudness(), 0.1f);
+    }
+
+    @Test
+    @DisplayName("Test the result does not depend on how the audio is chunked")
+    void testChunkSizes() {
+        float[] samples = concat(sine(3, 440, -20), sine(4, 2500, -30));
+        LoudnessAnalyzer whole = measure(samples, samples.length / CHANNELS);
+        for (int chunk : new int[] {1, 7, 480, 4799, 4800, 65536}) {
+            LoudnessAnalyzer chunked = measure(samples, chunk);
+            assertEquals(whole.getIntegratedLoudness(), chunked.getIntegratedLoudness(), 0.01f, "chunk " + chunk);
+            assertEquals(whole.getPeak(), chunked.getPeak(), "chunk " + chunk);
+        }
+    }
+
+    @Test
+    @DisplayName("Test silence is -Infinity and gated out of louder audio")
+    void testGating() {
+        float[] silence = new float[(int) (10 * RATE) * CHANNELS];
+        LoudnessAnalyzer silent = measure(silence, 4096);
+        assertEquals(Float.NEGATIVE_INFINITY, silent.getIntegratedLoudness());
+        assertEquals(0f, silent.getPeak());
+
+        float[] tone = sine(10, 997, -23);
+        float[] toneThenSilence = concat(tone, silence);
+        assertEquals(measure(tone, 4096).getIntegratedLoudness(),
+                measure(toneThenSilence, 4096).getIntegratedLoudness(), 0.1f);
+
+        // A passage 30 LU quieter is under the relative gate as well
+        float[] toneThenQuiet = concat(tone, sine(10, 997, -53));
+        assertEquals(-23f, measure(toneThenQuiet, 4096).getIntegratedLoudness(), 0.1f);
+    }
+
+    @Test
+    @DisplayName("Test audio shorter than one block is still measured")
+    void testShortAudio() {
+        assertEquals(-23f, measure(sine(0.2, 997, -23), 4096).getIntegratedLoudness(), 0.3f);
+        assertEquals(Float.NEGATIVE_INFINITY, new LoudnessAnalyzer(RATE, CHANNELS).getIntegratedLoudness());
+    }
+
+    @Test
+    @DisplayName("Test the normalization gain reaches the reference loudness without clipping")
+    void testGain() {
+        assertEquals(LoudnessAnalyzer.REFERENCE_LUFS + 23, LoudnessAnalyzer.gainDb(-23f, 0.1f), 1e-4);
+        assertEquals(-2f, LoudnessAnalyzer.gainDb(-16f, 0.5f), 1e-4);
+        // 5 dB of gain wanted, but the peak only leaves about 1 dB of headroom
+        assertEquals(-20 * Math.log10(0.891), LoudnessAnalyzer.gainDb(-23f, 0.891f), 1e-4);
+        assertEquals(0f, LoudnessAnalyzer.gainDb(Float.NEGATIVE_INFINITY, 0f));
+        assertEquals(0f, LoudnessAnalyzer.gainDb(Float.NaN, 0.5f));
+    }
+
+    @Test
+    @DisplayName("Test a WAV file measures the same as its samples")
+    void testAnalyzeFile() throws Exception {
+        float[] samples = sine(5, 997, -23);
+        byte[] pcm = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            short value = (short) Math.round(samples[i] * 32767);
+            pcm[i * 2] = (byte) value;
+            pcm[i * 2 + 1] = (byte) (value >> 8);
+        }
+        AudioFormat format = new AudioFormat(RATE, 16, CHANNELS, true, false);
+        File wav = dir.resolve("tone.wav").toFile();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), format, samples.length / CHANNELS),
+                AudioFileFormat.Type.WAVE, wav);
+
+        float[] result = LoudnessAnalyzer.analyze(wav);
+        assertEquals(measure(samples, 4096).getIntegratedLoudness(), result[0], 0.01f);
+        assertEquals(Math.pow(10, -23 / 20.0), result[1], 1e-3);
+    }
+}
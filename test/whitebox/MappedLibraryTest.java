@@ -0,0 +1,125 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import src.main.java.musicplayer.LazySongList;
+import src.main.java.musicplayer.PlaylistStore;
+import src.main.java.musicplayer.Song;
+
+// songs.lib is a memory-mapped copy of songs.csv, used for as long as songs.csv has the size
+// and modification time it was written from
+public class MappedLibraryTest {
+    @TempDir
+    Path dir;
+
+    private Path csv;
+    private File lib;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        csv = dir.resolve("songs.csv");
+        lib = dir.resolve("songs.lib").toFile();
+        Files.write(csv, ("Alpha,/music/alpha.wav\n"
+                + "\"Caf\u00e9, Live\",/music/caf\u00e9.flac,183000000,48000.0,2,1700000000000,12\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<String> load() throws IOException {
+        PlaylistStore store = new PlaylistStore(csv.toString());
+        LazySongList songs = store.load();
+        store.close();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < songs.size(); i++) {
+            names.add(songs.nameAt(i));
+        }
+        return names;
+    }
+
+    @Test
+    @DisplayName("Test the first load writes songs.lib and the next one reads the same songs from it")
+    void testRoundTrip() throws IOException {
+        assertEquals(List.of("Alpha", "Caf\u00e9, Live"), load());
+        assertTrue(lib.exists());
+
+        PlaylistStore store = new PlaylistStore(csv.toString());
+        LazySongList songs = store.load();
+        store.close();
+        Song song = songs.get(1);
+        assertEquals("/music/caf\u00e9.flac", song.getPath());
+        assertEquals(183_000_000L, song.getDurationMicros());
+        assertEquals(48000f, song.getSampleRate());
+        assertEquals(2, song.getChannels());
+        assertEquals(1_700_000_000_000L, song.getAddedMillis());
+        assertEquals(12, song.getPlayCount());
+        assertFalse(songs.get(0).hasMetadata());
+    }
+
+    @Test
+    @DisplayName("Test songs.lib is only used while songs.csv keeps its size and modification time")
+    void testStaleLibrary() throws IOException {
+        load();
+        long mtime = csv.toFile().lastModified();
+        // Same size and, once reset, same mtime: songs.lib still counts as current
+        String content = new String(Files.readAllBytes(csv), StandardCharsets.UTF_8);
+        Files.write(csv, content.replace("Alpha", "Omega").getBytes(StandardCharsets.UTF_8));
+        assertTrue(csv.toFile().setLastModified(mtime));
+        assertEquals("Alpha", load().get(0));
+
+        assertTrue(csv.toFile().setLastModified(mtime + 2000));
+        assertEquals("Omega", load().get(0));
+        // ...and the load that noticed wrote a new songs.lib
+        assertEquals("Omega", load().get(0));
+    }
+
+    @Test
+    @DisplayName("Test the journal is replayed on top of a mapped library")
+    void testJournalOnMappedLibrary() throws IOException {
+        load();
+        PlaylistStore store = new PlaylistStore(csv.toString());
+        LazySongList songs = store.load();
+        store.recordRename(songs.idAt(0), "Alpha Renamed");
+        store.recordAdd(new Song("Gamma", "/music/gamma.wav"));
+        store.close();
+
+        assertEquals(List.of("Alpha Renamed", "Caf\u00e9, Live", "Gamma"), load());
+    }
+
+    @Test
+    @DisplayName("Test a damaged songs.lib is ignored in favour of songs.csv")
+    void testDamagedLibrary() throws IOException {
+        load();
+        long mtime = csv.toFile().lastModified();
+        Files.write(lib.toPath(), new byte[16]);
+        assertEquals(List.of("Alpha", "Caf\u00e9, Live"), load());
+
+        byte[] garbage = new byte[64];
+        garbage[0] = 1;
+        Files.write(lib.toPath(), garbage);
+        assertTrue(csv.toFile().setLastModified(mtime));
+        assertEquals(List.of("Alpha", "Caf\u00e9, Live"), load());
+    }
+
+    @Test
+    @DisplayName("Test a songs.lib with a valid header but a truncated body is ignored")
+    void testTruncatedLibrary() throws IOException {
+        load();
+        byte[] whole = Files.readAllBytes(lib.toPath());
+        long mtime = csv.toFile().lastModified();
+        // Cut inside the records, then inside the strings: the header alone still matches
+        for (int length : new int[] {40 + 36 + 4, whole.length - 3}) {
+            Files.write(lib.toPath(), Arrays.copyOf(whole, length));
+            assertTrue(csv.toFile().setLastModified(mtime));
+            assertEquals(List.of("Alpha", "Caf\u00e9, Live"), load());
+            // The load from songs.csv wrote a whole songs.lib again
+            assertEquals(whole.length, lib.length());
+        }
+    }
+}
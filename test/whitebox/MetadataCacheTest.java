@@ -0,0 +1,100 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.sound.sampled.*;
+import src.main.java.musicplayer.MetadataCache;
+import src.main.java.musicplayer.Metrics;
+
+// An entry is reused while the file keeps its size and mtime, and survives a save and load
+public class MetadataCacheTest {
+    @TempDir
+    Path dir;
+
+    private File cacheFile;
+    private Path wav;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cacheFile = dir.resolve("metadata.cache").toFile();
+        wav = dir.resolve("tone.wav");
+        writeWav(wav.toFile(), 2 * 22050, 22050, 2);
+    }
+
+    private static void writeWav(File file, int frames, float sampleRate, int channels) throws IOException {
+        AudioFormat format = new AudioFormat(sampleRate, 16, channels, true, false);
+        byte[] data = new byte[frames * format.getFrameSize()];
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, frames),
+                AudioFileFormat.Type.WAVE, file);
+    }
+
+    @Test
+    @DisplayName("Test an unchanged file is answered from the cache, a changed one is read again")
+    void testHitAndMiss() throws IOException {
+        MetadataCache cache = new MetadataCache(cacheFile);
+        long hitsBefore = Metrics.counter("metadataCache.hits").getCount();
+        long missesBefore = Metrics.counter("metadataCache.misses").getCount();
+
+        MetadataCache.Entry entry = cache.get(wav);
+        assertEquals(2_000_000, entry.getDurationMicros());
+        assertEquals(22050f, entry.getSampleRate());
+        assertEquals(2, entry.getChannels());
+        assertSame(entry, cache.get(wav));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate());
+
+        long mtime = wav.toFile().lastModified();
+        writeWav(wav.toFile(), 44100, 44100, 1);
+        assertTrue(wav.toFile().setLastModified(mtime + 2000));
+        entry = cache.get(wav);
+        assertEquals(1_000_000, entry.getDurationMicros());
+        assertEquals(1, entry.getChannels());
+        assertEquals(2, cache.getMisses());
+
+        // The same lookups are published in the metrics registry
+        assertEquals(1, Metrics.counter("metadataCache.hits").getCount() - hitsBefore);
+        assertEquals(2, Metrics.counter("metadataCache.misses").getCount() - missesBefore);
+    }
+
+    @Test
+    @DisplayName("Test entries, loudness and non-audio files survive a save and load")
+    void testSaveAndLoad() throws IOException {
+        Path text = dir.resolve("notes.wav");
+        Files.write(text, "not audio".getBytes());
+        MetadataCache cache = new MetadataCache(cacheFile);
+        assertNull(cache.get(text));
+        cache.putLoudness(wav, -14.5f, 0.9f);
+        cache.save();
+
+        MetadataCache loaded = MetadataCache.load(cacheFile);
+        assertEquals(2, loaded.size());
+        MetadataCache.Entry entry = loaded.get(wav);
+        assertTrue(entry.hasLoudness());
+        assertEquals(-14.5f, entry.getLoudness());
+        assertEquals(0.9f, entry.getPeak());
+        // Not reopened to find out again that it is not audio
+        assertNull(loaded.get(text));
+        assertEquals(2, loaded.getHits());
+        assertEquals(0, loaded.getMisses());
+    }
+
+    @Test
+    @DisplayName("Test a damaged cache file loads as an empty cache")
+    void testDamagedFile() throws IOException {
+        MetadataCache cache = new MetadataCache(cacheFile);
+        cache.get(wav);
+        cache.save();
+        byte[] bytes = Files.readAllBytes(cacheFile.toPath());
+        Files.write(cacheFile.toPath(), java.util.Arrays.copyOf(bytes, bytes.length / 2));
+
+        MetadataCache loaded = MetadataCache.load(cacheFile);
+        assertEquals(0, loaded.size());
+        assertNotNull(loaded.get(wav));
+        assertEquals(1, loaded.getMisses());
+    }
+}
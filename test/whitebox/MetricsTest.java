@@ -0,0 +1,162 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import com.sun.net.httpserver.HttpServer;
+import src.main.java.musicplayer.Histogram;
+import src.main.java.musicplayer.LazySongList;
+import src.main.java.musicplayer.Metrics;
+import src.main.java.musicplayer.PlaylistStore;
+import src.main.java.musicplayer.Song;
+
+// Histogram accuracy against exact percentiles, the registry and its text and HTTP output, and
+// that every kind of journal write is timed
+public class MetricsTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("Test histogram percentiles are within 3% of the exact ones")
+    void testHistogramAccuracy() {
+        Histogram histogram = new Histogram();
+        Random random = new Random(7);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Latency-like: mostly small, a long tail up to seconds
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(5e9));
+            histogram.record(values[i]);
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double percent : new double[] {1, 10, 50, 90, 99, 99.9}) {
+            long exact = sorted[(int) Math.ceil(sorted.length * percent / 100) - 1];
+            assertEquals(exact, histogram.percentile(percent), Math.max(1, exact * 0.03), percent + "%");
+        }
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(sorted[0], histogram.getMin());
+        assertEquals(sorted[sorted.length - 1], histogram.getMax());
+        assertEquals(sorted[sorted.length - 1], histogram.percentile(100));
+        assertEquals(histogram.percentile(50), histogram.getP50());
+        assertEquals(histogram.percentile(99.9), histogram.getP999());
+    }
+
+    @Test
+    @DisplayName("Test small values are exact and an empty histogram reads 0")
+    void testHistogramEdges() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getP50());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+
+        for (int value = 0; value < 64; value++) {
+            histogram.record(value);
+        }
+        // A clock that stepped back is recorded as 0
+        histogram.record(-5);
+        assertEquals(0, histogram.getMin());
+        assertEquals(63, histogram.getMax());
+        // 65 values, 0 twice: the 33rd is 31
+        assertEquals(31, histogram.getP50());
+        assertEquals(63 * 64 / 2 / 65.0, histogram.getMean(), 1e-9);
+
+        Histogram huge = new Histogram();
+        huge.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, huge.getP50());
+    }
+
+    @Test
+    @DisplayName("Test metrics are registered once by name and listed as text")
+    void testRegistry() {
+        Metrics.Counter counter = Metrics.counter("test.registry.count");
+        assertSame(counter, Metrics.counter("test.registry.count"));
+        long before = counter.getCount();
+        counter.increment();
+        counter.increment();
+        assertEquals(before + 2, counter.getCount());
+
+        Histogram histogram = Metrics.histogram("test.registry.nanos");
+        assertSame(histogram, Metrics.histogram("test.registry.nanos"));
+        histogram.record(1000);
+
+        Metrics.gauge("test.registry.size", () -> 1.5);
+        Metrics.gauge("test.registry.size", () -> 42);
+
+        String text = Metrics.toText();
+        assertTrue(text.contains("test.registry.count " + (before + 2) + "\n"), text);
+        assertTrue(text.contains("test.registry.size 42\n"), text);
+        assertTrue(text.contains("test.registry.nanos.count " + histogram.getCount() + "\n"), text);
+        assertTrue(text.contains("test.registry.nanos.max " + histogram.getMax() + "\n"), text);
+        // In name order
+        assertTrue(text.indexOf("test.registry.count") < text.indexOf("test.registry.nanos.count"));
+        assertTrue(text.indexOf("test.registry.nanos.max") < text.indexOf("test.registry.size"));
+    }
+
+    @Test
+    @DisplayName("Test the metrics are served over HTTP on GET only")
+    void testServer() throws IOException {
+        Metrics.counter("test.server.requests").increment();
+        HttpServer server = Metrics.startServer(0);
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/metrics");
+            HttpURLConnection get = (HttpURLConnection) url.openConnection();
+            assertEquals(200, get.getResponseCode());
+            assertTrue(get.getContentType().startsWith("text/plain"));
+            String body;
+            try (InputStream in = get.getInputStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertTrue(body.contains("test.server.requests 1\n"), body);
+
+            HttpURLConnection post = (HttpURLConnection) url.openConnection();
+            post.setRequestMethod("POST");
+            assertEquals(405, post.getResponseCode());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Test every journal write is timed, batches as one write each")
+    void testJournalLatency() throws IOException {
+        String csv = dir.resolve("songs.csv").toString();
+        Files.write(Path.of(csv), "One,/music/one.wav\nTwo,/music/two.wav\n".getBytes(StandardCharsets.UTF_8));
+        Histogram latency = Metrics.histogram("persist.journalNanos");
+        PlaylistStore store = new PlaylistStore(csv);
+        LazySongList songs = store.load();
+        long before = latency.getCount();
+
+        store.recordAdd(new Song("Three", "/music/three.wav"));
+        assertEquals(before + 1, latency.getCount());
+
+        List<Song> batch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            batch.add(new Song("Batch " + i, "/music/batch" + i + ".wav"));
+        }
+        store.recordAdds(batch);
+        assertEquals(before + 2, latency.getCount());
+
+        store.recordRemoves(new int[] {songs.get(0).getId(), songs.get(1).getId()}, 2);
+        assertEquals(before + 3, latency.getCount());
+        // Nothing to write, nothing timed
+        store.recordAdds(new ArrayList<>());
+        store.recordRemoves(new int[] {songs.get(0).getId()}, 1);
+        assertEquals(before + 3, latency.getCount());
+
+        assertEquals(53, store.getJournalRecordCount());
+        store.close();
+    }
+}
@@ -0,0 +1,110 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import src.main.java.musicplayer.MixingPlaybackEngine;
+import src.main.java.musicplayer.PlaybackListener;
+import src.main.java.musicplayer.Song;
+
+// The mixing engine's output lines, played into TestLines: a song at another sample rate gets
+// a line of its own, opened only once the old line is closed, and songs at the same rate share
+// the line
+public class MixingPlaybackEngineTest {
+    @TempDir
+    Path dir;
+
+    private final TestLine.Source lines = new TestLine.Source();
+    private final List<String> finished = new CopyOnWriteArrayList<>();
+    private MixingPlaybackEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new MixingPlaybackEngine(lines);
+        engine.addPlaybackListener(song -> finished.add(song.getName()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.stop();
+    }
+
+    private Song writeWav(String name, float rate, double seconds) throws IOException {
+        int frames = (int) (rate * seconds);
+        byte[] pcm = new byte[frames * 4];
+        for (int i = 0; i < pcm.length; i += 2) {
+            pcm[i + 1] = (byte) (i / 2 % 64 - 32);
+        }
+        File file = dir.resolve(name + ".wav").toFile();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), new AudioFormat(rate, 16, 2, true, false), frames),
+                AudioFileFormat.Type.WAVE, file);
+        return new Song(name, file.getPath());
+    }
+
+    private void awaitFinished(String name) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!finished.contains(name)) {
+            assertTrue(System.nanoTime() < deadline, "finished so far: " + finished);
+            Thread.sleep(2);
+        }
+    }
+
+    @Test
+    @DisplayName("Test a song at another rate opens its line only after the old line is closed")
+    void testRateChange() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            Song cd = writeWav("cd" + i, 44100, 0.2);
+            Song dat = writeWav("dat" + i, 48000, 0.2);
+            engine.open(cd);
+            awaitFinished(cd.getName());
+            engine.open(dat);
+            awaitFinished(dat.getName());
+        }
+        assertEquals(10, lines.getLineCount());
+        assertEquals(1, lines.getMostOpenLines());
+        assertEquals(48000f, lines.last().getFormat().getSampleRate());
+        assertTrue(lines.last().isOpen());
+    }
+
+    @Test
+    @DisplayName("Test stopping and playing again opens the new line after the old one is closed")
+    void testStopAndOpen() throws Exception {
+        Song song = writeWav("song", 44100, 1);
+        for (int i = 0; i < 5; i++) {
+            engine.open(song);
+            lines.last().awaitWritten(4096);
+            engine.stop();
+        }
+        engine.open(song);
+        assertEquals(6, lines.getLineCount());
+        assertEquals(1, lines.getMostOpenLines());
+    }
+
+    @Test
+    @DisplayName("Test songs at the same rate play on the line that is open")
+    void testSameRate() throws Exception {
+        Song first = writeWav("first", 44100, 0.2);
+        Song second = writeWav("second", 44100, 0.2);
+        engine.open(first);
+        engine.open(second);
+        awaitFinished("second");
+        // A song at another rate opened while one plays is resampled onto the same line
+        Song playing = writeWav("long", 44100, 20);
+        Song other = writeWav("other", 48000, 1);
+        engine.open(playing);
+        engine.open(other);
+        awaitFinished("other");
+        assertEquals(1, lines.getLineCount());
+        assertEquals(44100f, lines.last().getFormat().getSampleRate());
+    }
+}
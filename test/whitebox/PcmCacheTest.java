@@ -0,0 +1,302 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import src.main.java.musicplayer.Metrics;
+import src.main.java.musicplayer.PcmCache;
+import test.benchmark.DecodeBenchmark;
+
+// The decoded-PCM cache: whatever comes from memory must be the same bytes the decoder gives,
+// songs are kept whole, as heads or not at all as the budget allows, and the budget holds
+public class PcmCacheTest {
+    private static final int RATE = 44100;
+    private static final int BLOCK_BYTES = 64 * 1024;
+    private static final AudioFormat FORMAT = new AudioFormat(RATE, 16, 2, true, false);
+
+    @TempDir
+    Path dir;
+
+    private final Metrics.Counter hits = Metrics.counter("pcmCache.hits");
+    private final Metrics.Counter misses = Metrics.counter("pcmCache.misses");
+    private PcmCache cache;
+
+    @AfterEach
+    void tearDown() {
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    private static byte[] pcm(int frames, int seed) {
+        byte[] pcm = new byte[frames * 4];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (byte) (i * 13 + seed + i / 4091);
+        }
+        return pcm;
+    }
+
+    private File writeWav(String name, byte[] pcm) throws IOException {
+        File file = dir.resolve(name).toFile();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), FORMAT, pcm.length / 4),
+                AudioFileFormat.Type.WAVE, file);
+        return file;
+    }
+
+    private static byte[] readAll(AudioInputStream stream) throws IOException {
+        try (AudioInputStream in = stream) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static long blocksFor(long bytes) {
+        return (bytes + BLOCK_BYTES - 1) / BLOCK_BYTES * BLOCK_BYTES;
+    }
+
+    @Test
+    @DisplayName("Test a song played through is kept and plays again from memory, bit-exact")
+    void testPlayedThrough() throws Exception {
+        File file = dir.resolve("song.flac").toFile();
+        short[][] samples = DecodeBenchmark.generate(3 * RATE + 123);
+        DecodeBenchmark.writeFlac(file, samples);
+        byte[] expected = new byte[samples[0].length * 4];
+        for (int i = 0; i < samples[0].length; i++) {
+            for (int ch = 0; ch < 2; ch++) {
+                expected[i * 4 + ch * 2] = (byte) samples[ch][i];
+                expected[i * 4 + ch * 2 + 1] = (byte) (samples[ch][i] >> 8);
+            }
+        }
+        cache = new PcmCache(16L << 20);
+
+        long missesBefore = misses.getCount();
+        assertArrayEquals(expected, readAll(cache.open(file, 0)));
+        assertEquals(missesBefore + 1, misses.getCount());
+        assertEquals(1, cache.getSongCount());
+        assertEquals(blocksFor(expected.length), cache.getUsedBytes());
+
+        long hitsBefore = hits.getCount();
+        AudioInputStream again = cache.open(file, 0);
+        assertEquals(samples[0].length, again.getFrameLength());
+        assertArrayEquals(expected, readAll(again));
+        assertEquals(hitsBefore + 1, hits.getCount());
+        assertEquals(missesBefore + 1, misses.getCount());
+
+        // Seeks within the song, on block boundaries and off them, match the decoder
+        for (long frame : new long[] {1, BLOCK_BYTES / 4, BLOCK_BYTES / 4 + 1, 2 * RATE + 17, samples[0].length}) {
+            AudioInputStream stream = cache.open(file, frame);
+            assertEquals(samples[0].length - frame, stream.getFrameLength(), "frame " + frame);
+            assertArrayEquals(Arrays.copyOfRange(expected, (int) frame * 4, expected.length), readAll(stream),
+                    "frame " + frame);
+        }
+        assertArrayEquals(Arrays.copyOfRange(expected, RATE * 3 / 2 * 4, expected.length),
+                readAll(cache.openAtMicros(file, 1_500_000)));
+        assertEquals(missesBefore + 1, misses.getCount());
+    }
+
+    @Test
+    @DisplayName("Test a song cut short keeps its start, which plays on into the file")
+    void testHead() throws Exception {
+        byte[] pcm = pcm(5 * RATE, 1);
+        File file = writeWav("skipped.wav", pcm);
+        cache = new PcmCache(16L << 20);
+
+        try (AudioInputStream stream = cache.open(file, 0)) {
+            assertEquals(RATE * 4, stream.readNBytes(RATE * 4).length);
+        }
+        assertEquals(1, cache.getSongCount());
+        assertEquals(blocksFor(RATE * 4), cache.getUsedBytes());
+
+        // Beyond the head is a miss, read from the file
+        long missesBefore = misses.getCount();
+        assertArrayEquals(Arrays.copyOfRange(pcm, 3 * RATE * 4, pcm.length), readAll(cache.open(file, 3 * RATE)));
+        assertEquals(missesBefore + 1, misses.getCount());
+
+        // From the start: the head, then the file, and the whole song is kept after it
+        long hitsBefore = hits.getCount();
+        AudioInputStream stream = cache.open(file, 0);
+        assertEquals(5 * RATE, stream.getFrameLength());
+        assertArrayEquals(pcm, readAll(stream));
+        assertEquals(hitsBefore + 1, hits.getCount());
+        assertEquals(1, cache.getSongCount());
+        assertEquals(blocksFor(pcm.length), cache.getUsedBytes());
+        assertArrayEquals(Arrays.copyOfRange(pcm, 3 * RATE * 4, pcm.length), readAll(cache.open(file, 3 * RATE)));
+        assertEquals(hitsBefore + 2, hits.getCount());
+    }
+
+    @Test
+    @DisplayName("Test a head shorter than half a second is not kept")
+    void testShortHead() throws Exception {
+        File file = writeWav("glimpse.wav", pcm(5 * RATE, 2));
+        cache = new PcmCache(16L << 20);
+        try (AudioInputStream stream = cache.open(file, 0)) {
+            stream.readNBytes(RATE / 10 * 4);
+        }
+        assertEquals(0, cache.getSongCount());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    @DisplayName("Test warming decodes the first seconds of the song ahead of playing it")
+    void testWarm() throws Exception {
+        byte[] pcm = pcm(15 * RATE, 3);
+        File file = writeWav("next.wav", pcm);
+        cache = new PcmCache(64L << 20);
+
+        cache.warm(file);
+        assertEquals(1, cache.getSongCount());
+        assertEquals(blocksFor(10L * RATE * 4), cache.getUsedBytes());
+        // Warming again changes nothing
+        cache.warm(file);
+        assertEquals(blocksFor(10L * RATE * 4), cache.getUsedBytes());
+
+        long hitsBefore = hits.getCount();
+        assertArrayEquals(pcm, readAll(cache.open(file, 0)));
+        assertEquals(hitsBefore + 1, hits.getCount());
+        assertEquals(blocksFor(pcm.length), cache.getUsedBytes());
+
+        // Files that cannot be decoded are left alone
+        cache.warm(dir.resolve("missing.wav").toFile());
+        assertEquals(1, cache.getSongCount());
+    }
+
+    @Test
+    @DisplayName("Test a song over a quarter of the budget only keeps its first ten seconds")
+    void testLongSong() throws Exception {
+        byte[] pcm = pcm(15 * RATE, 4);
+        File file = writeWav("long.wav", pcm);
+        // 2 MB a song at most; 15 s of CD audio is 2.6 MB
+        cache = new PcmCache(8L << 20);
+
+        assertArrayEquals(pcm, readAll(cache.open(file, 0)));
+        assertEquals(1, cache.getSongCount());
+        long head = blocksFor(10L * RATE * 4);
+        assertEquals(head, cache.getUsedBytes());
+
+        // Played again, the head is read from memory and the rest from the file, not recorded
+        long hitsBefore = hits.getCount();
+        AudioInputStream stream = cache.open(file, 0);
+        assertEquals(15 * RATE, stream.getFrameLength());
+        assertArrayEquals(pcm, readAll(stream));
+        assertEquals(hitsBefore + 1, hits.getCount());
+        assertEquals(head, cache.getUsedBytes());
+    }
+
+    @Test
+    @DisplayName("Test the least recently used songs make room, and the budget is never exceeded")
+    void testEviction() throws Exception {
+        // 32 blocks; a 2 s song takes 6 of them, so five fit
+        long budget = 2L << 20;
+        cache = new PcmCache(budget);
+        File[] files = new File[6];
+        byte[][] songs = new byte[6][];
+        for (int i = 0; i < files.length; i++) {
+            songs[i] = pcm(2 * RATE, 10 + i);
+            files[i] = writeWav("song" + i + ".wav", songs[i]);
+        }
+        Metrics.Counter evictions = Metrics.counter("pcmCache.evictions");
+        long evictionsBefore = evictions.getCount();
+        for (int i = 0; i < 5; i++) {
+            readAll(cache.open(files[i], 0));
+        }
+        assertEquals(5, cache.getSongCount());
+        assertEquals(evictionsBefore, evictions.getCount());
+
+        // Playing the first again makes the second the least recently used
+        assertArrayEquals(songs[0], readAll(cache.open(files[0], 0)));
+        assertArrayEquals(songs[5], readAll(cache.open(files[5], 0)));
+        assertEquals(5, cache.getSongCount());
+        assertEquals(evictionsBefore + 1, evictions.getCount());
+        assertTrue(cache.getUsedBytes() <= budget);
+
+        long hitsBefore = hits.getCount();
+        long missesBefore = misses.getCount();
+        // Closed unread, so nothing is recorded in their place
+        cache.open(files[0], 0).close();
+        cache.open(files[1], 0).close();
+        assertEquals(hitsBefore + 1, hits.getCount());
+        assertEquals(missesBefore + 1, misses.getCount());
+    }
+
+    @Test
+    @DisplayName("Test a song evicted while it is being read still reads correctly")
+    void testEvictedWhileRead() throws Exception {
+        long budget = 2L << 20;
+        cache = new PcmCache(budget);
+        byte[] first = pcm(2 * RATE, 20);
+        File firstFile = writeWav("first.wav", first);
+        readAll(cache.open(firstFile, 0));
+
+        AudioInputStream reading = cache.open(firstFile, 0);
+        byte[] start = reading.readNBytes(first.length / 2);
+        // Five more songs push the one being read out, and take blocks of others
+        for (int i = 0; i < 5; i++) {
+            byte[] other = pcm(2 * RATE, 30 + i);
+            assertArrayEquals(other, readAll(cache.open(writeWav("other" + i + ".wav", other), 0)));
+        }
+        byte[] rest = readAll(reading);
+        assertArrayEquals(Arrays.copyOf(first, first.length / 2), start);
+        assertArrayEquals(Arrays.copyOfRange(first, first.length / 2, first.length), rest);
+        assertTrue(cache.getUsedBytes() <= budget);
+
+        // Its blocks went back on close, so a new song fits without evicting another
+        int songs = cache.getSongCount();
+        readAll(cache.open(firstFile, 0));
+        assertEquals(songs + 1, cache.getSongCount());
+        assertTrue(cache.getUsedBytes() <= budget);
+    }
+
+    @Test
+    @DisplayName("Test an edited file is decoded afresh")
+    void testChangedFile() throws Exception {
+        File file = writeWav("edited.wav", pcm(2 * RATE, 40));
+        cache = new PcmCache(16L << 20);
+        readAll(cache.open(file, 0));
+
+        byte[] edited = pcm(3 * RATE, 41);
+        long modified = file.lastModified();
+        writeWav("edited.wav", edited);
+        assertTrue(file.setLastModified(modified + 2000));
+        long missesBefore = misses.getCount();
+        assertArrayEquals(edited, readAll(cache.open(file, 0)));
+        assertEquals(missesBefore + 1, misses.getCount());
+        assertEquals(1, cache.getSongCount());
+        assertEquals(blocksFor(edited.length), cache.getUsedBytes());
+    }
+
+    @Test
+    @DisplayName("Test a budget of 0 turns the cache off")
+    void testDisabled() throws Exception {
+        byte[] pcm = pcm(2 * RATE, 50);
+        File file = writeWav("plain.wav", pcm);
+        cache = new PcmCache(0);
+        long missesBefore = misses.getCount();
+        assertArrayEquals(pcm, readAll(cache.open(file, 0)));
+        cache.warm(file);
+        assertArrayEquals(Arrays.copyOfRange(pcm, RATE * 4, pcm.length), readAll(cache.openAtMicros(file, 1_000_000)));
+        assertEquals(missesBefore, misses.getCount());
+        assertEquals(0, cache.getSongCount());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    @DisplayName("Test clearing the cache gives back all its blocks")
+    void testClear() throws Exception {
+        cache = new PcmCache(16L << 20);
+        for (int i = 0; i < 3; i++) {
+            readAll(cache.open(writeWav("clear" + i + ".wav", pcm(RATE, 60 + i)), 0));
+        }
+        assertEquals(3, cache.getSongCount());
+        cache.clear();
+        assertEquals(0, cache.getSongCount());
+        assertEquals(0, cache.getUsedBytes());
+    }
+}
@@ -0,0 +1,174 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import src.main.java.musicplayer.Library;
+import src.main.java.musicplayer.PlayQueue;
+import src.main.java.musicplayer.PlayQueue.Repeat;
+
+// What plays next: queue order or shuffled, repeat modes, "up next" and the history
+public class PlayQueueTest {
+    private static final int[] IDS = {10, 11, 12, 13, 14, 15, 16, 17};
+
+    @TempDir
+    Path dir;
+
+    private PlayQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        queue = new PlayQueue();
+    }
+
+    @Test
+    @DisplayName("Test next and previous walk the queue and stop at its ends")
+    void testInOrder() {
+        assertEquals(16, queue.setSongs(IDS, 6));
+        assertEquals(17, queue.next());
+        assertEquals(-1, queue.peekNext());
+        assertEquals(-1, queue.next());
+        assertEquals(16, queue.previous());
+        queue.setSongs(IDS, 0);
+        assertEquals(-1, queue.previous());
+    }
+
+    @Test
+    @DisplayName("Test repeat all wraps around in both directions")
+    void testRepeatAll() {
+        queue.setRepeat(Repeat.ALL);
+        queue.setSongs(IDS, 7);
+        assertEquals(10, queue.peekNext());
+        assertEquals(10, queue.next());
+        assertEquals(17, queue.previous());
+    }
+
+    @Test
+    @DisplayName("Test repeat one repeats a song that ended, but next still skips it")
+    void testRepeatOne() {
+        queue.setRepeat(Repeat.ONE);
+        queue.setSongs(IDS, 2);
+        // The end of the song, and what is prefetched for it
+        assertEquals(12, queue.peekNext());
+        assertEquals(12, queue.advance());
+        assertEquals(12, queue.advance());
+        // The Next button
+        assertEquals(13, queue.next());
+        assertEquals(13, queue.advance());
+        assertEquals(12, queue.previous());
+        queue.setSongs(IDS, 7);
+        assertEquals(-1, queue.next());
+    }
+
+    @Test
+    @DisplayName("Test songs played next come before the rest of the queue, in the order added")
+    void testUpNext() {
+        queue.setSongs(IDS, 0);
+        queue.playNext(40);
+        queue.playNext(41);
+        assertEquals(2, queue.getUpNextCount());
+        assertEquals(40, queue.advance());
+        assertEquals(41, queue.next());
+        // Back from up next is the queue entry they were played after
+        assertEquals(10, queue.previous());
+        assertEquals(11, queue.next());
+    }
+
+    @Test
+    @DisplayName("Test shuffle plays every song once, starting with the current one")
+    void testShuffle() {
+        queue.setSongs(IDS, 3);
+        queue.setShuffle(true);
+        assertTrue(queue.isShuffled());
+        assertEquals(13, queue.getCurrent());
+        Set<Integer> played = new HashSet<>();
+        played.add(13);
+        int id;
+        while ((id = queue.next()) >= 0) {
+            assertTrue(played.add(id), "played twice: " + id);
+        }
+        queue.enqueue(18);
+        assertEquals(18, queue.next());
+        assertEquals(IDS.length, played.size());
+
+        // Off again: on in queue order from the song playing
+        queue.setSongs(IDS, 0);
+        queue.setShuffle(true);
+        int current = queue.next();
+        queue.setShuffle(false);
+        assertEquals(current, queue.getCurrent());
+        assertEquals(current == 17 ? -1 : current + 1, queue.peekNext());
+    }
+
+    @Test
+    @DisplayName("Test songs enqueued while shuffled are all still to come")
+    void testEnqueueShuffled() {
+        queue.setSongs(new int[] {1}, 0);
+        queue.setShuffle(true);
+        for (int i = 2; i <= 50; i++) {
+            queue.enqueue(i);
+        }
+        int[] played = new int[49];
+        for (int i = 0; i < played.length; i++) {
+            played[i] = queue.next();
+        }
+        Arrays.sort(played);
+        for (int i = 0; i < played.length; i++) {
+            assertEquals(i + 2, played[i]);
+        }
+        assertEquals(-1, queue.next());
+    }
+
+    @Test
+    @DisplayName("Test the history keeps the most recent songs first, up to its limit")
+    void testHistory() {
+        queue.setRepeat(Repeat.ALL);
+        queue.setSongs(IDS, 0);
+        queue.next();
+        queue.next();
+        assertArrayEquals(new int[] {12, 11, 10}, queue.getHistory());
+        for (int i = 0; i < 2000; i++) {
+            queue.next();
+        }
+        assertEquals(1000, queue.getHistory().length);
+        assertEquals(queue.getCurrent(), queue.getHistory()[0]);
+    }
+
+    @Test
+    @DisplayName("Test the queue is saved with the library and comes back the same")
+    void testSaveAndLoad() {
+        String csv = dir.resolve("songs.csv").toString();
+        Library library = new Library(csv);
+        library.load();
+        int[] ids = new int[6];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = library.add("Song " + i, "/music/" + i + ".wav").getId();
+        }
+        PlayQueue saved = library.getPlayQueue();
+        saved.setSongs(ids, 1);
+        saved.setShuffle(true);
+        saved.setRepeat(Repeat.ONE);
+        saved.next();
+        saved.playNext(ids[0]);
+        library.close();
+        assertTrue(dir.resolve("queue.dat").toFile().exists());
+
+        Library reopened = new Library(csv);
+        reopened.load();
+        PlayQueue loaded = reopened.getPlayQueue();
+        assertEquals(Repeat.ONE, loaded.getRepeat());
+        assertTrue(loaded.isShuffled());
+        assertEquals(saved.getCurrent(), loaded.getCurrent());
+        assertArrayEquals(saved.getHistory(), loaded.getHistory());
+        assertEquals(1, loaded.getUpNextCount());
+        // The same songs to come, in the same shuffled order
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(saved.next(), loaded.next());
+        }
+        reopened.close();
+    }
+}
@@ -0,0 +1,201 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.sampled.LineUnavailableException;
+import src.main.java.musicplayer.PlaybackEngine;
+import src.main.java.musicplayer.PlaybackListener;
+import src.main.java.musicplayer.PlayerEngine;
+import src.main.java.musicplayer.PlayerListener;
+import src.main.java.musicplayer.Song;
+
+// The headless player state on top of a PlaybackEngine, driven without a window or an audio
+// device: a fake engine records what it was asked to do
+public class PlayerEngineTest {
+    private FakeEngine engine;
+    private PlayerEngine player;
+    private List<String> events;
+
+    private static final class FakeEngine implements PlaybackEngine {
+        final List<PlaybackListener> listeners = new ArrayList<>();
+        Song open;
+        boolean playing;
+        boolean looping;
+        float volume = -1;
+        boolean failOpen;
+
+        @Override
+        public void open(Song song) throws LineUnavailableException {
+            if (failOpen) {
+                throw new LineUnavailableException("no line");
+            }
+            open = song;
+            playing = true;
+        }
+
+        @Override
+        public void pause() {
+            playing = false;
+        }
+
+        @Override
+        public void resume() {
+            playing = true;
+        }
+
+        @Override
+        public void stop() {
+            playing = false;
+            open = null;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open != null;
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return playing;
+        }
+
+        @Override
+        public long getMicrosecondPosition() {
+            return 0;
+        }
+
+        @Override
+        public long getMicrosecondLength() {
+            return 0;
+        }
+
+        @Override
+        public void setMicrosecondPosition(long microseconds) {
+        }
+
+        @Override
+        public void setLooping(boolean looping) {
+            this.looping = looping;
+        }
+
+        @Override
+        public void setVolume(float volume) {
+            this.volume = volume;
+        }
+
+        @Override
+        public long getTimeToFirstSampleNanos() {
+            return -1;
+        }
+
+        @Override
+        public void addPlaybackListener(PlaybackListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removePlaybackListener(PlaybackListener listener) {
+            listeners.remove(listener);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        engine = new FakeEngine();
+        player = new PlayerEngine(engine);
+        events = new ArrayList<>();
+        player.addPlayerListener(new PlayerListener() {
+            @Override
+            public void songStarted(Song song) {
+                events.add("started " + song.getName());
+            }
+
+            @Override
+            public void songChanged(Song song) {
+                events.add("changed " + song.getName());
+            }
+
+            @Override
+            public void songFinished(Song song) {
+                events.add("finished " + song.getName());
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("Test play, pause, resume and stop reach the engine and update the state")
+    void testPlaybackControls() {
+        Song song = new Song("One", "/music/one.wav");
+        player.setLooping(true);
+        assertTrue(player.play(song));
+        assertSame(song, engine.open);
+        assertTrue(engine.looping);
+        assertEquals(1.0f, engine.volume);
+        assertTrue(player.isPlaying());
+        assertSame(song, player.getCurrentSong());
+
+        player.pause();
+        assertFalse(player.isPlaying());
+        assertFalse(engine.playing);
+        player.resume();
+        assertTrue(engine.playing);
+        player.stop();
+        assertFalse(player.isPlaying());
+        assertFalse(player.isOpen());
+        assertEquals(List.of("started One"), events);
+    }
+
+    @Test
+    @DisplayName("Test a song that cannot be opened leaves the player as it was")
+    void testOpenFailure() {
+        Song first = new Song("One", "/music/one.wav");
+        player.play(first);
+        player.pause();
+        engine.failOpen = true;
+
+        assertFalse(player.play(new Song("Two", "/music/two.wav")));
+        assertSame(first, player.getCurrentSong());
+        assertFalse(player.isPlaying());
+        assertEquals(List.of("started One"), events);
+    }
+
+    @Test
+    @DisplayName("Test volume is clamped and mute restores the volume from before")
+    void testVolumeAndMute() {
+        player.setVolume(150);
+        assertEquals(100, player.getVolume());
+        player.setVolume(40);
+        assertEquals(0.4f, engine.volume, 1e-6);
+
+        // Nothing to mute before a song is loaded
+        player.toggleMute();
+        assertFalse(player.isMuted());
+
+        player.play(new Song("One", "/music/one.wav"));
+        player.toggleMute();
+        assertTrue(player.isMuted());
+        assertEquals(0, player.getVolume());
+        assertEquals(0f, engine.volume);
+        player.toggleMute();
+        assertFalse(player.isMuted());
+        assertEquals(40, player.getVolume());
+    }
+
+    @Test
+    @DisplayName("Test the engine's end-of-song and gapless handoff events reach the listeners")
+    void testEngineEvents() {
+        Song one = new Song("One", "/music/one.wav");
+        Song two = new Song("Two", "/music/two.wav");
+        player.play(one);
+        for (PlaybackListener listener : engine.listeners) {
+            listener.trackChanged(two);
+        }
+        assertSame(two, player.getCurrentSong());
+        for (PlaybackListener listener : engine.listeners) {
+            listener.playbackFinished(two);
+        }
+        assertEquals(List.of("started One", "changed Two", "finished Two"), events);
+    }
+}
@@ -0,0 +1,139 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import src.main.java.musicplayer.LazySongList;
+import src.main.java.musicplayer.PlaylistStore;
+import src.main.java.musicplayer.Song;
+
+// The songs.csv snapshot plus its journal: whatever was recorded must come back from load()
+public class PlaylistStoreTest {
+    @TempDir
+    Path dir;
+
+    private String csv;
+    private File journal;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        csv = dir.resolve("songs.csv").toString();
+        journal = new File(csv + ".journal");
+        Files.write(Path.of(csv), "One,/music/one.wav\nTwo,/music/two.wav\nThree,/music/three.wav\n"
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> names(List<Song> songs) {
+        List<String> names = new ArrayList<>();
+        for (Song song : songs) {
+            names.add(song.getName());
+        }
+        return names;
+    }
+
+    private List<String> reload() throws IOException {
+        PlaylistStore store = new PlaylistStore(csv);
+        try {
+            return names(store.load());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test adds, renames and removes are replayed from the journal")
+    void testReplay() throws IOException {
+        PlaylistStore store = new PlaylistStore(csv);
+        LazySongList songs = store.load();
+        store.recordRename(songs.get(1).getId(), "Two\tTabbed\nName");
+        store.recordRemoves(new int[] {songs.get(0).getId()}, 1);
+        store.recordAdd(new Song("Four", "/music/four.wav"));
+        store.recordPlayCount(songs.get(2).getId(), 7);
+        store.close();
+
+        assertEquals(List.of("Two\tTabbed\nName", "Three", "Four"), reload());
+        // songs.csv itself was never rewritten
+        assertEquals(3, Files.readAllLines(Path.of(csv)).size());
+        PlaylistStore again = new PlaylistStore(csv);
+        assertEquals(7, again.load().get(1).getPlayCount());
+        assertEquals(4, again.getJournalRecordCount());
+        again.close();
+    }
+
+    @Test
+    @DisplayName("Test a torn final journal record is dropped and the journal stays usable")
+    void testTornRecord() throws IOException {
+        PlaylistStore store = new PlaylistStore(csv);
+        store.load();
+        store.recordAdd(new Song("Four", "/music/four.wav"));
+        store.close();
+        Files.write(journal.toPath(), "A\tFi".getBytes(StandardCharsets.UTF_8), java.nio.file.StandardOpenOption.APPEND);
+
+        PlaylistStore reopened = new PlaylistStore(csv);
+        assertEquals(List.of("One", "Two", "Three", "Four"), names(reopened.load()));
+        reopened.recordAdd(new Song("Five", "/music/five.wav"));
+        reopened.close();
+
+        assertEquals(List.of("One", "Two", "Three", "Four", "Five"), reload());
+    }
+
+    @Test
+    @DisplayName("Test a journal written for another snapshot is not applied")
+    void testStaleJournal() throws IOException {
+        PlaylistStore store = new PlaylistStore(csv);
+        store.load();
+        store.recordAdd(new Song("Four", "/music/four.wav"));
+        store.close();
+        // As if songs.csv had been replaced after the journal was written
+        Files.write(Path.of(csv), "Other,/music/other.wav\n".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(List.of("Other"), reload());
+    }
+
+    @Test
+    @DisplayName("Test songs journaled before songs.csv was ever written are loaded")
+    void testJournalWithoutSnapshot() throws IOException {
+        Files.delete(Path.of(csv));
+        PlaylistStore store = new PlaylistStore(csv);
+        assertEquals(0, store.load().size());
+        store.recordAdd(new Song("First", "/music/first.wav"));
+        store.recordAdd(new Song("Second", "/music/second.wav"));
+        // Not closed, as after a crash; each record was written through already
+
+        PlaylistStore reopened = new PlaylistStore(csv);
+        assertEquals(List.of("First", "Second"), names(reopened.load()));
+        assertEquals(2, reopened.getJournalRecordCount());
+        reopened.recordAdd(new Song("Third", "/music/third.wav"));
+        reopened.close();
+        store.close();
+
+        assertEquals(List.of("First", "Second", "Third"), reload());
+        assertFalse(new File(csv).exists());
+    }
+
+    @Test
+    @DisplayName("Test compaction folds the journal into a new snapshot")
+    void testCompact() throws IOException {
+        PlaylistStore store = new PlaylistStore(csv);
+        LazySongList songs = store.load();
+        store.recordRemoves(new int[] {songs.get(0).getId()}, 1);
+        songs.remove(0);
+        Song four = new Song("Four", "/music/four.wav");
+        store.recordAdd(four);
+        songs.add(four);
+        store.compact(songs);
+        assertEquals(0, store.getJournalRecordCount());
+        // Slots were renumbered by the compaction; the IDs the caller holds still work
+        store.recordRename(songs.get(0).getId(), "Two Renamed");
+        store.close();
+
+        assertEquals(List.of("Two Renamed", "Three", "Four"), reload());
+        assertEquals(3, Files.readAllLines(Path.of(csv)).size());
+    }
+}
@@ -0,0 +1,141 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import src.main.java.musicplayer.Library;
+import src.main.java.musicplayer.Playlist;
+import src.main.java.musicplayer.Playlists;
+import src.main.java.musicplayer.Song;
+
+// Named playlists hold song IDs in memory and song paths on disk, one .m3u8 file each
+public class PlaylistsTest {
+    @TempDir
+    Path dir;
+
+    private String csv;
+    private File playlistsDirectory;
+    private Library library;
+    private final List<Song> songs = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        csv = dir.resolve("songs.csv").toString();
+        playlistsDirectory = dir.resolve("playlists").toFile();
+        library = new Library(csv);
+        library.load();
+        for (int i = 0; i < 5; i++) {
+            songs.add(library.add("Song " + i, "/music/" + i + ".wav"));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        library.close();
+    }
+
+    private Library reopen() {
+        library.close();
+        library = new Library(csv);
+        library.load();
+        return library;
+    }
+
+    private List<String> names(Playlist playlist) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < playlist.size(); i++) {
+            names.add(library.getById(playlist.idAt(i)).getName());
+        }
+        return names;
+    }
+
+    @Test
+    @DisplayName("Test playlists come back from their files in order, songs shared with the library")
+    void testSaveAndLoad() {
+        Playlists playlists = library.getPlaylists();
+        Playlist mix = playlists.create("Mix / Favourites");
+        mix.add(songs.get(3).getId());
+        mix.add(songs.get(1).getId());
+        mix.add(songs.get(3).getId());
+        playlists.create("Empty");
+        assertSame(mix, playlists.create("Mix / Favourites"));
+
+        Playlists loaded = reopen().getPlaylists();
+        assertEquals(List.of("Empty", "Mix / Favourites"), loaded.getNames());
+        assertEquals(List.of("Song 3", "Song 1", "Song 3"), names(loaded.get("Mix / Favourites")));
+        assertEquals(0, loaded.get("Empty").size());
+    }
+
+    @Test
+    @DisplayName("Test only changed playlists are written again")
+    void testOnlyChangedAreSaved() {
+        Playlists playlists = library.getPlaylists();
+        playlists.create("One").add(songs.get(0).getId());
+        playlists.create("Two").add(songs.get(1).getId());
+        assertEquals(2, playlists.save());
+        assertEquals(0, playlists.save());
+
+        playlists.get("Two").add(songs.get(2).getId());
+        assertEquals(1, playlists.save());
+    }
+
+    @Test
+    @DisplayName("Test removing a song from the library removes it from every playlist")
+    void testSongRemoved() {
+        Playlists playlists = library.getPlaylists();
+        playlists.create("One").addAll(new int[] {songs.get(0).getId(), songs.get(2).getId()});
+        playlists.create("Two").add(songs.get(2).getId());
+        library.remove(songs.get(2).getId());
+
+        assertEquals(List.of("Song 0"), names(playlists.get("One")));
+        assertEquals(0, playlists.get("Two").size());
+        assertEquals(List.of("Song 0"), names(reopen().getPlaylists().get("One")));
+    }
+
+    @Test
+    @DisplayName("Test a moved song is written under its new path")
+    void testSongMoved() {
+        library.getPlaylists().create("One").add(songs.get(4).getId());
+        library.getPlaylists().save();
+        library.changePath(songs.get(4).getId(), "/music/moved.wav");
+
+        assertEquals(List.of("Song 4"), names(reopen().getPlaylists().get("One")));
+        assertEquals("/music/moved.wav", library.getById(library.getPlaylists().get("One").idAt(0)).getPath());
+    }
+
+    @Test
+    @DisplayName("Test renaming and deleting a playlist renames and deletes its file")
+    void testRenameAndDelete() throws Exception {
+        Playlists playlists = library.getPlaylists();
+        playlists.create("Old").add(songs.get(0).getId());
+        playlists.create("Gone").add(songs.get(1).getId());
+        playlists.save();
+        playlists.rename("Old", "New");
+        playlists.delete("Gone");
+        playlists.save();
+
+        String[] files = playlistsDirectory.list();
+        assertArrayEquals(new String[] {"New.m3u8"}, files);
+        String content = new String(Files.readAllBytes(new File(playlistsDirectory, "New.m3u8").toPath()),
+                StandardCharsets.UTF_8);
+        assertEquals("#EXTM3U\n#PLAYLIST:New\n/music/0.wav\n", content);
+        assertEquals(List.of("New"), reopen().getPlaylists().getNames());
+    }
+
+    @Test
+    @DisplayName("Test a playlist file listing songs no longer in the library loads without them")
+    void testMissingSongs() throws Exception {
+        playlistsDirectory.mkdirs();
+        Files.write(new File(playlistsDirectory, "Other.m3u8").toPath(),
+                "#EXTM3U\n/music/1.wav\n/elsewhere/unknown.mp3\n/music/2.wav\n".getBytes(StandardCharsets.UTF_8));
+
+        Playlist other = reopen().getPlaylists().get("Other");
+        assertEquals(List.of("Song 1", "Song 2"), names(other));
+    }
+}
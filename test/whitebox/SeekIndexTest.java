@@ -0,0 +1,192 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import src.main.java.musicplayer.AudioDecoders;
+import src.main.java.musicplayer.SeekIndex;
+
+// Seek offsets computed from WAV headers, checked against the bytes actually at them, and
+// streams opened at a frame checked against the same frames read from the start
+public class SeekIndexTest {
+    private static final int RATE = 44100;
+
+    @TempDir
+    Path dir;
+
+    // 16-bit stereo where every sample encodes its own frame and channel
+    private static byte[] pcm(int frames) {
+        ByteBuffer data = ByteBuffer.allocate(frames * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            data.putShort((short) i);
+            data.putShort((short) ~i);
+        }
+        return data.array();
+    }
+
+    private static byte[] chunk(String id, byte[] body, int declaredLength) {
+        ByteBuffer chunk = ByteBuffer.allocate(8 + body.length + (body.length & 1)).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.put(id.getBytes(StandardCharsets.US_ASCII));
+        chunk.putInt(declaredLength);
+        chunk.put(body);
+        return chunk.array();
+    }
+
+    private static byte[] fmt(int tag, int channels, int bits) {
+        int blockAlign = channels * bits / 8;
+        ByteBuffer fmt = ByteBuffer.allocate(tag == 0xFFFE ? 40 : 16).order(ByteOrder.LITTLE_ENDIAN);
+        fmt.putShort((short) tag).putShort((short) channels).putInt(RATE).putInt(RATE * blockAlign)
+                .putShort((short) blockAlign).putShort((short) bits);
+        if (tag == 0xFFFE) {
+            // cbSize, valid bits, channel mask, then the sub-format GUID (float)
+            fmt.putShort((short) 22).putShort((short) bits).putInt(3).putShort((short) 3);
+        }
+        return fmt.array();
+    }
+
+    private File writeWav(String name, byte[]... chunks) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write("WAVE".getBytes(StandardCharsets.US_ASCII));
+        for (byte[] chunk : chunks) {
+            body.write(chunk);
+        }
+        ByteBuffer riff = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        riff.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(body.size());
+        File file = dir.resolve(name).toFile();
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        whole.write(riff.array());
+        whole.write(body.toByteArray());
+        Files.write(file.toPath(), whole.toByteArray());
+        return file;
+    }
+
+    private static byte[] readAll(AudioInputStream stream) throws IOException {
+        try (AudioInputStream in = stream) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    @DisplayName("Test the offset of every frame points at that frame's bytes")
+    void testPcmOffsets() throws Exception {
+        int frames = 10_000;
+        byte[] data = pcm(frames);
+        File file = writeWav("plain.wav", chunk("fmt ", fmt(1, 2, 16), 16), chunk("data", data, data.length));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        SeekIndex index = SeekIndex.of(file);
+        assertNotNull(index);
+        assertTrue(index.hasFixedFrameSize());
+        assertEquals(0, index.getPointCount());
+        assertEquals(frames, index.getFrameLength());
+        assertEquals(44, index.offsetFor(0));
+        for (int frame : new int[] {0, 1, 777, 4096, frames - 1}) {
+            int at = (int) index.offsetFor(frame);
+            assertEquals((short) frame, ByteBuffer.wrap(bytes, at, 2).order(ByteOrder.LITTLE_ENDIAN).getShort());
+            assertEquals(frame, index.pointFrame(frame));
+        }
+    }
+
+    @Test
+    @DisplayName("Test chunks before the data, odd-length ones included, are stepped over")
+    void testOtherChunks() throws Exception {
+        byte[] data = pcm(500);
+        File file = writeWav("tagged.wav",
+                chunk("LIST", new byte[13], 13),
+                chunk("fmt ", fmt(1, 2, 16), 16),
+                chunk("junk", new byte[7], 7),
+                chunk("data", data, data.length));
+        SeekIndex index = SeekIndex.of(file);
+        assertNotNull(index);
+        // 12 + (8 + 14) + (8 + 16) + (8 + 8) + 8
+        assertEquals(82, index.offsetFor(0));
+        assertEquals(500, index.getFrameLength());
+    }
+
+    @Test
+    @DisplayName("Test float, extensible and streamed WAV files are indexed")
+    void testFormats() throws Exception {
+        byte[] data = new byte[8 * 300];
+        File floats = writeWav("float.wav", chunk("fmt ", fmt(3, 2, 32), 16), chunk("data", data, data.length));
+        assertEquals(300, SeekIndex.of(floats).getFrameLength());
+        assertEquals(AudioFormat.Encoding.PCM_FLOAT, AudioDecoders.getFormat(floats).getFormat().getEncoding());
+
+        File extensible = writeWav("ext.wav", chunk("fmt ", fmt(0xFFFE, 2, 32), 40), chunk("data", data, data.length));
+        assertEquals(300, SeekIndex.of(extensible).getFrameLength());
+        assertEquals(AudioFormat.Encoding.PCM_FLOAT, AudioDecoders.getFormat(extensible).getFormat().getEncoding());
+
+        // A recorder that never went back to fill in the length
+        byte[] pcm = pcm(250);
+        File streamed = writeWav("streamed.wav", chunk("fmt ", fmt(1, 2, 16), 16), chunk("data", pcm, 0));
+        assertEquals(250, SeekIndex.of(streamed).getFrameLength());
+        File overlong = writeWav("overlong.wav", chunk("fmt ", fmt(1, 2, 16), 16), chunk("data", pcm, -1));
+        assertEquals(250, SeekIndex.of(overlong).getFrameLength());
+    }
+
+    @Test
+    @DisplayName("Test files that cannot be indexed give no index")
+    void testNoIndex() throws Exception {
+        File text = dir.resolve("notes.wav").toFile();
+        Files.write(text.toPath(), "not a wave file at all".getBytes());
+        assertNull(SeekIndex.of(text));
+
+        byte[] data = new byte[400];
+        File adpcm = writeWav("adpcm.wav", chunk("fmt ", fmt(2, 2, 4), 16), chunk("data", data, data.length));
+        assertNull(SeekIndex.of(adpcm));
+
+        File noFormat = writeWav("nofmt.wav", chunk("data", data, data.length));
+        assertNull(SeekIndex.of(noFormat));
+    }
+
+    @Test
+    @DisplayName("Test the index is reused while the file is unchanged and rebuilt after")
+    void testCache() throws Exception {
+        byte[] data = pcm(1000);
+        File file = writeWav("song.wav", chunk("fmt ", fmt(1, 2, 16), 16), chunk("data", data, data.length));
+        SeekIndex first = SeekIndex.of(file);
+        assertSame(first, SeekIndex.of(file));
+
+        data = pcm(2000);
+        writeWav("song.wav", chunk("fmt ", fmt(1, 2, 16), 16), chunk("data", data, data.length));
+        assertTrue(file.setLastModified(file.lastModified() + 5000));
+        SeekIndex second = SeekIndex.of(file);
+        assertNotSame(first, second);
+        assertEquals(2000, second.getFrameLength());
+    }
+
+    @Test
+    @DisplayName("Test a stream opened at a frame matches the same frames read from the start")
+    void testOpenAtFrame() throws Exception {
+        int frames = 50_000;
+        byte[] data = pcm(frames);
+        File file = writeWav("seek.wav", chunk("LIST", new byte[9], 9),
+                chunk("fmt ", fmt(1, 2, 16), 16), chunk("data", data, data.length));
+        byte[] whole = readAll(AudioDecoders.open(file));
+        assertArrayEquals(data, whole);
+
+        for (int frame : new int[] {1, 12_345, frames - 1, frames}) {
+            AudioInputStream stream = AudioDecoders.open(file, frame);
+            assertEquals(frames - frame, stream.getFrameLength());
+            byte[] tail = readAll(stream);
+            assertEquals((frames - frame) * 4, tail.length);
+            assertArrayEquals(Arrays.copyOfRange(data, frame * 4, data.length), tail);
+        }
+
+        // 0.5 s in is frame 22050 exactly
+        byte[] half = readAll(AudioDecoders.openAtMicros(file, 500_000));
+        assertEquals((short) 22050, ByteBuffer.wrap(half).order(ByteOrder.LITTLE_ENDIAN).getShort());
+        // Past the end: an empty stream, not an error
+        assertEquals(0, readAll(AudioDecoders.open(file, frames + 100)).length);
+    }
+}
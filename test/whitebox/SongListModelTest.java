@@ -0,0 +1,113 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import src.main.java.musicplayer.Song;
+import src.main.java.musicplayer.SongListModel;
+
+// The song list is a row-index view over the playlist; rows must follow searches, sorted
+// views and songs added or removed underneath them
+public class SongListModelTest {
+    private List<Song> songs;
+    private SongListModel model;
+    private int events;
+
+    @BeforeEach
+    void setUp() {
+        songs = new ArrayList<>();
+        for (String name : new String[] {"Rock One", "Ballad", "Rock Two", "Jazz"}) {
+            songs.add(new Song(name, "/music/" + name + ".wav"));
+        }
+        model = new SongListModel(songs);
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                events++;
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                events++;
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                events++;
+            }
+        });
+        model.showAll();
+    }
+
+    private List<String> shown() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < model.getSize(); i++) {
+            names.add(model.getElementAt(i).getName());
+        }
+        return names;
+    }
+
+    private void add(String... names) {
+        int from = songs.size();
+        for (String name : names) {
+            songs.add(new Song(name, "/music/" + name + ".wav"));
+        }
+        model.appendRows(from, songs.size() - 1);
+    }
+
+    @Test
+    @DisplayName("Test songs added during a search only show if they match it")
+    void testAppendWhileSearching() {
+        model.showMatches(new int[] {0, 2}, "rock");
+        add("Rock Three", "Blues", "Hard ROCK");
+
+        assertEquals(List.of("Rock One", "Rock Two", "Rock Three", "Hard ROCK"), shown());
+        // The whole playlist, new songs included, is back once the search is cleared
+        model.showAll();
+        assertEquals(7, model.getSize());
+    }
+
+    @Test
+    @DisplayName("Test adding only non-matching songs during a search fires no event")
+    void testAppendNoMatch() {
+        model.showMatches(new int[] {3}, "jazz");
+        events = 0;
+        add("Blues");
+
+        assertEquals(List.of("Jazz"), shown());
+        assertEquals(0, events);
+    }
+
+    @Test
+    @DisplayName("Test a sorted view keeps its order through searches, adds and removes")
+    void testSortedView() {
+        model.setOrder(new int[] {3, 2, 1, 0});
+        model.showAll();
+        assertEquals(List.of("Jazz", "Rock Two", "Ballad", "Rock One"), shown());
+
+        model.showMatches(new int[] {0, 2}, "rock");
+        assertEquals(List.of("Rock Two", "Rock One"), shown());
+
+        add("Rock Three");
+        songs.remove(2);
+        model.positionsRemoved(new int[] {2});
+        assertEquals(List.of("Rock One", "Rock Three"), shown());
+
+        model.showAll();
+        assertEquals(List.of("Jazz", "Ballad", "Rock One", "Rock Three"), shown());
+        assertEquals(1, model.rowOf(1));
+    }
+
+    @Test
+    @DisplayName("Test showing a search fires one event for the whole list")
+    void testOneEventPerSearch() {
+        events = 0;
+        model.showMatches(new int[] {1}, "ball");
+        model.showAll();
+        assertEquals(2, events);
+        assertEquals(4, model.getSize());
+    }
+}
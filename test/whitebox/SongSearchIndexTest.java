@@ -0,0 +1,103 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import src.main.java.musicplayer.SongSearchIndex;
+
+// The trigram index must find exactly what a case-insensitive contains() scan finds
+public class SongSearchIndexTest {
+    private static final String[] QUERIES = {"", "a", "Ro", "rock", "ROC", "the b", "xyz", "ll", "blue rock", "\u00e9"};
+
+    private SongSearchIndex index;
+    private String[] names;
+
+    @BeforeEach
+    void setUp() {
+        index = new SongSearchIndex();
+        names = new String[3000];
+    }
+
+    private void add(int id, String name) {
+        index.add(id, name);
+        names[id] = name;
+    }
+
+    private int[] expected(String query) {
+        String q = query.toLowerCase(Locale.ROOT);
+        return java.util.stream.IntStream.range(0, names.length)
+                .filter(id -> names[id] != null && names[id].toLowerCase(Locale.ROOT).contains(q))
+                .toArray();
+    }
+
+    private void assertMatchesScan() {
+        for (String query : QUERIES) {
+            assertArrayEquals(expected(query), index.search(query), "query \"" + query + "\"");
+        }
+    }
+
+    @Test
+    @DisplayName("Test search finds substrings ignoring case, short queries included")
+    void testSearch() {
+        add(0, "Blue Rock");
+        add(1, "The Best Of ROCK");
+        add(2, "Ballad");
+        add(3, "Caf\u00e9 \u00c9toile");
+
+        assertArrayEquals(new int[] {0, 1}, index.search("rock"));
+        assertArrayEquals(new int[] {0, 1, 2}, index.search("b"));
+        assertArrayEquals(new int[] {3}, index.search("\u00c9TOILE"));
+        assertArrayEquals(new int[0], index.search("jazz"));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    @DisplayName("Test removed and renamed songs are found by their current name only")
+    void testRemoveAndRename() {
+        add(0, "Rock Anthem");
+        add(1, "Rock Ballad");
+        index.remove(0);
+        names[0] = null;
+        index.rename(1, "Slow Ballad");
+        names[1] = "Slow Ballad";
+
+        assertArrayEquals(new int[0], index.search("rock"));
+        assertArrayEquals(new int[] {1}, index.search("slow"));
+        assertEquals(1, index.size());
+        // Removing twice changes nothing
+        index.remove(0);
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    @DisplayName("Test random adds, removes and renames agree with a plain scan, across rebuilds")
+    void testAgainstScan() {
+        Random random = new Random(42);
+        String[] words = {"rock", "Blue", "the", "Ballad", "LL", "mix", "Live", "\u00e9", "b"};
+        for (int step = 0; step < 6000; step++) {
+            int id = random.nextInt(names.length);
+            int op = random.nextInt(3);
+            if (op == 0 || names[id] == null) {
+                StringBuilder name = new StringBuilder();
+                for (int w = random.nextInt(4); w >= 0; w--) {
+                    name.append(words[random.nextInt(words.length)]).append(' ');
+                }
+                add(id, name.toString().trim());
+            } else if (op == 1) {
+                index.remove(id);
+                names[id] = null;
+            } else {
+                String name = names[id] + " " + words[random.nextInt(words.length)];
+                index.rename(id, name);
+                names[id] = name;
+            }
+            if (step % 1000 == 0) {
+                assertMatchesScan();
+            }
+        }
+        assertMatchesScan();
+        assertEquals(Arrays.stream(names).filter(n -> n != null).count(), index.size());
+    }
+}
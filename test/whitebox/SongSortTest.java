@@ -0,0 +1,110 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import src.main.java.musicplayer.LazySongList;
+import src.main.java.musicplayer.Song;
+import src.main.java.musicplayer.SongSort;
+import src.main.java.musicplayer.SongSort.Key;
+
+// Every sort must give the order a plain stable sort with the same comparator gives
+public class SongSortTest {
+    private static final String[] NAMES = {"apple", "Apple", "banana", "Cherry", "cherry", "date"};
+
+    private static LazySongList songs(int count, long maxDuration, Random random) {
+        List<Song> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long duration = random.nextInt(10) == 0 ? -1 : (long) (random.nextDouble() * maxDuration);
+            Song song = new Song(NAMES[random.nextInt(NAMES.length)], "/music/" + random.nextInt(50) + ".wav",
+                    duration, 44100, 2);
+            song.setPlayCount(random.nextInt(5));
+            song.setAddedMillis(random.nextInt(3) * 1000L);
+            list.add(song);
+        }
+        LazySongList songs = new LazySongList();
+        songs.addAll(list);
+        return songs;
+    }
+
+    private static Comparator<Integer> comparator(LazySongList songs, Key key) {
+        switch (key) {
+            case NAME:
+                return Comparator.comparing(i -> songs.nameAt(i).toLowerCase(Locale.ROOT));
+            case PATH:
+                return Comparator.comparing(i -> songs.pathAt(i).toLowerCase(Locale.ROOT));
+            case DURATION:
+                return Comparator.comparingLong(songs::durationAt);
+            case DATE_ADDED:
+                return Comparator.comparingLong(songs::addedAt);
+            default:
+                return Comparator.comparingLong(songs::playCountAt);
+        }
+    }
+
+    // List.sort is stable, so ties stay in playlist order as SongSort promises
+    private static int[] expected(LazySongList songs, Comparator<Integer> comparator) {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < songs.size(); i++) {
+            positions.add(i);
+        }
+        positions.sort(comparator);
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    @DisplayName("Test every single key, ascending and descending, keeps ties in playlist order")
+    void testSingleKey() {
+        LazySongList songs = songs(2000, 600_000_000L, new Random(1));
+        for (Key key : Key.values()) {
+            for (boolean descending : new boolean[] {false, true}) {
+                Comparator<Integer> comparator = comparator(songs, key);
+                if (descending) {
+                    Comparator<Integer> ascending = comparator;
+                    comparator = (a, b) -> ascending.compare(b, a);
+                }
+                assertArrayEquals(expected(songs, comparator), SongSort.by(key, descending).order(songs),
+                        key + (descending ? " desc" : ""));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test durations too large to pack fall back to the general sort")
+    void testLargeKeys() {
+        LazySongList songs = songs(500, Long.MAX_VALUE / 2, new Random(2));
+        assertArrayEquals(expected(songs, comparator(songs, Key.DURATION)),
+                SongSort.by(Key.DURATION, false).order(songs));
+    }
+
+    @Test
+    @DisplayName("Test several keys break ties in turn")
+    void testSeveralKeys() {
+        LazySongList songs = songs(3000, 1000, new Random(3));
+        SongSort sort = SongSort.by(Key.NAME, false).thenBy(Key.PLAY_COUNT, true).thenBy(Key.DATE_ADDED, false);
+        Comparator<Integer> playCount = comparator(songs, Key.PLAY_COUNT);
+        Comparator<Integer> comparator = comparator(songs, Key.NAME)
+                .thenComparing((a, b) -> playCount.compare(b, a))
+                .thenComparing(comparator(songs, Key.DATE_ADDED));
+        assertArrayEquals(expected(songs, comparator), sort.order(songs));
+    }
+
+    @Test
+    @DisplayName("Test sorting leaves the playlist as it was")
+    void testPlaylistUnchanged() {
+        LazySongList songs = songs(100, 1000, new Random(4));
+        List<String> before = new ArrayList<>();
+        for (int i = 0; i < songs.size(); i++) {
+            before.add(songs.nameAt(i));
+        }
+        SongSort.by(Key.NAME, true).order(songs);
+        for (int i = 0; i < songs.size(); i++) {
+            assertEquals(before.get(i), songs.nameAt(i));
+        }
+        assertEquals(0, SongSort.by(Key.NAME, false).order(new LazySongList()).length);
+    }
+}
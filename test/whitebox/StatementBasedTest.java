@@ -37,6 +37,12 @@ public class StatementBasedTest {
         player.stop();
         testWavFile.delete();
         new File("settings.properties").delete();
+        new File("songs.csv.journal").delete();
+        new File("songs.lib").delete();
+        new File("metadata.cache").delete();
+        new File("queue.dat").delete();
+        deleteDirectory(new File("playlists"));
+        deleteDirectory(new File("waveforms"));
         
         // Restore original CSV content
         try {
@@ -49,6 +55,16 @@ public class StatementBasedTest {
         }
     }
 
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
     private void createTestWavFile() {
         testWavFile = new File(TEST_RESOURCES + "test.wav");
         try {
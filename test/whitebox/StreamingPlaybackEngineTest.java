@@ -0,0 +1,259 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import src.main.java.musicplayer.PlaybackListener;
+import src.main.java.musicplayer.Song;
+import src.main.java.musicplayer.StreamingPlaybackEngine;
+
+// The streaming engine playing into a TestLine: every byte of a song reaches the line in
+// order, a seek starts the line over at the new position, looping repeats the song and the
+// end of a song is reported once
+public class StreamingPlaybackEngineTest {
+    private static final int RATE = 44100;
+    private static final AudioFormat FORMAT = new AudioFormat(RATE, 16, 2, true, false);
+
+    @TempDir
+    Path dir;
+
+    private final TestLine.Source lines = new TestLine.Source();
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private StreamingPlaybackEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new StreamingPlaybackEngine(lines);
+        engine.addPlaybackListener(new PlaybackListener() {
+            @Override
+            public void playbackFinished(Song song) {
+                events.add("finished " + song.getName());
+            }
+
+            @Override
+            public void trackChanged(Song song) {
+                events.add("changed " + song.getName());
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.stop();
+    }
+
+    private static byte[] pcm(int frames, int seed) {
+        byte[] pcm = new byte[frames * 4];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (byte) (i * 11 + seed + i / 4093);
+        }
+        return pcm;
+    }
+
+    private Song writeWav(String name, byte[] pcm) throws IOException {
+        File file = dir.resolve(name + ".wav").toFile();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), FORMAT, pcm.length / 4),
+                AudioFileFormat.Type.WAVE, file);
+        return new Song(name, file.getPath());
+    }
+
+    private void awaitEvents(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (events.size() < count) {
+            assertTrue(System.nanoTime() < deadline, "events so far: " + events);
+            Thread.sleep(2);
+        }
+    }
+
+    @Test
+    @DisplayName("Test a song plays into the line in full and its end is reported once")
+    void testPlayToEnd() throws Exception {
+        byte[] pcm = pcm(RATE + 123, 1);
+        Song song = writeWav("whole", pcm);
+        engine.open(song);
+        assertTrue(engine.isOpen());
+        assertTrue(engine.isPlaying());
+        assertEquals(1_000_000L * (RATE + 123) / RATE, engine.getMicrosecondLength());
+
+        awaitEvents(1);
+        TestLine line = lines.last();
+        assertArrayEquals(pcm, line.getWritten());
+        assertTrue(FORMAT.matches(line.getFormat()));
+        assertTrue(line.isRunning());
+        // At the end, the position stays at the length
+        assertEquals(engine.getMicrosecondLength(), engine.getMicrosecondPosition());
+        Thread.sleep(50);
+        assertEquals(List.of("finished whole"), events);
+        assertTrue(engine.getTimeToFirstSampleNanos() > 0);
+
+        engine.stop();
+        assertFalse(engine.isOpen());
+        assertFalse(line.isOpen());
+    }
+
+    @Test
+    @DisplayName("Test a seek flushes the line and plays on from the new position only")
+    void testSeek() throws Exception {
+        byte[] pcm = pcm(3 * RATE, 2);
+        Song song = writeWav("seek", pcm);
+        int half = RATE / 2 * 4;
+        lines.holdAt(half);
+        engine.open(song);
+        TestLine line = lines.last();
+        line.awaitHeld();
+        assertEquals(500_000, engine.getMicrosecondPosition());
+
+        engine.setMicrosecondPosition(2_000_000);
+        assertEquals(2_000_000, engine.getMicrosecondPosition());
+        assertEquals(1, line.getFlushCount());
+        line.release();
+        awaitEvents(1);
+
+        assertArrayEquals(Arrays.copyOf(pcm, half), Arrays.copyOf(line.getWritten(), half));
+        assertArrayEquals(Arrays.copyOfRange(pcm, 2 * RATE * 4, pcm.length), line.getWrittenSinceFlush());
+        assertEquals(List.of("finished seek"), events);
+
+        // After the end, a seek plays the song again from there
+        engine.setMicrosecondPosition(2_500_000);
+        awaitEvents(2);
+        assertArrayEquals(Arrays.copyOfRange(pcm, RATE * 5 / 2 * 4, pcm.length), line.getWrittenSinceFlush());
+        assertEquals(List.of("finished seek", "finished seek"), events);
+    }
+
+    @Test
+    @DisplayName("Test a seek made while the last one is still being opened wins")
+    void testSeekDuringSeek() throws Exception {
+        byte[] pcm = pcm(4 * RATE, 3);
+        Song song = writeWav("twice", pcm);
+        lines.holdAt(RATE / 4 * 4);
+        engine.open(song);
+        TestLine line = lines.last();
+        line.awaitHeld();
+        for (int second = 1; second <= 3; second++) {
+            engine.setMicrosecondPosition(second * 1_000_000L);
+        }
+        line.release();
+        awaitEvents(1);
+        assertArrayEquals(Arrays.copyOfRange(pcm, 3 * RATE * 4, pcm.length), line.getWrittenSinceFlush());
+    }
+
+    @Test
+    @DisplayName("Test a looping song starts over at its end without being reported finished")
+    void testLoop() throws Exception {
+        byte[] pcm = pcm(RATE / 2, 4);
+        Song song = writeWav("loop", pcm);
+        lines.holdAt(3L * pcm.length + 4);
+        engine.setLooping(true);
+        engine.open(song);
+        TestLine line = lines.last();
+        line.awaitHeld();
+
+        byte[] written = line.getWritten();
+        for (int pass = 0; pass < 3; pass++) {
+            assertArrayEquals(pcm, Arrays.copyOfRange(written, pass * pcm.length, (pass + 1) * pcm.length), "pass " + pass);
+        }
+        assertTrue(events.isEmpty(), events.toString());
+        // The position wraps around with the song
+        assertTrue(engine.getMicrosecondPosition() < engine.getMicrosecondLength());
+
+        // No longer looping: the song ends at the end of the pass being played
+        engine.setLooping(false);
+        line.release();
+        awaitEvents(1);
+        assertEquals(0, line.getWritten().length % pcm.length);
+        assertEquals(List.of("finished loop"), events);
+    }
+
+    @Test
+    @DisplayName("Test the next song follows on the same line without a gap and is reported once")
+    void testGaplessHandoff() throws Exception {
+        // Longer than the ring, so the decoder is still in it when the next song is set
+        byte[] first = pcm(RATE, 5);
+        byte[] second = pcm(RATE, 6);
+        Song a = writeWav("a", first);
+        Song b = writeWav("b", second);
+        lines.holdAt(1);
+        engine.open(a);
+        TestLine line = lines.last();
+        line.awaitHeld();
+        engine.setNextSong(b);
+        line.release();
+        awaitEvents(2);
+
+        byte[] expected = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, expected, first.length, second.length);
+        assertArrayEquals(expected, line.getWritten());
+        assertEquals(1, lines.getLineCount());
+        Thread.sleep(50);
+        assertEquals(List.of("changed b", "finished b"), events);
+        assertEquals(1_000_000, engine.getMicrosecondLength());
+    }
+
+    @Test
+    @DisplayName("Test a seek back into a song after the decoder moved on plays the next song once")
+    void testSeekAfterHandoff() throws Exception {
+        byte[] first = pcm(RATE / 4, 7);
+        byte[] second = pcm(RATE, 8);
+        Song a = writeWav("a", first);
+        Song b = writeWav("b", second);
+        lines.holdAt(1);
+        // Set first, so the decoder goes on into `b` as soon as it has all of `a` in the ring, which
+        // holds more than that; nothing of `b` has been heard while the line is held
+        engine.setNextSong(b);
+        engine.open(a);
+        TestLine line = lines.last();
+        line.awaitHeld();
+        Thread.sleep(300);
+        engine.setMicrosecondPosition(100_000);
+        line.release();
+        awaitEvents(2);
+
+        byte[] rest = Arrays.copyOfRange(first, RATE / 10 * 4, first.length);
+        byte[] expected = Arrays.copyOf(rest, rest.length + second.length);
+        System.arraycopy(second, 0, expected, rest.length, second.length);
+        assertArrayEquals(expected, line.getWrittenSinceFlush());
+        Thread.sleep(50);
+        assertEquals(List.of("changed b", "finished b"), events);
+    }
+
+    @Test
+    @DisplayName("Test a next song in another format is left for the player to open")
+    void testHandoffToOtherFormat() throws Exception {
+        byte[] first = pcm(RATE / 2, 9);
+        Song a = writeWav("a", first);
+        File file = dir.resolve("mono.wav").toFile();
+        byte[] mono = new byte[RATE];
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(mono), new AudioFormat(RATE, 16, 1, true, false),
+                mono.length / 2), AudioFileFormat.Type.WAVE, file);
+        lines.holdAt(1);
+        engine.open(a);
+        TestLine line = lines.last();
+        line.awaitHeld();
+        engine.setNextSong(new Song("mono", file.getPath()));
+        line.release();
+        awaitEvents(1);
+
+        assertArrayEquals(first, line.getWritten());
+        Thread.sleep(50);
+        assertEquals(List.of("finished a"), events);
+    }
+
+    @Test
+    @DisplayName("Test a song that cannot be opened leaves nothing open")
+    void testUnreadable() {
+        assertThrows(IOException.class, () -> engine.open(new Song("missing", dir.resolve("missing.wav").toString())));
+        assertFalse(engine.isOpen());
+        assertEquals(0, lines.getLineCount());
+    }
+}
@@ -0,0 +1,282 @@
+package test.whitebox;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+import src.main.java.musicplayer.LineSource;
+
+// An output line that plays instantly into memory, so the engines can be tested without an
+// audio device. Writes can be held at a byte count to stop the audio thread at a known point;
+// flush() drops a write that is held, as a real line drops what it had not played.
+public class TestLine implements SourceDataLine {
+    private static final long TIMEOUT_NANOS = 10_000_000_000L;
+
+    // Hands out TestLines, counting how many are open at once
+    public static final class Source implements LineSource {
+        private final List<TestLine> lines = new ArrayList<>();
+        private long holdAt = Long.MAX_VALUE;
+        private int openLines;
+        private int mostOpenLines;
+
+        // Lines created from now on hold their writes once this many bytes were written
+        public synchronized void holdAt(long bytes) {
+            holdAt = bytes;
+        }
+
+        @Override
+        public synchronized SourceDataLine getLine(AudioFormat format) {
+            TestLine line = new TestLine(this, format, holdAt);
+            lines.add(line);
+            return line;
+        }
+
+        public synchronized TestLine last() {
+            return lines.get(lines.size() - 1);
+        }
+
+        public synchronized int getLineCount() {
+            return lines.size();
+        }
+
+        public synchronized int getMostOpenLines() {
+            return mostOpenLines;
+        }
+
+        private synchronized void opened() {
+            mostOpenLines = Math.max(mostOpenLines, ++openLines);
+        }
+
+        private synchronized void closed() {
+            openLines--;
+        }
+    }
+
+    private final Source source;
+    private final AudioFormat requested;
+    private AudioFormat format;
+    private int bufferSize;
+    private boolean open;
+    private boolean running;
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private long framesWritten;
+    private int flushedAt;
+    private int flushes;
+    private long holdAt;
+    private boolean holding;
+
+    private TestLine(Source source, AudioFormat format, long holdAt) {
+        this.source = source;
+        this.requested = format;
+        this.format = format;
+        this.holdAt = holdAt;
+    }
+
+    public synchronized byte[] getWritten() {
+        return written.toByteArray();
+    }
+
+    // What was written after the last flush()
+    public synchronized byte[] getWrittenSinceFlush() {
+        byte[] all = written.toByteArray();
+        return Arrays.copyOfRange(all, flushedAt, all.length);
+    }
+
+    public synchronized int getFlushCount() {
+        return flushes;
+    }
+
+    public synchronized void release() {
+        holdAt = Long.MAX_VALUE;
+        notifyAll();
+    }
+
+    public synchronized void holdAt(long bytes) {
+        holdAt = bytes;
+        notifyAll();
+    }
+
+    // Waits until a write is held at the hold count
+    public synchronized void awaitHeld() throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (!holding) {
+            waitUntil(deadline, "a held write");
+        }
+    }
+
+    public synchronized void awaitWritten(long bytes) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (written.size() < bytes) {
+            waitUntil(deadline, bytes + " bytes, have " + written.size());
+        }
+    }
+
+    private void waitUntil(long deadline, String what) throws InterruptedException {
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+            throw new AssertionError("Timed out waiting for " + what);
+        }
+        wait(left / 1_000_000 + 1);
+    }
+
+    @Override
+    public synchronized void open(AudioFormat format, int bufferSize) {
+        this.format = format;
+        this.bufferSize = bufferSize;
+        if (!open) {
+            open = true;
+            source.opened();
+        }
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        open(format, (int) (format.getFrameRate() / 2) * format.getFrameSize());
+    }
+
+    @Override
+    public void open() {
+        open(requested);
+    }
+
+    @Override
+    public int write(byte[] b, int off, int len) {
+        synchronized (this) {
+            int flushesBefore = flushes;
+            while (open && written.size() >= holdAt && flushes == flushesBefore) {
+                holding = true;
+                notifyAll();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return 0;
+                } finally {
+                    holding = false;
+                }
+            }
+            if (!open || flushes != flushesBefore) {
+                return 0;
+            }
+            written.write(b, off, len);
+            framesWritten += len / format.getFrameSize();
+            notifyAll();
+            return len;
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        flushes++;
+        flushedAt = written.size();
+        notifyAll();
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public synchronized void start() {
+        running = true;
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public synchronized boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (open) {
+            open = false;
+            source.closed();
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public synchronized int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Everything written has been played already
+    @Override
+    public synchronized int available() {
+        return bufferSize;
+    }
+
+    @Override
+    public synchronized int getFramePosition() {
+        return (int) framesWritten;
+    }
+
+    @Override
+    public synchronized long getLongFramePosition() {
+        return framesWritten;
+    }
+
+    @Override
+    public synchronized long getMicrosecondPosition() {
+        return (long) (framesWritten * 1_000_000.0 / format.getFrameRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public DataLine.Info getLineInfo() {
+        return new DataLine.Info(SourceDataLine.class, requested);
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control type: " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+    }
+}
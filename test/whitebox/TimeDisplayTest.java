@@ -0,0 +1,91 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import src.main.java.musicplayer.TimeDisplay;
+
+// The time label: its formatting, and that updates at the display's refresh rate only repaint
+// when a shown second changes
+public class TimeDisplayTest {
+    private static final long SECOND = 1_000_000;
+
+    // Counts repaints instead of painting; the component is never shown
+    private static final class CountingDisplay extends TimeDisplay {
+        private static final long serialVersionUID = 1L;
+        int repaints;
+        int revalidations;
+
+        @Override
+        public void repaint() {
+            repaints++;
+        }
+
+        @Override
+        public void revalidate() {
+            revalidations++;
+        }
+    }
+
+    @Test
+    @DisplayName("Test positions and lengths are shown as minutes and seconds")
+    void testFormat() {
+        TimeDisplay display = new TimeDisplay();
+        assertEquals("0:00", display.getText());
+
+        display.setTime(0, 187 * SECOND);
+        assertEquals("0:00 / 3:07", display.getText());
+        display.setTime(65 * SECOND + 999_999, 187 * SECOND);
+        assertEquals("1:05 / 3:07", display.getText());
+        display.setTime(7540 * SECOND, 7541 * SECOND);
+        assertEquals("125:40 / 125:41", display.getText());
+        // A position from before a seek settled is shown as the start
+        display.setTime(-3 * SECOND, 60 * SECOND);
+        assertEquals("0:00 / 1:00", display.getText());
+
+        display.clear();
+        assertEquals("0:00", display.getText());
+    }
+
+    @Test
+    @DisplayName("Test updates within the same second do not repaint")
+    void testCoalescing() {
+        CountingDisplay display = new CountingDisplay();
+        display.repaints = 0;
+
+        // A minute of updates at 60 Hz: one repaint per second shown
+        for (long frame = 0; frame < 60 * 60; frame++) {
+            display.setTime(frame * SECOND / 60, 180 * SECOND);
+        }
+        assertEquals(60, display.repaints);
+        assertEquals("0:59 / 3:00", display.getText());
+
+        // A new song with a new length repaints even at the same position
+        display.setTime(59 * SECOND, 240 * SECOND);
+        assertEquals(61, display.repaints);
+        assertEquals("0:59 / 4:00", display.getText());
+
+        // After clear() the next update shows again, even if it is the same as before
+        display.clear();
+        display.setTime(59 * SECOND, 240 * SECOND);
+        assertEquals(63, display.repaints);
+        assertEquals("0:59 / 4:00", display.getText());
+    }
+
+    @Test
+    @DisplayName("Test the layout is redone only when the text outgrows the room kept for it")
+    void testRelayout() {
+        CountingDisplay display = new CountingDisplay();
+        display.revalidations = 0;
+        display.setTime(0, 99 * 60 * SECOND);
+        display.setTime(98 * 60 * SECOND, 99 * 60 * SECOND);
+        assertEquals(0, display.revalidations);
+
+        // "0:00 / 100:00" still fits; "10:00 / 100:00" does not
+        display.setTime(0, 100 * 60 * SECOND);
+        assertEquals(0, display.revalidations);
+        display.setTime(10 * 60 * SECOND, 100 * 60 * SECOND);
+        assertEquals(1, display.revalidations);
+        display.setTime(10 * 60 * SECOND + SECOND, 100 * 60 * SECOND);
+        assertEquals(1, display.revalidations);
+    }
+}
@@ -0,0 +1,135 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import src.main.java.musicplayer.PrefetchedTrack;
+import src.main.java.musicplayer.Song;
+import src.main.java.musicplayer.TrackPrefetcher;
+
+// The song expected next is opened ahead of time and handed over once: to whoever asks for
+// that song, and only until another song is prefetched or the prefetch is discarded
+public class TrackPrefetcherTest {
+    private static final int RATE = 44100;
+    private static final AudioFormat FORMAT = new AudioFormat(RATE, 16, 2, true, false);
+    // TrackPrefetcher.PREFETCH_MILLIS of CD audio
+    private static final int HEAD_BYTES = 3 * RATE * 4;
+
+    @TempDir
+    Path dir;
+
+    private final TrackPrefetcher prefetcher = new TrackPrefetcher();
+
+    @AfterEach
+    void tearDown() {
+        prefetcher.discard();
+    }
+
+    private static byte[] pcm(int frames, int seed) {
+        byte[] pcm = new byte[frames * 4];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (byte) (i * 5 + seed + i / 4099);
+        }
+        return pcm;
+    }
+
+    private Song writeWav(String name, byte[] pcm) throws IOException {
+        File file = dir.resolve(name + ".wav").toFile();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), FORMAT, pcm.length / 4),
+                AudioFileFormat.Type.WAVE, file);
+        return new Song(name, file.getPath());
+    }
+
+    private static void assertTrack(byte[] pcm, PrefetchedTrack track) throws IOException {
+        assertNotNull(track);
+        byte[] head = track.getHead();
+        assertEquals(Math.min(HEAD_BYTES, pcm.length), head.length);
+        assertArrayEquals(Arrays.copyOf(pcm, head.length), head);
+        // The stream goes on right after the head
+        try (AudioInputStream rest = track.getStream()) {
+            assertArrayEquals(Arrays.copyOfRange(pcm, head.length, pcm.length), rest.readAllBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("Test a prefetched song is handed over with its head decoded, once")
+    void testTake() throws Exception {
+        byte[] pcm = pcm(5 * RATE, 1);
+        Song song = writeWav("next", pcm);
+        prefetcher.prefetch(song);
+        // Prefetching the same song again does not start over
+        prefetcher.prefetch(song);
+        PrefetchedTrack track = prefetcher.take(song);
+        assertSame(song, track.getSong());
+        assertTrack(pcm, track);
+        assertNull(prefetcher.take(song));
+    }
+
+    @Test
+    @DisplayName("Test a song shorter than the head is decoded whole")
+    void testShortSong() throws Exception {
+        byte[] pcm = pcm(RATE, 2);
+        Song song = writeWav("short", pcm);
+        prefetcher.prefetch(song);
+        assertTrack(pcm, prefetcher.take(song));
+    }
+
+    @Test
+    @DisplayName("Test asking for another song gets nothing and leaves the prefetched one")
+    void testOtherSong() throws Exception {
+        byte[] pcm = pcm(4 * RATE, 3);
+        Song song = writeWav("expected", pcm);
+        Song other = writeWav("other", pcm(RATE, 4));
+        prefetcher.prefetch(song);
+        assertNull(prefetcher.take(other));
+        assertNull(prefetcher.take(null));
+        assertTrack(pcm, prefetcher.take(song));
+    }
+
+    @Test
+    @DisplayName("Test a discarded or replaced prefetch is not handed over, and can be prefetched again")
+    void testDiscard() throws Exception {
+        byte[] first = pcm(4 * RATE, 5);
+        byte[] second = pcm(4 * RATE, 6);
+        Song a = writeWav("a", first);
+        Song b = writeWav("b", second);
+
+        prefetcher.prefetch(a);
+        prefetcher.discard();
+        assertNull(prefetcher.take(a));
+        prefetcher.prefetch(a);
+        assertTrack(first, prefetcher.take(a));
+
+        prefetcher.prefetch(a);
+        prefetcher.prefetch(b);
+        assertNull(prefetcher.take(a));
+        assertTrack(second, prefetcher.take(b));
+
+        prefetcher.prefetch(a);
+        prefetcher.prefetch(null);
+        assertNull(prefetcher.take(a));
+    }
+
+    @Test
+    @DisplayName("Test a song that fails to load is not handed over")
+    void testFailedLoad() throws Exception {
+        Song missing = new Song("missing", dir.resolve("missing.wav").toString());
+        prefetcher.prefetch(missing);
+        assertNull(prefetcher.take(missing));
+
+        // The prefetcher keeps working after a failure
+        byte[] pcm = pcm(RATE, 7);
+        Song song = writeWav("after", pcm);
+        prefetcher.prefetch(song);
+        assertTrack(pcm, prefetcher.take(song));
+    }
+}
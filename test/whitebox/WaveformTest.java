@@ -0,0 +1,143 @@
+package test.whitebox;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import src.main.java.musicplayer.WaveformCache;
+import src.main.java.musicplayer.WaveformPyramid;
+
+// Waveform pyramids computed from WAV files with a known shape, and their cache on disk
+public class WaveformTest {
+    private static final float RATE = 44100f;
+
+    @TempDir
+    Path dir;
+
+    // Mono: silence for the first `quietFrames`, then a square wave at `level`
+    private File writeWav(String name, int frames, int quietFrames, float level) throws Exception {
+        byte[] pcm = new byte[frames * 2];
+        for (int i = quietFrames; i < frames; i++) {
+            short value = (short) Math.round((i / 50 % 2 == 0 ? level : -level) * 32767);
+            pcm[i * 2] = (byte) value;
+            pcm[i * 2 + 1] = (byte) (value >> 8);
+        }
+        AudioFormat format = new AudioFormat(RATE, 16, 1, true, false);
+        File wav = dir.resolve(name).toFile();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), format, frames),
+                AudioFileFormat.Type.WAVE, wav);
+        return wav;
+    }
+
+    @Test
+    @DisplayName("Test the pyramid has the track's exact length and coarser levels above")
+    void testLevels() throws Exception {
+        int frames = 1_000_000;
+        WaveformPyramid pyramid = WaveformPyramid.compute(writeWav("long.wav", frames, 0, 0.5f));
+
+        assertEquals(frames, pyramid.getFrameLength());
+        assertEquals(RATE, pyramid.getSampleRate());
+        assertEquals((long) (frames * 1_000_000.0 / RATE), pyramid.getLengthMicros());
+        assertEquals((frames + 1023) / 1024, pyramid.getBucketCount(0));
+        assertTrue(pyramid.getLevelCount() > 1);
+        for (int level = 1; level < pyramid.getLevelCount(); level++) {
+            assertEquals((pyramid.getBucketCount(level - 1) + 3) / 4, pyramid.getBucketCount(level));
+        }
+        assertTrue(pyramid.getBucketCount(pyramid.getLevelCount() - 1) <= 256);
+
+        for (int pixels : new int[] {1, 100, 300, 977}) {
+            int level = pyramid.levelFor(pixels);
+            assertTrue(pyramid.getBucketCount(level) >= pixels);
+            assertTrue(level + 1 == pyramid.getLevelCount() || pyramid.getBucketCount(level + 1) < pixels);
+        }
+        assertEquals(0, pyramid.levelFor(100_000));
+    }
+
+    @Test
+    @DisplayName("Test the columns follow the shape of the track")
+    void testColumns() throws Exception {
+        WaveformPyramid pyramid = WaveformPyramid.compute(writeWav("half.wav", 400_000, 200_000, 0.5f));
+        int pixels = 200;
+        float[] min = new float[pixels];
+        float[] max = new float[pixels];
+        pyramid.columns(pixels, min, max);
+        for (int x = 0; x < pixels; x++) {
+            if (x < pixels / 2 - 1) {
+                assertEquals(0f, min[x], "column " + x);
+                assertEquals(0f, max[x], "column " + x);
+            } else if (x > pixels / 2) {
+                assertEquals(-0.5f, min[x], 0.01f, "column " + x);
+                assertEquals(0.5f, max[x], 0.01f, "column " + x);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test seek positions land on whole frames within the track")
+    void testPositionAt() throws Exception {
+        WaveformPyramid pyramid = WaveformPyramid.compute(writeWav("short.wav", 44100, 0, 0.5f));
+        assertEquals(0, pyramid.positionAt(0));
+        assertEquals(0, pyramid.positionAt(-1));
+        assertEquals(1_000_000, pyramid.positionAt(1));
+        assertEquals(1_000_000, pyramid.positionAt(2));
+        long half = pyramid.positionAt(0.5);
+        assertEquals(22050, (long) Math.floor(half * RATE / 1_000_000.0));
+    }
+
+    @Test
+    @DisplayName("Test the cache saves a waveform once and recomputes it after the file changes")
+    void testCache() throws Exception {
+        File wav = writeWav("song.wav", 300_000, 100_000, 0.25f);
+        File cacheDir = dir.resolve("waveforms").toFile();
+        WaveformCache cache = new WaveformCache(cacheDir);
+
+        WaveformPyramid computed = cache.get(wav.getPath());
+        File[] saved = cacheDir.listFiles();
+        assertNotNull(saved);
+        assertEquals(1, saved.length);
+        long savedAt = saved[0].lastModified();
+
+        WaveformPyramid loaded = cache.get(wav.getPath());
+        assertNotSame(computed, loaded);
+        assertEquals(computed.getFrameLength(), loaded.getFrameLength());
+        float[] min1 = new float[300];
+        float[] max1 = new float[300];
+        float[] min2 = new float[300];
+        float[] max2 = new float[300];
+        computed.columns(300, min1, max1);
+        loaded.columns(300, min2, max2);
+        assertArrayEquals(min1, min2);
+        assertArrayEquals(max1, max2);
+        assertEquals(savedAt, saved[0].lastModified());
+
+        // A different track under the same path must not be served from the cache
+        writeWav("song.wav", 200_000, 0, 0.75f);
+        assertTrue(wav.setLastModified(wav.lastModified() + 5000));
+        WaveformPyramid changed = cache.get(wav.getPath());
+        assertEquals(200_000, changed.getFrameLength());
+        assertEquals(1, cacheDir.listFiles().length);
+        cache.shutdown();
+    }
+
+    @Test
+    @DisplayName("Test a missing file gives no waveform and a request for it is not answered")
+    void testMissingFile() throws Exception {
+        WaveformCache cache = new WaveformCache(dir.resolve("waveforms").toFile());
+        assertNull(cache.get(dir.resolve("missing.wav").toString()));
+
+        File wav = writeWav("present.wav", 50_000, 0, 0.5f);
+        CompletableFuture<WaveformPyramid> answer = new CompletableFuture<>();
+        cache.request(dir.resolve("missing.wav").toString(), answer::complete);
+        cache.request(wav.getPath(), answer::complete);
+        assertEquals(50_000, answer.get(10, TimeUnit.SECONDS).getFrameLength());
+        cache.shutdown();
+    }
+}